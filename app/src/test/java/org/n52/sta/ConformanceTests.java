@@ -31,6 +31,8 @@ package org.n52.sta;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -50,7 +52,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.time.Instant;
 import java.util.Set;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -427,4 +431,53 @@ abstract class ConformanceTests implements TestUtil {
         }
     }
 
+    /**
+     * Creates a CreateObservations request with count Observations of the given Datastream. Observation i has result
+     * i and a phenomenonTime of i seconds after 2020-01-01T00:00:00Z.
+     *
+     * @param datastreamId id of the Datastream
+     * @param count        number of Observations
+     * @param offset       result of the first Observation
+     * @return request body
+     */
+    protected ArrayNode createDataArray(String datastreamId, int count, int offset) {
+        return createDataArray(datastreamId, count, offset, i -> Instant.ofEpochSecond(1_577_836_800L + i).toString());
+    }
+
+    /**
+     * Creates a CreateObservations request with count Observations of the given Datastream.
+     *
+     * @param datastreamId   id of the Datastream
+     * @param count          number of Observations
+     * @param offset         result of the first Observation
+     * @param phenomenonTime phenomenonTime of the Observation with the given result
+     * @return request body
+     */
+    protected ArrayNode createDataArray(String datastreamId,
+                                        int count,
+                                        int offset,
+                                        IntFunction<String> phenomenonTime) {
+        ArrayNode body = mapper.createArrayNode();
+        ObjectNode entry = body.addObject();
+        entry.putObject("Datastream").put(idKey, datastreamId);
+        entry.putArray("components").add("phenomenonTime").add("result");
+        ArrayNode dataArray = entry.putArray("dataArray");
+        for (int i = offset; i < offset + count; i++) {
+            dataArray.addArray().add(phenomenonTime.apply(i)).add(i);
+        }
+        return body;
+    }
+
+    protected JsonNode postDataArray(JsonNode body) throws IOException {
+        return postDataArray(body, 200);
+    }
+
+    protected JsonNode postDataArray(JsonNode body, int expectedStatus) throws IOException {
+        HttpPost request = new HttpPost(rootUrl + "CreateObservations");
+        request.setEntity(new StringEntity(body.toString()));
+        request.setHeader("Content-Type", "application/json");
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        Assertions.assertEquals(expectedStatus, response.getStatusLine().getStatusCode());
+        return mapper.readTree(response.getEntity().getContent());
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.DaoAdmissionController.OperationClass;
+import org.n52.sta.utils.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks admission, rejection and release of requests per operation class.
+ */
+public class DaoAdmissionControllerTest {
+
+    private static final String READ_ACTIVE = "read.active";
+
+    @Test
+    public void testRelease() throws Exception {
+        DaoAdmissionController controller = createController(1, 10, 100);
+        Metrics metrics = controller.getMetrics();
+
+        controller.acquire(OperationClass.READ);
+        Assertions.assertEquals(1, metrics.get(READ_ACTIVE));
+        controller.release(OperationClass.READ);
+        Assertions.assertEquals(0, metrics.get(READ_ACTIVE));
+
+        // Released permit can be acquired again
+        controller.acquire(OperationClass.READ);
+        controller.release(OperationClass.READ);
+        Assertions.assertEquals(2, metrics.get("read.admitted"));
+        // Other classes are not affected
+        Assertions.assertEquals(0, metrics.get("write.admitted"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        DaoAdmissionController controller = createController(1, 10, 50);
+        controller.acquire(OperationClass.READ);
+
+        STACRUDException e = Assertions.assertThrows(STACRUDException.class,
+                                                     () -> controller.acquire(OperationClass.READ));
+        Assertions.assertEquals(HTTPStatus.SERVICE_UNAVAILABLE, e.getResponseStatus());
+        Assertions.assertEquals(1, controller.getMetrics().get("read.timedOut"));
+        Assertions.assertEquals(0, controller.getMetrics().get("read.waiting"));
+        Assertions.assertEquals(1, controller.getMetrics().get(READ_ACTIVE));
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        DaoAdmissionController controller = createController(1, 1, 10000);
+        Metrics metrics = controller.getMetrics();
+        controller.acquire(OperationClass.READ);
+
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                controller.acquire(OperationClass.READ);
+                controller.release(OperationClass.READ);
+            } catch (STACRUDException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.get("read.waiting") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(1, metrics.get("read.waiting"));
+
+        // Queue is full, so the request is rejected without waiting
+        STACRUDException e = Assertions.assertThrows(STACRUDException.class,
+                                                     () -> controller.acquire(OperationClass.READ));
+        Assertions.assertEquals(HTTPStatus.SERVICE_UNAVAILABLE, e.getResponseStatus());
+        Assertions.assertEquals(1, metrics.get("read.rejected"));
+
+        // Waiting request is admitted once the permit is released
+        controller.release(OperationClass.READ);
+        waiting.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(2, metrics.get("read.admitted"));
+        Assertions.assertEquals(0, metrics.get(READ_ACTIVE));
+    }
+
+    private DaoAdmissionController createController(int readPermits, int readQueue, long readTimeout) {
+        return new DaoAdmissionController(10, readPermits, readQueue, readTimeout, 1, 10, 1000, 1, 10, 1000);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.series.db.beans.DatasetEntity;
+import org.n52.series.db.beans.FeatureEntity;
+import org.n52.sta.data.service.DatastreamMetadataCache;
+import org.n52.sta.utils.Metrics;
+
+import java.util.Collections;
+
+/**
+ * Checks eviction, expiry and invalidation of the Datastream metadata cache.
+ */
+public class DatastreamMetadataCacheTest {
+
+    @Test
+    public void testGetAndInvalidate() {
+        DatastreamMetadataCache cache = new DatastreamMetadataCache(10, 60000);
+        Assertions.assertNull(cache.get("ds1"));
+        cache.put("ds1", 1L, Collections.singleton(dataset(10L, 100L)));
+
+        DatastreamMetadataCache.DatastreamMetadata metadata = cache.get("ds1");
+        Assertions.assertNotNull(metadata);
+        Assertions.assertEquals(1L, metadata.getPlatformId());
+        Assertions.assertEquals(10L, metadata.getDatasetId(100L));
+        Assertions.assertNull(metadata.getDatasetId(101L));
+
+        cache.invalidate("ds1");
+        Assertions.assertNull(cache.get("ds1"));
+
+        Metrics metrics = cache.getMetrics();
+        Assertions.assertEquals(1, metrics.get("hits"));
+        Assertions.assertEquals(2, metrics.get("misses"));
+        Assertions.assertEquals(1, metrics.get("invalidations"));
+        Assertions.assertEquals(0, metrics.get("size"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        DatastreamMetadataCache cache = new DatastreamMetadataCache(2, 60000);
+        cache.put("ds1", 1L, Collections.emptySet());
+        cache.put("ds2", 1L, Collections.emptySet());
+        // Access ds1 so ds2 is least recently used
+        Assertions.assertNotNull(cache.get("ds1"));
+        cache.put("ds3", 1L, Collections.emptySet());
+
+        Assertions.assertNotNull(cache.get("ds1"));
+        Assertions.assertNull(cache.get("ds2"));
+        Assertions.assertNotNull(cache.get("ds3"));
+        Assertions.assertEquals(1, cache.getMetrics().get("evictions"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        DatastreamMetadataCache cache = new DatastreamMetadataCache(10, 10);
+        cache.put("ds1", 1L, Collections.emptySet());
+        Thread.sleep(50);
+        Assertions.assertNull(cache.get("ds1"));
+    }
+
+    @Test
+    public void testDisabled() {
+        DatastreamMetadataCache cache = new DatastreamMetadataCache(0, 60000);
+        cache.put("ds1", 1L, Collections.emptySet());
+        Assertions.assertNull(cache.get("ds1"));
+    }
+
+    private DatasetEntity dataset(Long id, Long featureId) {
+        FeatureEntity feature = new FeatureEntity();
+        feature.setId(featureId);
+        DatasetEntity dataset = new DatasetEntity();
+        dataset.setId(id);
+        dataset.setFeature(feature);
+        return dataset;
+    }
+}
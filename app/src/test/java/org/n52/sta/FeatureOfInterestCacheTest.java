@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.n52.series.db.beans.FeatureEntity;
+import org.n52.sta.data.service.FeatureOfInterestCache;
+import org.n52.sta.utils.Metrics;
+
+/**
+ * Checks keys, invalidation and eviction of the FeatureOfInterest cache.
+ */
+public class FeatureOfInterestCacheTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    @Test
+    public void testGetAndInvalidate() {
+        FeatureOfInterestCache cache = new FeatureOfInterestCache(10, 60000);
+        String key = FeatureOfInterestCache.createKey(feature("foi", 1, 2));
+        Assertions.assertNull(cache.getByThing(1L));
+        Assertions.assertNull(cache.getByKey(key));
+
+        cache.putByThing(1L, 100L, cache.getGeneration());
+        cache.putByKey(key, 101L, cache.getGeneration());
+        Assertions.assertEquals(100L, cache.getByThing(1L));
+        Assertions.assertEquals(101L, cache.getByKey(key));
+
+        cache.invalidate();
+        Assertions.assertNull(cache.getByThing(1L));
+        Assertions.assertNull(cache.getByKey(key));
+
+        Metrics metrics = cache.getMetrics();
+        Assertions.assertEquals(2, metrics.get("hits"));
+        Assertions.assertEquals(4, metrics.get("misses"));
+        Assertions.assertEquals(1, metrics.get("invalidations"));
+        Assertions.assertEquals(0, metrics.get("size"));
+    }
+
+    @Test
+    public void testKey() {
+        Assertions.assertEquals(FeatureOfInterestCache.createKey(feature("foi", 1, 2)),
+                                FeatureOfInterestCache.createKey(feature("foi", 1, 2)));
+        Assertions.assertNotEquals(FeatureOfInterestCache.createKey(feature("foi", 1, 2)),
+                                   FeatureOfInterestCache.createKey(feature("foi", 2, 1)));
+        Assertions.assertNotEquals(FeatureOfInterestCache.createKey(feature("foi", 1, 2)),
+                                   FeatureOfInterestCache.createKey(feature("other", 1, 2)));
+    }
+
+    @Test
+    public void testEntryResolvedBeforeInvalidationIsDiscarded() {
+        FeatureOfInterestCache cache = new FeatureOfInterestCache(10, 60000);
+        long generation = cache.getGeneration();
+        cache.invalidate();
+        cache.putByThing(1L, 100L, generation);
+        Assertions.assertNull(cache.getByThing(1L));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        FeatureOfInterestCache cache = new FeatureOfInterestCache(2, 60000);
+        cache.putByThing(1L, 100L, cache.getGeneration());
+        cache.putByThing(2L, 200L, cache.getGeneration());
+        // Access Thing 1 so Thing 2 is least recently used
+        Assertions.assertNotNull(cache.getByThing(1L));
+        cache.putByThing(3L, 300L, cache.getGeneration());
+
+        Assertions.assertNotNull(cache.getByThing(1L));
+        Assertions.assertNull(cache.getByThing(2L));
+        Assertions.assertNotNull(cache.getByThing(3L));
+        Assertions.assertEquals(1, cache.getMetrics().get("evictions"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        FeatureOfInterestCache cache = new FeatureOfInterestCache(10, 10);
+        cache.putByThing(1L, 100L, cache.getGeneration());
+        Thread.sleep(50);
+        Assertions.assertNull(cache.getByThing(1L));
+    }
+
+    @Test
+    public void testDisabled() {
+        FeatureOfInterestCache cache = new FeatureOfInterestCache(0, 60000);
+        cache.putByThing(1L, 100L, cache.getGeneration());
+        Assertions.assertNull(cache.getByThing(1L));
+    }
+
+    private FeatureEntity feature(String name, double x, double y) {
+        FeatureEntity feature = new FeatureEntity();
+        feature.setName(name);
+        feature.setDescription("description");
+        feature.setGeometry(FACTORY.createPoint(new Coordinate(x, y)));
+        return feature;
+    }
+}
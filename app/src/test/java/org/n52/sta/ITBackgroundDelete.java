@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.sta.data.service.CascadeDeleter;
+import org.n52.sta.service.DeleteJobRequestHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.util.UriUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks that DELETE requests are answered with 202 Accepted if deletions are run in the background, and that the
+ * outcome of the deletion can be queried via HTTP after it has finished.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "database.delete.background=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITBackgroundDelete extends ConformanceTests implements TestUtil {
+
+    private static final long TIMEOUT = 30_000;
+
+    @Autowired
+    private CascadeDeleter cascadeDeleter;
+
+    public ITBackgroundDelete(@Value("${server.rootUrl}") String rootUrl) {
+        super(rootUrl);
+    }
+
+    @Test
+    public void testDeleteThingInBackground() throws IOException, InterruptedException {
+        String thingId = postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\" }")
+            .get(idKey).asText();
+
+        HttpResponse response = HttpClientBuilder.create().build()
+            .execute(new HttpDelete(rootUrl + "Things(" + thingId + ")"));
+        Assertions.assertEquals(202, response.getStatusLine().getStatusCode());
+        String location = response.getFirstHeader(HttpHeaders.LOCATION).getValue();
+        Assertions.assertEquals(rootUrl + "DeleteJobs?entity=Things(" + thingId + ")",
+                                UriUtils.decode(location, StandardCharsets.UTF_8));
+
+        CascadeDeleter.Job job = cascadeDeleter.getJob("Things(" + thingId + ")");
+        Assertions.assertNotNull(job);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!job.isCompleted() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(CascadeDeleter.State.FINISHED, job.getState(), job.toString());
+
+        // Completed deletion stays available
+        JsonNode status = getJob(location, 200);
+        Assertions.assertEquals("Things(" + thingId + ")", status.get("entity").asText());
+        Assertions.assertEquals(CascadeDeleter.State.FINISHED.name(), status.get("state").asText());
+        Assertions.assertEquals(location, status.get("selfLink").asText());
+        Assertions.assertEquals(1, getJob(rootUrl + "DeleteJobs", 200).get(value).size());
+        Assertions.assertEquals(0, getCollection(EntityType.THING, "$count=true").get(countKey).asInt());
+
+        // Completed deletions cannot be cancelled
+        response = HttpClientBuilder.create().build().execute(new HttpDelete(location));
+        Assertions.assertEquals(409, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testUnknownJob() throws IOException {
+        getJob(DeleteJobRequestHandler.getJobUrl(rootUrl, "Things(unknown)"), 404);
+        HttpResponse response = HttpClientBuilder.create().build()
+            .execute(new HttpDelete(DeleteJobRequestHandler.getJobUrl(rootUrl, "Things(unknown)")));
+        Assertions.assertEquals(404, response.getStatusLine().getStatusCode());
+    }
+
+    private JsonNode getJob(String url, int expectedStatus) throws IOException {
+        HttpResponse response = HttpClientBuilder.create().build().execute(new HttpGet(url));
+        Assertions.assertEquals(expectedStatus, response.getStatusLine().getStatusCode());
+        return mapper.readTree(response.getEntity().getContent());
+    }
+}
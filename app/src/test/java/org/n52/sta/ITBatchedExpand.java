@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+
+/**
+ * Checks that $expand with nested $filter is resolved for a whole page at once, i.e. that the number of SQL
+ * statements depends on the depth of the $expand and not on the number of Entities in the page.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITBatchedExpand extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ITBatchedExpand.class);
+    private static final int THINGS = 20;
+    private static final int OBSERVATIONS_PER_DATASTREAM = 5;
+    private static final String EXPAND = "$expand=Datastreams($filter=name eq 'temperature';"
+        + "$expand=Observations($top=2;$orderby=phenomenonTime desc))";
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    public ITBatchedExpand(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        ArrayNode dataArray = mapper.createArrayNode();
+        for (int i = 0; i < THINGS; i++) {
+            ObjectNode thing = mapper.createObjectNode();
+            thing.put("name", "thing " + i);
+            thing.put("description", "thing " + i);
+            ArrayNode datastreams = thing.putArray("Datastreams");
+            addDatastream(datastreams, "temperature", i);
+            addDatastream(datastreams, "humidity", i);
+            String thingId = postEntity(EntityType.THING, thing.toString()).get(idKey).asText();
+
+            JsonNode created = getCollection(rootUrl + "Things(" + thingId + ")/Datastreams", "");
+            for (JsonNode datastream : created.get(value)) {
+                dataArray.addAll(createDataArray(datastream.get(idKey).asText(), OBSERVATIONS_PER_DATASTREAM, 0));
+            }
+        }
+        postDataArray(dataArray);
+    }
+
+    @Test
+    public void testStatementCountIndependentOfPageSize() throws IOException {
+        long small = countStatements("$top=5&" + EXPAND, 5);
+        long large = countStatements("$top=" + THINGS + "&" + EXPAND, THINGS);
+        LOGGER.info("Expanding {} Things took {} statements, expanding 5 Things took {} statements",
+                    THINGS,
+                    large,
+                    small);
+        // Allow for a little slack as lazy associations are batch-fetched in chunks
+        Assertions.assertTrue(large <= small + 2,
+                              "Statement count grows with page size: " + small + " vs. " + large);
+        Assertions.assertTrue(large < THINGS, "Expected batched expand, got " + large + " statements");
+    }
+
+    private long countStatements(String query, int expectedThings) throws IOException {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        JsonNode things = getCollection(EntityType.THING, query);
+        long count = statistics.getPrepareStatementCount();
+
+        Assertions.assertEquals(expectedThings, things.get(value).size());
+        for (JsonNode thing : things.get(value)) {
+            JsonNode datastreams = thing.get("Datastreams");
+            Assertions.assertEquals(1, datastreams.size());
+            Assertions.assertEquals("temperature", datastreams.get(0).get("name").asText());
+            JsonNode observations = datastreams.get(0).get("Observations");
+            Assertions.assertEquals(2, observations.size());
+            for (JsonNode observation : observations) {
+                Assertions.assertTrue(observation.get("result").asInt() >= OBSERVATIONS_PER_DATASTREAM - 2);
+            }
+        }
+        return count;
+    }
+
+    private void addDatastream(ArrayNode datastreams, String name, int thing) {
+        ObjectNode datastream = datastreams.addObject();
+        datastream.put("name", name);
+        datastream.put("description", name + " of thing " + thing);
+        datastream.put("observationType", "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+        ObjectNode unit = datastream.putObject("unitOfMeasurement");
+        unit.put("name", "degree Celsius");
+        unit.put("symbol", "degC");
+        unit.put("definition", "http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html#DegreeCelsius");
+        ObjectNode observedProperty = datastream.putObject("ObservedProperty");
+        observedProperty.put("name", name + " " + thing);
+        observedProperty.put("definition", "http://example.org/" + name + "/" + thing);
+        observedProperty.put("description", name);
+        ObjectNode sensor = datastream.putObject("Sensor");
+        sensor.put("name", "sensor " + name + " " + thing);
+        sensor.put("description", "sensor");
+        sensor.put("encodingType", "application/pdf");
+        sensor.put("metadata", "sensor");
+    }
+}
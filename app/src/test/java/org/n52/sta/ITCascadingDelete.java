@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Checks that deleting Things, Datastreams and FeaturesOfInterest removes all related Observations when Observations
+ * are deleted in multiple chunks, and that the bounds of Datastreams that are kept are recomputed.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "database.delete.chunkSize=1000")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITCascadingDelete extends ConformanceTests implements TestUtil {
+
+    private static final int OBSERVATIONS = 2_500;
+    private static final String COUNT_QUERY = "$count=true&$top=1";
+    private static final String FEATURE_ID = "ITCascadingDeleteFeature";
+    private final String thingId;
+    private final String firstDatastreamId;
+    private final String secondDatastreamId;
+
+    public ITCascadingDelete(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Requires POST with deep insert to work.
+        thingId = postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", " +
+            "\"Locations\": [ { \"description\": \"location 1\", \"name\": \"location name 1\", \"location\": { " +
+            "\"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, \"encodingType\": " +
+            "\"application/vnd.geo+json\" } ], \"Datastreams\": [ " + datastream(1) + ", " + datastream(2) + " ] }")
+            .get(idKey).asText();
+        JsonNode datastreams = getCollection(EntityType.DATASTREAM, "$orderby=name").get(value);
+        firstDatastreamId = datastreams.get(0).get(idKey).asText();
+        secondDatastreamId = datastreams.get(1).get(idKey).asText();
+
+        postEntity(EntityType.OBSERVATION, "{ \"phenomenonTime\": \"2019-12-31T00:00:00Z\", \"result\": -1, " +
+            "\"parameters\": { \"testKey\": \"testValue\" }, \"Datastream\": { \"@iot.id\": \"" + firstDatastreamId
+            + "\" } }");
+        postDataArray(createDataArray(firstDatastreamId, OBSERVATIONS, 0));
+        postDataArray(createDataArray(secondDatastreamId, OBSERVATIONS, 0));
+    }
+
+    @Test
+    public void testDeleteThing() throws IOException {
+        assertCount(EntityType.OBSERVATION, 2 * OBSERVATIONS + 1);
+
+        deleteEntity(EntityType.THING, thingId, false);
+
+        assertCount(EntityType.THING, 0);
+        assertCount(EntityType.DATASTREAM, 0);
+        assertCount(EntityType.OBSERVATION, 0);
+        assertCount(EntityType.HISTORICAL_LOCATION, 0);
+        assertCount(EntityType.LOCATION, 1);
+    }
+
+    @Test
+    public void testDeleteDatastream() throws IOException {
+        deleteEntity(EntityType.DATASTREAM, firstDatastreamId, false);
+
+        assertCount(EntityType.DATASTREAM, 1);
+        assertCount(EntityType.OBSERVATION, OBSERVATIONS);
+        Assertions.assertEquals(OBSERVATIONS,
+                                getCollection(rootUrl + "Datastreams(" + secondDatastreamId + ")/Observations",
+                                              COUNT_QUERY).get(countKey).asInt());
+    }
+
+    @Test
+    public void testDeleteFeatureOfInterest() throws IOException {
+        JsonNode features = getCollection(EntityType.FEATURE_OF_INTEREST, "").get(value);
+        for (JsonNode feature : features) {
+            deleteEntity(EntityType.FEATURE_OF_INTEREST, feature.get(idKey).asText(), false);
+        }
+
+        assertCount(EntityType.FEATURE_OF_INTEREST, 0);
+        assertCount(EntityType.OBSERVATION, 0);
+        assertCount(EntityType.DATASTREAM, 2);
+        assertCount(EntityType.THING, 1);
+    }
+
+    @Test
+    public void testDeleteFeatureOfInterestKeepsDatastreamBounds() throws IOException {
+        // Observation of a second Feature turns the Datastream into an Aggregation
+        postEntity(EntityType.OBSERVATION, "{ \"phenomenonTime\": \"2021-01-01T00:00:00Z\", \"result\": 1, " +
+            "\"FeatureOfInterest\": { \"@iot.id\": \"" + FEATURE_ID + "\", \"name\": \"feature\", " +
+            "\"description\": \"feature\", \"encodingType\": \"application/vnd.geo+json\", \"feature\": { " +
+            "\"type\": \"Point\", \"coordinates\": [ 7.65, 51.93 ] } }, \"Datastream\": { \"@iot.id\": \"" +
+            firstDatastreamId + "\" } }");
+        assertPhenomenonTime(firstDatastreamId, "2019-12-31T00:00:00Z", "2021-01-01T00:00:00Z");
+
+        deleteEntity(EntityType.FEATURE_OF_INTEREST, "'" + FEATURE_ID + "'", false);
+
+        // Bounds of the Datastream are recomputed from the Observations left
+        assertCount(EntityType.OBSERVATION, 2 * OBSERVATIONS + 1);
+        assertPhenomenonTime(firstDatastreamId,
+                             "2019-12-31T00:00:00Z",
+                             Instant.ofEpochSecond(1_577_836_800L + OBSERVATIONS - 1).toString());
+    }
+
+    private void assertPhenomenonTime(String datastreamId, String start, String end) throws IOException {
+        String[] phenomenonTime =
+            getEntity(EntityType.DATASTREAM, datastreamId).get("phenomenonTime").asText().split("/");
+        Assertions.assertEquals(2, phenomenonTime.length);
+        Assertions.assertEquals(Instant.parse(start), Instant.parse(phenomenonTime[0]));
+        Assertions.assertEquals(Instant.parse(end), Instant.parse(phenomenonTime[1]));
+    }
+
+    private void assertCount(EntityType type, int expected) throws IOException {
+        Assertions.assertEquals(expected,
+                                getCollection(type, COUNT_QUERY).get(countKey).asInt(),
+                                "Unexpected number of " + type.getVal());
+    }
+
+    private String datastream(int number) {
+        return "{ \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": \"datastream " +
+            number + "\", \"name\": \"datastream name " + number + "\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux " + number + "\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux" + number + "\", " +
+            "\"description\": \"observedProperty " + number + "\" }, \"Sensor\": { \"description\": \"sensor " +
+            number + "\", \"name\": \"sensor name " + number + "\", \"encodingType\": \"application/pdf\", " +
+            "\"metadata\": \"Light flux sensor\" } }";
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs two instances against the same database and checks that concurrent requests hitting both instances do not
+ * create duplicate entities when database.coordination is set to advisory.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "database.coordination=advisory")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITClusterCoordination extends ConformanceTests implements TestUtil {
+
+    private static final int SECOND_PORT = 8082;
+    private static final String SECOND_ROOT_URL = "http://localhost:" + SECOND_PORT + "/v1.1/";
+    private static final int CLIENTS = 8;
+
+    private final String datastreamId;
+
+    public ITClusterCoordination(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        ObjectNode thing = mapper.createObjectNode();
+        thing.put("name", "clustered thing");
+        thing.put("description", "clustered thing");
+        ObjectNode location = thing.putArray("Locations").addObject();
+        location.put("name", "clustered location");
+        location.put("description", "clustered location");
+        location.put("encodingType", "application/vnd.geo+json");
+        ObjectNode point = location.putObject("location");
+        point.put("type", "Point");
+        point.putArray("coordinates").add(7.65).add(51.93);
+        ObjectNode datastream = thing.putArray("Datastreams").addObject();
+        datastream.put("name", "clustered datastream");
+        datastream.put("description", "clustered datastream");
+        datastream.put("observationType", "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+        ObjectNode unit = datastream.putObject("unitOfMeasurement");
+        unit.put("name", "degree Celsius");
+        unit.put("symbol", "degC");
+        unit.put("definition", "http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html#DegreeCelsius");
+        ObjectNode observedProperty = datastream.putObject("ObservedProperty");
+        observedProperty.put("name", "clustered property");
+        observedProperty.put("definition", "http://example.org/clustered");
+        observedProperty.put("description", "clustered property");
+        ObjectNode sensor = datastream.putObject("Sensor");
+        sensor.put("name", "clustered sensor");
+        sensor.put("description", "sensor");
+        sensor.put("encodingType", "application/pdf");
+        sensor.put("metadata", "sensor");
+        String thingId = postEntity(EntityType.THING, thing.toString()).get(idKey).asText();
+        datastreamId = getCollection(rootUrl + "Things(" + thingId + ")/Datastreams", "")
+            .get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testFeatureOfInterestCreatedOnceAcrossInstances() throws Exception {
+        try (ConfigurableApplicationContext second = startSecondInstance()) {
+            // All clients start at once, half of them on each instance. All of them need the FeatureOfInterest
+            // generated from the Location of the Thing
+            CountDownLatch start = new CountDownLatch(1);
+            List<Callable<Integer>> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                String root = i % 2 == 0 ? rootUrl : SECOND_ROOT_URL;
+                int offset = i;
+                clients.add(() -> {
+                    start.await();
+                    return postObservation(root, offset);
+                });
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+            try {
+                List<Future<Integer>> results = new ArrayList<>();
+                for (Callable<Integer> client : clients) {
+                    results.add(executor.submit(client));
+                }
+                start.countDown();
+                for (Future<Integer> result : results) {
+                    Assertions.assertEquals(200, result.get().intValue(), "Creating Observation failed");
+                }
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+        assertResponseCount(getCollection(EntityType.FEATURE_OF_INTEREST), 1);
+        assertResponseCount(getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations", ""),
+                            CLIENTS);
+    }
+
+    private ConfigurableApplicationContext startSecondInstance() {
+        return new SpringApplicationBuilder(Application.class)
+            .run("--server.port=" + SECOND_PORT,
+                 "--server.rootUrl=" + SECOND_ROOT_URL,
+                 "--database.coordination=advisory",
+                 // Schema is managed by the first instance
+                 "--spring.jpa.properties.hibernate.hbm2ddl.auto=none",
+                 "--mqtt.broker.plaintcp.enabled=false",
+                 "--mqtt.broker.websocket.enabled=false");
+    }
+
+    private int postObservation(String root, int offset) throws Exception {
+        ObjectNode observation = mapper.createObjectNode();
+        observation.put("phenomenonTime", Instant.ofEpochSecond(1_577_836_800L + offset).toString());
+        observation.put("result", offset);
+        observation.putObject("Datastream").put(idKey, datastreamId);
+        HttpPost request = new HttpPost(root + EntityType.OBSERVATION.getVal());
+        request.setEntity(new StringEntity(observation.toString()));
+        request.setHeader("Content-Type", "application/json");
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        return response.getStatusLine().getStatusCode();
+    }
+}
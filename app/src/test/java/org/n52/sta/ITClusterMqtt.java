@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Runs two instances against the same database and checks that an MQTT subscriber connected to one instance is
+ * notified about an Observation created via the other instance.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "mqtt.cluster.enabled=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITClusterMqtt extends ConformanceTests implements TestUtil {
+
+    private static final int SECOND_PORT = 8082;
+    private static final int SECOND_MQTT_PORT = 1884;
+    private static final String DATASTREAM_ID = "ITClusterMqttDatastream";
+
+    public ITClusterMqtt(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        ObjectNode thing = mapper.createObjectNode();
+        thing.put("name", "clustered thing");
+        thing.put("description", "clustered thing");
+        ObjectNode location = thing.putArray("Locations").addObject();
+        location.put("name", "clustered location");
+        location.put("description", "clustered location");
+        location.put("encodingType", "application/vnd.geo+json");
+        ObjectNode point = location.putObject("location");
+        point.put("type", "Point");
+        point.putArray("coordinates").add(7.65).add(51.93);
+        ObjectNode datastream = thing.putArray("Datastreams").addObject();
+        datastream.put(idKey, DATASTREAM_ID);
+        datastream.put("name", "clustered datastream");
+        datastream.put("description", "clustered datastream");
+        datastream.put("observationType", "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+        ObjectNode unit = datastream.putObject("unitOfMeasurement");
+        unit.put("name", "degree Celsius");
+        unit.put("symbol", "degC");
+        unit.put("definition", "http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html#DegreeCelsius");
+        ObjectNode observedProperty = datastream.putObject("ObservedProperty");
+        observedProperty.put("name", "clustered property");
+        observedProperty.put("definition", "http://example.org/clustered");
+        observedProperty.put("description", "clustered property");
+        ObjectNode sensor = datastream.putObject("Sensor");
+        sensor.put("name", "clustered sensor");
+        sensor.put("description", "sensor");
+        sensor.put("encodingType", "application/pdf");
+        sensor.put("metadata", "sensor");
+        postEntity(EntityType.THING, thing.toString());
+    }
+
+    @Test
+    public void testObservationPublishedOnOtherInstance() throws Exception {
+        try (ConfigurableApplicationContext second = startSecondInstance()) {
+            MqttClient client = new MqttClient("tcp://localhost:" + SECOND_MQTT_PORT, "ITClusterMqtt");
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setCleanSession(true);
+            client.connect(options);
+            try {
+                ITConformance8.MessageListener listener = new ITConformance8.MessageListener();
+                client.setCallback(listener);
+                client.subscribe(MQTT_TOPIC_PREFIX + "Datastreams(" + DATASTREAM_ID + ")/Observations");
+
+                // Wait for subscription to register properly
+                Thread.sleep(5000L);
+
+                ObjectNode observation = mapper.createObjectNode();
+                observation.put("phenomenonTime", "2020-01-01T00:00:00Z");
+                observation.put("result", 52);
+                observation.putObject("Datastream").put(idKey, DATASTREAM_ID);
+                JsonNode created = postEntity(EntityType.OBSERVATION, observation.toString());
+
+                MqttMessage message = listener.next();
+                JsonNode received = mapper.readTree(message.toString());
+                Assertions.assertEquals(created.get(idKey).asText(), received.get(idKey).asText());
+                Assertions.assertEquals(52, received.get("result").asInt());
+
+                // Each event is only published once
+                Assertions.assertThrows(IllegalStateException.class, listener::next);
+            } finally {
+                client.disconnect();
+                client.close();
+            }
+        }
+    }
+
+    private ConfigurableApplicationContext startSecondInstance() {
+        return new SpringApplicationBuilder(Application.class)
+            .run("--server.port=" + SECOND_PORT,
+                 "--server.rootUrl=http://localhost:" + SECOND_PORT + "/v1.1/",
+                 "--mqtt.cluster.enabled=true",
+                 // Schema is managed by the first instance
+                 "--spring.jpa.properties.hibernate.hbm2ddl.auto=none",
+                 "--mqtt.broker.plaintcp.port=" + SECOND_MQTT_PORT,
+                 "--mqtt.broker.websocket.enabled=false");
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts Observations into a single Datastream from parallel clients and checks that no Observation is lost and
+ * the phenomenonTime of the Datastream covers all Observations and is published via MQTT. Logs the achieved
+ * throughput. The concurrency mode under test may be set via system property sta.it.concurrency.mode
+ * (lock|optimistic).
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "database.concurrency.mode=${sta.it.concurrency.mode:optimistic}")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITConcurrentIngest extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ITConcurrentIngest.class);
+    private static final int CLIENTS = 8;
+    private static final int OBSERVATIONS_PER_CLIENT = 50;
+    private static final long START = 1_577_836_800L;
+
+    @Value("${database.concurrency.mode}")
+    private String concurrencyMode;
+
+    private final String datastreamId;
+
+    public ITConcurrentIngest(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        ObjectNode thing = mapper.createObjectNode();
+        thing.put("name", "concurrent thing");
+        thing.put("description", "concurrent thing");
+        ObjectNode location = thing.putArray("Locations").addObject();
+        location.put("name", "concurrent location");
+        location.put("description", "concurrent location");
+        location.put("encodingType", "application/vnd.geo+json");
+        ObjectNode point = location.putObject("location");
+        point.put("type", "Point");
+        point.putArray("coordinates").add(7.65).add(51.93);
+        ObjectNode datastream = thing.putArray("Datastreams").addObject();
+        datastream.put("name", "concurrent datastream");
+        datastream.put("description", "concurrent datastream");
+        datastream.put("observationType", "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+        ObjectNode unit = datastream.putObject("unitOfMeasurement");
+        unit.put("name", "degree Celsius");
+        unit.put("symbol", "degC");
+        unit.put("definition", "http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html#DegreeCelsius");
+        ObjectNode observedProperty = datastream.putObject("ObservedProperty");
+        observedProperty.put("name", "concurrent property");
+        observedProperty.put("definition", "http://example.org/concurrent");
+        observedProperty.put("description", "concurrent property");
+        ObjectNode sensor = datastream.putObject("Sensor");
+        sensor.put("name", "concurrent sensor");
+        sensor.put("description", "sensor");
+        sensor.put("encodingType", "application/pdf");
+        sensor.put("metadata", "sensor");
+        String thingId = postEntity(EntityType.THING, thing.toString()).get(idKey).asText();
+        datastreamId = getCollection(rootUrl + "Things(" + thingId + ")/Datastreams", "")
+            .get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testConcurrentInsertIntoSingleDatastream() throws Exception {
+        // Create FeatureOfInterest from Location upfront
+        postObservation(-1);
+
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < CLIENTS * OBSERVATIONS_PER_CLIENT; i++) {
+            offsets.add(i);
+        }
+        // Insert out of order, so that first and last Observation of the Datastream change concurrently
+        Collections.shuffle(offsets);
+
+        List<Callable<Void>> clients = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            List<Integer> own = offsets.subList(c * OBSERVATIONS_PER_CLIENT, (c + 1) * OBSERVATIONS_PER_CLIENT);
+            clients.add(() -> {
+                for (int offset : own) {
+                    postObservation(offset);
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        long start = System.nanoTime();
+        try {
+            for (Future<Void> client : executor.invokeAll(clients)) {
+                client.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        long elapsed = System.nanoTime() - start;
+        int total = CLIENTS * OBSERVATIONS_PER_CLIENT;
+        LOGGER.info("Inserted {} Observations with {} clients in mode '{}' in {} ms ({} Observations/s)",
+                    total,
+                    CLIENTS,
+                    concurrencyMode,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    total * TimeUnit.SECONDS.toNanos(1) / elapsed);
+
+        JsonNode observations = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                              "$count=true&$top=1");
+        Assertions.assertEquals(total + 1, observations.get(countKey).asInt());
+
+        String[] phenomenonTime = getEntity(EntityType.DATASTREAM, datastreamId)
+            .get("phenomenonTime").asText().split("/");
+        Assertions.assertEquals(Instant.ofEpochSecond(START - 1), Instant.parse(phenomenonTime[0]));
+        Assertions.assertEquals(Instant.ofEpochSecond(START + total - 1), Instant.parse(phenomenonTime[1]));
+    }
+
+    @Test
+    public void testDatastreamPhenomenonTimePublished() throws Exception {
+        MqttClient client = new MqttClient("tcp://localhost:1883", "ITConcurrentIngest");
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        client.connect(options);
+        try {
+            ITConformance8.MessageListener listener = new ITConformance8.MessageListener();
+            client.setCallback(listener);
+            client.subscribe(MQTT_TOPIC_PREFIX + "Datastreams(" + datastreamId + ")/phenomenonTime");
+
+            // Wait for subscription to register properly
+            Thread.sleep(5000L);
+
+            postObservation(0);
+            String[] phenomenonTime = mapper.readTree(listener.next().toString())
+                .get("phenomenonTime").asText().split("/");
+            Assertions.assertEquals(Instant.ofEpochSecond(START), Instant.parse(phenomenonTime[0]));
+
+            // Observations within the current bounds do not change the Datastream
+            postObservation(0);
+            Assertions.assertThrows(IllegalStateException.class, listener::next);
+        } finally {
+            client.disconnect();
+            client.close();
+        }
+    }
+
+    private void postObservation(int offset) throws Exception {
+        ObjectNode observation = mapper.createObjectNode();
+        observation.put("phenomenonTime", Instant.ofEpochSecond(START + offset).toString());
+        observation.put("result", offset);
+        observation.putObject("Datastream").put(idKey, datastreamId);
+        postEntity(EntityType.OBSERVATION, observation.toString());
+    }
+}
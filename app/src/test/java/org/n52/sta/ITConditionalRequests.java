@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Checks that ETags of responses only change if an entity the response may depend on was changed, and that
+ * If-None-Match and If-Modified-Since are answered with 304 Not Modified.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.conditionalRequests=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITConditionalRequests extends ConformanceTests implements TestUtil {
+
+    private static final String ETAG = "ETag";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String DATASTREAM_ID = "ITConditionalRequestsDatastream";
+
+    private final String thingId;
+
+    public ITConditionalRequests(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        ObjectNode thing = mapper.createObjectNode();
+        thing.put("name", "conditional thing");
+        thing.put("description", "conditional thing");
+        ObjectNode location = thing.putArray("Locations").addObject();
+        location.put("name", "conditional location");
+        location.put("description", "conditional location");
+        location.put("encodingType", "application/vnd.geo+json");
+        ObjectNode point = location.putObject("location");
+        point.put("type", "Point");
+        point.putArray("coordinates").add(7.65).add(51.93);
+        ObjectNode datastream = thing.putArray("Datastreams").addObject();
+        datastream.put(idKey, DATASTREAM_ID);
+        datastream.put("name", "conditional datastream");
+        datastream.put("description", "conditional datastream");
+        datastream.put("observationType", "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+        ObjectNode unit = datastream.putObject("unitOfMeasurement");
+        unit.put("name", "degree Celsius");
+        unit.put("symbol", "degC");
+        unit.put("definition", "http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html#DegreeCelsius");
+        ObjectNode observedProperty = datastream.putObject("ObservedProperty");
+        observedProperty.put("name", "conditional property");
+        observedProperty.put("definition", "http://example.org/conditional");
+        observedProperty.put("description", "conditional property");
+        ObjectNode sensor = datastream.putObject("Sensor");
+        sensor.put("name", "conditional sensor");
+        sensor.put("description", "sensor");
+        sensor.put("encodingType", "application/pdf");
+        sensor.put("metadata", "sensor");
+        thingId = postEntity(EntityType.THING, thing.toString()).get(idKey).asText();
+    }
+
+    @Test
+    public void testNotModifiedWithoutChange() throws IOException {
+        String things = rootUrl + "Things";
+        String etag = getETag(things);
+        Assertions.assertEquals(304, get(things, etag).getStatusLine().getStatusCode());
+
+        String thing = rootUrl + "Things(" + thingId + ")";
+        String thingEtag = getETag(thing);
+        Assertions.assertEquals(304, get(thing, thingEtag).getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testObservationOnlyChangesDependentResponses() throws IOException {
+        String things = rootUrl + "Things";
+        String datastream = rootUrl + "Datastreams(" + DATASTREAM_ID + ")";
+        String thingsExpanded = rootUrl + "Things?$expand=Datastreams";
+        String thingsEtag = getETag(things);
+        String datastreamEtag = getETag(datastream);
+        String thingsExpandedEtag = getETag(thingsExpanded);
+
+        postObservation();
+
+        // Things are not affected by new Observations
+        Assertions.assertEquals(304, get(things, thingsEtag).getStatusLine().getStatusCode());
+        // phenomenonTime of the Datastream changed
+        Assertions.assertEquals(200, get(datastream, datastreamEtag).getStatusLine().getStatusCode());
+        // Expanded Datastreams changed
+        Assertions.assertEquals(200, get(thingsExpanded, thingsExpandedEtag).getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testSensorOnlyChangesDependentResponses() throws IOException {
+        String things = rootUrl + "Things";
+        String sensors = rootUrl + "Sensors";
+        String thingsEtag = getETag(things);
+        String sensorsEtag = getETag(sensors);
+
+        String sensorId = getCollection(sensors, "").get(value).get(0).get(idKey).asText();
+        patchEntity(EntityType.SENSOR, "{\"name\": \"patched sensor\"}", sensorId);
+
+        Assertions.assertEquals(304, get(things, thingsEtag).getStatusLine().getStatusCode());
+        Assertions.assertEquals(200, get(sensors, sensorsEtag).getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testModifiedAfterPatch() throws IOException {
+        String thing = rootUrl + "Things(" + thingId + ")";
+        String etag = getETag(thing);
+
+        patchEntity(EntityType.THING, "{\"name\": \"patched thing\"}", thingId);
+
+        HttpResponse response = get(thing, etag);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assertions.assertNotEquals(etag, response.getFirstHeader(ETAG).getValue());
+        Assertions.assertEquals("patched thing",
+                                mapper.readTree(response.getEntity().getContent()).get("name").asText());
+    }
+
+    @Test
+    public void testModifiedSinceWithinSameSecond() throws IOException, InterruptedException {
+        String thing = rootUrl + "Things(" + thingId + ")";
+        // Client holds a copy from the current second
+        String ifModifiedSince = DateUtils.formatDate(new Date());
+
+        patchEntity(EntityType.THING, "{\"name\": \"patched thing\"}", thingId);
+
+        // Change may fall into the same second as the copy of the client
+        Assertions.assertEquals(200, getModifiedSince(thing, ifModifiedSince).getStatusLine().getStatusCode());
+
+        // Last-Modified is reliable once the second of the last change has passed
+        Thread.sleep(1100);
+        Header lastModified = get(thing, null).getFirstHeader(LAST_MODIFIED);
+        Assertions.assertNotNull(lastModified, "Response has no Last-Modified");
+        Assertions.assertEquals(304,
+                                getModifiedSince(thing, lastModified.getValue()).getStatusLine().getStatusCode());
+    }
+
+    private void postObservation() throws IOException {
+        ObjectNode observation = mapper.createObjectNode();
+        observation.put("phenomenonTime", "2020-01-01T00:00:00Z");
+        observation.put("result", 52);
+        observation.putObject("Datastream").put(idKey, DATASTREAM_ID);
+        postEntity(EntityType.OBSERVATION, observation.toString());
+    }
+
+    private String getETag(String url) throws IOException {
+        HttpResponse response = get(url, null);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        Header etag = response.getFirstHeader(ETAG);
+        Assertions.assertNotNull(etag, "Response has no ETag");
+        return etag.getValue();
+    }
+
+    private HttpResponse getModifiedSince(String url, String ifModifiedSince) throws IOException {
+        HttpGet request = new HttpGet(url);
+        request.setHeader(IF_MODIFIED_SINCE, ifModifiedSince);
+        return HttpClientBuilder.create().build().execute(request);
+    }
+
+    private HttpResponse get(String url, String etag) throws IOException {
+        HttpGet request = new HttpGet(url.replace("$", "%24"));
+        if (etag != null) {
+            request.setHeader(IF_NONE_MATCH, etag);
+        }
+        return HttpClientBuilder.create().build().execute(request);
+    }
+}
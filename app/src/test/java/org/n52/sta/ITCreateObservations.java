@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks bulk creation of Observations via the CreateObservations resource of the DataArray Extension.
+ * Compares ingestion time of single POSTs with a single CreateObservations request.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITCreateObservations extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ITCreateObservations.class);
+    private static final int BATCH_SIZE = 200;
+    private final String datastreamId;
+
+    public ITCreateObservations(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Requires POST with deep insert to work.
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"properties\": { " +
+            "\"reference\": \"first\" }, \"Locations\": [ { \"description\": \"location 1\", \"name\": \"location" +
+            " name 1\", \"location\": { \"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, " +
+            "\"encodingType\": \"application/vnd.geo+json\" } ], \"Datastreams\": [ { \"unitOfMeasurement\": { " +
+            "\"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0" +
+            ".0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", \"name\": \"datastream name " +
+            "1\", \"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", " +
+            "\"ObservedProperty\": { \"name\": \"Luminous Flux\", \"definition\": \"http://www.qudt" +
+            ".org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": \"observedProperty 1\" " +
+            "}, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", \"encodingType\": " +
+            "\"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testCreateObservations() throws IOException {
+        JsonNode response = postDataArray(createDataArray(datastreamId, BATCH_SIZE, 0), 200);
+        Assertions.assertEquals(BATCH_SIZE, response.size());
+        Assertions.assertTrue(response.get(0).asText().startsWith(rootUrl + "Observations("));
+
+        JsonNode observations = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                              "$top=1&$orderby=phenomenonTime%20desc");
+        assertResponseCount(observations, BATCH_SIZE, 1);
+        Assertions.assertEquals(BATCH_SIZE - 1, observations.get(value).get(0).get("result").asInt());
+
+        // Datastream->phenomenonTime spans the whole batch
+        String[] phenomenonTime =
+            getEntity(EntityType.DATASTREAM, datastreamId).get("phenomenonTime").asText().split("/");
+        Assertions.assertEquals(2, phenomenonTime.length);
+        Assertions.assertEquals(DateTime.parse(toTime(0)).getMillis(),
+                                DateTime.parse(phenomenonTime[0]).getMillis());
+        Assertions.assertEquals(DateTime.parse(toTime(BATCH_SIZE - 1)).getMillis(),
+                                DateTime.parse(phenomenonTime[1]).getMillis());
+    }
+
+    @Test
+    public void testCreateObservationsIsAtomic() throws IOException {
+        ArrayNode body = createDataArray(datastreamId, 10, 0);
+        ((ArrayNode) body.get(0).get("dataArray").get(9)).add("superfluous value");
+        postDataArray(body, 400);
+
+        JsonNode response = postDataArray(createInvalidDataArray(datastreamId, 10, 0), 200);
+        Assertions.assertEquals(10, response.size());
+        for (JsonNode selfLink : response) {
+            Assertions.assertEquals("error", selfLink.asText());
+        }
+
+        JsonNode observations = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations");
+        Assertions.assertEquals(0, observations.get(countKey).asInt());
+    }
+
+    @Test
+    public void testCreateObservationsReportsFailedDatastreams() throws IOException {
+        // Each Datastream is created separately, so only the failed entry is reported as error
+        ArrayNode body = createDataArray(datastreamId, 10, 0);
+        body.add(createInvalidDataArray(datastreamId, 5, 10).get(0));
+        body.add(createDataArray(datastreamId, 10, 15).get(0));
+
+        JsonNode response = postDataArray(body, 200);
+        Assertions.assertEquals(25, response.size());
+        for (int i = 0; i < response.size(); i++) {
+            if (i >= 10 && i < 15) {
+                Assertions.assertEquals("error", response.get(i).asText());
+            } else {
+                Assertions.assertTrue(response.get(i).asText().startsWith(rootUrl + "Observations("));
+            }
+        }
+
+        JsonNode observations = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations");
+        Assertions.assertEquals(20, observations.get(countKey).asInt());
+    }
+
+    @Test
+    public void benchmarkSingleVsBatchIngestion() throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            postEntity(EntityType.OBSERVATION,
+                       "{ \"phenomenonTime\": \"" + toTime(i) + "\", \"result\": " + i + ", " +
+                           "\"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+        }
+        long single = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        postDataArray(createDataArray(datastreamId, BATCH_SIZE, BATCH_SIZE), 200);
+        long batch = System.nanoTime() - start;
+
+        LOGGER.info("Ingested {} Observations: single POSTs took {} ms ({} obs/s), CreateObservations took {} ms " +
+                        "({} obs/s)",
+                    BATCH_SIZE,
+                    single / 1_000_000,
+                    BATCH_SIZE * 1_000_000_000L / single,
+                    batch / 1_000_000,
+                    BATCH_SIZE * 1_000_000_000L / batch);
+
+        JsonNode observations = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations", "$top=1");
+        assertResponseCount(observations, 2 * BATCH_SIZE, 1);
+    }
+
+    @Override protected ArrayNode createDataArray(String datastream, int count, int offset) {
+        return createDataArray(datastream, count, offset, this::toTime);
+    }
+
+    private ArrayNode createInvalidDataArray(String datastream, int count, int offset) {
+        ArrayNode body = createDataArray(datastream, count, offset);
+        ((ArrayNode) body.get(0).get("components")).add("FeatureOfInterest/id");
+        for (JsonNode row : body.get(0).get("dataArray")) {
+            ((ArrayNode) row).add("nonExistentFeature");
+        }
+        return body;
+    }
+
+    private String toTime(int minutes) {
+        return String.format("2020-01-01T%02d:%02d:00.000Z", minutes / 60, minutes % 60);
+    }
+}
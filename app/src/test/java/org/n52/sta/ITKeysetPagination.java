@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks keyset pagination of Observation collections via $skiptoken. Pages through a large number of
+ * Observations and compares latency of the first and last pages. The number of Observations defaults to a small
+ * value to keep the build fast and can be raised via system property "sta.it.keyset.observations"
+ * (e.g. -Dsta.it.keyset.observations=2000000).
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"server.feature.keysetPagination=true", "server.feature.observationCount=requested"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITKeysetPagination extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ITKeysetPagination.class);
+    private static final int OBSERVATIONS = Integer.getInteger("sta.it.keyset.observations", 1_000);
+    private static final int INGEST_CHUNK_SIZE = 5_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int LATENCY_WINDOW = 5;
+    private static final String NEXT_LINK = "@iot.nextLink";
+    private final String datastreamId;
+
+    public ITKeysetPagination(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Requires POST with deep insert to work.
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"properties\": { " +
+            "\"reference\": \"first\" }, \"Locations\": [ { \"description\": \"location 1\", \"name\": \"location" +
+            " name 1\", \"location\": { \"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, " +
+            "\"encodingType\": \"application/vnd.geo+json\" } ], \"Datastreams\": [ { \"unitOfMeasurement\": { " +
+            "\"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0" +
+            ".0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", \"name\": \"datastream name " +
+            "1\", \"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", " +
+            "\"ObservedProperty\": { \"name\": \"Luminous Flux\", \"definition\": \"http://www.qudt" +
+            ".org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": \"observedProperty 1\" " +
+            "}, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", \"encodingType\": " +
+            "\"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testPagingThroughLargeCollection() throws IOException {
+        for (int offset = 0; offset < OBSERVATIONS; offset += INGEST_CHUNK_SIZE) {
+            postDataArray(createDataArray(Math.min(INGEST_CHUNK_SIZE, OBSERVATIONS - offset), offset));
+        }
+
+        String url = rootUrl + "Datastreams(" + datastreamId + ")/Observations";
+        String query = "$top=" + PAGE_SIZE;
+        List<Long> latencies = new ArrayList<>();
+        int expected = 0;
+        while (url != null) {
+            long start = System.nanoTime();
+            JsonNode page = getCollection(url, query);
+            latencies.add(System.nanoTime() - start);
+
+            // Observations are returned ordered by phenomenonTime and id without gaps or duplicates
+            for (JsonNode observation : page.get(value)) {
+                Assertions.assertEquals(expected, observation.get("result").asInt());
+                expected++;
+            }
+
+            if (page.has(NEXT_LINK)) {
+                String[] nextLink = page.get(NEXT_LINK).asText().split("\\?", 2);
+                Assertions.assertTrue(nextLink[1].contains("$skiptoken="), "nextLink is not keyset based");
+                Assertions.assertFalse(nextLink[1].contains("$skip="), "nextLink must not contain $skip");
+                url = nextLink[0];
+                query = nextLink[1];
+            } else {
+                url = null;
+            }
+        }
+        Assertions.assertEquals(OBSERVATIONS, expected);
+
+        long first = averageMillis(latencies.subList(1, 1 + LATENCY_WINDOW));
+        long last = averageMillis(latencies.subList(latencies.size() - LATENCY_WINDOW, latencies.size()));
+        LOGGER.info("Paged through {} Observations in {} pages. Avg. latency of first pages: {} ms, last pages: {} ms",
+                    OBSERVATIONS,
+                    latencies.size(),
+                    first,
+                    last);
+    }
+
+    @Test
+    public void testSkipTokenOnRootCollection() throws IOException {
+        postDataArray(createDataArray(2 * PAGE_SIZE + 1, 0));
+
+        JsonNode page = getCollection(EntityType.OBSERVATION, "$top=" + PAGE_SIZE + "&$count=true");
+        Assertions.assertEquals(2 * PAGE_SIZE + 1, page.get(countKey).asInt());
+        String[] nextLink = page.get(NEXT_LINK).asText().split("\\?", 2);
+        Assertions.assertEquals(rootUrl + "Observations", nextLink[0]);
+
+        page = getCollection(nextLink[0], nextLink[1]);
+        Assertions.assertEquals(2 * PAGE_SIZE + 1, page.get(countKey).asInt());
+        Assertions.assertEquals(PAGE_SIZE, page.get(value).get(0).get("result").asInt());
+
+        nextLink = page.get(NEXT_LINK).asText().split("\\?", 2);
+        page = getCollection(nextLink[0], nextLink[1]);
+        Assertions.assertEquals(1, page.get(value).size());
+        Assertions.assertFalse(page.has(NEXT_LINK));
+    }
+
+    @Test
+    public void testInvalidSkipToken() throws IOException {
+        postDataArray(createDataArray(10, 0));
+
+        Assertions.assertEquals(400, getStatus(rootUrl + "Observations?$skiptoken=invalid"));
+        Assertions.assertEquals(400, getStatus(rootUrl + "Things?$skiptoken=MTow"));
+        Assertions.assertEquals(400, getStatus(rootUrl + "Observations?$orderby=result&$skiptoken=MTow"));
+
+        // Explicit $orderby falls back to offset based nextLinks
+        JsonNode page = getCollection(EntityType.OBSERVATION, "$top=5&$orderby=result desc");
+        Assertions.assertTrue(page.get(NEXT_LINK).asText().contains("$skip=5"));
+    }
+
+    private long averageMillis(List<Long> latencies) {
+        return latencies.stream().mapToLong(Long::longValue).sum() / latencies.size() / 1_000_000;
+    }
+
+    private ArrayNode createDataArray(int count, int offset) {
+        // Two Observations share each phenomenonTime so ordering by id is required as tiebreaker
+        return createDataArray(datastreamId,
+                               count,
+                               offset,
+                               i -> Instant.ofEpochSecond(1_577_836_800L + i / 2).toString());
+    }
+
+    private int getStatus(String url) throws IOException {
+        HttpResponse response = HttpClientBuilder.create().build().execute(new HttpGet(url));
+        return response.getStatusLine().getStatusCode();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Checks that the latest Observation of a Datastream is served from cache and kept up to date when Observations are
+ * inserted, updated or deleted.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"spring.jpa.properties.hibernate.generate_statistics=true",
+        "server.feature.observationCount=requested"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITLatestObservation extends ConformanceTests implements TestUtil {
+
+    private static final long START = 1_577_836_800L;
+    private static final String PHENOMENON_TIME = "phenomenonTime";
+    private static final String LATEST = "$top=1&$orderby=phenomenonTime desc";
+    private final String datastreamId;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    public ITLatestObservation(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Requires POST with deep insert to work.
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"properties\": { " +
+            "\"reference\": \"first\" }, \"Locations\": [ { \"description\": \"location 1\", \"name\": \"location" +
+            " name 1\", \"location\": { \"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, " +
+            "\"encodingType\": \"application/vnd.geo+json\" } ], \"Datastreams\": [ { \"unitOfMeasurement\": { " +
+            "\"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0" +
+            ".0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", \"name\": \"datastream name " +
+            "1\", \"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", " +
+            "\"ObservedProperty\": { \"name\": \"Luminous Flux\", \"definition\": \"http://www.qudt" +
+            ".org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": \"observedProperty 1\" " +
+            "}, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", \"encodingType\": " +
+            "\"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testLatestObservation() throws IOException {
+        postObservation("obs-1", 1);
+        postObservation("obs-2", 2);
+        assertLatest("obs-2");
+
+        // Served from cache
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        assertLatest("obs-2");
+        Assertions.assertEquals(0, statistics.getEntityLoadCount());
+
+        // Newer Observation replaces the cached one, older Observation does not
+        postObservation("obs-3", 3);
+        assertLatest("obs-3");
+        postObservation("obs-0", 0);
+        assertLatest("obs-3");
+
+        // Update and delete invalidate the cached Observation
+        patchEntity(EntityType.OBSERVATION,
+                    "{\"" + PHENOMENON_TIME + "\":\"" + Instant.ofEpochSecond(START - 1) + "\"}",
+                    "'obs-3'");
+        assertLatest("obs-2");
+        deleteEntity(EntityType.OBSERVATION, "'obs-2'", false);
+        assertLatest("obs-1");
+    }
+
+    @Test
+    public void testExpandLatestObservation() throws IOException {
+        postObservation("obs-1", 1);
+        postObservation("obs-2", 2);
+        assertLatest("obs-2");
+
+        JsonNode datastreams = getCollection(EntityType.DATASTREAM, "$expand=Observations(" + LATEST.replace('&', ';')
+            + ")");
+        JsonNode observations = datastreams.get(value).get(0).get("Observations");
+        Assertions.assertEquals(1, observations.size());
+        Assertions.assertEquals("obs-2", observations.get(0).get(idKey).asText());
+
+        JsonNode things = getCollection(EntityType.THING, "$expand=Datastreams($expand=Observations("
+            + LATEST.replace('&', ';') + "))");
+        observations = things.get(value).get(0).get("Datastreams").get(0).get("Observations");
+        Assertions.assertEquals(1, observations.size());
+        Assertions.assertEquals("obs-2", observations.get(0).get(idKey).asText());
+    }
+
+    private void assertLatest(String expected) throws IOException {
+        JsonNode collection = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations", LATEST);
+        Assertions.assertEquals(1, collection.get(value).size());
+        Assertions.assertEquals(expected, collection.get(value).get(0).get(idKey).asText());
+    }
+
+    private void postObservation(String id, int offset) throws IOException {
+        postEntity(EntityType.OBSERVATION, "{ \"@iot.id\": \"" + id + "\", \"phenomenonTime\": \""
+            + Instant.ofEpochSecond(START + offset) + "\", \"result\": " + offset
+            + ", \"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.sta.data.service.LookupTableResolver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates Datastreams sharing a new Unit from parallel clients and checks that the Unit is persisted exactly once
+ * and resolved from cache afterwards.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITLookupTables extends ConformanceTests implements TestUtil {
+
+    private static final int CLIENTS = 8;
+    private static final String SYMBOL = "lookupUnit";
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private LookupTableResolver lookupTableResolver;
+
+    public ITLookupTables(@Value("${server.rootUrl}") String rootUrl) {
+        super(rootUrl);
+    }
+
+    @Test
+    public void testConcurrentCreationOfSharedUnit() throws Exception {
+        List<Callable<Void>> clients = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            int client = c;
+            clients.add(() -> {
+                postThing(client);
+                return null;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            for (Future<Void> client : executor.invokeAll(clients)) {
+                client.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        EntityManager em = entityManagerFactory.createEntityManager();
+        try {
+            Assertions.assertEquals(1L, em.createQuery("SELECT COUNT(u) FROM UnitEntity u WHERE u.identifier = :symbol")
+                .setParameter("symbol", SYMBOL)
+                .getSingleResult());
+        } finally {
+            em.close();
+        }
+        JsonNode datastreams = getCollection(EntityType.DATASTREAM);
+        Assertions.assertEquals(CLIENTS, datastreams.get(value).size());
+        for (JsonNode datastream : datastreams.get(value)) {
+            Assertions.assertEquals(SYMBOL, datastream.get("unitOfMeasurement").get("symbol").asText());
+        }
+
+        // Resolved from cache afterwards
+        long hits = lookupTableResolver.getMetrics().get("hits");
+        postThing(CLIENTS);
+        Assertions.assertTrue(lookupTableResolver.getMetrics().get("hits") > hits);
+    }
+
+    private void postThing(int i) throws Exception {
+        ObjectNode thing = mapper.createObjectNode();
+        thing.put("name", "thing " + i);
+        thing.put("description", "thing " + i);
+        ObjectNode datastream = thing.putArray("Datastreams").addObject();
+        datastream.put("name", "datastream " + i);
+        datastream.put("description", "datastream " + i);
+        datastream.put("observationType", "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+        ObjectNode unit = datastream.putObject("unitOfMeasurement");
+        unit.put("name", "lookup unit");
+        unit.put("symbol", SYMBOL);
+        unit.put("definition", "http://example.org/lookupUnit");
+        ObjectNode observedProperty = datastream.putObject("ObservedProperty");
+        observedProperty.put("name", "property " + i);
+        observedProperty.put("definition", "http://example.org/property" + i);
+        observedProperty.put("description", "property " + i);
+        ObjectNode sensor = datastream.putObject("Sensor");
+        sensor.put("name", "sensor " + i);
+        sensor.put("description", "sensor " + i);
+        sensor.put("encodingType", "application/pdf");
+        sensor.put("metadata", "sensor");
+        postEntity(EntityType.THING, thing.toString());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+
+/**
+ * Checks that navigation paths are validated with a single query while keeping the 404/400 semantics for paths
+ * that do not exist.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITNavigationPath extends ConformanceTests implements TestUtil {
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final String thingId;
+    private final String datastreamId;
+
+    public ITNavigationPath(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        JsonNode thing = postEntity(EntityType.THING, createThing().toString());
+        thingId = thing.get(idKey).asText();
+        datastreamId = getCollection(rootUrl + "Things(" + thingId + ")/Datastreams", "")
+            .get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testValidPaths() throws IOException {
+        Assertions.assertEquals(200, getStatus("Things(" + thingId + ")/Datastreams"));
+        Assertions.assertEquals(200, getStatus("Datastreams(" + datastreamId + ")/Thing"));
+        Assertions.assertEquals(200, getStatus("Datastreams(" + datastreamId + ")/Thing/name"));
+        Assertions.assertEquals(200, getStatus("Datastreams(" + datastreamId + ")/Thing/$ref"));
+        // Empty related collection of an existing Entity
+        JsonNode observations = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations", "");
+        Assertions.assertEquals(0, observations.get(value).size());
+    }
+
+    @Test
+    public void testInvalidPaths() throws IOException {
+        Assertions.assertEquals(404, getStatus("Things(nonexistent)/Datastreams"));
+        Assertions.assertEquals(404, getStatus("Things(nonexistent)/Datastreams/$ref"));
+        Assertions.assertEquals(404, getStatus("Datastreams(nonexistent)/Thing"));
+        Assertions.assertEquals(404, getStatus("Datastreams(nonexistent)/Thing/$ref"));
+        Assertions.assertEquals(404, getStatus("Datastreams(nonexistent)/Thing/name"));
+        Assertions.assertEquals(404, getStatus("Datastreams(nonexistent)/Observations"));
+    }
+
+    @Test
+    public void testNoValidationQueryForNonEmptyResult() throws IOException {
+        String relatedUrl = rootUrl + "Things(" + thingId + ")/Datastreams";
+        String filteredUrl = rootUrl + "Datastreams";
+        String filter = "$filter=Thing/id eq '" + thingId + "'";
+        // Warm up
+        getCollection(relatedUrl, "");
+        getCollection(filteredUrl, filter);
+
+        // Requesting via the navigation path must not be more expensive than the equivalent $filter
+        long relatedCount = countStatements(relatedUrl, "");
+        long filteredCount = countStatements(filteredUrl, filter);
+        Assertions.assertTrue(relatedCount <= filteredCount,
+                              "Navigation path is validated separately: " + relatedCount + " vs. " + filteredCount);
+    }
+
+    private long countStatements(String url, String query) throws IOException {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        Assertions.assertEquals(1, getCollection(url, query).get(value).size());
+        return statistics.getPrepareStatementCount();
+    }
+
+    private ObjectNode createThing() {
+        String name = "thing";
+        String observedProperty = "temperature";
+        ObjectNode thing = mapper.createObjectNode();
+        thing.put("name", name);
+        thing.put("description", name);
+        ObjectNode datastream = thing.putArray("Datastreams").addObject();
+        datastream.put("name", observedProperty);
+        datastream.put("description", observedProperty);
+        datastream.put("observationType", "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+        ObjectNode unit = datastream.putObject("unitOfMeasurement");
+        unit.put("name", "unit");
+        unit.put("symbol", "u");
+        unit.put("definition", "http://example.org/unit");
+        ObjectNode property = datastream.putObject("ObservedProperty");
+        property.put("name", observedProperty);
+        property.put("definition", "http://example.org/" + observedProperty);
+        property.put("description", observedProperty);
+        ObjectNode sensor = datastream.putObject("Sensor");
+        sensor.put("name", "sensor of " + name);
+        sensor.put("description", "sensor");
+        sensor.put("encodingType", "application/pdf");
+        sensor.put("metadata", "sensor");
+        return thing;
+    }
+
+    private int getStatus(String path) throws IOException {
+        HttpResponse response = HttpClientBuilder.create().build().execute(new HttpGet(rootUrl + path));
+        return response.getStatusLine().getStatusCode();
+    }
+}
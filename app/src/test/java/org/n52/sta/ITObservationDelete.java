@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that phenomenonTime of a Datastream is kept up to date when Observations on its boundaries are updated or
+ * deleted. Logs the throughput of deleting a large number of Observations one by one, each of them being the first
+ * Observation of the Datastream at the time of deletion. The number of Observations defaults to a few hundred to keep
+ * the build fast and may be raised via system property "sta.it.delete.count" (e.g. -Dsta.it.delete.count=100000).
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationDelete extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ITObservationDelete.class);
+    private static final int OBSERVATIONS = Integer.getInteger("sta.it.delete.count", 300);
+    private static final int CHUNK_SIZE = 10_000;
+    private static final long START = 1_577_836_800L;
+    private static final String PHENOMENON_TIME = "phenomenonTime";
+    private final String datastreamId;
+
+    public ITObservationDelete(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Requires POST with deep insert to work.
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"properties\": { " +
+            "\"reference\": \"first\" }, \"Locations\": [ { \"description\": \"location 1\", \"name\": \"location" +
+            " name 1\", \"location\": { \"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, " +
+            "\"encodingType\": \"application/vnd.geo+json\" } ], \"Datastreams\": [ { \"unitOfMeasurement\": { " +
+            "\"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0" +
+            ".0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", \"name\": \"datastream name " +
+            "1\", \"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", " +
+            "\"ObservedProperty\": { \"name\": \"Luminous Flux\", \"definition\": \"http://www.qudt" +
+            ".org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": \"observedProperty 1\" " +
+            "}, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", \"encodingType\": " +
+            "\"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testUpdateBoundaryObservation() throws IOException {
+        postObservations(0, 3);
+        assertPhenomenonTime(0, 2);
+
+        // Move first Observation past the last one
+        patchEntity(EntityType.OBSERVATION,
+                    "{\"" + PHENOMENON_TIME + "\":\"" + Instant.ofEpochSecond(START + 5) + "\"}",
+                    "'obs-0'");
+        assertPhenomenonTime(1, 5);
+
+        // Move it back in between
+        patchEntity(EntityType.OBSERVATION,
+                    "{\"" + PHENOMENON_TIME + "\":\"" + Instant.ofEpochSecond(START + 1) + "\"}",
+                    "'obs-0'");
+        assertPhenomenonTime(1, 2);
+    }
+
+    @Test
+    public void testDeleteBoundaryObservations() throws IOException {
+        for (int offset = 0; offset < OBSERVATIONS; offset += CHUNK_SIZE) {
+            postObservations(offset, Math.min(CHUNK_SIZE, OBSERVATIONS - offset));
+        }
+        assertPhenomenonTime(0, OBSERVATIONS - 1);
+
+        // Delete in ascending order so that every deletion removes the first Observation of the Datastream
+        int deleted = OBSERVATIONS - 1;
+        try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < deleted; i++) {
+                HttpResponse response = client.execute(new HttpDelete(rootUrl + "Observations('obs-" + i + "')"));
+                EntityUtils.consume(response.getEntity());
+                Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+            }
+            long elapsed = System.nanoTime() - start;
+            LOGGER.info("Deleted {} Observations in {} ms ({} Observations/s)",
+                        deleted,
+                        TimeUnit.NANOSECONDS.toMillis(elapsed),
+                        deleted * TimeUnit.SECONDS.toNanos(1) / elapsed);
+        }
+        assertPhenomenonTime(OBSERVATIONS - 1, OBSERVATIONS - 1);
+
+        // Deleting the last Observation clears phenomenonTime
+        deleteEntity(EntityType.OBSERVATION, "'obs-" + (OBSERVATIONS - 1) + "'", false);
+        Assertions.assertFalse(getEntity(EntityType.DATASTREAM, datastreamId).hasNonNull(PHENOMENON_TIME));
+    }
+
+    private void assertPhenomenonTime(int start, int end) throws IOException {
+        String[] phenomenonTime = getEntity(EntityType.DATASTREAM, datastreamId)
+            .get(PHENOMENON_TIME).asText().split("/");
+        Assertions.assertEquals(Instant.ofEpochSecond(START + start), Instant.parse(phenomenonTime[0]));
+        Assertions.assertEquals(Instant.ofEpochSecond(START + end),
+                                Instant.parse(phenomenonTime[phenomenonTime.length - 1]));
+    }
+
+    private void postObservations(int offset, int count) throws IOException {
+        ArrayNode body = mapper.createArrayNode();
+        ObjectNode entry = body.addObject();
+        entry.putObject("Datastream").put(idKey, datastreamId);
+        entry.putArray("components").add("id").add(PHENOMENON_TIME).add("result");
+        ArrayNode dataArray = entry.putArray("dataArray");
+        for (int i = offset; i < offset + count; i++) {
+            dataArray.addArray().add("obs-" + i).add(Instant.ofEpochSecond(START + i).toString()).add(i);
+        }
+        HttpPost request = new HttpPost(rootUrl + "CreateObservations");
+        request.setEntity(new StringEntity(body.toString()));
+        request.setHeader("Content-Type", "application/json");
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+    }
+}
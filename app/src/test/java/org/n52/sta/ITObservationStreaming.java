@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks serialization of Observation collections streamed from a database cursor. Admission is limited to a single
+ * concurrent read.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"server.feature.observationStreamingFetchSize=100",
+        "server.feature.keysetPagination=true",
+        "database.admission.read.permits=1",
+        "database.admission.read.timeout=500"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationStreaming extends ConformanceTests implements TestUtil {
+
+    private static final int OBSERVATIONS = 5_000;
+    private static final int PAGE_SIZE = 4_000;
+    private static final String NEXT_LINK = "@iot.nextLink";
+    private static final String READ_ACTIVE = "read.active";
+
+    @Autowired
+    private DaoAdmissionController admissionController;
+
+    private final String datastreamId;
+
+    public ITObservationStreaming(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Requires POST with deep insert to work.
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"properties\": { " +
+            "\"reference\": \"first\" }, \"Locations\": [ { \"description\": \"location 1\", \"name\": \"location" +
+            " name 1\", \"location\": { \"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, " +
+            "\"encodingType\": \"application/vnd.geo+json\" } ], \"Datastreams\": [ { \"unitOfMeasurement\": { " +
+            "\"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0" +
+            ".0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", \"name\": \"datastream name " +
+            "1\", \"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", " +
+            "\"ObservedProperty\": { \"name\": \"Luminous Flux\", \"definition\": \"http://www.qudt" +
+            ".org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": \"observedProperty 1\" " +
+            "}, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", \"encodingType\": " +
+            "\"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+        postDataArray(createDataArray(datastreamId, OBSERVATIONS, 0));
+    }
+
+    @Test
+    public void testStreamedCollection() throws IOException {
+        JsonNode page = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                      "$top=" + PAGE_SIZE + "&$count=true");
+        Assertions.assertEquals(OBSERVATIONS, page.get(countKey).asInt());
+        Assertions.assertEquals(PAGE_SIZE, page.get(value).size());
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            Assertions.assertEquals(i, page.get(value).get(i).get("result").asInt());
+        }
+
+        String[] nextLink = page.get(NEXT_LINK).asText().split("\\?", 2);
+        Assertions.assertTrue(nextLink[1].contains("$skiptoken="));
+        page = getCollection(nextLink[0], nextLink[1]);
+        Assertions.assertEquals(OBSERVATIONS - PAGE_SIZE, page.get(value).size());
+        Assertions.assertEquals(PAGE_SIZE, page.get(value).get(0).get("result").asInt());
+        Assertions.assertFalse(page.has(NEXT_LINK));
+    }
+
+    @Test
+    public void testStreamedCollectionHoldsReadPermit() throws IOException {
+        // Small receive buffer and large entities so that the response does not fit into the socket buffers
+        SocketConfig socketConfig = SocketConfig.custom().setRcvBufSize(1024).build();
+        HttpGet request = new HttpGet(rootUrl + "Observations?$top=" + OBSERVATIONS
+                                          + "&$expand=Datastream($expand=Thing,Sensor,ObservedProperty)");
+        try (CloseableHttpClient client = HttpClientBuilder.create().setDefaultSocketConfig(socketConfig).build();
+             CloseableHttpResponse response = client.execute(request)) {
+            Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+
+            // Serialization is blocked by the unread response and still holds the only READ permit
+            Assertions.assertEquals(1, admissionController.getMetrics().get(READ_ACTIVE));
+            HttpResponse rejected = HttpClientBuilder.create().build().execute(new HttpGet(rootUrl + "Things"));
+            Assertions.assertEquals(503, rejected.getStatusLine().getStatusCode());
+
+            JsonNode page = mapper.readTree(response.getEntity().getContent());
+            Assertions.assertEquals(OBSERVATIONS, page.get(value).size());
+        }
+        Assertions.assertEquals(0, admissionController.getMetrics().get(READ_ACTIVE));
+        getCollection(EntityType.THING);
+    }
+
+    @Test
+    public void testStreamedCollectionWithOrderByAndExpand() throws IOException {
+        JsonNode page = getCollection(EntityType.OBSERVATION,
+                                      "$top=" + PAGE_SIZE + "&$orderby=result desc&$expand=Datastream");
+        Assertions.assertEquals(PAGE_SIZE, page.get(value).size());
+        Assertions.assertEquals(OBSERVATIONS - 1, page.get(value).get(0).get("result").asInt());
+        Assertions.assertEquals(datastreamId,
+                                page.get(value).get(PAGE_SIZE - 1).get("Datastream").get(idKey).asText());
+        Assertions.assertTrue(page.get(NEXT_LINK).asText().contains("$skip=" + PAGE_SIZE));
+    }
+}
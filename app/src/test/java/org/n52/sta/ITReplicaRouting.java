@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks that reads are routed to read replicas unless the client has written recently. The primary database is
+ * used as replica.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"database.replica.urls=${DB_URL}",
+        "database.replica.readYourWrites=2000",
+        "database.replica.clientHeader=" + ITReplicaRouting.CLIENT_HEADER})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITReplicaRouting extends ConformanceTests implements TestUtil {
+
+    static final String CLIENT_HEADER = "X-Client-Id";
+    private static final String READ_YOUR_WRITES_FALLBACKS = "readYourWritesFallbacks";
+    private static final String PINNED_READS = "pinnedReads";
+
+    @Autowired
+    private ReplicaRoutingDataSource dataSource;
+
+    public ITReplicaRouting(@Value("${server.rootUrl}") String rootUrl) {
+        super(rootUrl);
+    }
+
+    @Test
+    public void testReadsAreRoutedToReplica() throws Exception {
+        long fallbacks = dataSource.getMetrics().get(READ_YOUR_WRITES_FALLBACKS);
+        postEntity(EntityType.SENSOR, "{ \"name\": \"sensor 1\", \"description\": \"sensor 1\", "
+            + "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" }");
+
+        // Reads directly after a write are served by the primary
+        getCollection(EntityType.SENSOR);
+        Assertions.assertTrue(dataSource.getMetrics().get(READ_YOUR_WRITES_FALLBACKS) > fallbacks);
+
+        // Later reads are served by the replica
+        Thread.sleep(2500);
+        long replicaConnections = replicaConnections();
+        Assertions.assertEquals(1, getCollection(EntityType.SENSOR).get(value).size());
+        Assertions.assertTrue(replicaConnections() > replicaConnections);
+    }
+
+    @Test
+    public void testPinnedReadsAreRoutedToPrimary() {
+        long pinnedReads = dataSource.getMetrics().get(PINNED_READS);
+        try (ReplicaRoutingDataSource.PrimaryScope primary = dataSource.primary()) {
+            dataSource.beginRead();
+            Assertions.assertFalse(dataSource.isReadingFromReplica());
+            dataSource.endRead();
+        }
+        Assertions.assertEquals(pinnedReads + 1, dataSource.getMetrics().get(PINNED_READS));
+
+        // Reads after the scope is closed are routed to the replica again
+        dataSource.beginRead();
+        Assertions.assertTrue(dataSource.isReadingFromReplica());
+        dataSource.endRead();
+    }
+
+    @Test
+    public void testClientsAreIdentifiedByHeader() throws Exception {
+        HttpPost post = new HttpPost(rootUrl + EntityType.SENSOR.getVal());
+        post.setEntity(new StringEntity("{ \"name\": \"sensor 1\", \"description\": \"sensor 1\", "
+                                            + "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux "
+                                            + "sensor\" }"));
+        post.setHeader("Content-Type", "application/json");
+        Assertions.assertEquals(200, execute(post, "client-a"));
+
+        // Another client with the same remote address is served by the replica
+        long fallbacks = dataSource.getMetrics().get(READ_YOUR_WRITES_FALLBACKS);
+        Assertions.assertEquals(200, execute(new HttpGet(rootUrl + EntityType.SENSOR.getVal()), "client-b"));
+        Assertions.assertEquals(fallbacks, dataSource.getMetrics().get(READ_YOUR_WRITES_FALLBACKS));
+
+        // The writing client is served by the primary
+        Assertions.assertEquals(200, execute(new HttpGet(rootUrl + EntityType.SENSOR.getVal()), "client-a"));
+        Assertions.assertTrue(dataSource.getMetrics().get(READ_YOUR_WRITES_FALLBACKS) > fallbacks);
+    }
+
+    private int execute(HttpRequestBase request, String client) throws IOException {
+        request.setHeader(CLIENT_HEADER, client);
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        return response.getStatusLine().getStatusCode();
+    }
+
+    private long replicaConnections() {
+        return dataSource.getMetrics().get("replica-0.connections");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.series.db.beans.PlatformEntity;
+import org.n52.sta.data.repositories.EntityGraphRepository.FetchGraph;
+import org.n52.sta.data.repositories.ThingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the identifier lookups of the repositories with cached fetch graphs and logs their throughput.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITRepositoryLookup extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ITRepositoryLookup.class);
+    private static final int ITERATIONS = 2000;
+
+    @Autowired
+    private ThingRepository thingRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final String thingId;
+
+    public ITRepositoryLookup(@Value("${server.rootUrl}") String rootUrl) throws IOException {
+        super(rootUrl);
+        thingId = postEntity(EntityType.THING, "{ \"name\": \"thing 1\", \"description\": \"thing 1\", "
+            + "\"Locations\": [ { \"name\": \"location 1\", \"description\": \"location 1\", "
+            + "\"encodingType\": \"application/vnd.geo+json\", "
+            + "\"location\": { \"type\": \"Point\", \"coordinates\": [ 7.65, 51.93 ] } } ] }").get(idKey).asText();
+    }
+
+    @Test
+    public void testLookupWithFetchGraphs() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < 2; i++) {
+            // Second lookup uses the cached graph
+            PlatformEntity thing = transaction.execute(status -> thingRepository
+                .findByStaIdentifier(thingId, FetchGraph.FETCHGRAPH_LOCATIONS, FetchGraph.FETCHGRAPH_PARAMETERS)
+                .get());
+            Assertions.assertTrue(Hibernate.isInitialized(thing.getLocations()));
+            Assertions.assertEquals(1, thing.getLocations().size());
+        }
+        PlatformEntity thing = transaction.execute(status -> thingRepository.findByStaIdentifier(thingId).get());
+        Assertions.assertFalse(Hibernate.isInitialized(thing.getLocations()));
+
+        Assertions.assertEquals(Boolean.TRUE,
+                                transaction.execute(status -> thingRepository.existsByStaIdentifier(thingId)));
+        Assertions.assertEquals(Boolean.FALSE,
+                                transaction.execute(status -> thingRepository.existsByStaIdentifier("unknown")));
+        Assertions.assertFalse(transaction.execute(status -> thingRepository.findByStaIdentifier("unknown")
+            .isPresent()));
+    }
+
+    @Test
+    public void benchmarkIdentifierLookups() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        long find = transaction.execute(status -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                thingRepository.findByStaIdentifier(thingId,
+                                                    FetchGraph.FETCHGRAPH_LOCATIONS,
+                                                    FetchGraph.FETCHGRAPH_PARAMETERS);
+            }
+            return System.nanoTime() - start;
+        });
+        long exists = transaction.execute(status -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                thingRepository.existsByStaIdentifier(thingId);
+            }
+            return System.nanoTime() - start;
+        });
+        LOGGER.info("{} lookups each: findByStaIdentifier with fetch graphs took {} us/op, existsByStaIdentifier "
+                        + "took {} us/op",
+                    ITERATIONS,
+                    TimeUnit.NANOSECONDS.toMicros(find) / (double) ITERATIONS,
+                    TimeUnit.NANOSECONDS.toMicros(exists) / (double) ITERATIONS);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+
+/**
+ * Checks that slow-changing metadata entities are served from the Hibernate second-level and query cache and that
+ * cached entries are evicted on update and delete.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"database.cache.secondLevel.enabled=true",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITSecondLevelCache extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ITSecondLevelCache.class);
+    private static final int ITERATIONS = 50;
+    private static final String NAME = "name";
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    public ITSecondLevelCache(@Value("${server.rootUrl}") String rootUrl) {
+        super(rootUrl);
+    }
+
+    @Test
+    public void testLookupsAreCached() throws IOException {
+        postSensor("sensor 1");
+        postSensor("sensor 2");
+
+        Statistics statistics = statistics();
+        statistics.clear();
+        // The Format of the encodingType is loaded by id
+        postSensor("sensor 3");
+        Assertions.assertTrue(statistics.getSecondLevelCacheHitCount() > 0);
+    }
+
+    @Test
+    public void testUpdateAndDeleteEvict() throws IOException {
+        String id = postSensor("sensor 1");
+        Assertions.assertEquals("sensor 1", getEntity(EntityType.SENSOR, id).get(NAME).asText());
+
+        patchEntity(EntityType.SENSOR, "{ \"name\": \"sensor 2\" }", id);
+        Assertions.assertEquals("sensor 2", getEntity(EntityType.SENSOR, id).get(NAME).asText());
+
+        deleteEntity(EntityType.SENSOR, id, false);
+        Assertions.assertEquals(0, getCollection(EntityType.SENSOR).get(value).size());
+    }
+
+    @Test
+    public void benchmarkColdVsWarmCache() throws IOException {
+        JsonNode thing = postEntity(EntityType.THING, "{ \"name\": \"thing 1\", \"description\": \"thing 1\" }");
+        String thingId = thing.get(idKey).asText();
+        String sensorId = postSensor("sensor 1");
+        String observedPropertyId = postEntity(EntityType.OBSERVED_PROPERTY,
+                                               "{ \"name\": \"Luminous Flux\", \"definition\": \"LuminousFlux\", "
+                                                   + "\"description\": \"observedProperty 1\" }").get(idKey).asText();
+        // Warm up
+        postDatastream(-1, thingId, sensorId, observedPropertyId);
+
+        SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        long cold = 0;
+        long warm = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            sessionFactory.getCache().evictAllRegions();
+            cold += postDatastream(2 * i, thingId, sensorId, observedPropertyId);
+            warm += postDatastream(2 * i + 1, thingId, sensorId, observedPropertyId);
+        }
+
+        Statistics statistics = statistics();
+        LOGGER.info("Created {} Datastreams each: cold cache took {} ms on average, warm cache took {} ms on average. "
+                        + "Second-level cache hits: {}, misses: {}; query cache hits: {}, misses: {}",
+                    ITERATIONS,
+                    cold / ITERATIONS / 1_000_000d,
+                    warm / ITERATIONS / 1_000_000d,
+                    statistics.getSecondLevelCacheHitCount(),
+                    statistics.getSecondLevelCacheMissCount(),
+                    statistics.getQueryCacheHitCount(),
+                    statistics.getQueryCacheMissCount());
+
+        JsonNode datastreams = getCollection(EntityType.DATASTREAM, "$count=true");
+        Assertions.assertEquals(2 * ITERATIONS + 1, datastreams.get(countKey).asInt());
+    }
+
+    private long postDatastream(int i, String thingId, String sensorId, String observedPropertyId)
+        throws IOException {
+        long start = System.nanoTime();
+        postEntity(EntityType.DATASTREAM, "{ \"name\": \"datastream " + i + "\", \"description\": \"datastream\", "
+            + "\"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": \"Lumen\" }, "
+            + "\"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", "
+            + "\"Thing\": { \"@iot.id\": \"" + thingId + "\" }, "
+            + "\"Sensor\": { \"@iot.id\": \"" + sensorId + "\" }, "
+            + "\"ObservedProperty\": { \"@iot.id\": \"" + observedPropertyId + "\" } }");
+        return System.nanoTime() - start;
+    }
+
+    private String postSensor(String name) throws IOException {
+        return postEntity(EntityType.SENSOR, "{ \"name\": \"" + name + "\", \"description\": \"sensor\", "
+            + "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" }").get(idKey).asText();
+    }
+
+    private Statistics statistics() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+}
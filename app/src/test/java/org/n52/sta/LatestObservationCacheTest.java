@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.sta.data.service.LatestObservationCache;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.RequestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Date;
+
+/**
+ * Checks query shape detection, updates on insert and invalidation after commit of the latest Observation cache.
+ */
+public class LatestObservationCacheTest {
+
+    private static final String DATASTREAM = "ds";
+
+    @Test
+    public void testQueryShape() {
+        Assertions.assertTrue(isLatestObservationQuery("$top=1&$orderby=phenomenonTime desc"));
+        Assertions.assertTrue(isLatestObservationQuery("$top=1&$orderby=phenomenonTime desc&$select=result"));
+        Assertions.assertFalse(isLatestObservationQuery("$top=1&$orderby=phenomenonTime asc"));
+        Assertions.assertFalse(isLatestObservationQuery("$top=2&$orderby=phenomenonTime desc"));
+        Assertions.assertFalse(isLatestObservationQuery("$top=1&$orderby=phenomenonTime desc&$skip=1"));
+        Assertions.assertFalse(isLatestObservationQuery("$top=1&$orderby=phenomenonTime desc,resultTime desc"));
+        Assertions.assertFalse(isLatestObservationQuery("$top=1&$orderby=phenomenonTime desc&$filter=result gt 1"));
+        Assertions.assertFalse(isLatestObservationQuery("$top=1&$orderby=phenomenonTime desc&$expand=Datastream"));
+    }
+
+    @Test
+    public void testGetAndInvalidate() {
+        LatestObservationCache cache = new LatestObservationCache(10, 60000);
+        Assertions.assertNull(cache.get(DATASTREAM));
+
+        cache.put(DATASTREAM, observation(1L, 1000), false, cache.getStamp(DATASTREAM));
+        LatestObservationCache.LatestObservation latest = cache.get(DATASTREAM);
+        Assertions.assertEquals(1L, latest.getObservation().getId());
+        Assertions.assertFalse(latest.hasMore());
+
+        cache.invalidate(DATASTREAM);
+        Assertions.assertNull(cache.get(DATASTREAM));
+
+        Metrics metrics = cache.getMetrics();
+        Assertions.assertEquals(1, metrics.get("hits"));
+        Assertions.assertEquals(2, metrics.get("misses"));
+        Assertions.assertEquals(1, metrics.get("invalidations"));
+        Assertions.assertEquals(0, metrics.get("size"));
+    }
+
+    @Test
+    public void testOffer() {
+        LatestObservationCache cache = new LatestObservationCache(10, 60000);
+        // Datastreams that are not cached are not populated by inserts
+        cache.offer(DATASTREAM, observation(1L, 1000));
+        Assertions.assertNull(cache.get(DATASTREAM));
+
+        cache.put(DATASTREAM, observation(1L, 1000), false, cache.getStamp(DATASTREAM));
+        cache.offer(DATASTREAM, observation(2L, 500));
+        Assertions.assertEquals(1L, cache.get(DATASTREAM).getObservation().getId());
+        Assertions.assertTrue(cache.get(DATASTREAM).hasMore());
+
+        cache.offer(DATASTREAM, observation(3L, 2000));
+        Assertions.assertEquals(3L, cache.get(DATASTREAM).getObservation().getId());
+
+        // Order of Observations with equal phenomenonTime is not defined
+        cache.offer(DATASTREAM, observation(4L, 2000));
+        Assertions.assertNull(cache.get(DATASTREAM));
+    }
+
+    @Test
+    public void testEntryQueriedBeforeChangeIsDiscarded() {
+        LatestObservationCache cache = new LatestObservationCache(10, 60000);
+        long stamp = cache.getStamp(DATASTREAM);
+        cache.offer(DATASTREAM, observation(2L, 2000));
+        cache.put(DATASTREAM, observation(1L, 1000), false, stamp);
+        Assertions.assertNull(cache.get(DATASTREAM));
+
+        stamp = cache.getStamp(DATASTREAM);
+        cache.invalidateAll();
+        cache.put(DATASTREAM, observation(1L, 1000), false, stamp);
+        Assertions.assertNull(cache.get(DATASTREAM));
+    }
+
+    @Test
+    public void testInvalidateAfterCommit() {
+        LatestObservationCache cache = new LatestObservationCache(10, 60000);
+        cache.put(DATASTREAM, observation(1L, 1000), false, cache.getStamp(DATASTREAM));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.invalidate(DATASTREAM);
+            // Concurrent readers may cache the uncommitted state until the transaction has committed
+            long stamp = cache.getStamp(DATASTREAM);
+            Assertions.assertNotNull(cache.get(DATASTREAM));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            Assertions.assertNull(cache.get(DATASTREAM));
+
+            // Observation queried before commit is discarded
+            cache.put(DATASTREAM, observation(1L, 1000), false, stamp);
+            Assertions.assertNull(cache.get(DATASTREAM));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        LatestObservationCache cache = new LatestObservationCache(10, 10);
+        cache.put(DATASTREAM, observation(1L, 1000), false, cache.getStamp(DATASTREAM));
+        Thread.sleep(50);
+        Assertions.assertNull(cache.get(DATASTREAM));
+    }
+
+    @Test
+    public void testDisabled() {
+        LatestObservationCache cache = new LatestObservationCache(0, 60000);
+        cache.put(DATASTREAM, observation(1L, 1000), false, cache.getStamp(DATASTREAM));
+        Assertions.assertNull(cache.get(DATASTREAM));
+    }
+
+    private boolean isLatestObservationQuery(String queryString) {
+        return LatestObservationCache.isLatestObservationQuery(
+            RequestUtils.QUERY_OPTIONS_FACTORY.createQueryOptions(queryString));
+    }
+
+    private DataEntity<?> observation(Long id, long phenomenonTime) {
+        QuantityDataEntity observation = new QuantityDataEntity();
+        observation.setId(id);
+        observation.setSamplingTimeStart(new Date(phenomenonTime));
+        observation.setSamplingTimeEnd(new Date(phenomenonTime));
+        return observation;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.series.db.beans.PlatformEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.mqtt.core.MqttEventDispatcher;
+import org.n52.sta.utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the overflow policies of the MQTT fan-out queue.
+ */
+public class MqttEventDispatcherTest {
+
+    private static final String DROPPED = "dropped";
+
+    @Test
+    public void testDropWhenQueueIsFull() {
+        MqttEventDispatcher dispatcher = new MqttEventDispatcher(1, 2, 0, "DROP", "");
+        // Workers are not started so the queue is never drained
+        for (int i = 0; i < 5; i++) {
+            dispatcher.submit(observation("o" + i), STAEntityDefinition.OBSERVATIONS, null, null);
+        }
+        Metrics metrics = dispatcher.getMetrics();
+        Assertions.assertEquals(2, metrics.get("enqueued"));
+        Assertions.assertEquals(3, metrics.get(DROPPED));
+        Assertions.assertEquals(2, metrics.get("queueDepth"));
+    }
+
+    @Test
+    public void testBlockTimesOut() {
+        MqttEventDispatcher dispatcher = new MqttEventDispatcher(1, 1, 50, "BLOCK", "");
+        dispatcher.submit(observation("o1"), STAEntityDefinition.OBSERVATIONS, null, null);
+        long start = System.nanoTime();
+        dispatcher.submit(observation("o2"), STAEntityDefinition.OBSERVATIONS, null, null);
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        Assertions.assertEquals(1, dispatcher.getMetrics().get(DROPPED));
+    }
+
+    @Test
+    public void testCoalesceMergesPendingEvents() throws InterruptedException {
+        MqttEventDispatcher dispatcher =
+            new MqttEventDispatcher(1, 10, 0, "DROP", STAEntityDefinition.THINGS + ":COALESCE");
+        PlatformEntity thing = new PlatformEntity();
+        thing.setStaIdentifier("t1");
+        dispatcher.submit(thing, STAEntityDefinition.THINGS, Collections.singleton("name"), null);
+        dispatcher.submit(thing, STAEntityDefinition.THINGS, Collections.singleton("description"), null);
+        dispatcher.submit(observation("o1"), STAEntityDefinition.OBSERVATIONS, null, null);
+        dispatcher.submit(observation("o1"), STAEntityDefinition.OBSERVATIONS, null, null);
+
+        List<MqttEventDispatcher.Event> published = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        dispatcher.start(event -> {
+            published.add(event);
+            latch.countDown();
+        });
+        Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        dispatcher.stop();
+
+        Assertions.assertEquals(3, published.size());
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("name", "description")),
+                                published.get(0).getDifferenceMap());
+        Assertions.assertEquals(1, dispatcher.getMetrics().get("coalesced"));
+        Assertions.assertEquals(3, dispatcher.getMetrics().get("enqueued"));
+    }
+
+    private QuantityDataEntity observation(String id) {
+        QuantityDataEntity observation = new QuantityDataEntity();
+        observation.setStaIdentifier(id);
+        return observation;
+    }
+}
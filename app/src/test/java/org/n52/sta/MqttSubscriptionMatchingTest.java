@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.mqtt.core.subscription.AbstractMqttSubscription;
+import org.n52.sta.mqtt.core.subscription.MqttEntityCollectionSubscription;
+import org.n52.sta.mqtt.core.subscription.MqttEntitySubscription;
+import org.n52.sta.mqtt.core.subscription.MqttSubscriptionIndex;
+import org.n52.sta.utils.CoreRequestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares matching of MQTT Subscriptions via {@link MqttSubscriptionIndex} with checking every Subscription.
+ */
+public class MqttSubscriptionMatchingTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttSubscriptionMatchingTest.class);
+    private static final int EVENTS = 1000;
+
+    @Test
+    public void benchmarkSubscriptionMatching() {
+        for (int subscriptionCount : new int[] {10_000, 100_000}) {
+            List<AbstractMqttSubscription> subscriptions = createSubscriptions(subscriptionCount);
+            MqttSubscriptionIndex index = new MqttSubscriptionIndex();
+            subscriptions.forEach(index::add);
+            Assertions.assertEquals(subscriptions.size(), index.size());
+
+            long scanNanos = 0;
+            long indexNanos = 0;
+            for (int i = 0; i < EVENTS; i++) {
+                String datastreamId = "ds" + (1 + i * 7919 % (subscriptionCount - 1));
+                QuantityDataEntity observation = new QuantityDataEntity();
+                observation.setStaIdentifier("obs" + i);
+                Map<String, Set<String>> collections = new HashMap<>();
+                collections.put(STAEntityDefinition.DATASTREAMS, Collections.singleton(datastreamId));
+
+                long start = System.nanoTime();
+                Set<String> scanned = new HashSet<>();
+                for (AbstractMqttSubscription subscription : subscriptions) {
+                    String topic = subscription.checkSubscription(observation,
+                                                                  STAEntityDefinition.OBSERVATIONS,
+                                                                  collections,
+                                                                  null);
+                    if (topic != null) {
+                        scanned.add(topic);
+                    }
+                }
+                scanNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Set<String> indexed = new HashSet<>();
+                for (AbstractMqttSubscription subscription :
+                    index.getCandidates(observation, STAEntityDefinition.OBSERVATIONS, collections)) {
+                    String topic = subscription.checkSubscription(observation,
+                                                                  STAEntityDefinition.OBSERVATIONS,
+                                                                  collections,
+                                                                  null);
+                    if (topic != null) {
+                        indexed.add(topic);
+                    }
+                }
+                indexNanos += System.nanoTime() - start;
+
+                Assertions.assertEquals(scanned, indexed);
+                Assertions.assertTrue(indexed.contains("Datastreams(" + datastreamId + ")/Observations"));
+                Assertions.assertTrue(indexed.contains("Observations"));
+            }
+            LOGGER.info("Matching against {} subscriptions: full scan {} µs/event, index {} µs/event",
+                        subscriptionCount,
+                        scanNanos / EVENTS / 1000,
+                        indexNanos / EVENTS / 1000);
+        }
+    }
+
+    @Test
+    public void testRemoveSubscription() {
+        MqttSubscriptionIndex index = new MqttSubscriptionIndex();
+        AbstractMqttSubscription related = collectionSubscription("Datastreams(ds1)/Observations",
+                                                                  CoreRequestUtils.CP_IDENT_BY_DATASTREAM);
+        AbstractMqttSubscription direct = entitySubscription("Observations(obs1)");
+        Assertions.assertTrue(index.add(related));
+        Assertions.assertFalse(index.add(collectionSubscription("Datastreams(ds1)/Observations",
+                                                                CoreRequestUtils.CP_IDENT_BY_DATASTREAM)));
+        Assertions.assertTrue(index.add(direct));
+
+        QuantityDataEntity observation = new QuantityDataEntity();
+        observation.setStaIdentifier("obs1");
+        Map<String, Set<String>> collections = new HashMap<>();
+        collections.put(STAEntityDefinition.DATASTREAMS, Collections.singleton("ds1"));
+        Assertions.assertEquals(2,
+                                index.getCandidates(observation, STAEntityDefinition.OBSERVATIONS, collections)
+                                    .size());
+
+        Assertions.assertTrue(index.remove(related));
+        Assertions.assertFalse(index.remove(related));
+        Assertions.assertEquals(Collections.singleton(direct),
+                                index.getCandidates(observation, STAEntityDefinition.OBSERVATIONS, collections));
+        Assertions.assertTrue(index.remove(direct));
+        Assertions.assertEquals(0, index.size());
+    }
+
+    private List<AbstractMqttSubscription> createSubscriptions(int count) {
+        List<AbstractMqttSubscription> subscriptions = new ArrayList<>(count);
+        subscriptions.add(collectionSubscription("Observations", CoreRequestUtils.CP_BASE));
+        for (int i = 1; i < count; i++) {
+            subscriptions.add(collectionSubscription("Datastreams(ds" + i + ")/Observations",
+                                                     CoreRequestUtils.CP_IDENT_BY_DATASTREAM));
+        }
+        return subscriptions;
+    }
+
+    private AbstractMqttSubscription collectionSubscription(String topic, Pattern pattern) {
+        Matcher mt = pattern.matcher(topic);
+        Assertions.assertTrue(mt.matches());
+        return new MqttEntityCollectionSubscription(topic, mt);
+    }
+
+    private AbstractMqttSubscription entitySubscription(String topic) {
+        Matcher mt = CoreRequestUtils.EP_BASE.matcher(topic);
+        Assertions.assertTrue(mt.matches());
+        return new MqttEntitySubscription(topic, mt);
+    }
+}
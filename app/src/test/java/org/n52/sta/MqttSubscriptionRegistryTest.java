@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.mqtt.core.MqttEventDispatcher;
+import org.n52.sta.mqtt.core.MqttSubscriptionEventHandlerImpl;
+import org.n52.sta.mqtt.core.MqttUtil;
+import org.n52.sta.mqtt.core.subscription.AbstractMqttSubscription;
+import org.n52.sta.mqtt.core.subscription.MqttEntityCollectionSubscription;
+import org.n52.sta.mqtt.core.subscription.MqttSubscriptionIndex;
+import org.n52.sta.utils.CoreRequestUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Checks that the MQTT subscription registry is safe to use from concurrent subscribe/unsubscribe and event threads.
+ */
+public class MqttSubscriptionRegistryTest {
+
+    private static final int THREADS = 4;
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    public void testWatchedEntityTypesAreReferenceCounted() {
+        MqttSubscriptionEventHandlerImpl handler =
+            new MqttSubscriptionEventHandlerImpl("http://localhost/",
+                                                 true,
+                                                 new MqttUtil(),
+                                                 new ObjectMapper(),
+                                                 new MqttEventDispatcher(1, 10, 0, "BLOCK", ""));
+        AbstractMqttSubscription first = subscription("Datastreams(ds1)/Observations");
+        AbstractMqttSubscription second = subscription("Datastreams(ds2)/Observations");
+
+        handler.addSubscription(first, "client1");
+        handler.addSubscription(first, "client2");
+        handler.addSubscription(second, "client1");
+        Assertions.assertTrue(handler.getWatchedEntityTypes().contains(STAEntityDefinition.OBSERVATIONS));
+
+        // Other client still subscribed to same topic
+        handler.removeSubscription(first, "client1");
+        Assertions.assertTrue(handler.getWatchedEntityTypes().contains(STAEntityDefinition.OBSERVATIONS));
+        handler.removeSubscription(first, "client2");
+        // Other subscription on same type still present
+        Assertions.assertTrue(handler.getWatchedEntityTypes().contains(STAEntityDefinition.OBSERVATIONS));
+        handler.removeSubscription(second, "client1");
+        Assertions.assertTrue(handler.getWatchedEntityTypes().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentModification() throws Exception {
+        MqttSubscriptionIndex index = new MqttSubscriptionIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(2 * THREADS);
+        try {
+            Future<?>[] futures = new Future<?>[2 * THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        AbstractMqttSubscription subscription =
+                            subscription("Datastreams(ds" + (i % 100) + ")/Observations");
+                        if ((i + thread) % 2 == 0) {
+                            index.add(subscription);
+                        } else {
+                            index.remove(subscription);
+                        }
+                    }
+                });
+                futures[THREADS + t] = executor.submit(() -> {
+                    QuantityDataEntity observation = new QuantityDataEntity();
+                    observation.setStaIdentifier("obs");
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        Map<String, Set<String>> collections = new HashMap<>();
+                        collections.put(STAEntityDefinition.DATASTREAMS, Collections.singleton("ds" + (i % 100)));
+                        for (AbstractMqttSubscription candidate :
+                            index.getCandidates(observation, STAEntityDefinition.OBSERVATIONS, collections)) {
+                            Assertions.assertNotNull(candidate.checkSubscription(observation,
+                                                                                 STAEntityDefinition.OBSERVATIONS,
+                                                                                 collections,
+                                                                                 null));
+                        }
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                // Rethrows any exception thrown in the worker
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private AbstractMqttSubscription subscription(String topic) {
+        Matcher mt = CoreRequestUtils.CP_IDENT_BY_DATASTREAM.matcher(topic);
+        Assertions.assertTrue(mt.matches());
+        return new MqttEntityCollectionSubscription(topic, mt);
+    }
+}
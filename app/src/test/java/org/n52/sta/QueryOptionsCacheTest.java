@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.QueryOptionsCache;
+
+/**
+ * Checks reuse and eviction of parsed QueryOptions.
+ */
+public class QueryOptionsCacheTest {
+
+    private static final String HITS = "hits";
+    private static final String MISSES = "misses";
+    private static final String SIZE = "size";
+
+    @Test
+    public void testParsedOnlyOnce() {
+        QueryOptionsCache cache = new QueryOptionsCache(10);
+        QueryOptions first = cache.get("$top=10&$filter=name eq 'a'");
+        QueryOptions second = cache.get("$top=10&$filter=name eq 'a'");
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(10L, first.getTopFilter().getValue());
+        Assertions.assertTrue(first.hasFilterFilter());
+
+        Metrics metrics = cache.getMetrics();
+        Assertions.assertEquals(1, metrics.get(HITS));
+        Assertions.assertEquals(1, metrics.get(MISSES));
+        Assertions.assertEquals(50, metrics.get("hitRatioPercent"));
+        Assertions.assertEquals(1, metrics.get(SIZE));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        QueryOptionsCache cache = new QueryOptionsCache(2);
+        QueryOptions top1 = cache.get("$top=1");
+        cache.get("$top=2");
+        // Access $top=1 so $top=2 is least recently used
+        Assertions.assertSame(top1, cache.get("$top=1"));
+        cache.get("$top=3");
+
+        Assertions.assertSame(top1, cache.get("$top=1"));
+        Assertions.assertEquals(1, cache.getMetrics().get("evictions"));
+        cache.get("$top=2");
+        Assertions.assertEquals(4, cache.getMetrics().get(MISSES));
+    }
+
+    @Test
+    public void testDisabled() {
+        QueryOptionsCache cache = new QueryOptionsCache(0);
+        Assertions.assertNotSame(cache.get("$top=1"), cache.get("$top=1"));
+        Assertions.assertEquals(0, cache.getMetrics().get(SIZE));
+        Assertions.assertEquals(2, cache.getMetrics().get(MISSES));
+    }
+}
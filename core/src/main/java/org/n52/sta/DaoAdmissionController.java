@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controls access to the Persistence Service Layer. The Persistence Layer can currently only handle as many running
+ * threads as there are database connections available, as each thread uses a seperate Transaction.
+ * Requests are separated into {@link OperationClass}es, each with a dedicated number of permits, a maximum number of
+ * waiting threads and a timeout. This prevents e.g. a burst of expensive reads from starving MQTT ingestion.
+ * Requests that cannot be admitted fail fast with HTTP 503. Metrics (admitted, rejected and timed out requests, waiting
+ * and active requests, average and maximum wait time) are kept per class, e.g. read.maxWaitMicros.
+ */
+@Service
+public class DaoAdmissionController implements MetricsSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DaoAdmissionController.class);
+    private static final String QUEUE_FULL = "Server is overloaded. Too many %s requests waiting for a database " +
+        "connection.";
+    private static final String TIMED_OUT = "Server is overloaded. Timed out after %d ms waiting for a database " +
+        "connection for %s request.";
+
+    private final Map<OperationClass, Gate> gates = new EnumMap<>(OperationClass.class);
+    private final Metrics metrics = new Metrics("admission");
+
+    public DaoAdmissionController(
+        @Value("${spring.datasource.hikari.maximum-pool-size}") int poolSize,
+        @Value("${database.admission.read.permits:5}") int readPermits,
+        @Value("${database.admission.read.queue:100}") int readQueue,
+        @Value("${database.admission.read.timeout:10000}") long readTimeout,
+        @Value("${database.admission.write.permits:3}") int writePermits,
+        @Value("${database.admission.write.queue:100}") int writeQueue,
+        @Value("${database.admission.write.timeout:30000}") long writeTimeout,
+        @Value("${database.admission.mqtt.permits:2}") int mqttPermits,
+        @Value("${database.admission.mqtt.queue:1000}") int mqttQueue,
+        @Value("${database.admission.mqtt.timeout:30000}") long mqttTimeout) {
+        gates.put(OperationClass.READ, new Gate(OperationClass.READ, readPermits, readQueue, readTimeout));
+        gates.put(OperationClass.WRITE, new Gate(OperationClass.WRITE, writePermits, writeQueue, writeTimeout));
+        gates.put(OperationClass.MQTT_INGEST,
+                  new Gate(OperationClass.MQTT_INGEST, mqttPermits, mqttQueue, mqttTimeout));
+
+        if (readPermits + writePermits + mqttPermits > poolSize) {
+            LOGGER.warn("Sum of database.admission.*.permits ({}) exceeds database connection pool size ({}). " +
+                            "Requests may block while waiting for a connection.",
+                        readPermits + writePermits + mqttPermits,
+                        poolSize);
+        }
+    }
+
+    /**
+     * Acquires a permit for the given class of operation. Fails fast if too many threads are already waiting or no
+     * permit becomes available within the configured timeout.
+     *
+     * @param operationClass class of the operation
+     * @throws STACRUDException with HTTP 503 if the operation could not be admitted
+     */
+    public void acquire(OperationClass operationClass) throws STACRUDException {
+        Gate gate = gates.get(operationClass);
+        if (gate.waiting.incrementAndGet() > gate.maxQueue) {
+            gate.waiting.decrementAndGet();
+            gate.rejected.incrementAndGet();
+            LOGGER.debug("Rejected {} request as queue is full.", operationClass);
+            throw new STACRUDException(String.format(QUEUE_FULL, operationClass), HTTPStatus.SERVICE_UNAVAILABLE);
+        }
+
+        boolean acquired;
+        long start = System.nanoTime();
+        try {
+            acquired = gate.semaphore.tryAcquire(gate.timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new STACRUDException(e.getMessage(), e);
+        } finally {
+            gate.waiting.decrementAndGet();
+        }
+        long waited = System.nanoTime() - start;
+
+        if (acquired) {
+            gate.admitted.incrementAndGet();
+            gate.totalWaitNanos.addAndGet(waited);
+            gate.maxWaitNanos.accumulateAndGet(waited, Math::max);
+        } else {
+            gate.timedOut.incrementAndGet();
+            LOGGER.debug("Rejected {} request after timeout.", operationClass);
+            throw new STACRUDException(String.format(TIMED_OUT, gate.timeout, operationClass),
+                                       HTTPStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Releases a permit previously acquired via {@link #acquire(OperationClass)}.
+     *
+     * @param operationClass class of the operation
+     */
+    public void release(OperationClass operationClass) {
+        gates.get(operationClass).semaphore.release();
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public enum OperationClass {
+        READ, WRITE, MQTT_INGEST
+    }
+
+    private final class Gate {
+
+        private final Semaphore semaphore;
+        private final int permits;
+        private final int maxQueue;
+        private final long timeout;
+
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicLong admitted;
+        private final AtomicLong rejected;
+        private final AtomicLong timedOut;
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private Gate(OperationClass operationClass, int permits, int maxQueue, long timeout) {
+            this.semaphore = new Semaphore(permits, true);
+            this.permits = permits;
+            this.maxQueue = maxQueue;
+            this.timeout = timeout;
+
+            String prefix = operationClass.name().toLowerCase(Locale.ROOT) + ".";
+            this.admitted = metrics.counter(prefix + "admitted");
+            this.rejected = metrics.counter(prefix + "rejected");
+            this.timedOut = metrics.counter(prefix + "timedOut");
+            metrics.gauge(prefix + "waiting", waiting::get);
+            metrics.gauge(prefix + "active", () -> permits - semaphore.availablePermits());
+            metrics.gauge(prefix + "averageWaitMicros", () -> {
+                long count = admitted.get();
+                return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.get() / count);
+            });
+            metrics.gauge(prefix + "maxWaitMicros", () -> TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+        }
+    }
+}
@@ -30,10 +30,18 @@
 package org.n52.sta;
 
 import org.hibernate.boot.model.TypeContributor;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
 import org.hibernate.jpa.boot.spi.TypeContributorList;
 import org.hibernate.type.BasicType;
 import org.n52.hibernate.type.SmallBooleanType;
+import org.n52.series.db.beans.CategoryEntity;
+import org.n52.series.db.beans.FormatEntity;
+import org.n52.series.db.beans.PhenomenonEntity;
+import org.n52.series.db.beans.PlatformEntity;
+import org.n52.series.db.beans.ProcedureEntity;
+import org.n52.series.db.beans.UnitEntity;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
 import org.springframework.context.annotation.Bean;
@@ -45,6 +53,7 @@ import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -53,26 +62,74 @@ import java.util.Map;
 @Configuration
 public class DaoConfig {
 
+    /**
+     * Cache regions of the slow-changing entities held in the second-level cache. Regions are configured in the file
+     * given by database.cache.secondLevel.config.
+     */
+    private static final Map<Class<?>, String> CACHE_REGIONS = new LinkedHashMap<>();
+
+    private static final String CACHE_PROVIDER = "org.ehcache.jsr107.EhcacheCachingProvider";
+    private static final String CACHE_REGION_FACTORY = "jcache";
+    private static final String CACHE_USAGE = "read-write,";
+
+    static {
+        CACHE_REGIONS.put(PlatformEntity.class, "sta.things");
+        CACHE_REGIONS.put(ProcedureEntity.class, "sta.sensors");
+        CACHE_REGIONS.put(PhenomenonEntity.class, "sta.observedProperties");
+        CACHE_REGIONS.put(UnitEntity.class, "sta.units");
+        CACHE_REGIONS.put(FormatEntity.class, "sta.formats");
+        CACHE_REGIONS.put(CategoryEntity.class, "sta.categories");
+    }
+
     @Value("${database.jpa.persistence-location}")
     private String persistenceXmlLocation;
 
+    @Value("${database.cache.secondLevel.enabled:false}")
+    private boolean secondLevelCacheEnabled;
+
+    @Value("${database.cache.secondLevel.config:sta-cache.xml}")
+    private String secondLevelCacheConfig;
+
     @Bean
     public EntityManagerFactory entityManagerFactory(DataSource datasource, JpaProperties properties) {
         LocalContainerEntityManagerFactoryBean emf = new LocalContainerEntityManagerFactoryBean();
         emf.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
-        emf.setJpaPropertyMap(addCustomTypes(properties));
+        emf.setJpaPropertyMap(createJpaProperties(properties));
         emf.setPersistenceXmlLocation(persistenceXmlLocation);
         emf.setDataSource(datasource);
         emf.afterPropertiesSet();
         return emf.getNativeEntityManagerFactory();
     }
 
-    private Map<String, Object> addCustomTypes(JpaProperties jpaProperties) {
+    private Map<String, Object> createJpaProperties(JpaProperties jpaProperties) {
         Map<String, Object> properties = new HashMap<>(jpaProperties.getProperties());
         properties.put(EntityManagerFactoryBuilderImpl.TYPE_CONTRIBUTORS, createTypeContributorsList());
+        if (secondLevelCacheEnabled) {
+            addSecondLevelCache(properties);
+        } else {
+            // Hibernate would otherwise pick up the JCache provider present on the classpath
+            properties.putIfAbsent(AvailableSettings.USE_SECOND_LEVEL_CACHE, Boolean.FALSE.toString());
+        }
         return properties;
     }
 
+    /**
+     * Enables the second-level and query cache for the entities given in {@link #CACHE_REGIONS}. Hibernate keeps
+     * cached entities and query results up to date on every write it executes, so other writers of the same database
+     * (e.g. further instances) are only seen after the cached entries expire.
+     *
+     * @param properties JPA properties
+     */
+    private void addSecondLevelCache(Map<String, Object> properties) {
+        properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, Boolean.TRUE.toString());
+        properties.put(AvailableSettings.USE_QUERY_CACHE, Boolean.TRUE.toString());
+        properties.put(AvailableSettings.CACHE_REGION_FACTORY, CACHE_REGION_FACTORY);
+        properties.put(ConfigSettings.PROVIDER, CACHE_PROVIDER);
+        properties.put(ConfigSettings.CONFIG_URI, secondLevelCacheConfig);
+        CACHE_REGIONS.forEach((entity, region) -> properties.put(
+            AvailableSettings.CLASS_CACHE_PREFIX + "." + entity.getName(), CACHE_USAGE + region));
+    }
+
     private TypeContributorList createTypeContributorsList() {
         return () -> Arrays.asList(toTypeContributor(SmallBooleanType.INSTANCE, "small_boolean"));
     }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the DataSource configured via spring.datasource with a {@link ReplicaRoutingDataSource} if read replicas
+ * are configured via database.replica.urls. Primary and replicas use the connection pool settings given in
+ * spring.datasource.hikari.
+ */
+@Configuration
+@ConditionalOnExpression("!'${database.replica.urls:}'.trim().isEmpty()")
+public class ReplicaConfig {
+
+    private static final String POOL_PROPERTIES = "spring.datasource.hikari";
+
+    @Bean
+    public ReplicaRoutingDataSource dataSource(DataSourceProperties properties,
+                                               Environment environment,
+                                               @Value("${database.replica.urls}") String urls,
+                                               @Value("${database.replica.username:}") String username,
+                                               @Value("${database.replica.password:}") String password,
+                                               @Value("${database.replica.maxLag:5000}") long maxLag,
+                                               @Value("${database.replica.readYourWrites:5000}") long readYourWrites,
+                                               @Value("${database.replica.lagCheckInterval:1000}")
+                                                   long lagCheckInterval,
+                                               @Value("${database.replica.clientHeader:}") String clientHeader) {
+        DataSource primary = bindPoolProperties(properties.initializeDataSourceBuilder().build(), environment);
+        List<DataSource> replicas = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            replicas.add(bindPoolProperties(
+                properties.initializeDataSourceBuilder()
+                    .url(url.trim())
+                    .username(username.isEmpty() ? properties.determineUsername() : username)
+                    .password(password.isEmpty() ? properties.determinePassword() : password)
+                    .build(),
+                environment));
+        }
+        return new ReplicaRoutingDataSource(primary,
+                                            replicas,
+                                            maxLag,
+                                            readYourWrites,
+                                            lagCheckInterval,
+                                            clientHeader.trim());
+    }
+
+    private DataSource bindPoolProperties(DataSource dataSource, Environment environment) {
+        return Binder.get(environment).bind(POOL_PROPERTIES, Bindable.ofInstance(dataSource)).orElse(dataSource);
+    }
+}
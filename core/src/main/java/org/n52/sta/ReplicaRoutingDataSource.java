@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes connections of read-only operations to PostgreSQL read replicas. All other connections are routed to the
+ * primary. Read-only operations are marked via {@link #beginRead()} and {@link #endRead()} before their transaction
+ * is started, so all connections of an operation are obtained from the same pool.
+ * <p>
+ * Reads fall back to the primary if
+ * <ul>
+ *     <li>the same client wrote within the configured window (read-your-writes). Clients are identified by the
+ *     value of the configured request header (e.g. X-Forwarded-For set by a load balancer, or a session or token
+ *     header) and by their remote address if the header is missing or not configured. Writes outside of HTTP
+ *     requests (e.g. via MQTT) are attributed to a common client, so they only affect reads outside of HTTP
+ *     requests</li>
+ *     <li>no replica is available, i.e. all replicas failed the last lag check or lag behind the primary by more than
+ *     the configured maximum</li>
+ *     <li>the read is pinned to the primary via {@link #primary()}. Used for reads whose result outlives the request
+ *     or must reflect a change known to be committed, e.g. responses tagged with an ETag, entries of the latest
+ *     Observation cache and entities loaded for MQTT events of other instances</li>
+ * </ul>
+ * Replicas are checked periodically. Servers that are not in recovery (e.g. a second database used for local
+ * testing) are considered to have no lag.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable, MetricsSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica-";
+    private static final String NON_HTTP_CLIENT = "";
+    private static final int MAX_TRACKED_CLIENTS = 10000;
+    private static final String LAG_QUERY = "SELECT CASE WHEN pg_is_in_recovery() "
+        + "AND pg_last_wal_receive_lsn() IS DISTINCT FROM pg_last_wal_replay_lsn() "
+        + "THEN CAST(COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) AS BIGINT) "
+        + "ELSE 0 END";
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLag;
+    private final long readYourWritesNanos;
+    private final String clientHeader;
+    private final ScheduledExecutorService lagChecker;
+
+    private final ThreadLocal<Replica> route = new ThreadLocal<>();
+    private final ThreadLocal<Integer> pinned = new ThreadLocal<>();
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Metrics metrics = new Metrics("replicaRouting");
+    private final AtomicLong primaryConnections = metrics.counter("primary.connections");
+    private final AtomicLong readYourWritesFallbacks = metrics.counter("readYourWritesFallbacks");
+    private final AtomicLong unavailableFallbacks = metrics.counter("unavailableFallbacks");
+    private final AtomicLong pinnedReads = metrics.counter("pinnedReads");
+
+    /**
+     * @param primary           DataSource of the primary
+     * @param replicas          DataSources of the replicas
+     * @param maxLag            maximum lag in ms of a replica to be used
+     * @param readYourWrites    time in ms after a write of a client during which its reads are routed to the primary
+     * @param lagCheckInterval  interval in ms between lag checks
+     * @param clientHeader      request header identifying clients for read-your-writes. Empty to use the remote
+     *                          address
+     */
+    public ReplicaRoutingDataSource(DataSource primary,
+                                    List<DataSource> replicas,
+                                    long maxLag,
+                                    long readYourWrites,
+                                    long lagCheckInterval,
+                                    String clientHeader) {
+        this.primary = primary;
+        this.maxLag = maxLag;
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWrites);
+        this.clientHeader = clientHeader;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = new Replica(REPLICA + i, replicas.get(i));
+            this.replicas.add(replica);
+            targets.put(replica.name, replica.dataSource);
+            metrics.gauge(replica.name + ".connections", replica.connections::get);
+            metrics.gauge(replica.name + ".lag", () -> replica.lag);
+            metrics.gauge(replica.name + ".available", () -> replica.available ? 1 : 0);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+
+        this.lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sta-replica-lag");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lagChecker.scheduleWithFixedDelay(this::checkLag, 0, lagCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks the current thread as executing a read-only operation, so that its connections are routed to a replica if
+     * possible. Must be called before the transaction of the operation is started.
+     */
+    public void beginRead() {
+        if (pinned.get() != null) {
+            pinnedReads.incrementAndGet();
+            return;
+        }
+        Long lastWrite = lastWrites.get(currentClient());
+        if (lastWrite != null && System.nanoTime() - lastWrite < readYourWritesNanos) {
+            readYourWritesFallbacks.incrementAndGet();
+            return;
+        }
+        Replica replica = selectReplica();
+        if (replica == null) {
+            unavailableFallbacks.incrementAndGet();
+            return;
+        }
+        route.set(replica);
+    }
+
+    /**
+     * Ends the read-only operation started via {@link #beginRead()}.
+     */
+    public void endRead() {
+        route.remove();
+    }
+
+    /**
+     * Routes all reads of the current thread to the primary until the returned scope is closed. Must be opened before
+     * the read is started, as connections of a running transaction are not rerouted. Scopes may be nested.
+     *
+     * @return scope to be closed once the reads have finished
+     */
+    public PrimaryScope primary() {
+        Integer depth = pinned.get();
+        pinned.set(depth == null ? 1 : depth + 1);
+        return () -> {
+            int remaining = pinned.get() - 1;
+            if (remaining == 0) {
+                pinned.remove();
+            } else {
+                pinned.set(remaining);
+            }
+        };
+    }
+
+    /**
+     * Checks whether the read-only operation of the current thread is served by a replica.
+     *
+     * @return true if connections of the current thread are routed to a replica
+     */
+    public boolean isReadingFromReplica() {
+        return route.get() != null;
+    }
+
+    /**
+     * Records a write of the current client, so that its reads are routed to the primary for the configured window.
+     * Must be called after the transaction of the write has completed.
+     */
+    public void written() {
+        long now = System.nanoTime();
+        if (lastWrites.size() > MAX_TRACKED_CLIENTS) {
+            lastWrites.values().removeIf(lastWrite -> now - lastWrite >= readYourWritesNanos);
+        }
+        lastWrites.put(currentClient(), now);
+    }
+
+    /**
+     * Provides metrics about the routing of connections: connections obtained per pool, reads routed to the primary
+     * per reason and lag and availability per replica as of the last check.
+     *
+     * @return metrics
+     */
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Replica replica = route.get();
+        if (replica == null) {
+            primaryConnections.incrementAndGet();
+            return PRIMARY;
+        }
+        replica.connections.incrementAndGet();
+        return replica.name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lagChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            closeDataSource(replica.dataSource);
+        }
+        closeDataSource(primary);
+    }
+
+    private Replica selectReplica() {
+        int size = replicas.size();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.available && replica.lag <= maxLag) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void checkLag() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery(LAG_QUERY)) {
+                result.next();
+                replica.lag = result.getLong(1);
+                if (!replica.available) {
+                    LOGGER.info("Replica {} is available with a lag of {} ms.", replica.name, replica.lag);
+                }
+                replica.available = true;
+            } catch (SQLException | RuntimeException e) {
+                if (replica.available) {
+                    LOGGER.warn("Replica {} is unavailable. Routing reads to other replicas or the primary.",
+                                replica.name,
+                                e);
+                }
+                replica.available = false;
+            }
+        }
+    }
+
+    private String currentClient() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes) {
+            HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+            String client = clientHeader.isEmpty() ? null : request.getHeader(clientHeader);
+            return client == null || client.isEmpty() ? request.getRemoteAddr() : client;
+        }
+        return NON_HTTP_CLIENT;
+    }
+
+    private static void closeDataSource(DataSource dataSource) throws IOException {
+        if (dataSource instanceof Closeable) {
+            ((Closeable) dataSource).close();
+        }
+    }
+
+    /**
+     * Scope of reads pinned to the primary.
+     */
+    @FunctionalInterface
+    public interface PrimaryScope extends AutoCloseable {
+
+        @Override void close();
+    }
+
+    private static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private final AtomicLong connections = new AtomicLong();
+        private volatile long lag;
+        private volatile boolean available;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
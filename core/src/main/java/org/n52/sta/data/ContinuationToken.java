@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data;
+
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Opaque token used for keyset pagination of Observations. Encodes the sort keys (samplingTimeStart + id) of the
+ * last Observation on a page, so that the next page can be retrieved via a seek predicate instead of an offset.
+ */
+public final class ContinuationToken {
+
+    /**
+     * Name of the query parameter carrying the token
+     */
+    public static final String QUERY_PARAMETER = "$skiptoken";
+
+    private static final String SEPARATOR = ":";
+    private static final String INVALID_TOKEN = "Invalid $skiptoken: ";
+
+    private final Date samplingTimeStart;
+
+    private final long id;
+
+    public ContinuationToken(Date samplingTimeStart, long id) {
+        this.samplingTimeStart = samplingTimeStart;
+        this.id = id;
+    }
+
+    /**
+     * Creates a token pointing behind the given Observation.
+     *
+     * @param last last Observation of the current page
+     * @return token for the next page
+     */
+    public static ContinuationToken after(DataEntity<?> last) {
+        return new ContinuationToken(last.getSamplingTimeStart(), last.getId());
+    }
+
+    /**
+     * Decodes a token as previously created by {@link #encode()}.
+     *
+     * @param token encoded token
+     * @return decoded token
+     * @throws STACRUDException if the token is malformed
+     */
+    public static ContinuationToken decode(String token) throws STACRUDException {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] split = decoded.split(SEPARATOR);
+            if (split.length != 2) {
+                throw new STACRUDException(INVALID_TOKEN + token, HTTPStatus.BAD_REQUEST);
+            }
+            return new ContinuationToken(new Date(Long.parseLong(split[0])), Long.parseLong(split[1]));
+        } catch (IllegalArgumentException e) {
+            throw new STACRUDException(INVALID_TOKEN + token, HTTPStatus.BAD_REQUEST);
+        }
+    }
+
+    public String encode() {
+        String raw = samplingTimeStart.getTime() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Date getSamplingTimeStart() {
+        return samplingTimeStart;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.FlushEntityEvent;
+import org.hibernate.event.spi.FlushEntityEventListener;
+import org.hibernate.type.Type;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the names of all properties Hibernate detected as changed while flushing an entity. Used to create the
+ * differenceMap for MQTT subscriptions without loading the original state of an entity a second time.
+ * Changes are recorded per session and discarded when the transaction completes.
+ */
+@Component
+public class EntityChangeTracker implements FlushEntityEventListener {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final Map<SessionImplementor, Map<Object, Set<String>>> changes = new ConcurrentHashMap<>();
+
+    public EntityChangeTracker(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @PostConstruct
+    public void register() {
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .getService(EventListenerRegistry.class)
+            .appendListeners(EventType.FLUSH_ENTITY, this);
+    }
+
+    /**
+     * Called after Hibernate's default dirty-checking of the entity. Records dirty properties and dirty collections.
+     *
+     * @param event flush event
+     */
+    @Override
+    public void onFlushEntity(FlushEntityEvent event) {
+        Set<String> changed = null;
+        String[] names = event.getEntityEntry().getPersister().getPropertyNames();
+        int[] dirty = event.getDirtyProperties();
+        if (dirty != null && dirty.length > 0) {
+            changed = new HashSet<>();
+            for (int index : dirty) {
+                changed.add(names[index]);
+            }
+        }
+        if (event.hasDirtyCollection() && event.getPropertyValues() != null) {
+            Type[] types = event.getEntityEntry().getPersister().getPropertyTypes();
+            Object[] values = event.getPropertyValues();
+            for (int i = 0; i < types.length; i++) {
+                if (types[i].isCollectionType() && isDirtyCollection(event.getSession(), values[i])) {
+                    if (changed == null) {
+                        changed = new HashSet<>();
+                    }
+                    changed.add(names[i]);
+                }
+            }
+        }
+        if (changed != null) {
+            record(event.getSession(), event.getEntity(), changed);
+        }
+    }
+
+    /**
+     * Returns and forgets the names of all properties of the given entity that were changed and flushed inside the
+     * current transaction of the given session.
+     *
+     * @param session session that flushed the entity
+     * @param entity  managed entity
+     * @return names of changed properties. Empty if no changes were flushed.
+     */
+    public Set<String> getChangedProperties(SessionImplementor session, Object entity) {
+        Map<Object, Set<String>> sessionChanges = changes.get(session);
+        if (sessionChanges == null) {
+            return Collections.emptySet();
+        }
+        Set<String> changed = sessionChanges.remove(entity);
+        return changed == null ? Collections.emptySet() : changed;
+    }
+
+    private void record(EventSource session, Object entity, Set<String> changed) {
+        Map<Object, Set<String>> sessionChanges = changes.get(session);
+        if (sessionChanges == null) {
+            // Sessions are not used concurrently, so there is no race between get and put
+            sessionChanges = new IdentityHashMap<>();
+            changes.put(session, sessionChanges);
+            session.getActionQueue()
+                .registerProcess((AfterTransactionCompletionProcess) (success, s) -> changes.remove(session));
+        }
+        sessionChanges.computeIfAbsent(entity, e -> new HashSet<>()).addAll(changed);
+    }
+
+    private boolean isDirtyCollection(EventSource session, Object value) {
+        if (value instanceof PersistentCollection) {
+            PersistentCollection collection = (PersistentCollection) value;
+            CollectionEntry entry = session.getPersistenceContext().getCollectionEntry(collection);
+            // Collection was replaced by a new one
+            return collection.isDirty() || entry == null || entry.getLoadedPersister() == null;
+        }
+        return value != null;
+    }
+}
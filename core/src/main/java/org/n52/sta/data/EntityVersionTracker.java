@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data;
+
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a version counter and modification time per Entity Type. Counters are incremented after each write that may
+ * change the representation of entities of the type. Used to answer conditional requests without accessing the
+ * database. Counters are local to this instance and start anew on restart, so versions are prefixed with a random
+ * epoch.
+ */
+@Component
+public class EntityVersionTracker {
+
+    public static final Set<String> ENTITY_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        StaConstants.THINGS,
+        StaConstants.LOCATIONS,
+        StaConstants.HISTORICAL_LOCATIONS,
+        StaConstants.SENSORS,
+        StaConstants.DATASTREAMS,
+        StaConstants.OBSERVATIONS,
+        StaConstants.OBSERVED_PROPERTIES,
+        StaConstants.FEATURES_OF_INTEREST)));
+
+    private final String epoch = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+    private final Map<String, AtomicLong> versions = new HashMap<>();
+    private final Map<String, AtomicLong> lastModified = new HashMap<>();
+
+    public EntityVersionTracker() {
+        long now = System.currentTimeMillis();
+        for (String type : ENTITY_TYPES) {
+            versions.put(type, new AtomicLong());
+            lastModified.put(type, new AtomicLong(now));
+        }
+    }
+
+    /**
+     * Marks the given Entity Types as changed. Must be called after the changes were committed.
+     *
+     * @param entityTypes changed Entity Types
+     */
+    public void changed(Collection<String> entityTypes) {
+        long now = System.currentTimeMillis();
+        for (String type : entityTypes) {
+            AtomicLong version = versions.get(type);
+            if (version != null) {
+                version.incrementAndGet();
+                lastModified.get(type).accumulateAndGet(now, Math::max);
+            }
+        }
+    }
+
+    /**
+     * Marks all Entity Types as changed. Must be called after the changes were committed.
+     */
+    public void changedAll() {
+        changed(ENTITY_TYPES);
+    }
+
+    /**
+     * Gets a version identifying the state of all given Entity Types. Changes whenever any of the types changes.
+     *
+     * @param entityTypes Entity Types
+     * @return version
+     */
+    public String getVersion(Collection<String> entityTypes) {
+        long sum = 0;
+        for (String type : entityTypes) {
+            AtomicLong version = versions.get(type);
+            if (version != null) {
+                sum += version.get();
+            }
+        }
+        return epoch + "-" + Long.toHexString(sum);
+    }
+
+    /**
+     * Gets the time of the last change of any of the given Entity Types.
+     *
+     * @param entityTypes Entity Types
+     * @return time of the last change in milliseconds since epoch. Not truncated to HTTP date resolution
+     */
+    public long getLastModified(Collection<String> entityTypes) {
+        long max = 0;
+        for (String type : entityTypes) {
+            AtomicLong modified = lastModified.get(type);
+            if (modified != null) {
+                max = Math.max(max, modified.get());
+            }
+        }
+        return max;
+    }
+}
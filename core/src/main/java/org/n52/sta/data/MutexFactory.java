@@ -32,10 +32,18 @@ package org.n52.sta.data;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.ConcurrentReferenceHashMap;
 
+import javax.persistence.EntityManager;
+
 /**
+ * Provides locks used to serialize check-then-insert operations on database entities. Locks are held in the JVM. If
+ * database.coordination is set to 'advisory' a PostgreSQL transaction-level advisory lock with the same name is
+ * acquired additionally, so that multiple instances sharing a database are serialized as well.
+ *
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 @Component
@@ -43,28 +51,73 @@ public class MutexFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MutexFactory.class);
 
+    // Namespace of all advisory locks taken by STA, so that locks do not clash with other users of the database
+    private static final int ADVISORY_LOCK_NAMESPACE = 0x52535441;
+    private static final String ADVISORY_LOCK =
+        "select 1 from pg_advisory_xact_lock(:namespace, :key)";
+
     // MutexMap used for locking during thread-bound in-memory computations on database entities
     private ConcurrentReferenceHashMap<String, Object> lock;
 
-    public MutexFactory() {
+    private final CoordinationMode coordinationMode;
+    private final EntityManager em;
+
+    public MutexFactory(@Value("${database.coordination:local}") String coordinationMode,
+                        EntityManager em) {
         this.lock = new ConcurrentReferenceHashMap<>();
+        this.coordinationMode = CoordinationMode.valueOf(coordinationMode.trim().toUpperCase());
+        this.em = em;
     }
 
     /**
      * Gets a lock with given name from global lockMap. Name is unique per EntityType.
-     * Uses weak references so Map is automatically cleared by GC.
+     * Uses weak references so Map is automatically cleared by GC. Does not need to be synchronized as compute is
+     * atomic.
+     * If coordination via advisory locks is enabled, the database lock with the same name is acquired before
+     * returning. It is held until the current transaction ends.
      *
      * @param key name of the lock
      * @return Object used for holding the lock
      * @throws STACRUDException If the lock can not be obtained.
      */
-    public synchronized Object getLock(String key) throws STACRUDException {
+    public Object getLock(String key) throws STACRUDException {
         if (key != null) {
             LOGGER.debug("Locking:" + key);
+            if (coordinationMode == CoordinationMode.ADVISORY) {
+                acquireAdvisoryLock(key);
+            }
             return this.lock.compute(key, (k, v) -> v == null ? new Object() : v);
         } else {
             throw new STACRUDException("Unable to obtain Lock. No name specified!");
         }
     }
 
+    private void acquireAdvisoryLock(String key) throws STACRUDException {
+        // Advisory lock is released on commit, so it is useless (and would be released immediately) without
+        // surrounding transaction
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            LOGGER.debug("Not acquiring advisory lock for {} as no transaction is active", key);
+            return;
+        }
+        try {
+            em.createNativeQuery(ADVISORY_LOCK)
+                .setParameter("namespace", ADVISORY_LOCK_NAMESPACE)
+                .setParameter("key", key.hashCode())
+                .getSingleResult();
+        } catch (RuntimeException e) {
+            throw new STACRUDException("Unable to obtain Lock: " + key, e);
+        }
+    }
+
+    enum CoordinationMode {
+        /**
+         * Locks are only held inside this instance
+         */
+        LOCAL,
+        /**
+         * Locks are additionally held in the database, serializing all instances sharing the database
+         */
+        ADVISORY
+    }
+
 }
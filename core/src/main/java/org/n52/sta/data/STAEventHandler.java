@@ -30,7 +30,6 @@
 package org.n52.sta.data;
 
 import org.n52.sta.data.service.EntityServiceRepository;
-import org.springframework.scheduling.annotation.Async;
 
 import java.util.Map;
 import java.util.Set;
@@ -43,14 +42,14 @@ import java.util.Set;
 public interface STAEventHandler {
 
     /**
-     * Handles a Create/Update Event emitted by the Database.
+     * Handles a Create/Update Event emitted by the Database. Called from within the writing transaction, so
+     * implementations should hand off expensive work instead of processing it on the calling thread.
      *
      * @param entity             base entity
      * @param entityType         java class name of entity
      * @param differenceMap      names of properties that changed. null if all properties changed (e.g. new entity)
      * @param relatedCollections List of related Collections
      */
-    @Async
     void handleEvent(Object entity,
                      String entityType,
                      Set<String> differenceMap,
@@ -40,6 +40,7 @@ import org.n52.series.db.beans.parameter.observation.ObservationParameterEntity;
 import org.n52.shetland.ogc.filter.FilterConstants;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STAInvalidFilterExpressionException;
+import org.n52.sta.data.ContinuationToken;
 import org.springframework.data.jpa.domain.Specification;
 
 import javax.persistence.criteria.Expression;
@@ -47,6 +48,7 @@ import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Subquery;
+import java.util.Date;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -95,6 +97,23 @@ public class ObservationQuerySpecifications extends EntityQuerySpecifications<Da
         return (root, query, builder) -> builder.equal(root.get(DataEntity.PROPERTY_PARENT), parentId);
     }
 
+    /**
+     * Seek predicate for keyset pagination. Matches all Observations sorted after the position encoded in the
+     * given token, assuming ordering by samplingTimeStart and id (both ascending).
+     *
+     * @param token position of the last Observation of the previous page
+     * @return Specification matching all Observations after the token
+     */
+    public static Specification<DataEntity<?>> afterContinuationToken(final ContinuationToken token) {
+        return (root, query, builder) -> {
+            Expression<Date> samplingTimeStart = root.get(DataEntity.PROPERTY_SAMPLING_TIME_START);
+            return builder.or(
+                builder.greaterThan(samplingTimeStart, token.getSamplingTimeStart()),
+                builder.and(builder.equal(samplingTimeStart, token.getSamplingTimeStart()),
+                            builder.greaterThan(root.get(DataEntity.PROPERTY_ID), token.getId())));
+        };
+    }
+
     @Override protected Specification<DataEntity<?>> handleRelatedPropertyFilter(
         String propertyName,
         Specification<?> propertyValue) {
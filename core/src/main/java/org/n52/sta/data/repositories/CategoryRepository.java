@@ -30,16 +30,20 @@
 package org.n52.sta.data.repositories;
 
 import org.n52.series.db.beans.CategoryEntity;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
 import java.util.Optional;
 
 @Transactional
 @Repository
 public interface CategoryRepository extends EntityGraphRepository<CategoryEntity, Long> {
 
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
     boolean existsByIdentifier(String identifier);
 
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
     Optional<CategoryEntity> findByIdentifier(String identifier);
 }
@@ -31,6 +31,7 @@ package org.n52.sta.data.repositories;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -40,6 +41,7 @@ import org.springframework.lang.Nullable;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository shadowing JpaSpecificationExecutor methods with additional EntityGraph Parameters.
@@ -116,6 +118,41 @@ public interface EntityGraphRepository<T, I> extends JpaSpecificationExecutor<T>
      */
     Page<T> findAll(@Nullable Specification<T> spec, Pageable pageable, FetchGraph... fetchGraphs);
 
+    /**
+     * Returns a {@link Slice} of entities matching the given {@link Specification}. In contrast to
+     * {@link #findAll(Specification, Pageable, FetchGraph...)} no count query is executed. Whether there is a next
+     * slice is determined by fetching one additional entity.
+     * Additionally fetches all related entities given by the provided EntityGraph. Graphs should not contain
+     * collections as this forces pagination to be done in memory.
+     *
+     * @param spec        can be {@literal null}.
+     * @param pageable    must not be {@literal null}.
+     * @param fetchGraphs string representation of EntityGraph.
+     * @return never {@literal null}.
+     */
+    Slice<T> findSlice(@Nullable Specification<T> spec, Pageable pageable, FetchGraph... fetchGraphs);
+
+    /**
+     * Estimates the number of entities based on table statistics of the database. Falls back to an exact count if no
+     * statistics are available. Only supported on PostgreSQL.
+     *
+     * @return estimated number of entities
+     */
+    long estimateCount();
+
+    /**
+     * Returns a {@link Stream} of entities matching the given {@link Specification}. Entities are read from a
+     * database cursor in chunks of fetchSize, so the page is never fully held in memory. At most
+     * pageSize + 1 entities are returned, the additional entity indicating that there is a next page.
+     * Must be called within a transaction, which must stay open until the stream is consumed and closed.
+     *
+     * @param spec      can be {@literal null}.
+     * @param pageable  must not be {@literal null}.
+     * @param fetchSize number of rows fetched from the database per roundtrip
+     * @return never {@literal null}.
+     */
+    Stream<T> stream(@Nullable Specification<T> spec, Pageable pageable, int fetchSize);
+
     /**
      * Returns all entities matching the given {@link Specification} and {@link Sort}. Additionally fetches all
      * related entities given by the provided EntityGraph. All provided Graphs are merged internally.
@@ -37,8 +37,4 @@ import org.springframework.transaction.annotation.Transactional;
 @Repository
 public interface FormatRepository extends EntityGraphRepository<FormatEntity, Long> {
 
-    boolean existsByFormat(String format);
-
-    FormatEntity findByFormat(String format);
-
 }
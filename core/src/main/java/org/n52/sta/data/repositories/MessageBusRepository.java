@@ -33,6 +33,8 @@ import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.graph.EntityGraphs;
 import org.hibernate.graph.GraphParser;
 import org.hibernate.graph.RootGraph;
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.n52.series.db.beans.AbstractDatasetEntity;
 import org.n52.series.db.beans.AbstractFeatureEntity;
 import org.n52.series.db.beans.DataEntity;
@@ -41,12 +43,12 @@ import org.n52.series.db.beans.IdEntity;
 import org.n52.series.db.beans.PhenomenonEntity;
 import org.n52.series.db.beans.PlatformEntity;
 import org.n52.series.db.beans.ProcedureEntity;
-import org.n52.series.db.beans.parameter.ParameterEntity;
 import org.n52.series.db.beans.sta.HistoricalLocationEntity;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.SpringApplicationContext;
+import org.n52.sta.data.EntityChangeTracker;
 import org.n52.sta.data.STAEventHandler;
 import org.n52.sta.data.query.DatastreamQuerySpecifications;
 import org.slf4j.Logger;
@@ -54,6 +56,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.query.QueryUtils;
@@ -65,29 +69,34 @@ import org.springframework.util.Assert;
 
 import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class MessageBusRepository<T, I extends Serializable>
     extends SimpleJpaRepository<T, I> implements RepositoryConstants {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageBusRepository.class);
+    private static final String ESTIMATE_COUNT_QUERY =
+        "SELECT CAST(reltuples AS bigint) FROM pg_class WHERE oid = to_regclass(?1)";
+    private static final String PROPERTY_UNIT = "unit";
+    private static final String PROPERTY_VALUE = "value";
+    private static final Map<Class<?>, Map<String, String>> PROPERTY_MAPPINGS = createPropertyMappings();
 
     private final Map<String, String> entityTypeToStaType;
     private final String FETCHGRAPH_HINT = "javax.persistence.fetchgraph";
@@ -97,12 +106,20 @@ public class MessageBusRepository<T, I extends Serializable>
 
     private final JpaEntityInformation entityInformation;
     private final STAEventHandler mqttHandler;
-    // Used actively by the
+    private final EntityChangeTracker changeTracker;
     private final EntityManager em;
-    private final EntityManager databaseEm;
     private final Class<T> entityClass;
     private final CriteriaBuilder criteriaBuilder;
 
+    // Identifier lookups are fixed HQL strings, so Hibernate translates each of them only once (query plan cache)
+    private final String findByIdQuery;
+    private final String findByIdentifierQuery;
+    private final String findByStaIdentifierQuery;
+    private final String existsByStaIdentifierQuery;
+
+    // Merged, immutable fetch graphs keyed by the bit set of the ordinals of their FetchGraphs
+    private final Map<Long, RootGraph<T>> fetchGraphs = new ConcurrentHashMap<>();
+
     // Is set in Repositories that need it to get related Collections for mqtt handling
     private DatastreamRepository datastreamRepository;
     private DatastreamQuerySpecifications dQs = new DatastreamQuerySpecifications();
@@ -113,19 +130,23 @@ public class MessageBusRepository<T, I extends Serializable>
         super(entityInformation, entityManager);
         this.em = entityManager;
 
-        EntityManagerFactory factory =
-            (EntityManagerFactory) SpringApplicationContext.getBean(EntityManagerFactory.class);
-        Assert.notNull(factory, "Could not autowire EntityManagerFactory!");
-        this.databaseEm = factory.createEntityManager();
-
         this.entityInformation = entityInformation;
         this.entityClass = entityInformation.getJavaType();
         this.entityTypeToStaType = this.createEntityTypeToStaTypeMapping();
         this.criteriaBuilder = em.getCriteriaBuilder();
 
+        String from = " FROM " + entityClass.getName() + " e WHERE e.";
+        this.findByIdQuery = "SELECT e" + from + ID + " = :" + ID;
+        this.findByIdentifierQuery = "SELECT e" + from + IDENTIFIER + " = :" + IDENTIFIER;
+        this.findByStaIdentifierQuery = "SELECT e" + from + STAIDENTIFIER + " = :" + STAIDENTIFIER;
+        this.existsByStaIdentifierQuery = "SELECT e." + ID + from + STAIDENTIFIER + " = :" + STAIDENTIFIER;
+
         this.mqttHandler = (STAEventHandler) SpringApplicationContext.getBean(STAEventHandler.class);
         Assert.notNull(this.mqttHandler, "Could not autowire Mqtt handler!");
 
+        this.changeTracker = (EntityChangeTracker) SpringApplicationContext.getBean(EntityChangeTracker.class);
+        Assert.notNull(this.changeTracker, "Could not autowire EntityChangeTracker!");
+
         if (this.entityClass.equals(DataEntity.class)
             || this.entityClass.equals(ProcedureEntity.class)
             || this.entityClass.equals(PhenomenonEntity.class)) {
@@ -135,15 +156,6 @@ public class MessageBusRepository<T, I extends Serializable>
         }
     }
 
-    private TypedQuery<T> createIdentifierQuery(String identifier, String column) {
-        CriteriaQuery<T> criteriaQuery = criteriaBuilder.createQuery(entityClass);
-        Root<T> root = criteriaQuery.from(entityClass);
-
-        ParameterExpression<String> params = criteriaBuilder.parameter(String.class);
-        criteriaQuery.where(criteriaBuilder.equal(root.get(column), params));
-        return em.createQuery(criteriaQuery).setParameter(params, identifier);
-    }
-
     private HashMap<String, String> createEntityTypeToStaTypeMapping() {
         HashMap<String, String> map = new HashMap<>(11);
         map.put(ENTITYNAME_OBSERVATION, StaConstants.OBSERVATIONS);
@@ -208,23 +220,20 @@ public class MessageBusRepository<T, I extends Serializable>
 
     @Transactional
     public Optional<T> findByIdentifier(String identifier, EntityGraphRepository.FetchGraph... entityGraphs) {
-        return findByQuery(createIdentifierQuery(identifier, IDENTIFIER), entityGraphs);
+        return findByQuery(em.createQuery(findByIdentifierQuery, entityClass).setParameter(IDENTIFIER, identifier),
+                           entityGraphs);
     }
 
     @Transactional
     public Optional<T> findById(Long id, EntityGraphRepository.FetchGraph... entityGraphs) {
-        CriteriaQuery<T> criteriaQuery = criteriaBuilder.createQuery(entityClass);
-        Root<T> root = criteriaQuery.from(entityClass);
-
-        ParameterExpression<Long> params = criteriaBuilder.parameter(Long.class);
-        criteriaQuery.where(criteriaBuilder.equal(root.get(ID), params));
-
-        return findByQuery(em.createQuery(criteriaQuery).setParameter(params, id), entityGraphs);
+        return findByQuery(em.createQuery(findByIdQuery, entityClass).setParameter(ID, id), entityGraphs);
     }
 
     @Transactional
     public Optional<T> findByStaIdentifier(String identifier, EntityGraphRepository.FetchGraph... entityGraphs) {
-        return findByQuery(createIdentifierQuery(identifier, STAIDENTIFIER), entityGraphs);
+        return findByQuery(em.createQuery(findByStaIdentifierQuery, entityClass)
+                               .setParameter(STAIDENTIFIER, identifier),
+                           entityGraphs);
     }
 
     private Optional<T> findByQuery(TypedQuery<T> query, EntityGraphRepository.FetchGraph... entityGraphs) {
@@ -241,23 +250,19 @@ public class MessageBusRepository<T, I extends Serializable>
 
     @Transactional
     public boolean existsByStaIdentifier(String identifier) {
-        CriteriaQuery<Long> criteriaQuery = criteriaBuilder.createQuery(Long.class);
-        Root<T> root = criteriaQuery.from(entityClass);
-
-        criteriaQuery.select(criteriaBuilder.count(root));
-        ParameterExpression<String> params = criteriaBuilder.parameter(String.class);
-        criteriaQuery.where(criteriaBuilder.equal(root.get(STAIDENTIFIER), params));
-        TypedQuery<Long> query = em.createQuery(criteriaQuery).setParameter(params, identifier);
-
-        return query.getSingleResult() > 0;
+        return !em.createQuery(existsByStaIdentifierQuery)
+            .setParameter(STAIDENTIFIER, identifier)
+            .setMaxResults(1)
+            .getResultList()
+            .isEmpty();
     }
 
     @Transactional
     @Override
     public <S extends T> S save(S newEntity) {
         String entityType = entityTypeToStaType.get(entityInformation.getEntityName());
-        boolean intercept =
-            mqttHandler.getWatchedEntityTypes().contains(entityType);
+        boolean intercept = entityType != null
+            && mqttHandler.getWatchedEntityTypes().contains(entityType);
 
         if (entityInformation.isNew(newEntity)) {
             em.persist(newEntity);
@@ -267,20 +272,15 @@ public class MessageBusRepository<T, I extends Serializable>
             }
         } else {
             if (intercept) {
-                // Get original entity state from database to create differenceMap for matching MQTT Subscriptions on
-                // Entity properties
-                S oldEntity = (S) this.databaseEm.find(newEntity.getClass(), entityInformation.getId(newEntity));
-
-                // Entity was intermediateSaved and is not known to databaseEm
-                if (oldEntity == null) {
-                    oldEntity = (S) this.em.find(newEntity.getClass(), entityInformation.getId(newEntity));
-                }
-                Map<String, Object> oldProperties = getPropertyMap(oldEntity);
+                // Changed properties are recorded by Hibernate's dirty-checking while flushing. This includes
+                // changes flushed earlier in the same transaction.
                 S entity = em.merge(newEntity);
                 em.flush();
+                Set<String> changedProperties =
+                    changeTracker.getChangedProperties((SessionImplementor) em.getDelegate(), entity);
                 this.mqttHandler.handleEvent(newEntity,
                                              entityType,
-                                             computeDifference(oldProperties, getPropertyMap(newEntity)),
+                                             computeDifference(entity, changedProperties),
                                              getRelatedCollections(entity));
                 return entity;
             } else {
@@ -413,100 +413,144 @@ public class MessageBusRepository<T, I extends Serializable>
         return collections;
     }
 
-    private Set<String> computeDifference(Map<String, Object> oldProperties, Map<String, Object> newProperties) {
+    private <S extends T> Set<String> computeDifference(S entity, Set<String> changedProperties) {
+        Map<String, String> mapping = getPropertyMapping(entity);
         HashSet<String> result = new HashSet<>();
-        for (Map.Entry<String, Object> entry : oldProperties.entrySet()) {
-            if (!Objects.equals(entry.getValue(), newProperties.get(entry.getKey()))) {
-                if (SAMPLINGTIMEEND.equals(entry.getKey()) || SAMPLINGTIMESTART.equals(entry.getKey())) {
-                    result.add(PHENOMENONTIME);
-                } else if (RESULTTIMESTART.equals(entry.getKey()) || RESULTTIMEEND.equals(entry.getKey())) {
-                    result.add(RESULTTIME);
-                } else if (VALIDTIMESTART.equals(entry.getKey()) || VALIDTIMEEND.equals(entry.getKey())) {
-                    result.add(VALIDTIME);
-                } else {
-                    result.add(entry.getKey());
-                }
+        for (String property : changedProperties) {
+            String staProperty = mapping.get(property);
+            if (staProperty == null) {
+                // Property is not exposed via STA
+                continue;
+            }
+            if (SAMPLINGTIMEEND.equals(staProperty) || SAMPLINGTIMESTART.equals(staProperty)) {
+                result.add(PHENOMENONTIME);
+            } else if (RESULTTIMESTART.equals(staProperty) || RESULTTIMEEND.equals(staProperty)) {
+                result.add(RESULTTIME);
+            } else if (VALIDTIMESTART.equals(staProperty) || VALIDTIMEEND.equals(staProperty)) {
+                result.add(VALIDTIME);
+            } else {
+                result.add(staProperty);
             }
         }
         return result;
     }
 
-    private <S extends T> Map<String, Object> getPropertyMap(S entity) {
-        Map<String, Object> result = new HashMap<>();
-        if (entity instanceof ProcedureEntity) {
-            result.put(DESCRIPTION, ((ProcedureEntity) entity).getDescription());
-            result.put(NAME, ((ProcedureEntity) entity).getName());
-            result.put(METADATA, ((ProcedureEntity) entity).getDescriptionFile());
-            result.put(ENCODINGTYPE, ((ProcedureEntity) entity).getFormat().getFormat());
-        } else if (entity instanceof LocationEntity) {
-            result.put(DESCRIPTION, ((LocationEntity) entity).getDescription());
-            result.put(NAME, ((LocationEntity) entity).getName());
-            result.put(LOCATION, ((LocationEntity) entity).getGeometryEntity().getGeometry());
-            result.put(ENCODINGTYPE, ((LocationEntity) entity).getLocationEncoding());
-        } else if (entity instanceof PlatformEntity) {
-            result.put(DESCRIPTION, ((PlatformEntity) entity).getDescription());
-            result.put(NAME, ((PlatformEntity) entity).getName());
-            Set<ParameterEntity> parameters = ((PlatformEntity) entity).hasParameters() ?
-                new HashSet<>(((PlatformEntity) entity).getParameters()) :
-                new HashSet<>();
-            result.put(PROPERTIES, parameters);
-        } else if (entity instanceof AbstractDatasetEntity) {
-            result.put(DESCRIPTION, ((AbstractDatasetEntity) entity).getDescription());
-            result.put(NAME, ((AbstractDatasetEntity) entity).getName());
-            result.put(OBSERVATIONTYPE, ((AbstractDatasetEntity) entity).getOMObservationType().getFormat());
-            result.put(UOM, ((AbstractDatasetEntity) entity).getUnit());
-            result.put(OBSERVEDAREA,
-                       (((AbstractDatasetEntity) entity).getGeometryEntity() != null) ?
-                           ((AbstractDatasetEntity) entity).getGeometryEntity().getGeometry() : null);
-            result.put(SAMPLINGTIMESTART, ((AbstractDatasetEntity) entity).getSamplingTimeStart());
-            result.put(SAMPLINGTIMEEND, ((AbstractDatasetEntity) entity).getSamplingTimeEnd());
-            result.put(RESULTTIMESTART, ((AbstractDatasetEntity) entity).getResultTimeStart());
-            result.put(RESULTTIMEEND, ((AbstractDatasetEntity) entity).getResultTimeEnd());
-        } else if (entity instanceof HistoricalLocationEntity) {
-            result.put(TIME, ((HistoricalLocationEntity) entity).getTime());
-        } else if (entity instanceof DataEntity<?>) {
-            result.put(SAMPLINGTIMESTART, ((DataEntity<?>) entity).getSamplingTimeStart());
-            result.put(SAMPLINGTIMEEND, ((DataEntity<?>) entity).getSamplingTimeEnd());
-            result.put(RESULTTIME, ((DataEntity<?>) entity).getResultTime());
-            result.put(VALIDTIMESTART, ((DataEntity<?>) entity).getValidTimeStart());
-            result.put(VALIDTIMEEND, ((DataEntity<?>) entity).getValidTimeEnd());
-            Set<ParameterEntity> parameters = ((DataEntity<?>) entity).hasParameters() ?
-                new HashSet<>(((DataEntity<?>) entity).getParameters()) :
-                new HashSet<>();
-            result.put(PARAMETERS, parameters);
-            result.put(RESULT, ((DataEntity<?>) entity).getValue());
-            //TODO: implement difference map for "resultQuality"
-        } else if (entity instanceof AbstractFeatureEntity) {
-            result.put(NAME, ((AbstractFeatureEntity) entity).getName());
-            result.put(DESCRIPTION, ((AbstractFeatureEntity) entity).getDescription());
-            result.put(FEATURE, ((AbstractFeatureEntity) entity).getGeometry());
-        } else if (entity instanceof PhenomenonEntity) {
-            result.put(NAME, ((PhenomenonEntity) entity).getName());
-            result.put(DESCRIPTION, ((PhenomenonEntity) entity).getDescription());
-            result.put(DEFINITION, ((PhenomenonEntity) entity).getIdentifier());
-        } else {
-            LOGGER.error("Error while computing difference map: Could not identify Entity Type");
+    private <S extends T> Map<String, String> getPropertyMapping(S entity) {
+        for (Map.Entry<Class<?>, Map<String, String>> entry : PROPERTY_MAPPINGS.entrySet()) {
+            if (entry.getKey().isInstance(entity)) {
+                return entry.getValue();
+            }
         }
-        return result;
+        LOGGER.error("Error while computing difference map: Could not identify Entity Type");
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Maps the names of Hibernate properties to the names of STA properties. Order matters as the first matching
+     * class is used.
+     */
+    private static Map<Class<?>, Map<String, String>> createPropertyMappings() {
+        Map<Class<?>, Map<String, String>> mappings = new LinkedHashMap<>();
+
+        Map<String, String> sensor = createDescribableMapping();
+        sensor.put(ProcedureEntity.PROPERTY_DESCRIPTION_FILE, METADATA);
+        sensor.put(ProcedureEntity.PROPERTY_PROCEDURE_DESCRIPTION_FORMAT, ENCODINGTYPE);
+        mappings.put(ProcedureEntity.class, sensor);
+
+        Map<String, String> location = createDescribableMapping();
+        location.put(LocationEntity.PROPERTY_GEOMETRY_ENTITY, LOCATION);
+        location.put(LocationEntity.PROPERTY_LOCATION_ENCODINT, ENCODINGTYPE);
+        mappings.put(LocationEntity.class, location);
+
+        Map<String, String> thing = createDescribableMapping();
+        thing.put(PARAMETERS, PROPERTIES);
+        mappings.put(PlatformEntity.class, thing);
+
+        Map<String, String> datastream = createDescribableMapping();
+        datastream.put(AbstractDatasetEntity.PROPERTY_OM_OBSERVATION_TYPE, OBSERVATIONTYPE);
+        datastream.put(PROPERTY_UNIT, UOM);
+        datastream.put(AbstractFeatureEntity.PROPERTY_GEOMETRY_ENTITY, OBSERVEDAREA);
+        datastream.put(SAMPLINGTIMESTART, SAMPLINGTIMESTART);
+        datastream.put(SAMPLINGTIMEEND, SAMPLINGTIMEEND);
+        datastream.put(RESULTTIMESTART, RESULTTIMESTART);
+        datastream.put(RESULTTIMEEND, RESULTTIMEEND);
+        mappings.put(AbstractDatasetEntity.class, datastream);
+
+        Map<String, String> historicalLocation = new HashMap<>();
+        historicalLocation.put(HistoricalLocationEntity.PROPERTY_TIME, TIME);
+        mappings.put(HistoricalLocationEntity.class, historicalLocation);
+
+        Map<String, String> observation = new HashMap<>();
+        observation.put(DataEntity.PROPERTY_SAMPLING_TIME_START, SAMPLINGTIMESTART);
+        observation.put(DataEntity.PROPERTY_SAMPLING_TIME_END, SAMPLINGTIMEEND);
+        observation.put(DataEntity.PROPERTY_RESULT_TIME, RESULTTIME);
+        observation.put(VALIDTIMESTART, VALIDTIMESTART);
+        observation.put(VALIDTIMEEND, VALIDTIMEEND);
+        observation.put(DataEntity.PROPERTY_PARAMETERS, PARAMETERS);
+        observation.put(PROPERTY_VALUE, RESULT);
+        observation.put(DataEntity.PROPERTY_VALUE_BOOLEAN, RESULT);
+        observation.put(DataEntity.PROPERTY_VALUE_CATEGORY, RESULT);
+        observation.put(DataEntity.PROPERTY_VALUE_COUNT, RESULT);
+        observation.put(DataEntity.PROPERTY_VALUE_QUANTITY, RESULT);
+        observation.put(DataEntity.PROPERTY_VALUE_TEXT, RESULT);
+        //TODO: implement difference map for "resultQuality"
+        mappings.put(DataEntity.class, observation);
+
+        Map<String, String> feature = createDescribableMapping();
+        feature.put(AbstractFeatureEntity.PROPERTY_GEOMETRY_ENTITY, FEATURE);
+        mappings.put(AbstractFeatureEntity.class, feature);
+
+        Map<String, String> observedProperty = createDescribableMapping();
+        observedProperty.put(PhenomenonEntity.PROPERTY_IDENTIFIER, DEFINITION);
+        mappings.put(PhenomenonEntity.class, observedProperty);
+        return mappings;
+    }
+
+    private static Map<String, String> createDescribableMapping() {
+        Map<String, String> mapping = new HashMap<>();
+        mapping.put(DescribableEntity.PROPERTY_NAME, NAME);
+        mapping.put(DescribableEntity.PROPERTY_DESCRIPTION, DESCRIPTION);
+        return mapping;
     }
 
+    /**
+     * Provides the merged fetch graph of the given FetchGraphs. Graphs are parsed and merged once per combination
+     * and cached as immutable copies, so that they can be shared between sessions.
+     *
+     * @param fetchGraphs FetchGraphs to be merged
+     * @return merged graph. null if no FetchGraphs are given
+     */
     private EntityGraph<T> createEntityGraph(EntityGraphRepository.FetchGraph... fetchGraphs) {
         if (fetchGraphs != null && fetchGraphs.length != 0) {
-            Set<RootGraph<T>> roots = new HashSet<>();
+            long key = 0;
             for (EntityGraphRepository.FetchGraph entityGraph : fetchGraphs) {
-                roots.add(GraphParser.parse(entityClass,
-                                            entityGraph.value(),
-                                            (SessionImplementor) em.getDelegate()));
+                key |= 1L << entityGraph.ordinal();
             }
-            return EntityGraphs.merge(
-                (EntityManager) em.getDelegate(),
-                entityClass,
-                roots.toArray(new RootGraph[] {}));
+            RootGraph<T> cached = this.fetchGraphs.get(key);
+            if (cached == null) {
+                cached = mergeEntityGraphs(fetchGraphs);
+                this.fetchGraphs.putIfAbsent(key, cached);
+            }
+            return cached;
         } else {
             return null;
         }
     }
 
+    private RootGraph<T> mergeEntityGraphs(EntityGraphRepository.FetchGraph... fetchGraphs) {
+        Set<RootGraph<T>> roots = new HashSet<>();
+        for (EntityGraphRepository.FetchGraph entityGraph : fetchGraphs) {
+            roots.add(GraphParser.parse(entityClass,
+                                        entityGraph.value(),
+                                        (SessionImplementor) em.getDelegate()));
+        }
+        return EntityGraphs.merge(
+            (EntityManager) em.getDelegate(),
+            entityClass,
+            roots.toArray(new RootGraph[] {}))
+            .makeRootGraph(null, false);
+    }
+
     public Optional<T> findOne(Specification<T> spec, EntityGraphRepository.FetchGraph... fetchGraphs) {
         try {
             return Optional.of(getQuery(spec, Sort.unsorted(), createEntityGraph(fetchGraphs)).getSingleResult());
@@ -525,6 +569,47 @@ public class MessageBusRepository<T, I extends Serializable>
             : readPage(query, getDomainClass(), pageable, spec);
     }
 
+    public Slice<T> findSlice(Specification<T> spec,
+                              Pageable pageable,
+                              EntityGraphRepository.FetchGraph... fetchGraphs) {
+        TypedQuery<T> query = getQuery(spec, pageable, createEntityGraph(fetchGraphs));
+        if (pageable.isUnpaged()) {
+            return new SliceImpl<>(query.getResultList());
+        }
+        query.setFirstResult((int) pageable.getOffset());
+        // Fetch one additional entity to check whether there is a next slice
+        query.setMaxResults(pageable.getPageSize() + 1);
+        List<T> content = query.getResultList();
+        boolean hasNext = content.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+    }
+
+    public Stream<T> stream(Specification<T> spec, Pageable pageable, int fetchSize) {
+        TypedQuery<T> query = getQuery(spec, pageable, null);
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset());
+            // Fetch one additional entity to check whether there is a next page
+            query.setMaxResults(pageable.getPageSize() + 1);
+        }
+        return query.setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+            .setHint(QueryHints.HINT_READONLY, true)
+            .getResultStream();
+    }
+
+    @Transactional(readOnly = true)
+    public long estimateCount() {
+        AbstractEntityPersister persister = (AbstractEntityPersister) ((SessionImplementor) em.getDelegate())
+            .getFactory()
+            .getMetamodel()
+            .entityPersister(entityClass);
+        List<?> result = em.createNativeQuery(ESTIMATE_COUNT_QUERY)
+            .setParameter(1, persister.getTableName())
+            .getResultList();
+        long estimate = result.isEmpty() || result.get(0) == null ? -1 : ((Number) result.get(0)).longValue();
+        // Table was never analyzed
+        return estimate > 0 ? estimate : count();
+    }
+
     public List<T> findAll(Specification<T> spec, Sort sort, EntityGraphRepository.FetchGraph... fetchGraphs) {
         return getQuery(spec, sort, createEntityGraph(fetchGraphs)).getResultList();
     }
@@ -597,4 +682,40 @@ public class MessageBusRepository<T, I extends Serializable>
         }
     }
 
+    /**
+     * Persists all given new entities and flushes the persistence context exactly once, allowing Hibernate to group
+     * the inserts into JDBC batches. Subscribers are notified for every entity after the flush, so either all or none
+     * of the entities are published.
+     *
+     * @param entities Entities to be saved. Must all be new (transient)
+     * @param <S>      raw entity type
+     * @return saved entities in the order they were given.
+     */
+    @Transactional
+    public <S extends T> List<S> saveAllBatched(List<S> entities) {
+        String entityType = entityTypeToStaType.get(entityInformation.getEntityName());
+        boolean intercept = entityType != null
+            && mqttHandler.getWatchedEntityTypes().contains(entityType);
+
+        for (S entity : entities) {
+            Assert.isTrue(entityInformation.isNew(entity), "Batched save is only supported for new entities!");
+            em.persist(entity);
+        }
+        em.flush();
+
+        if (intercept) {
+            for (S entity : entities) {
+                this.mqttHandler.handleEvent(entity, entityType, null, getRelatedCollections(entity));
+            }
+        }
+        return entities;
+    }
+
+    public void publishChange(T entity, Set<String> changedProperties) {
+        String entityType = entityTypeToStaType.get(entityInformation.getEntityName());
+        if (entityType != null && mqttHandler.getWatchedEntityTypes().contains(entityType)) {
+            this.mqttHandler.handleEvent(entity, entityType, changedProperties, getRelatedCollections(entity));
+        }
+    }
+
 }
@@ -34,8 +34,19 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+
 @Transactional
 @Repository
 public interface ObservationParameterRepository extends JpaRepository<ObservationParameterEntity, Long> {
 
+    /**
+     * Persists all given new parameters with a single flush.
+     *
+     * @param entities new parameters to be persisted
+     * @param <S>      raw entity type
+     * @return persisted parameters
+     */
+    <S extends ObservationParameterEntity> List<S> saveAllBatched(List<S> entities);
+
 }
@@ -32,7 +32,9 @@ package org.n52.sta.data.repositories;
 import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -68,4 +70,21 @@ public interface StaIdentifierRepository<T> extends EntityGraphRepository<T, Lon
 
     T intermediateSave(T entity);
 
+    /**
+     * Persists all given new Entities with a single flush. Used for bulk ingestion.
+     *
+     * @param entities new Entities to be persisted
+     * @param <S>      raw entity type
+     * @return persisted Entities
+     */
+    <S extends T> List<S> saveAllBatched(List<S> entities);
+
+    /**
+     * Notifies subscribers about changes made by bulk UPDATEs, which bypass {@link #save} and its change detection.
+     *
+     * @param entity            changed Entity as reloaded from the database
+     * @param changedProperties names of the changed STA properties
+     */
+    void publishChange(T entity, Set<String> changedProperties);
+
 }
@@ -38,15 +38,4 @@ import org.springframework.transaction.annotation.Transactional;
 @Repository
 public interface UnitRepository extends JpaRepository<UnitEntity, Long>, EntityGraphRepository<UnitEntity, Long> {
 
-    boolean existsByIdentifier(String identifier);
-
-    UnitEntity findByIdentifier(String identifier);
-
-    default boolean existsBySymbol(String symbol) {
-        return existsByIdentifier(symbol);
-    }
-
-    default UnitEntity findBySymbol(String symbol) {
-        return findByIdentifier(symbol);
-    }
 }
@@ -36,6 +36,8 @@ import org.n52.sta.data.service.util.CollectionWrapper;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 import org.springframework.http.HttpMethod;
 
+import java.util.List;
+
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
@@ -115,9 +117,40 @@ public interface AbstractSensorThingsEntityService<S extends HibernateRelations.
      */
     boolean existsEntityByRelatedEntity(String relatedId, String relatedType, String ownId) throws STACRUDException;
 
+    /**
+     * Checks with a single query if a navigation path starting at an Entity of this type exists, i.e. all Entities
+     * along the path exist and are related to their predecessor.
+     * e.g. [[Things, 1], [Datastreams, 2], [Sensor]] for /Things(1)/Datastreams(2)/Sensor
+     *
+     * @param path segments of the path. Each segment consists of the name of the navigation property and optionally
+     *             the id of the Entity. The first segment names the EntityType of this Service.
+     * @return true if the whole path exists
+     * @throws STACRUDException if an error occurred
+     */
+    boolean existsNavigationPath(List<String[]> path) throws STACRUDException;
+
     ElementWithQueryOptions create(S entity) throws STACRUDException;
 
     ElementWithQueryOptions update(String id, S entity, HttpMethod method) throws STACRUDException;
 
     void delete(String id) throws STACRUDException;
+
+    /**
+     * Checks whether {@link #delete(String)} only schedules the deletion, which is then run in the background.
+     *
+     * @return true if Entities are deleted in the background
+     */
+    default boolean isDeletedInBackground() {
+        return false;
+    }
+
+    /**
+     * Provides the key under which the background deletion of the entity with the given id is tracked.
+     *
+     * @param id id of the entity
+     * @return key of the deletion or null if Entities are not deleted in the background
+     */
+    default String getDeleteJobKey(String id) {
+        return null;
+    }
 }
@@ -33,18 +33,23 @@ import org.hibernate.query.criteria.internal.CriteriaBuilderImpl;
 import org.n52.series.db.beans.AbstractDatasetEntity;
 import org.n52.series.db.beans.DataEntity;
 import org.n52.series.db.beans.HibernateRelations;
+import org.n52.series.db.beans.IdEntity;
 import org.n52.series.db.beans.HibernateRelations.HasDescription;
 import org.n52.series.db.beans.HibernateRelations.HasName;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.shetland.filter.ExpandFilter;
+import org.n52.shetland.filter.ExpandItem;
 import org.n52.shetland.filter.FilterFilter;
 import org.n52.shetland.filter.OrderProperty;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.filter.FilterConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.shetland.ogc.sta.exception.STAInvalidFilterExpressionException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.OffsetLimitBasedPageRequest;
+import org.n52.sta.data.query.EntityQuerySpecifications;
+import org.n52.sta.data.query.QuerySpecificationRepository;
 import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.StaIdentifierRepository;
 import org.n52.sta.data.service.EntityServiceRepository.EntityTypes;
@@ -57,6 +62,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
@@ -65,8 +71,16 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Interface for requesting Sensor Things entities
@@ -96,7 +110,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
     protected static final String NO_S_WITH_ID_S_FOUND = "No %s with id %s found.";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSensorThingsEntityServiceImpl.class);
-    private final EntityManager em;
+    protected final EntityManager em;
     private final Class<S> entityClass;
     private EntityServiceRepository serviceRepository;
 
@@ -201,6 +215,30 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
         return getRepository().count(byRelatedEntityFilter(relatedId, relatedType, ownId)) > 0;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean existsNavigationPath(List<String[]> path) throws STACRUDException {
+        try {
+            // Build the filter from the end of the path so that each segment is nested as a related-entity filter
+            // into its predecessor, the same way $filter=Datastreams/Sensor/id eq 'x' is resolved.
+            Specification filter = null;
+            for (int i = path.size() - 1; i >= 0; i--) {
+                String[] segment = path.get(i);
+                EntityQuerySpecifications<?> qs = QuerySpecificationRepository.getSpecification(segment[0]);
+                Specification step = segment.length > 1
+                    ? qs.withStaIdentifier(segment[1])
+                    : (root, query, builder) -> builder.conjunction();
+                if (filter != null) {
+                    step = step.and(qs.getFilterForRelation(path.get(i + 1)[0], filter));
+                }
+                filter = step;
+            }
+            return getRepository().count((Specification<S>) filter) > 0;
+        } catch (RuntimeException | STAInvalidFilterExpressionException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public ElementWithQueryOptions create(S entity) throws STACRUDException {
@@ -232,18 +270,12 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
 
     protected CollectionWrapper createCollectionWrapperAndExpand(QueryOptions queryOptions, Page<S> pages) {
         if (queryOptions.hasExpandFilter()) {
-            Page<S> expanded = pages.map(e -> {
-                try {
-                    em.detach(e);
-                    return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                } catch (STACRUDException | STAInvalidQueryException ex) {
-                    throw new RuntimeException(ex);
-                }
-            });
-            return new CollectionWrapper(expanded.getTotalElements(),
-                                         expanded.map(e -> createWrapper(e, queryOptions))
-                                             .getContent(),
-                                         expanded.hasNext());
+            List<S> expanded = expandAll(pages.getContent(), queryOptions.getExpandFilter());
+            return new CollectionWrapper(pages.getTotalElements(),
+                                         expanded.stream()
+                                             .map(e -> createWrapper(e, queryOptions))
+                                             .collect(Collectors.toList()),
+                                         pages.hasNext());
         } else {
             return new CollectionWrapper(pages.getTotalElements(),
                                          pages.map(e -> createWrapper(e, queryOptions))
@@ -297,14 +329,9 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
                          createPageableRequest(queryOptions),
                          createFetchGraph(queryOptions.getExpandFilter()));
             if (queryOptions.hasExpandFilter()) {
-                return pages.map(e -> {
-                    try {
-                        em.detach(e);
-                        return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                    } catch (STACRUDException | STAInvalidQueryException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                });
+                return new PageImpl<>(expandAll(pages.getContent(), queryOptions.getExpandFilter()),
+                                      pages.getPageable(),
+                                      pages.getTotalElements());
             } else {
                 return pages;
             }
@@ -313,6 +340,100 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
         }
     }
 
+    /**
+     * Resolves $expand for all given Entities, e.g. all Entities of a page. Expand items supported by
+     * {@link #expandBatched(List, ExpandItem)} are resolved for all Entities at once, so the number of queries
+     * depends on the depth of the $expand and not on the number of Entities. All other items are resolved per Entity
+     * via {@link #fetchExpandEntitiesWithFilter(Object, ExpandFilter)}.
+     *
+     * @param entities     Entities to be expanded. Are detached from the persistence context
+     * @param expandOption $expand of the request
+     * @return expanded Entities in the same order
+     */
+    protected List<S> expandAll(List<S> entities, ExpandFilter expandOption) {
+        if (entities.isEmpty()) {
+            return entities;
+        }
+        entities.forEach(em::detach);
+        try {
+            Set<ExpandItem> remaining = new HashSet<>();
+            for (ExpandItem expandItem : expandOption.getItems()) {
+                if (!expandBatched(entities, expandItem)) {
+                    remaining.add(expandItem);
+                }
+            }
+            if (remaining.isEmpty()) {
+                return entities;
+            }
+            ExpandFilter remainingOption = new ExpandFilter(remaining);
+            List<S> expanded = new ArrayList<>(entities.size());
+            for (S entity : entities) {
+                expanded.add(fetchExpandEntitiesWithFilter(entity, remainingOption));
+            }
+            return expanded;
+        } catch (STACRUDException | STAInvalidQueryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Resolves a single expand item for all given Entities at once. Implementations set the expanded Entities on
+     * the given Entities directly. Defaults to not batching any expand item.
+     *
+     * @param entities   detached Entities to be expanded
+     * @param expandItem expand item to be resolved
+     * @return true if the item was resolved. false if it must be resolved per Entity
+     * @throws STACRUDException        if an error occurred
+     * @throws STAInvalidQueryException if the nested query options are invalid
+     */
+    protected boolean expandBatched(List<S> entities, ExpandItem expandItem)
+        throws STACRUDException, STAInvalidQueryException {
+        return false;
+    }
+
+    /**
+     * Requests the Entities related to all given parent Entities with a single query and groups them by parent.
+     * $skip and $top of the given QueryOptions are applied per parent while grouping. Nested $expand is resolved
+     * for all returned Entities at once. Only suitable for relations with few Entities per parent, as all related
+     * Entities matching the $filter are read.
+     *
+     * @param parentIds      database ids of the parent Entities
+     * @param parentProperty property referencing the parent Entity
+     * @param parentIdOf     extracts the database id of the parent from an Entity
+     * @param queryOptions   nested {@link QueryOptions} of the expand item
+     * @return Entities grouped by database id of the parent. Parents without related Entities are absent
+     * @throws STAInvalidQueryException if the nested query options are invalid
+     */
+    protected Map<Long, List<S>> getEntityCollectionByRelatedEntitiesRaw(Collection<Long> parentIds,
+                                                                         String parentProperty,
+                                                                         Function<S, Long> parentIdOf,
+                                                                         QueryOptions queryOptions)
+        throws STAInvalidQueryException {
+        Specification<S> byParents = (root, query, builder) ->
+            root.get(parentProperty).get(IdEntity.PROPERTY_ID).in(parentIds);
+        List<S> entities = getRepository().findAll(byParents.and(getFilterPredicate(entityClass, queryOptions)),
+                                                   createPageableRequest(queryOptions).getSort(),
+                                                   createFetchGraph(queryOptions.getExpandFilter()));
+        long skip = queryOptions.hasSkipFilter() ? queryOptions.getSkipFilter().getValue() : 0;
+        long top = queryOptions.getTopFilter().getValue();
+        Map<Long, Long> seen = new HashMap<>();
+        List<S> windowed = new ArrayList<>();
+        for (S entity : entities) {
+            long position = seen.merge(parentIdOf.apply(entity), 1L, Long::sum);
+            if (position > skip && position <= skip + top) {
+                windowed.add(entity);
+            }
+        }
+        if (queryOptions.hasExpandFilter()) {
+            windowed = expandAll(windowed, queryOptions.getExpandFilter());
+        }
+        Map<Long, List<S>> result = new HashMap<>();
+        for (S entity : windowed) {
+            result.computeIfAbsent(parentIdOf.apply(entity), k -> new ArrayList<>()).add(entity);
+        }
+        return result;
+    }
+
     /**
      * Creates a Fetchgraph for this Entity. Includes relations that need to be fetched by default as well as directly
      * fetching $expanded Entities that are NOT  filtered via $filter. As they are not filtered individually they
@@ -0,0 +1,664 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.DescribableEntity;
+import org.n52.series.db.beans.parameter.observation.ObservationParameterEntity;
+import org.n52.series.db.beans.sta.HistoricalLocationEntity;
+import org.n52.series.db.beans.sta.LocationEntity;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.DaoAdmissionController;
+import org.n52.sta.DaoAdmissionController.OperationClass;
+import org.n52.sta.data.EntityVersionTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes Things, Datastreams and FeaturesOfInterest together with their Observations (and HistoricalLocations of
+ * Things). The affected Datasets are determined by set-based queries upfront. Observations are then deleted in
+ * chunks of bounded size, each chunk in a separate transaction, so that deleting a large Datastream neither holds
+ * locks nor grows a single persistence context over the whole operation. The entity itself is deleted by the regular
+ * service afterwards, which also removes Observations inserted concurrently while the chunks were deleted. Bounds
+ * (first/last Observation, phenomenonTime) of Datasets and Aggregations that are kept are recomputed from the
+ * remaining Observations afterwards, also if the deletion is cancelled or fails.
+ * <p>
+ * Progress of running deletions is available via {@link #getJobs()}, deletions are cancelled between chunks via
+ * {@link #cancel(String)}. In background mode the deletion is run asynchronously and the request returns as soon as
+ * the deletion is scheduled. Finished, cancelled and failed deletions stay available for a configurable time, so that
+ * the outcome of background deletions can be queried.
+ */
+@Component
+public class CascadeDeleter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CascadeDeleter.class);
+    private static final String THREAD_NAME = "sta-cascade-delete";
+    private static final String DATASET_FIRST_VALUE_AT = "firstValueAt";
+    private static final String DATASET_LAST_VALUE_AT = "lastValueAt";
+    private static final String DATASET_FIRST_OBSERVATION = "firstObservation";
+    private static final String DATASET_LAST_OBSERVATION = "lastObservation";
+    private static final String DATASET_FIRST_QUANTITY_VALUE = "firstQuantityValue";
+    private static final String DATASET_LAST_QUANTITY_VALUE = "lastQuantityValue";
+    private static final String PARAMETER_OBSERVATION = "observation";
+    private static final List<String> OBSERVATION_CHANGES = Arrays.asList(StaConstants.OBSERVATIONS,
+                                                                          StaConstants.DATASTREAMS);
+    private static final List<String> HISTORICAL_LOCATION_CHANGES = Arrays.asList(StaConstants.HISTORICAL_LOCATIONS,
+                                                                                  StaConstants.LOCATIONS,
+                                                                                  StaConstants.THINGS);
+
+    private final int chunkSize;
+    private final long retentionNanos;
+    private final EntityManager em;
+    private final TransactionTemplate transaction;
+    private final DaoAdmissionController admissionController;
+    private final EntityVersionTracker versionTracker;
+    private final LatestObservationCache latestObservationCache;
+    private final ObservationService observationService;
+    private final ExecutorService executor;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public CascadeDeleter(@Value("${database.delete.chunkSize:10000}") int chunkSize,
+                          @Value("${database.delete.background:false}") boolean background,
+                          @Value("${database.delete.retention:3600000}") long retention,
+                          EntityManager em,
+                          PlatformTransactionManager transactionManager,
+                          DaoAdmissionController admissionController,
+                          EntityVersionTracker versionTracker,
+                          LatestObservationCache latestObservationCache,
+                          ObservationService observationService) {
+        this.chunkSize = chunkSize;
+        this.retentionNanos = TimeUnit.MILLISECONDS.toNanos(retention);
+        this.em = em;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.admissionController = admissionController;
+        this.versionTracker = versionTracker;
+        this.latestObservationCache = latestObservationCache;
+        this.observationService = observationService;
+        this.executor = background
+            ? Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            })
+            : null;
+    }
+
+    @PreDestroy
+    public void stop() {
+        jobs.values().forEach(Job::cancel);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deletes the Observations of all Datasets matching the given specification (and their sub-datasets) in chunks,
+     * followed by the entity itself. In background mode this returns as soon as the deletion is scheduled.
+     *
+     * @param entityType              type of the entity, e.g. Things
+     * @param id                      id of the entity
+     * @param datasets                Datasets whose Observations are deleted
+     * @param withHistoricalLocations whether the HistoricalLocations of the Thing with the given id are deleted
+     * @param deleteEntity            deletes the entity itself after all Observations have been deleted
+     * @throws STACRUDException if the entity is already being deleted or the deletion failed or was cancelled
+     */
+    public void delete(String entityType,
+                       String id,
+                       Specification<AbstractDatasetEntity> datasets,
+                       boolean withHistoricalLocations,
+                       DeleteAction deleteEntity) throws STACRUDException {
+        Job job = new Job(getKey(entityType, id));
+        removeExpiredJobs();
+        Job previous = jobs.putIfAbsent(job.getKey(), job);
+        if (previous != null && !(previous.isCompleted() && jobs.replace(job.getKey(), previous, job))) {
+            throw new STACRUDException("Deletion of " + job.getKey() + " is already in progress.", HTTPStatus.CONFLICT);
+        }
+        if (executor == null) {
+            run(job, id, datasets, withHistoricalLocations, deleteEntity);
+        } else {
+            try {
+                executor.execute(() -> {
+                    try {
+                        run(job, id, datasets, withHistoricalLocations, deleteEntity);
+                    } catch (STACRUDException | RuntimeException e) {
+                        LOGGER.error("Background deletion of {} failed: {}", job.getKey(), e.getMessage());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.getKey(), job);
+                throw new STACRUDException("Unable to schedule deletion of " + job.getKey(),
+                                           HTTPStatus.SERVICE_UNAVAILABLE);
+            }
+        }
+    }
+
+    /**
+     * Provides the key under which the deletion of the given entity is tracked.
+     *
+     * @param entityType type of the entity, e.g. Things
+     * @param id         id of the entity
+     * @return key of the deletion, e.g. Things(1)
+     */
+    public static String getKey(String entityType, String id) {
+        return entityType + "(" + id + ")";
+    }
+
+    /**
+     * Checks whether deletions are run in the background, i.e. whether {@link #delete} returns as soon as the
+     * deletion is scheduled.
+     *
+     * @return true if deletions are run in the background
+     */
+    public boolean isBackground() {
+        return executor != null;
+    }
+
+    /**
+     * Provides all deletions that are currently scheduled or running, as well as deletions that completed within
+     * the configured retention time.
+     *
+     * @return deletions
+     */
+    public Collection<Job> getJobs() {
+        removeExpiredJobs();
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Provides the deletion of the given entity.
+     *
+     * @param key entity type and id of the entity, e.g. Things(1)
+     * @return deletion or null if the entity is not being deleted and no deletion completed within the retention time
+     */
+    public Job getJob(String key) {
+        removeExpiredJobs();
+        return jobs.get(key);
+    }
+
+    /**
+     * Cancels the deletion of the given entity. The deletion stops after the current chunk. Observations deleted so
+     * far stay deleted, the entity itself is kept.
+     *
+     * @param key entity type and id of the entity, e.g. Things(1)
+     * @return true if a deletion was cancelled
+     */
+    public boolean cancel(String key) {
+        Job job = jobs.get(key);
+        if (job != null && !job.isCompleted()) {
+            job.cancel();
+            return true;
+        }
+        return false;
+    }
+
+    private void removeExpiredJobs() {
+        long now = System.nanoTime();
+        jobs.values().removeIf(job -> job.isCompleted() && now - job.completed > retentionNanos);
+    }
+
+    private void run(Job job,
+                     String id,
+                     Specification<AbstractDatasetEntity> datasetSpecification,
+                     boolean withHistoricalLocations,
+                     DeleteAction deleteEntity) throws STACRUDException {
+        long start = System.nanoTime();
+        Plan plan = null;
+        try {
+            job.state = State.RUNNING;
+            plan = inTransaction(status -> plan(job, datasetSpecification));
+            List<Long> datasets = plan.datasets;
+            LOGGER.info("Deleting {} with {} Datasets and {} Observations.",
+                        job.getKey(),
+                        datasets.size(),
+                        job.getTotal());
+            if (!datasets.isEmpty()) {
+                // Child Observations reference their parent, so they are deleted first
+                deleteChunked(job,
+                              () -> inTransaction(status -> deleteObservations(datasets, true)),
+                              this::observationsDeleted);
+                deleteChunked(job,
+                              () -> inTransaction(status -> deleteObservations(datasets, false)),
+                              this::observationsDeleted);
+            }
+            if (withHistoricalLocations) {
+                deleteChunked(job,
+                              () -> inTransaction(status -> deleteHistoricalLocations(id)),
+                              () -> versionTracker.changed(HISTORICAL_LOCATION_CHANGES));
+            }
+            checkCancelled(job);
+            deleteEntity.delete();
+            // Datasets and Aggregations that are kept, e.g. when deleting a FeatureOfInterest
+            updateBounds(plan.getAffected());
+            job.complete(State.FINISHED);
+            LOGGER.info("Deleted {} in {} ms.",
+                        job.getKey(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (STACRUDException | RuntimeException e) {
+            if (plan != null) {
+                // The entity is kept, so the bounds of all released Datasets are recomputed from the Observations left
+                restoreBounds(job, plan);
+            }
+            job.message = e.getMessage();
+            job.complete(job.isCancelled() ? State.CANCELLED : State.FAILED);
+            throw e;
+        } finally {
+            if (retentionNanos <= 0) {
+                jobs.remove(job.getKey(), job);
+            }
+        }
+    }
+
+    /**
+     * Determines the ids of all affected Datasets and releases their first/last Observation, so that their
+     * Observations can be deleted independently. Aggregations of the affected Datasets that are not deleted
+     * themselves (e.g. when deleting a FeatureOfInterest) only release first/last Observations belonging to the
+     * affected Datasets. Their bounds are recomputed once the Observations have been deleted.
+     *
+     * @param job                  deletion
+     * @param datasetSpecification Datasets whose Observations are deleted
+     * @return ids of the affected Datasets including sub-datasets and of the Aggregations that are kept
+     */
+    private Plan plan(Job job, Specification<AbstractDatasetEntity> datasetSpecification) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<AbstractDatasetEntity> root = query.from(AbstractDatasetEntity.class);
+        query.select(root.get(AbstractDatasetEntity.PROPERTY_ID))
+            .where(datasetSpecification.toPredicate(root, query, builder));
+        List<Long> datasets = new ArrayList<>(em.createQuery(query).getResultList());
+        if (datasets.isEmpty()) {
+            return new Plan(datasets, Collections.emptyList());
+        }
+
+        CriteriaQuery<Long> children = builder.createQuery(Long.class);
+        root = children.from(AbstractDatasetEntity.class);
+        children.select(root.get(AbstractDatasetEntity.PROPERTY_ID))
+            .where(root.get(AbstractDatasetEntity.PROPERTY_AGGREGATION)
+                       .get(AbstractDatasetEntity.PROPERTY_ID)
+                       .in(datasets));
+        datasets.addAll(em.createQuery(children).getResultList());
+
+        CriteriaQuery<AbstractDatasetEntity> parents = builder.createQuery(AbstractDatasetEntity.class);
+        Root<AbstractDatasetEntity> child = parents.from(AbstractDatasetEntity.class);
+        Join<AbstractDatasetEntity, AbstractDatasetEntity> parent =
+            child.join(AbstractDatasetEntity.PROPERTY_AGGREGATION);
+        parents.select(parent)
+            .distinct(true)
+            .where(child.get(AbstractDatasetEntity.PROPERTY_ID).in(datasets),
+                   builder.not(parent.get(AbstractDatasetEntity.PROPERTY_ID).in(datasets)));
+        Set<Long> affected = new HashSet<>(datasets);
+        List<Long> kept = new ArrayList<>();
+        for (AbstractDatasetEntity aggregation : em.createQuery(parents).getResultList()) {
+            kept.add(aggregation.getId());
+            if (isOfDatasets(aggregation.getFirstObservation(), affected)) {
+                aggregation.setFirstObservation(null);
+                aggregation.setFirstQuantityValue(null);
+            }
+            if (isOfDatasets(aggregation.getLastObservation(), affected)) {
+                aggregation.setLastObservation(null);
+                aggregation.setLastQuantityValue(null);
+            }
+        }
+        em.flush();
+
+        CriteriaUpdate<AbstractDatasetEntity> update = builder.createCriteriaUpdate(AbstractDatasetEntity.class);
+        root = update.from(AbstractDatasetEntity.class);
+        update.set(root.<DataEntity>get(DATASET_FIRST_OBSERVATION), builder.nullLiteral(DataEntity.class))
+            .set(root.<DataEntity>get(DATASET_LAST_OBSERVATION), builder.nullLiteral(DataEntity.class))
+            .set(root.<Date>get(DATASET_FIRST_VALUE_AT), builder.nullLiteral(Date.class))
+            .set(root.<Date>get(DATASET_LAST_VALUE_AT), builder.nullLiteral(Date.class))
+            .set(root.<BigDecimal>get(DATASET_FIRST_QUANTITY_VALUE), builder.nullLiteral(BigDecimal.class))
+            .set(root.<BigDecimal>get(DATASET_LAST_QUANTITY_VALUE), builder.nullLiteral(BigDecimal.class))
+            .where(root.get(AbstractDatasetEntity.PROPERTY_ID).in(datasets));
+        em.createQuery(update).executeUpdate();
+
+        CriteriaQuery<Long> count = builder.createQuery(Long.class);
+        Root<DataEntity> data = count.from(DataEntity.class);
+        count.select(builder.count(data))
+            .where(data.get(DataEntity.PROPERTY_DATASET).get(DataEntity.PROPERTY_ID).in(datasets));
+        job.total = em.createQuery(count).getSingleResult();
+        return new Plan(datasets, kept);
+    }
+
+    private boolean isOfDatasets(DataEntity<?> observation, Set<Long> datasets) {
+        return observation != null && datasets.contains(observation.getDataset().getId());
+    }
+
+    /**
+     * Recomputes the bounds of the given Datasets and Aggregations from their remaining Observations. Datasets
+     * that were deleted together with the entity are skipped.
+     *
+     * @param datasets ids of the Datasets and Aggregations
+     * @throws STACRUDException if the bounds could not be updated
+     */
+    private void updateBounds(List<Long> datasets) throws STACRUDException {
+        if (!datasets.isEmpty()) {
+            inTransaction(status -> {
+                observationService.recomputeDatasetBounds(datasets);
+                return null;
+            });
+            versionTracker.changed(Collections.singletonList(StaConstants.DATASTREAMS));
+        }
+    }
+
+    /**
+     * Recomputes the bounds of all Datasets released by {@link #plan} after the deletion was cancelled or failed.
+     * Errors are only logged, as the original cause of the failure is reported.
+     *
+     * @param job  deletion
+     * @param plan affected Datasets
+     */
+    private void restoreBounds(Job job, Plan plan) {
+        try {
+            updateBounds(plan.getAffected());
+        } catch (STACRUDException | RuntimeException e) {
+            LOGGER.error("Unable to restore bounds of Datasets after deletion of {} stopped: {}",
+                         job.getKey(),
+                         e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes up to one chunk of Observations of the given Datasets including their parameters.
+     *
+     * @param datasets ids of the Datasets
+     * @param children whether only child Observations of complex Observations are deleted
+     * @return number of deleted Observations
+     */
+    private int deleteObservations(List<Long> datasets, boolean children) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<DataEntity> data = query.from(DataEntity.class);
+        Predicate inDatasets = data.get(DataEntity.PROPERTY_DATASET).get(DataEntity.PROPERTY_ID).in(datasets);
+        query.select(data.get(DataEntity.PROPERTY_ID))
+            .where(children
+                       ? builder.and(inDatasets, builder.isNotNull(data.get(DataEntity.PROPERTY_PARENT)))
+                       : inDatasets);
+        List<Long> ids = em.createQuery(query).setMaxResults(chunkSize).getResultList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        CriteriaDelete<ObservationParameterEntity> deleteParameters =
+            builder.createCriteriaDelete(ObservationParameterEntity.class);
+        Root<ObservationParameterEntity> parameter = deleteParameters.from(ObservationParameterEntity.class);
+        deleteParameters.where(parameter.get(PARAMETER_OBSERVATION).get(DataEntity.PROPERTY_ID).in(ids));
+        em.createQuery(deleteParameters).executeUpdate();
+
+        CriteriaDelete<DataEntity> deleteData = builder.createCriteriaDelete(DataEntity.class);
+        data = deleteData.from(DataEntity.class);
+        deleteData.where(data.get(DataEntity.PROPERTY_ID).in(ids));
+        em.createQuery(deleteData).executeUpdate();
+        return ids.size();
+    }
+
+    private void observationsDeleted() {
+        versionTracker.changed(OBSERVATION_CHANGES);
+        latestObservationCache.invalidateAll();
+    }
+
+    /**
+     * Deletes up to one chunk of HistoricalLocations of the given Thing. HistoricalLocations are removed from their
+     * Locations without saving the Thing, so that no update is published for a Thing that is about to be deleted.
+     *
+     * @param thingId id of the Thing
+     * @return number of deleted HistoricalLocations
+     */
+    private int deleteHistoricalLocations(String thingId) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<HistoricalLocationEntity> query = builder.createQuery(HistoricalLocationEntity.class);
+        Root<HistoricalLocationEntity> root = query.from(HistoricalLocationEntity.class);
+        query.where(builder.equal(root.get(HistoricalLocationEntity.PROPERTY_THING)
+                                      .get(DescribableEntity.PROPERTY_STA_IDENTIFIER),
+                                  thingId));
+        List<HistoricalLocationEntity> historicalLocations =
+            em.createQuery(query).setMaxResults(chunkSize).getResultList();
+        for (HistoricalLocationEntity historicalLocation : historicalLocations) {
+            for (LocationEntity location : historicalLocation.getLocations()) {
+                location.getHistoricalLocations().remove(historicalLocation);
+            }
+            em.remove(historicalLocation);
+        }
+        return historicalLocations.size();
+    }
+
+    /**
+     * Deletes chunks until no entities are left.
+     *
+     * @param job       deletion
+     * @param chunk     deletes a single chunk in a separate transaction
+     * @param committed called after each chunk that deleted entities has been committed
+     * @throws STACRUDException if the deletion was cancelled or failed
+     */
+    private void deleteChunked(Job job, Chunk chunk, Runnable committed) throws STACRUDException {
+        int deleted;
+        do {
+            checkCancelled(job);
+            deleted = chunk.delete();
+            if (deleted > 0) {
+                // Changes must not be visible to conditional requests and caches before they are committed
+                committed.run();
+            }
+            job.deleted.addAndGet(deleted);
+            LOGGER.debug("Deleting {}: {} of {} deleted.", job.getKey(), job.getDeleted(), job.getTotal());
+        } while (deleted == chunkSize);
+    }
+
+    private void checkCancelled(Job job) throws STACRUDException {
+        if (job.isCancelled() || Thread.currentThread().isInterrupted()) {
+            job.cancel();
+            throw new STACRUDException("Deletion of " + job.getKey() + " was cancelled after deleting "
+                                           + job.getDeleted() + " entities.",
+                                       HTTPStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private <T> T inTransaction(TransactionCallback<T> callback) throws STACRUDException {
+        admissionController.acquire(OperationClass.WRITE);
+        try {
+            return transaction.execute(callback);
+        } finally {
+            admissionController.release(OperationClass.WRITE);
+        }
+    }
+
+    /**
+     * Deletes the entity itself after all related Observations have been deleted.
+     */
+    @FunctionalInterface
+    public interface DeleteAction {
+
+        void delete() throws STACRUDException;
+    }
+
+    /**
+     * Datasets affected by a deletion.
+     */
+    private static final class Plan {
+
+        /**
+         * Datasets whose Observations are deleted
+         */
+        private final List<Long> datasets;
+        /**
+         * Aggregations of the Datasets that are kept
+         */
+        private final List<Long> parents;
+
+        private Plan(List<Long> datasets, List<Long> parents) {
+            this.datasets = datasets;
+            this.parents = parents;
+        }
+
+        private List<Long> getAffected() {
+            List<Long> affected = new ArrayList<>(datasets);
+            affected.addAll(parents);
+            return affected;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Chunk {
+
+        int delete() throws STACRUDException;
+    }
+
+    public enum State {
+        /**
+         * Deletion is scheduled but not yet started.
+         */
+        SCHEDULED,
+        /**
+         * Observations are being deleted.
+         */
+        RUNNING,
+        /**
+         * Entity and all related Observations were deleted.
+         */
+        FINISHED,
+        /**
+         * Deletion was cancelled. Observations deleted so far stay deleted, the entity itself is kept.
+         */
+        CANCELLED,
+        /**
+         * Deletion failed.
+         */
+        FAILED
+    }
+
+    /**
+     * Progress of the deletion of a single entity.
+     */
+    public static final class Job {
+
+        private final String key;
+        private final AtomicLong deleted = new AtomicLong();
+        private volatile long total;
+        private volatile State state = State.SCHEDULED;
+        private volatile boolean cancelled;
+        private volatile String message;
+        private volatile long completed;
+
+        private Job(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return number of Observations and HistoricalLocations deleted so far
+         */
+        public long getDeleted() {
+            return deleted.get();
+        }
+
+        /**
+         * @return number of Observations to be deleted. Known once the deletion is running
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return whether the deletion has finished, was cancelled or failed
+         */
+        public boolean isCompleted() {
+            return state == State.FINISHED || state == State.CANCELLED || state == State.FAILED;
+        }
+
+        /**
+         * @return reason of the cancellation or failure. Null otherwise
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        private void cancel() {
+            cancelled = true;
+        }
+
+        private void complete(State result) {
+            // Set before the state, as completed Jobs are expired based on this time
+            completed = System.nanoTime();
+            state = result;
+        }
+
+        @Override public String toString() {
+            return key
+                + ": state=" + state
+                + ", deleted=" + deleted.get()
+                + ", total=" + total
+                + (message == null ? "" : ", message=" + message);
+        }
+    }
+}
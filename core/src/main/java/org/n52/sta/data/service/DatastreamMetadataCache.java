@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data.service;
+
+import org.n52.series.db.beans.DatasetEntity;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the metadata of Datastreams needed when inserting Observations, so that the Datastream and its Datasets do
+ * not need to be resolved by staIdentifier for every Observation. Entries are evicted in least-recently-used order
+ * once the cache is full and expire after a fixed time. Entries must be invalidated whenever the Datasets of a
+ * Datastream change.
+ */
+@Component
+public class DatastreamMetadataCache implements MetricsSource {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<String, DatastreamMetadata> cache;
+
+    private final Metrics metrics = new Metrics("datastreamMetadataCache");
+    private final AtomicLong hits = metrics.counter("hits");
+    private final AtomicLong misses = metrics.counter("misses");
+    private final AtomicLong evictions = metrics.counter("evictions");
+    private final AtomicLong invalidations = metrics.counter("invalidations");
+
+    public DatastreamMetadataCache(@Value("${database.cache.datastream.size:10000}") int maxSize,
+                                   @Value("${database.cache.datastream.ttl:300000}") long ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.cache = new LinkedHashMap<String, DatastreamMetadata>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, DatastreamMetadata> eldest) {
+                if (size() > DatastreamMetadataCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        metrics.gauge("size", () -> {
+            synchronized (cache) {
+                return cache.size();
+            }
+        });
+    }
+
+    /**
+     * Gets the cached metadata of the Datastream with the given staIdentifier.
+     *
+     * @param staIdentifier staIdentifier of the Datastream
+     * @return cached metadata or null if not cached or expired
+     */
+    public DatastreamMetadata get(String staIdentifier) {
+        if (maxSize <= 0 || staIdentifier == null) {
+            return null;
+        }
+        synchronized (cache) {
+            DatastreamMetadata metadata = cache.get(staIdentifier);
+            if (metadata != null && System.nanoTime() - metadata.created > ttlNanos) {
+                cache.remove(staIdentifier);
+                evictions.incrementAndGet();
+                metadata = null;
+            }
+            if (metadata == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return metadata;
+        }
+    }
+
+    /**
+     * Caches the metadata of the Datastream with the given staIdentifier.
+     *
+     * @param staIdentifier staIdentifier of the Datastream
+     * @param platformId    id of the Thing of the Datastream
+     * @param datasets      all Datasets of the Datastream
+     */
+    public void put(String staIdentifier, Long platformId, Collection<DatasetEntity> datasets) {
+        if (maxSize <= 0 || staIdentifier == null) {
+            return;
+        }
+        Map<Long, Long> datasetsByFeature = new HashMap<>();
+        for (DatasetEntity dataset : datasets) {
+            if (dataset.hasFeature()) {
+                datasetsByFeature.put(dataset.getFeature().getId(), dataset.getId());
+            }
+        }
+        DatastreamMetadata metadata = new DatastreamMetadata(platformId, datasetsByFeature);
+        synchronized (cache) {
+            cache.put(staIdentifier, metadata);
+        }
+    }
+
+    /**
+     * Removes the metadata of the Datastream with the given staIdentifier from the cache.
+     *
+     * @param staIdentifier staIdentifier of the Datastream
+     */
+    public void invalidate(String staIdentifier) {
+        if (staIdentifier == null) {
+            return;
+        }
+        synchronized (cache) {
+            if (cache.remove(staIdentifier) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Metadata of a single Datastream.
+     */
+    public static final class DatastreamMetadata {
+
+        private final long created = System.nanoTime();
+        private final Long platformId;
+        private final Map<Long, Long> datasetsByFeature;
+
+        DatastreamMetadata(Long platformId, Map<Long, Long> datasetsByFeature) {
+            this.platformId = platformId;
+            this.datasetsByFeature = Collections.unmodifiableMap(datasetsByFeature);
+        }
+
+        public Long getPlatformId() {
+            return platformId;
+        }
+
+        /**
+         * Gets the id of the Dataset associated with the given Feature.
+         *
+         * @param featureId id of the Feature
+         * @return id of the Dataset or null if the Datastream has no Dataset for this Feature
+         */
+        public Long getDatasetId(Long featureId) {
+            return datasetsByFeature.get(featureId);
+        }
+    }
+}
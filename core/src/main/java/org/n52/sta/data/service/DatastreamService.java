@@ -41,7 +41,6 @@ import org.n52.series.db.beans.DatasetAggregationEntity;
 import org.n52.series.db.beans.DatasetEntity;
 import org.n52.series.db.beans.IdEntity;
 import org.n52.series.db.beans.OfferingEntity;
-import org.n52.series.db.beans.UnitEntity;
 import org.n52.series.db.beans.dataset.DatasetType;
 import org.n52.series.db.beans.dataset.ObservationType;
 import org.n52.series.db.beans.dataset.ValueType;
@@ -65,7 +64,6 @@ import org.n52.sta.data.repositories.DatastreamParameterRepository;
 import org.n52.sta.data.repositories.DatastreamRepository;
 import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.ObservationRepository;
-import org.n52.sta.data.repositories.UnitRepository;
 import org.n52.sta.data.service.util.FilterExprVisitor;
 import org.n52.sta.data.service.util.HibernateSpatialCriteriaBuilderImpl;
 import org.n52.svalbard.odata.core.expr.Expr;
@@ -84,6 +82,9 @@ import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -105,25 +106,27 @@ public class DatastreamService extends
     private final boolean isMobileFeatureEnabled;
     private final boolean includeDatastreamCategory;
 
-    private final UnitRepository unitRepository;
+    private final LookupTableResolver lookupTableResolver;
     private final CategoryRepository categoryRepository;
     private final ObservationRepository observationRepository;
     private final DatastreamParameterRepository parameterRepository;
 
     private final OfferingService offeringService;
     private final FormatService formatService;
+    private final DatastreamMetadataCache datastreamCache;
 
     @Autowired
     public DatastreamService(DatastreamRepository repository,
                              @Value("${server.feature.isMobile:false}") boolean isMobileFeatureEnabled,
                              @Value("${server.feature.includeDatastreamCategory:false}")
                                  boolean includeDatastreamCategory,
-                             UnitRepository unitRepository,
+                             LookupTableResolver lookupTableResolver,
                              CategoryRepository categoryRepository,
                              ObservationRepository observationRepository,
                              DatastreamParameterRepository parameterRepository,
                              OfferingService offeringService,
                              FormatService formatService,
+                             DatastreamMetadataCache datastreamCache,
                              EntityManager em) {
         super(repository,
               em,
@@ -131,12 +134,13 @@ public class DatastreamService extends
         this.isMobileFeatureEnabled = isMobileFeatureEnabled;
         this.includeDatastreamCategory = includeDatastreamCategory;
 
-        this.unitRepository = unitRepository;
+        this.lookupTableResolver = lookupTableResolver;
         this.observationRepository = observationRepository;
         this.parameterRepository = parameterRepository;
         this.formatService = formatService;
         this.offeringService = offeringService;
         this.categoryRepository = categoryRepository;
+        this.datastreamCache = datastreamCache;
     }
 
     @Override protected EntityGraphRepository.FetchGraph[] createFetchGraph(ExpandFilter expandOption)
@@ -177,6 +181,32 @@ public class DatastreamService extends
         return fetchGraphs.toArray(new EntityGraphRepository.FetchGraph[0]);
     }
 
+    /**
+     * Resolves $expand=Observations for all Datastreams of a page with a single windowed query. Nested $filter is
+     * resolved per Datastream, as are requests for first/last Observation that are already fetched.
+     */
+    @Override
+    protected boolean expandBatched(List<AbstractDatasetEntity> entities, ExpandItem expandItem)
+        throws STACRUDException, STAInvalidQueryException {
+        if (!STAEntityDefinition.OBSERVATIONS.equals(expandItem.getPath())
+            || expandItem.getQueryOptions().hasFilterFilter()
+            || checkForFirstLastObservation(expandItem)) {
+            return false;
+        }
+        Map<Long, List<DataEntity<?>>> observations =
+            getObservationService().getEntityCollectionByDatastreamsRaw(
+                entities.stream().map(AbstractDatasetEntity::getId).collect(Collectors.toList()),
+                expandItem.getQueryOptions());
+        if (observations == null) {
+            return false;
+        }
+        for (AbstractDatasetEntity entity : entities) {
+            entity.setObservations(new LinkedHashSet<>(observations.getOrDefault(entity.getId(),
+                                                                                Collections.emptyList())));
+        }
+        return true;
+    }
+
     @Override
     protected AbstractDatasetEntity fetchExpandEntitiesWithFilter(AbstractDatasetEntity entity,
                                                                   ExpandFilter expandOption)
@@ -203,6 +233,15 @@ public class DatastreamService extends
                         entity.getObservableProperty().getId(), expandItem.getQueryOptions()));
                     break;
                 case STAEntityDefinition.OBSERVATIONS:
+                    // Serve the latest Observation from cache if possible
+                    if (LatestObservationCache.isLatestObservationQuery(expandItem.getQueryOptions())) {
+                        LatestObservationCache.LatestObservation latest = getObservationService()
+                            .getLatestObservation(entity.getStaIdentifier(), expandItem.getQueryOptions());
+                        entity.setObservations(latest == null
+                                                   ? Collections.emptySet()
+                                                   : Collections.singleton(latest.getObservation()));
+                        break;
+                    }
                     // Optimize Request when only First/Last Observation is requested as we have already fetched that.
                     if (checkForFirstLastObservation(expandItem)) {
                         if (checkForFirstObservation(expandItem) && entity.getFirstObservation() != null) {
@@ -334,6 +373,7 @@ public class DatastreamService extends
                                             EntityGraphRepository.FetchGraph.FETCHGRAPH_UOM,
                                             EntityGraphRepository.FetchGraph.FETCHGRAPH_OM_OBS_TYPE);
                 if (existing.isPresent()) {
+                    datastreamCache.invalidate(id);
                     AbstractDatasetEntity merged = merge(existing.get(), entity);
                     createOrfetchUnit(merged, entity);
                     getRepository().save(merged);
@@ -580,6 +620,7 @@ public class DatastreamService extends
     @Override
     public void delete(String id) throws STACRUDException {
         synchronized (getLock(id)) {
+            datastreamCache.invalidate(id);
             if (getRepository().existsByStaIdentifier(id)) {
                 AbstractDatasetEntity datastream =
                     getRepository().findByStaIdentifier(id).get();
@@ -620,16 +661,8 @@ public class DatastreamService extends
     }
 
     private void createOrfetchUnit(AbstractDatasetEntity datastream) throws STACRUDException {
-        UnitEntity unit;
         if (datastream.isSetUnit()) {
-            synchronized (getLock(datastream.getUnit().getSymbol() + "unit")) {
-                if (!unitRepository.existsBySymbol(datastream.getUnit().getSymbol())) {
-                    unit = unitRepository.save(datastream.getUnit());
-                } else {
-                    unit = unitRepository.findBySymbol(datastream.getUnit().getSymbol());
-                }
-                datastream.setUnit(unit);
-            }
+            datastream.setUnit(lookupTableResolver.resolveUnit(datastream.getUnit()));
         }
     }
 
@@ -120,6 +120,16 @@ public class EntityServiceRepository {
         return entityServices.get(EntityTypes.valueOf(entityTypeName));
     }
 
+    /**
+     * Provides the Observation data service including operations not defined on all entity services, e.g. bulk
+     * creation
+     *
+     * @return the Observation data service
+     */
+    public ServiceFacade.ObservationServiceFacade getObservationService() {
+        return observationService;
+    }
+
     /**
      * Provides an entity data service for a entity type
      *
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import org.locationtech.jts.geom.Geometry;
+import org.n52.series.db.beans.AbstractFeatureEntity;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the ids of FeaturesOfInterest resolved when inserting Observations, so that the common case does not need
+ * any query:
+ * <ul>
+ *     <li>the FeatureOfInterest auto-generated from the Location of a Thing, keyed by the id of the Thing</li>
+ *     <li>FeaturesOfInterest given inline without id, keyed by name, description and normalized geometry</li>
+ * </ul>
+ * Entries are evicted in least-recently-used order once the cache is full and expire after a fixed time. Entries
+ * are only added once the transaction that resolved the FeatureOfInterest has committed. All entries are
+ * invalidated whenever Things, Locations or FeaturesOfInterest change. Entries resolved concurrently to an
+ * invalidation are discarded.
+ */
+@Component
+public class FeatureOfInterestCache implements MetricsSource {
+
+    private static final char SEPARATOR = '\n';
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Long, Entry> byThing;
+    private final Map<String, Entry> byKey;
+
+    /*
+     * Incremented on every invalidation. Entries are only added if no invalidation happened since the
+     * FeatureOfInterest was looked up.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Metrics metrics = new Metrics("featureOfInterestCache");
+    private final AtomicLong hits = metrics.counter("hits");
+    private final AtomicLong misses = metrics.counter("misses");
+    private final AtomicLong evictions = metrics.counter("evictions");
+    private final AtomicLong invalidations = metrics.counter("invalidations");
+
+    public FeatureOfInterestCache(@Value("${database.cache.feature.size:10000}") int maxSize,
+                                  @Value("${database.cache.feature.ttl:300000}") long ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.byThing = createMap();
+        this.byKey = createMap();
+        metrics.gauge("size", () -> {
+            synchronized (this) {
+                return byThing.size() + byKey.size();
+            }
+        });
+    }
+
+    /**
+     * Creates the key of a FeatureOfInterest given inline without id. FeaturesOfInterest are considered equal if
+     * name, description and geometry are equal.
+     *
+     * @param feature FeatureOfInterest
+     * @return key
+     */
+    public static String createKey(AbstractFeatureEntity<?> feature) {
+        StringBuilder key = new StringBuilder()
+            .append(feature.getName())
+            .append(SEPARATOR)
+            .append(feature.getDescription())
+            .append(SEPARATOR);
+        if (feature.isSetGeometry()) {
+            Geometry geometry = feature.getGeometry();
+            key.append(geometry.getSRID()).append(SEPARATOR).append(geometry.norm().toText());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the current generation of the cache. Must be called before resolving a FeatureOfInterest that is to be
+     * cached afterwards.
+     *
+     * @return generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Gets the id of the FeatureOfInterest auto-generated from the Location of the given Thing.
+     *
+     * @param thingId id of the Thing
+     * @return id of the FeatureOfInterest or null if not cached or expired
+     */
+    public Long getByThing(Long thingId) {
+        return get(byThing, thingId);
+    }
+
+    /**
+     * Gets the id of the FeatureOfInterest with the given key.
+     *
+     * @param key key as created by {@link #createKey(AbstractFeatureEntity)}
+     * @return id of the FeatureOfInterest or null if not cached or expired
+     */
+    public Long getByKey(String key) {
+        return get(byKey, key);
+    }
+
+    /**
+     * Caches the FeatureOfInterest auto-generated from the Location of the given Thing once the current
+     * transaction has committed.
+     *
+     * @param thingId    id of the Thing
+     * @param featureId  id of the FeatureOfInterest
+     * @param generation generation of the cache before the FeatureOfInterest was resolved
+     */
+    public void putByThing(Long thingId, Long featureId, long generation) {
+        put(byThing, thingId, featureId, generation);
+    }
+
+    /**
+     * Caches the FeatureOfInterest with the given key once the current transaction has committed.
+     *
+     * @param key        key as created by {@link #createKey(AbstractFeatureEntity)}
+     * @param featureId  id of the FeatureOfInterest
+     * @param generation generation of the cache before the FeatureOfInterest was resolved
+     */
+    public void putByKey(String key, Long featureId, long generation) {
+        put(byKey, key, featureId, generation);
+    }
+
+    /**
+     * Removes all entries from the cache. If called inside a transaction, the cache is invalidated again once the
+     * transaction has committed, as concurrent transactions may still resolve FeaturesOfInterest from the state
+     * before the change until then.
+     */
+    public void invalidate() {
+        clear();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override public void afterCommit() {
+                    clear();
+                }
+            });
+        }
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private synchronized void clear() {
+        generation.incrementAndGet();
+        if (!byThing.isEmpty() || !byKey.isEmpty()) {
+            byThing.clear();
+            byKey.clear();
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private <K> Map<K, Entry> createMap() {
+        return new LinkedHashMap<K, Entry>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest) {
+                if (size() > FeatureOfInterestCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private <K> Long get(Map<K, Entry> cache, K key) {
+        if (maxSize <= 0 || key == null) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = cache.get(key);
+            if (entry != null && System.nanoTime() - entry.created > ttlNanos) {
+                cache.remove(key);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.featureId;
+        }
+    }
+
+    private <K> void put(Map<K, Entry> cache, K key, Long featureId, long resolvedAt) {
+        if (maxSize <= 0 || key == null || featureId == null) {
+            return;
+        }
+        Runnable put = () -> {
+            synchronized (this) {
+                if (generation.get() == resolvedAt) {
+                    cache.put(key, new Entry(featureId));
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // The FeatureOfInterest may have been created by this transaction and must not be cached on rollback
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override public void afterCommit() {
+                    put.run();
+                }
+            });
+        } else {
+            put.run();
+        }
+    }
+
+    private static final class Entry {
+
+        private final long created = System.nanoTime();
+        private final Long featureId;
+
+        private Entry(Long featureId) {
+            this.featureId = featureId;
+        }
+    }
+}
@@ -57,7 +57,6 @@ import org.n52.sta.data.repositories.DatastreamRepository;
 import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.FeatureOfInterestParameterRepository;
 import org.n52.sta.data.repositories.FeatureOfInterestRepository;
-import org.n52.sta.data.repositories.FormatRepository;
 import org.n52.sta.data.repositories.ObservationRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -95,25 +94,28 @@ public class FeatureOfInterestService
     private static final FeatureOfInterestQuerySpecifications foiQS = new FeatureOfInterestQuerySpecifications();
     private static final DatastreamQuerySpecifications dsQS = new DatastreamQuerySpecifications();
 
-    private final FormatRepository formatRepository;
+    private final LookupTableResolver lookupTableResolver;
     private final ObservationRepository observationRepository;
     private final DatastreamRepository datastreamRepository;
     private final FeatureOfInterestParameterRepository parameterRepository;
+    private final FeatureOfInterestCache featureCache;
 
     @Autowired
     public FeatureOfInterestService(FeatureOfInterestRepository repository,
-                                    FormatRepository formatRepository,
+                                    LookupTableResolver lookupTableResolver,
                                     ObservationRepository observationRepository,
                                     DatastreamRepository datastreamRepository,
                                     FeatureOfInterestParameterRepository parameterRepository,
+                                    FeatureOfInterestCache featureCache,
                                     EntityManager em) {
         super(repository,
               em,
               AbstractFeatureEntity.class);
-        this.formatRepository = formatRepository;
+        this.lookupTableResolver = lookupTableResolver;
         this.observationRepository = observationRepository;
         this.datastreamRepository = datastreamRepository;
         this.parameterRepository = parameterRepository;
+        this.featureCache = featureCache;
     }
 
     @Override protected EntityGraphRepository.FetchGraph[] createFetchGraph(ExpandFilter expandOption) {
@@ -182,12 +184,20 @@ public class FeatureOfInterestService
                                                          feature.getStaIdentifier()));
             }
         }
+        String key = null;
+        long generation = featureCache.getGeneration();
         if (feature.getStaIdentifier() == null) {
+            key = FeatureOfInterestCache.createKey(feature);
+            Long cached = featureCache.getByKey(key);
+            if (cached != null) {
+                return em.getReference(AbstractFeatureEntity.class, cached);
+            }
             if (getRepository().existsByName(feature.getName())) {
                 Iterable<AbstractFeatureEntity<?>> features =
                     getRepository().findAll(foiQS.withName(feature.getName()));
                 AbstractFeatureEntity<?> f = alreadyExistsFeature(features, feature);
                 if (f != null) {
+                    featureCache.putByKey(key, f.getId(), generation);
                     return f;
                 } else {
                     // Autogenerate Identifier
@@ -238,7 +248,9 @@ public class FeatureOfInterestService
                                                     })
                                                     .collect(Collectors.toSet()));
                 }
-                return getRepository().save(feature);
+                AbstractFeatureEntity<?> saved = getRepository().save(feature);
+                featureCache.putByKey(key, saved.getId(), generation);
+                return saved;
             }
         }
     }
@@ -368,15 +380,7 @@ public class FeatureOfInterestService
     }
 
     private void checkFeatureType(AbstractFeatureEntity<?> feature) throws STACRUDException {
-        FormatEntity format;
-        synchronized (getLock(feature.getFeatureType().getFormat())) {
-            if (!formatRepository.existsByFormat(feature.getFeatureType().getFormat())) {
-                format = formatRepository.save(feature.getFeatureType());
-            } else {
-                format = formatRepository.findByFormat(feature.getFeatureType().getFormat());
-            }
-            feature.setFeatureType(format);
-        }
+        feature.setFeatureType(lookupTableResolver.resolveFormat(feature.getFeatureType()));
     }
 
     /**
@@ -425,6 +429,7 @@ public class FeatureOfInterestService
                     featureOfInterest.setGeometry(geom);
                 }
                 getRepository().save(featureOfInterest);
+                featureCache.invalidate();
             } else {
                 throw new STACRUDException("Could not update FeatureOfInterest. No FeatureOfInterest with id \"" + id +
                                                "\" found!");
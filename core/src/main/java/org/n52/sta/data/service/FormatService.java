@@ -32,10 +32,6 @@ package org.n52.sta.data.service;
 import org.n52.series.db.beans.FormatEntity;
 import org.n52.shetland.ogc.om.features.SfConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
-import org.n52.sta.data.MutexFactory;
-import org.n52.sta.data.repositories.FormatRepository;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -48,14 +44,10 @@ import org.springframework.transaction.annotation.Transactional;
 @Transactional
 public class FormatService {
 
-    private static final Logger logger = LoggerFactory.getLogger(FormatService.class);
-    private final MutexFactory mutexFactory;
-    private final FormatRepository formatRepository;
+    private final LookupTableResolver lookupTableResolver;
 
-    public FormatService(MutexFactory mutexFactory,
-                         FormatRepository formatRepository) throws STACRUDException {
-        this.mutexFactory = mutexFactory;
-        this.formatRepository = formatRepository;
+    public FormatService(LookupTableResolver lookupTableResolver) throws STACRUDException {
+        this.lookupTableResolver = lookupTableResolver;
 
         // persist common formats
         String[] COMMON_FORMATS = {
@@ -84,13 +76,6 @@ public class FormatService {
 
     @Transactional
     public FormatEntity createOrFetchFormat(FormatEntity formatEntity) throws STACRUDException {
-        synchronized (mutexFactory.getLock(formatEntity.getFormat())) {
-            if (!formatRepository.existsByFormat(formatEntity.getFormat())) {
-                logger.debug("Persisting new FormatEntity: " + formatEntity.getFormat());
-                return formatRepository.save(formatEntity);
-            } else {
-                return formatRepository.findByFormat(formatEntity.getFormat());
-            }
-        }
+        return lookupTableResolver.resolveFormat(formatEntity);
     }
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data.service;
+
+import org.n52.series.db.beans.CompositeDataEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.shetland.filter.OrderProperty;
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.n52.shetland.ogc.filter.FilterConstants.SortOrder;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the latest Observation (i.e. the Observation with the latest phenomenonTime) of Datastreams, keyed by the
+ * staIdentifier of the Datastream, so that requests for the current value of a Datastream
+ * (see {@link #isLatestObservationQuery(QueryOptions)}) do not need to query the Observations table.
+ * <p>
+ * Entries are added when the latest Observation was queried from the database and are kept up to date by
+ * Observations inserted afterwards. Entries are invalidated when Observations are updated or deleted. All changes
+ * are applied once the writing transaction has committed, so that no uncommitted state is cached. Entries are
+ * evicted in least-recently-used order once the cache is full and expire after a fixed time, which bounds the
+ * staleness if Observations are changed by other instances.
+ * <p>
+ * Cached Observations are detached and shared between requests, so they must not be modified. Complex Observations
+ * are not cached.
+ */
+@Component
+public class LatestObservationCache implements MetricsSource {
+
+    private static final int STAMPS = 64;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<String, LatestObservation> cache;
+
+    /*
+     * Incremented on every change of an entry with a key of the same slot. Entries queried from the database are only
+     * added if no Observation of the Datastream was changed since the query.
+     */
+    private final long[] stamps = new long[STAMPS];
+
+    private final Metrics metrics = new Metrics("latestObservationCache");
+    private final AtomicLong hits = metrics.counter("hits");
+    private final AtomicLong misses = metrics.counter("misses");
+    private final AtomicLong evictions = metrics.counter("evictions");
+    private final AtomicLong invalidations = metrics.counter("invalidations");
+
+    public LatestObservationCache(@Value("${database.cache.latestObservation.size:10000}") int maxSize,
+                                  @Value("${database.cache.latestObservation.ttl:60000}") long ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.cache = new LinkedHashMap<String, LatestObservation>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, LatestObservation> eldest) {
+                if (size() > LatestObservationCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        metrics.gauge("size", () -> {
+            synchronized (this) {
+                return cache.size();
+            }
+        });
+    }
+
+    /**
+     * Checks whether the given QueryOptions request the latest Observation only, i.e.
+     * $top=1&amp;$orderby=phenomenonTime desc without $filter, $skip or $expand.
+     *
+     * @param queryOptions QueryOptions of an Observation collection
+     * @return true if the collection can be answered from the cache
+     */
+    public static boolean isLatestObservationQuery(QueryOptions queryOptions) {
+        if (queryOptions == null
+            || !queryOptions.hasTopFilter()
+            || queryOptions.getTopFilter().getValue() != 1
+            || (queryOptions.hasSkipFilter() && queryOptions.getSkipFilter().getValue() != 0)
+            || queryOptions.hasFilterFilter()
+            || queryOptions.hasExpandFilter()
+            || !queryOptions.hasOrderByFilter()) {
+            return false;
+        }
+        List<OrderProperty> sortProperties = queryOptions.getOrderByFilter().getSortProperties();
+        return sortProperties.size() == 1
+            && StaConstants.PROP_PHENOMENON_TIME.equals(sortProperties.get(0).getValueReference())
+            && SortOrder.DESC.equals(sortProperties.get(0).getSortOrder());
+    }
+
+    /**
+     * Gets the latest Observation of the given Datastream.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @return latest Observation or null if not cached or expired
+     */
+    public LatestObservation get(String datastreamId) {
+        if (maxSize <= 0 || datastreamId == null) {
+            return null;
+        }
+        synchronized (this) {
+            LatestObservation entry = cache.get(datastreamId);
+            if (entry != null && System.nanoTime() - entry.created > ttlNanos) {
+                cache.remove(datastreamId);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry;
+        }
+    }
+
+    /**
+     * Gets the current stamp of the given Datastream. Must be called before the latest Observation is queried from
+     * the database.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @return stamp
+     */
+    public synchronized long getStamp(String datastreamId) {
+        return stamps[slot(datastreamId)];
+    }
+
+    /**
+     * Caches the latest Observation of the given Datastream as queried from the database. The Observation is
+     * discarded if Observations of the Datastream were changed since the query.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param observation  latest Observation with initialized parameters
+     * @param hasMore      whether the Datastream has further Observations
+     * @param stamp        stamp of the Datastream before the Observation was queried
+     */
+    public void put(String datastreamId, DataEntity<?> observation, boolean hasMore, long stamp) {
+        if (maxSize <= 0 || datastreamId == null || !isCacheable(observation)) {
+            return;
+        }
+        synchronized (this) {
+            if (stamps[slot(datastreamId)] == stamp) {
+                cache.put(datastreamId, new LatestObservation(observation, hasMore));
+            }
+        }
+    }
+
+    /**
+     * Updates the cached latest Observation of the given Datastream with a new Observation once the current
+     * transaction has committed. Datastreams that are not cached are left untouched, as it is unknown whether the new
+     * Observation is the latest one.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param observation  new Observation with initialized parameters
+     */
+    public void offer(String datastreamId, DataEntity<?> observation) {
+        if (maxSize <= 0 || datastreamId == null) {
+            return;
+        }
+        Runnable offer = () -> {
+            synchronized (this) {
+                stamps[slot(datastreamId)]++;
+                LatestObservation entry = cache.get(datastreamId);
+                if (entry == null) {
+                    return;
+                }
+                int comparison = observation.getSamplingTimeEnd().compareTo(entry.observation.getSamplingTimeEnd());
+                if (!isCacheable(observation) || (comparison == 0 && !isSame(observation, entry.observation))) {
+                    // Order of Observations with equal phenomenonTime is not defined
+                    cache.remove(datastreamId);
+                    invalidations.incrementAndGet();
+                } else if (comparison >= 0) {
+                    cache.put(datastreamId, new LatestObservation(observation, entry.hasMore || comparison > 0));
+                } else if (!entry.hasMore) {
+                    cache.put(datastreamId, new LatestObservation(entry.observation, true));
+                }
+            }
+        };
+        // The Observation must not be cached on rollback
+        runAfterCommit(offer);
+    }
+
+    /**
+     * Removes the latest Observation of the given Datastream once the current transaction has committed. Until then
+     * concurrent requests may still query and cache the state before the change, which is discarded by the removal.
+     * Observations queried before the removal but cached afterwards are discarded as the stamp has changed.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     */
+    public void invalidate(String datastreamId) {
+        if (datastreamId == null) {
+            return;
+        }
+        runAfterCommit(() -> remove(datastreamId));
+    }
+
+    /**
+     * Removes all entries from the cache once the current transaction has committed, e.g. after Observations of
+     * multiple Datastreams were deleted.
+     */
+    public void invalidateAll() {
+        runAfterCommit(this::clear);
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private void runAfterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private synchronized void remove(String datastreamId) {
+        stamps[slot(datastreamId)]++;
+        if (cache.remove(datastreamId) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private synchronized void clear() {
+        for (int i = 0; i < STAMPS; i++) {
+            stamps[i]++;
+        }
+        if (!cache.isEmpty()) {
+            cache.clear();
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private static int slot(String datastreamId) {
+        return (datastreamId.hashCode() & Integer.MAX_VALUE) % STAMPS;
+    }
+
+    private static boolean isCacheable(DataEntity<?> observation) {
+        return observation != null
+            && observation.getSamplingTimeEnd() != null
+            && !(observation instanceof CompositeDataEntity);
+    }
+
+    private static boolean isSame(DataEntity<?> observation, DataEntity<?> other) {
+        return observation.getId() != null && observation.getId().equals(other.getId());
+    }
+
+    /**
+     * Latest Observation of a Datastream.
+     */
+    public static final class LatestObservation {
+
+        private final long created = System.nanoTime();
+        private final DataEntity<?> observation;
+        private final boolean hasMore;
+
+        LatestObservation(DataEntity<?> observation, boolean hasMore) {
+            this.observation = observation;
+            this.hasMore = hasMore;
+        }
+
+        public DataEntity<?> getObservation() {
+            return observation;
+        }
+
+        /**
+         * @return whether the Datastream has Observations other than the latest one
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+}
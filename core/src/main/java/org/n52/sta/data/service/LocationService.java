@@ -31,7 +31,6 @@ package org.n52.sta.data.service;
 
 import org.hibernate.Hibernate;
 import org.n52.janmayen.http.HTTPStatus;
-import org.n52.series.db.beans.FormatEntity;
 import org.n52.series.db.beans.PlatformEntity;
 import org.n52.series.db.beans.parameter.ParameterEntity;
 import org.n52.series.db.beans.parameter.TextParameterEntity;
@@ -46,16 +45,12 @@ import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.data.query.LocationQuerySpecifications;
 import org.n52.sta.data.repositories.EntityGraphRepository;
-import org.n52.sta.data.repositories.LocationEncodingRepository;
 import org.n52.sta.data.repositories.LocationParameterRepository;
 import org.n52.sta.data.repositories.LocationRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.DependsOn;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
-import org.springframework.data.domain.ExampleMatcher.GenericPropertyMatchers;
 import org.springframework.data.domain.Page;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpMethod;
@@ -85,18 +80,18 @@ public class LocationService
 
     private static final String UNABLE_TO_UPDATE_ENTITY_NOT_FOUND = "Unable to update. Entity not found";
 
-    private final LocationEncodingRepository locationEncodingRepository;
+    private final LookupTableResolver lookupTableResolver;
 
     private final boolean updateFOIFeatureEnabled;
     private final LocationParameterRepository parameterRepository;
 
     public LocationService(@Value("${server.feature.updateFOI:false}") boolean updateFOI,
                            LocationRepository repository,
-                           LocationEncodingRepository locationEncodingRepository,
+                           LookupTableResolver lookupTableResolver,
                            LocationParameterRepository parameterRepository,
                            EntityManager em) {
         super(repository, em, LocationEntity.class);
-        this.locationEncodingRepository = locationEncodingRepository;
+        this.lookupTableResolver = lookupTableResolver;
         this.updateFOIFeatureEnabled = updateFOI;
         this.parameterRepository = parameterRepository;
     }
@@ -312,31 +307,10 @@ public class LocationService
 
     private void checkLocationEncoding(LocationEntity location) throws STACRUDException {
         if (location.getLocationEncoding() != null) {
-            FormatEntity optionalLocationEncoding = createLocationEncoding(location.getLocationEncoding());
-            location.setLocationEncoding(optionalLocationEncoding);
+            location.setLocationEncoding(lookupTableResolver.resolveFormat(location.getLocationEncoding()));
         }
     }
 
-    private FormatEntity createLocationEncoding(FormatEntity locationEncoding) throws STACRUDException {
-        ExampleMatcher createEncodingTypeMatcher = createEncodingTypeMatcher();
-        synchronized (getLock(locationEncoding.getFormat())) {
-            if (!locationEncodingRepository
-                .exists(createEncodingTypeExample(locationEncoding, createEncodingTypeMatcher))) {
-                return locationEncodingRepository.save(locationEncoding);
-            }
-            return locationEncodingRepository
-                .findOne(createEncodingTypeExample(locationEncoding, createEncodingTypeMatcher)).get();
-        }
-    }
-
-    private Example<FormatEntity> createEncodingTypeExample(FormatEntity locationEncoding, ExampleMatcher matcher) {
-        return Example.of(locationEncoding, matcher);
-    }
-
-    private ExampleMatcher createEncodingTypeMatcher() {
-        return ExampleMatcher.matching().withMatcher(ENCODINGTYPE, GenericPropertyMatchers.ignoreCase());
-    }
-
     private void processThings(LocationEntity location) throws STACRUDException {
         if (location.hasThings()) {
             Set<PlatformEntity> things = new LinkedHashSet<>();
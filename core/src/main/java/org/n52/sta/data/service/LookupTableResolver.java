@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data.service;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.NoopOptimizer;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.Type;
+import org.n52.series.db.beans.FormatEntity;
+import org.n52.series.db.beans.UnitEntity;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.data.MutexFactory;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves entries of lookup tables (Units and Formats, which also hold encodingTypes, FeatureTypes and
+ * ObservationTypes) to their persisted entity, creating missing entries. The database ids of resolved entries are
+ * cached once the resolving transaction has committed, so that the common case only loads the entity by id (which
+ * may be served by the second-level cache).
+ * <p>
+ * Missing entries are created with a single {@code INSERT ... ON CONFLICT DO NOTHING} statement that also returns
+ * the id of an already existing entry. This relies on the unique constraint of the lookup table and needs no lock,
+ * neither inside this instance nor between instances sharing the database. If the id of the table is not generated
+ * by a plain database sequence, entries are created by check-then-insert serialized via {@link MutexFactory}.
+ */
+@Component
+@Transactional
+public class LookupTableResolver implements MetricsSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LookupTableResolver.class);
+
+    // Lookup tables are small. Guards against unbounded growth if clients send arbitrary Units
+    private static final int MAX_CACHED_IDS = 10000;
+    private static final String FORMAT = "format";
+    private static final String UNIT_IDENTIFIER = "identifier";
+    private static final String VALUE = "value";
+
+    private final EntityManager em;
+    private final MutexFactory mutexFactory;
+    private final Map<String, Long> formatIds = new ConcurrentHashMap<>();
+    private final Map<String, Long> unitIds = new ConcurrentHashMap<>();
+
+    private final Metrics metrics = new Metrics("lookupTables");
+    private final AtomicLong hits = metrics.counter("hits");
+    private final AtomicLong misses = metrics.counter("misses");
+    private final AtomicLong inserts = metrics.counter("inserts");
+
+    public LookupTableResolver(EntityManager em, MutexFactory mutexFactory) {
+        this.em = em;
+        this.mutexFactory = mutexFactory;
+        metrics.gauge("size", () -> formatIds.size() + unitIds.size());
+    }
+
+    /**
+     * Resolves the persisted Format with the same format as the given one, creating it if missing.
+     *
+     * @param format Format to be resolved
+     * @return persisted Format
+     * @throws STACRUDException if the Format could not be resolved
+     */
+    public FormatEntity resolveFormat(FormatEntity format) throws STACRUDException {
+        return resolve(FormatEntity.class, FORMAT, format.getFormat(), format, formatIds);
+    }
+
+    /**
+     * Resolves the persisted Unit with the same symbol as the given one, creating it if missing.
+     *
+     * @param unit Unit to be resolved
+     * @return persisted Unit
+     * @throws STACRUDException if the Unit could not be resolved
+     */
+    public UnitEntity resolveUnit(UnitEntity unit) throws STACRUDException {
+        return resolve(UnitEntity.class, UNIT_IDENTIFIER, unit.getSymbol(), unit, unitIds);
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private <T> T resolve(Class<T> type, String property, String value, T entity, Map<String, Long> ids)
+        throws STACRUDException {
+        Long cached = ids.get(value);
+        if (cached != null) {
+            T resolved = em.find(type, cached);
+            if (resolved != null) {
+                hits.incrementAndGet();
+                return resolved;
+            }
+            // Entry was deleted in the meantime
+            ids.remove(value, cached);
+        }
+        misses.incrementAndGet();
+
+        AbstractEntityPersister persister = (AbstractEntityPersister) em.getEntityManagerFactory()
+            .unwrap(SessionFactoryImplementor.class)
+            .getMetamodel()
+            .entityPersister(type);
+        String nextId = nextIdExpression(persister);
+        T resolved = nextId != null
+            ? em.find(type, upsert(type, persister, nextId, property, value, entity))
+            : createIfMissing(type, property, value, entity);
+        Object id = em.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(resolved);
+        cacheAfterCommit(ids, value, (Long) id);
+        return resolved;
+    }
+
+    /**
+     * Inserts the given entity unless an entry with the given value exists.
+     *
+     * @return id of the inserted or existing entry
+     */
+    private Long upsert(Class<?> type,
+                        AbstractEntityPersister persister,
+                        String nextId,
+                        String property,
+                        String value,
+                        Object entity) throws STACRUDException {
+        String table = persister.getTableName();
+        String id = persister.getIdentifierColumnNames()[0];
+        StringBuilder columns = new StringBuilder(id);
+        StringBuilder values = new StringBuilder(nextId);
+        Map<String, Object> parameters = new HashMap<>();
+        Object[] propertyValues = persister.getPropertyValues(entity);
+        Type[] propertyTypes = persister.getPropertyTypes();
+        boolean[] insertable = persister.getPropertyInsertability();
+        for (int i = 0; i < propertyValues.length; i++) {
+            String[] propertyColumns = persister.getPropertyColumnNames(i);
+            if (propertyValues[i] != null && insertable[i] && propertyColumns.length == 1
+                && propertyColumns[0] != null && !propertyTypes[i].isAssociationType()
+                && !propertyTypes[i].isComponentType()) {
+                columns.append(", ").append(propertyColumns[0]);
+                values.append(", :p").append(i);
+                parameters.put("p" + i, propertyValues[i]);
+            }
+        }
+        String existing = "SELECT " + id + ", FALSE FROM " + table
+            + " WHERE " + persister.getPropertyColumnNames(property)[0] + " = :" + VALUE;
+        // The SELECT does not see a row inserted by this statement, so at most one row is returned. It is empty if
+        // the conflicting row was committed by a concurrent transaction after this statement started
+        String sql = "WITH inserted AS (INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")"
+            + " ON CONFLICT DO NOTHING RETURNING " + id + ")"
+            + " SELECT " + id + ", TRUE FROM inserted UNION ALL " + existing;
+        try {
+            Query query = em.createNativeQuery(sql).setParameter(VALUE, value);
+            parameters.forEach(query::setParameter);
+            // Restricts the auto-flush before the statement to pending changes of this table. Cached queries are not
+            // invalidated, as the statement is executed as a query. Lookup tables have none, as entries are resolved
+            // via their cached id
+            query.unwrap(NativeQuery.class).addSynchronizedEntityClass(type);
+            List<?> rows = query.getResultList();
+            if (rows.isEmpty()) {
+                rows = em.createNativeQuery(existing).setParameter(VALUE, value).getResultList();
+            }
+            Object[] row = (Object[]) rows.get(0);
+            if ((Boolean) row[1]) {
+                inserts.incrementAndGet();
+                LOGGER.debug("Persisted new {}: {}", type.getSimpleName(), value);
+            }
+            return ((Number) row[0]).longValue();
+        } catch (PersistenceException e) {
+            throw new STACRUDException("Unable to resolve " + type.getSimpleName() + ": " + value, e);
+        }
+    }
+
+    private <T> T createIfMissing(Class<T> type, String property, String value, T entity) throws STACRUDException {
+        synchronized (mutexFactory.getLock(value + type.getSimpleName())) {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<T> query = builder.createQuery(type);
+            Root<T> root = query.from(type);
+            query.where(builder.equal(root.get(property), value));
+            List<T> existing = em.createQuery(query).setMaxResults(1).getResultList();
+            if (!existing.isEmpty()) {
+                return existing.get(0);
+            }
+            em.persist(entity);
+            inserts.incrementAndGet();
+            return entity;
+        }
+    }
+
+    /**
+     * Returns the SQL expression generating the next id, if ids are taken one by one from a database sequence. Ids
+     * taken from a sequence behind a pooled optimizer would clash with the ids handed out by Hibernate.
+     *
+     * @param persister persister of the lookup table
+     * @return SQL expression. null if not applicable
+     */
+    private String nextIdExpression(AbstractEntityPersister persister) {
+        IdentifierGenerator generator = persister.getIdentifierGenerator();
+        if (generator instanceof SequenceStyleGenerator) {
+            SequenceStyleGenerator sequence = (SequenceStyleGenerator) generator;
+            if (sequence.getDatabaseStructure().isPhysicalSequence()
+                && sequence.getOptimizer() instanceof NoopOptimizer) {
+                return "nextval('" + sequence.getDatabaseStructure().getName() + "')";
+            }
+        }
+        return null;
+    }
+
+    private void cacheAfterCommit(Map<String, Long> ids, String value, Long id) {
+        Runnable cache = () -> {
+            if (ids.size() >= MAX_CACHED_IDS) {
+                ids.clear();
+            }
+            ids.put(value, id);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override public void afterCommit() {
+                    cache.run();
+                }
+            });
+        } else {
+            cache.run();
+        }
+    }
+}
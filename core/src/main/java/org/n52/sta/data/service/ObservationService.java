@@ -30,6 +30,10 @@
 package org.n52.sta.data.service;
 
 import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metamodel.spi.MetamodelImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.hibernate.query.criteria.internal.CriteriaBuilderImpl;
 import org.n52.janmayen.http.HTTPStatus;
 import org.n52.series.db.beans.AbstractDatasetEntity;
@@ -54,6 +58,8 @@ import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.ReplicaRoutingDataSource;
+import org.n52.sta.data.ContinuationToken;
 import org.n52.sta.data.OffsetLimitBasedPageRequest;
 import org.n52.sta.data.query.ObservationQuerySpecifications;
 import org.n52.sta.data.repositories.DatastreamRepository;
@@ -61,6 +67,7 @@ import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.LocationRepository;
 import org.n52.sta.data.repositories.ObservationParameterRepository;
 import org.n52.sta.data.repositories.ObservationRepository;
+import org.n52.sta.data.service.util.CollectionStream;
 import org.n52.sta.data.service.util.CollectionWrapper;
 import org.n52.sta.data.service.util.FilterExprVisitor;
 import org.n52.sta.data.service.util.HibernateSpatialCriteriaBuilderImpl;
@@ -68,23 +75,47 @@ import org.n52.svalbard.odata.core.expr.Expr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.StringJoiner;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -97,37 +128,82 @@ public class ObservationService
 
     private static final ObservationQuerySpecifications oQS = new ObservationQuerySpecifications();
     private static final Logger LOGGER = LoggerFactory.getLogger(ObservationService.class);
+    // Properties of AbstractDatasetEntity maintained via conditional UPDATEs
+    private static final String DATASET_FIRST_VALUE_AT = "firstValueAt";
+    private static final String DATASET_LAST_VALUE_AT = "lastValueAt";
+    private static final String DATASET_FIRST_OBSERVATION = "firstObservation";
+    private static final String DATASET_LAST_OBSERVATION = "lastObservation";
+    private static final String DATASET_FIRST_QUANTITY_VALUE = "firstQuantityValue";
+    private static final String DATASET_LAST_QUANTITY_VALUE = "lastQuantityValue";
+    private static final String DATASET_PHENOMENON_TIME_START = "phenomenonTimeStart";
+    private static final String DATASET_PHENOMENON_TIME_END = "phenomenonTimeEnd";
     protected final DatastreamRepository datastreamRepository;
     protected final ObservationParameterRepository parameterRepository;
+    protected final DatastreamMetadataCache datastreamCache;
+    protected final FeatureOfInterestCache featureCache;
+    protected final LatestObservationCache latestObservationCache;
+    private final CountMode countMode;
+    private final ConcurrencyMode concurrencyMode;
+    private final boolean keysetPagination;
+    private final int streamingFetchSize;
+    private final TransactionTemplate streamingTransaction;
     private final String OBS_TYPE_SENSORML_OBSERVATION =
         "http://www.52north.org/def/observationType/OGC-OM/2.0/OM_SensorML20Observation";
     private final Class entityClass;
+    private ReplicaRoutingDataSource replicaRouting;
 
     @Autowired
     public ObservationService(ObservationRepository<DataEntity<?>> repository,
                               EntityManager em,
                               DatastreamRepository datastreamRepository,
-                              ObservationParameterRepository parameterRepository) {
+                              ObservationParameterRepository parameterRepository,
+                              DatastreamMetadataCache datastreamCache,
+                              FeatureOfInterestCache featureCache,
+                              LatestObservationCache latestObservationCache,
+                              @Value("${server.feature.observationCount:exact}") String countMode,
+                              @Value("${server.feature.keysetPagination:false}") boolean keysetPagination,
+                              @Value("${server.feature.observationStreamingFetchSize:0}") int streamingFetchSize,
+                              @Value("${database.concurrency.mode:lock}") String concurrencyMode,
+                              PlatformTransactionManager transactionManager) {
         super(repository, em, DataEntity.class);
         this.entityClass = DataEntity.class;
         this.datastreamRepository = datastreamRepository;
         this.parameterRepository = parameterRepository;
+        this.datastreamCache = datastreamCache;
+        this.featureCache = featureCache;
+        this.latestObservationCache = latestObservationCache;
+        this.countMode = CountMode.valueOf(countMode.trim().toUpperCase());
+        this.concurrencyMode = ConcurrencyMode.valueOf(concurrencyMode.trim().toUpperCase());
+        this.keysetPagination = keysetPagination;
+        this.streamingFetchSize = streamingFetchSize;
+        this.streamingTransaction = new TransactionTemplate(transactionManager);
+        this.streamingTransaction.setReadOnly(true);
     }
 
     @Override
     public CollectionWrapper getEntityCollection(QueryOptions queryOptions) throws STACRUDException {
         try {
-            OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
             Specification<DataEntity<?>> spec = getFilterPredicate(DataEntity.class, queryOptions);
-            List<String> identifierList = getRepository()
-                .getColumnList(spec,
-                               pageableRequest,
-                               STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
-                return new CollectionWrapper(0, Collections.emptyList(), false);
-            } else {
-                return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, spec);
-            }
+            return getEntityCollection(spec, queryOptions, !queryOptions.hasFilterFilter(), null);
+        } catch (RuntimeException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the page of Observations following the position encoded in the given continuation token.
+     *
+     * @param queryOptions QueryOptions of the request
+     * @param skipToken    continuation token as returned in the @iot.nextLink of the previous page
+     * @return requested page
+     * @throws STACRUDException if keyset pagination is disabled or the token is invalid
+     */
+    public CollectionWrapper getEntityCollection(QueryOptions queryOptions, String skipToken)
+        throws STACRUDException {
+        ContinuationToken token = decodeSkipToken(queryOptions, skipToken);
+        try {
+            Specification<DataEntity<?>> spec = getFilterPredicate(DataEntity.class, queryOptions);
+            return getEntityCollection(spec, queryOptions, !queryOptions.hasFilterFilter(), token);
         } catch (RuntimeException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
@@ -139,19 +215,44 @@ public class ObservationService
         throws STACRUDException {
 
         try {
-            OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
+            if (STAEntityDefinition.DATASTREAMS.equals(relatedType)
+                && LatestObservationCache.isLatestObservationQuery(queryOptions)) {
+                return getLatestObservationCollection(relatedId, queryOptions);
+            }
             Specification<DataEntity<?>> spec =
                 byRelatedEntityFilter(relatedId, relatedType, null)
                     .and(getFilterPredicate(entityClass, queryOptions));
+            return getEntityCollection(spec, queryOptions, false, null);
+        } catch (RuntimeException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
 
-            List<String> identifierList = getRepository().getColumnList(spec,
-                                                                        createPageableRequest(queryOptions),
-                                                                        STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
-                return new CollectionWrapper(0, Collections.emptyList(), false);
-            } else {
-                return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, spec);
-            }
+    /**
+     * Returns the page of Observations related to the given Entity following the position encoded in the given
+     * continuation token.
+     *
+     * @param relatedId    id of the related Entity
+     * @param relatedType  type of the related Entity
+     * @param queryOptions QueryOptions of the request
+     * @param skipToken    continuation token as returned in the @iot.nextLink of the previous page
+     * @return requested page
+     * @throws STACRUDException if keyset pagination is disabled or the token is invalid
+     */
+    public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
+                                                                String relatedType,
+                                                                QueryOptions queryOptions,
+                                                                String skipToken)
+        throws STACRUDException {
+        if (skipToken == null) {
+            return getEntityCollectionByRelatedEntity(relatedId, relatedType, queryOptions);
+        }
+        ContinuationToken token = decodeSkipToken(queryOptions, skipToken);
+        try {
+            Specification<DataEntity<?>> spec =
+                byRelatedEntityFilter(relatedId, relatedType, null)
+                    .and(getFilterPredicate(entityClass, queryOptions));
+            return getEntityCollection(spec, queryOptions, false, token);
         } catch (RuntimeException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
@@ -185,28 +286,14 @@ public class ObservationService
                 byRelatedEntityFilter(relatedId, relatedType, null)
                     .and(getFilterPredicate(DataEntity.class, queryOptions));
 
-            List<String> identifierList = getRepository().getColumnList(spec,
-                                                                        createPageableRequest(queryOptions),
-                                                                        STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
+            Slice<DataEntity<?>> slice = getRepository().findSlice(spec, pageableRequest);
+            if (slice.isEmpty()) {
                 return Page.empty();
             } else {
-                Page<DataEntity<?>> pages = getRepository().findAll(
-                    oQS.withStaIdentifier(identifierList),
-                    new OffsetLimitBasedPageRequest(0,
-                                                    pageableRequest.getPageSize(),
-                                                    pageableRequest.getSort()),
-                    EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS);
-
+                Page<DataEntity<?>> pages = new PageImpl<>(slice.getContent());
                 pages.forEach(this::fetchValueIfCompositeDataEntity);
                 if (queryOptions.hasExpandFilter()) {
-                    return pages.map(e -> {
-                        try {
-                            return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                        } catch (STACRUDException | STAInvalidQueryException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                    });
+                    return new PageImpl<>(expandAll(pages.getContent(), queryOptions.getExpandFilter()));
                 } else {
                     return pages;
                 }
@@ -216,6 +303,161 @@ public class ObservationService
         }
     }
 
+    @Autowired(required = false)
+    void setReplicaRouting(ReplicaRoutingDataSource replicaRouting) {
+        this.replicaRouting = replicaRouting;
+    }
+
+    /**
+     * Gets the latest Observation of the given Datastream, i.e. the result of
+     * Datastreams(x)/Observations?$top=1&amp;$orderby=phenomenonTime desc. Served from the {@link
+     * LatestObservationCache} if possible. Otherwise the Observation is queried and cached.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param queryOptions QueryOptions matching {@link LatestObservationCache#isLatestObservationQuery(QueryOptions)}
+     * @return latest Observation or null if the Datastream has no Observations
+     */
+    LatestObservationCache.LatestObservation getLatestObservation(String datastreamId, QueryOptions queryOptions) {
+        LatestObservationCache.LatestObservation latest = latestObservationCache.get(datastreamId);
+        if (latest != null) {
+            return latest;
+        }
+        long stamp = latestObservationCache.getStamp(datastreamId);
+        Slice<DataEntity<?>> slice =
+            getRepository().findSlice(byRelatedEntityFilter(datastreamId, STAEntityDefinition.DATASTREAMS, null)
+                                          .and(getFilterPredicate(entityClass, queryOptions)),
+                                      createPageableRequest(queryOptions));
+        if (slice.isEmpty()) {
+            return null;
+        }
+        DataEntity<?> observation = fetchValueIfCompositeDataEntity(slice.getContent().get(0));
+        // Parameters must be available once the Observation is detached
+        Hibernate.initialize(observation.getParameters());
+        // Replicas may lag behind the primary, so Observations read from a replica would be cached although they are
+        // no longer the latest one
+        if (replicaRouting == null || !replicaRouting.isReadingFromReplica()) {
+            latestObservationCache.put(datastreamId, observation, slice.hasNext(), stamp);
+        }
+        return new LatestObservationCache.LatestObservation(observation, slice.hasNext());
+    }
+
+    /**
+     * Answers Datastreams(x)/Observations?$top=1&amp;$orderby=phenomenonTime desc via
+     * {@link #getLatestObservation(String, QueryOptions)}. The total count is only queried if required by the
+     * configured {@link CountMode} and the Datastream has more than one Observation.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param queryOptions QueryOptions of the request
+     * @return requested page
+     */
+    private CollectionWrapper getLatestObservationCollection(String datastreamId, QueryOptions queryOptions) {
+        LatestObservationCache.LatestObservation latest = getLatestObservation(datastreamId, queryOptions);
+        if (latest == null) {
+            return new CollectionWrapper(0, Collections.emptyList(), false);
+        }
+        long count;
+        boolean countRequested = queryOptions.hasCountFilter() && queryOptions.getCountFilter().getValue();
+        if (countMode != CountMode.EXACT && !countRequested) {
+            count = -1;
+        } else if (!latest.hasMore()) {
+            count = 1;
+        } else {
+            count = getRepository().count(byRelatedEntityFilter(datastreamId, STAEntityDefinition.DATASTREAMS, null)
+                                              .and(getFilterPredicate(entityClass, queryOptions)));
+        }
+        return new CollectionWrapper(count,
+                                     Collections.singletonList(createWrapper(latest.getObservation(), queryOptions)),
+                                     latest.hasMore());
+    }
+
+    /**
+     * Fetches the Observations of all given Datastreams with a single windowed query, applying $top, $skip and
+     * $orderby per Datastream via ROW_NUMBER() OVER (PARTITION BY datastream). The Observations are then loaded
+     * by id, so two statements are issued regardless of the number of Datastreams. Nested $expand is resolved for
+     * all Observations at once.
+     *
+     * @param datastreamIds database ids of the Datastreams
+     * @param queryOptions  nested {@link QueryOptions} of the expand item. Must not contain $filter
+     * @return Observations grouped by database id of the Datastream. null if $orderby cannot be expressed in SQL
+     */
+    Map<Long, List<DataEntity<?>>> getEntityCollectionByDatastreamsRaw(Collection<Long> datastreamIds,
+                                                                       QueryOptions queryOptions) {
+        MetamodelImplementor metamodel =
+            em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class).getMetamodel();
+        String sql;
+        try {
+            AbstractEntityPersister observation =
+                (AbstractEntityPersister) metamodel.entityPersister(DataEntity.class);
+            AbstractEntityPersister dataset =
+                (AbstractEntityPersister) metamodel.entityPersister(AbstractDatasetEntity.class);
+            String datasetId = "d." + dataset.getIdentifierColumnNames()[0];
+            String aggregation = "d." + dataset.getPropertyColumnNames(AbstractDatasetEntity.PROPERTY_AGGREGATION)[0];
+            // Observations of aggregated Datastreams are attached to the sub-datasets
+            String parent = "COALESCE(" + aggregation + ", " + datasetId + ")";
+            sql = "SELECT w.id, w.parent FROM ("
+                + "SELECT o." + observation.getIdentifierColumnNames()[0] + " AS id, " + parent + " AS parent, "
+                + "ROW_NUMBER() OVER (PARTITION BY " + parent
+                + " ORDER BY " + toOrderByClause(createPageableRequest(queryOptions).getSort(), observation)
+                + ") AS rn"
+                + " FROM " + observation.getTableName() + " o"
+                + " INNER JOIN " + dataset.getTableName() + " d"
+                + " ON o." + observation.getPropertyColumnNames(DataEntity.PROPERTY_DATASET)[0] + " = " + datasetId
+                + " WHERE (" + datasetId + " IN (:ids) OR " + aggregation + " IN (:ids))"
+                + " AND o." + observation.getPropertyColumnNames(DataEntity.PROPERTY_PARENT)[0] + " IS NULL"
+                + ") w WHERE w.rn > :skip AND w.rn <= :limit ORDER BY w.parent, w.rn";
+        } catch (HibernateException e) {
+            LOGGER.debug("Unable to window Observations in SQL, falling back to a query per Datastream", e);
+            return null;
+        }
+
+        long skip = queryOptions.hasSkipFilter() ? queryOptions.getSkipFilter().getValue() : 0;
+        List<?> rows = em.createNativeQuery(sql)
+            .setParameter("ids", datastreamIds)
+            .setParameter("skip", skip)
+            .setParameter("limit", skip + queryOptions.getTopFilter().getValue())
+            .getResultList();
+        Map<Long, Long> datastreamOf = new LinkedHashMap<>();
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            datastreamOf.put(((Number) columns[0]).longValue(), ((Number) columns[1]).longValue());
+        }
+        if (datastreamOf.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Long, DataEntity<?>> loaded = new HashMap<>();
+        for (DataEntity<?> entity : getRepository().findAll(
+            (root, query, builder) -> root.get(DataEntity.PROPERTY_ID).in(datastreamOf.keySet()))) {
+            loaded.put(entity.getId(), entity);
+        }
+        List<DataEntity<?>> observations = datastreamOf.keySet()
+            .stream()
+            .map(loaded::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        observations.forEach(this::fetchValueIfCompositeDataEntity);
+        if (queryOptions.hasExpandFilter()) {
+            observations = expandAll(observations, queryOptions.getExpandFilter());
+        }
+        Map<Long, List<DataEntity<?>>> result = new HashMap<>();
+        for (DataEntity<?> entity : observations) {
+            result.computeIfAbsent(datastreamOf.get(entity.getId()), k -> new ArrayList<>()).add(entity);
+        }
+        return result;
+    }
+
+    private String toOrderByClause(Sort sort, AbstractEntityPersister persister) {
+        StringJoiner orderBy = new StringJoiner(", ");
+        for (Sort.Order order : sort) {
+            for (String column : persister.getPropertyColumnNames(order.getProperty())) {
+                orderBy.add("o." + column + (order.isAscending() ? " ASC" : " DESC"));
+            }
+        }
+        // Ensure stable ordering
+        orderBy.add("o." + persister.getIdentifierColumnNames()[0] + " ASC");
+        return orderBy.toString();
+    }
+
     @Override protected EntityGraphRepository.FetchGraph[] createFetchGraph(ExpandFilter expandOption) {
         return new EntityGraphRepository.FetchGraph[] {
             EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS,
@@ -277,81 +519,279 @@ public class ObservationService
 
     @Override
     public DataEntity<?> createOrfetch(DataEntity<?> entity) throws STACRUDException {
+        if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+            // Uniqueness of a given staIdentifier is checked before insert and enforced by the database
+            return createOrfetchObservation(entity);
+        }
         synchronized (getLock(entity.getStaIdentifier())) {
-            DataEntity<?> observation = entity;
-            if (!observation.isProcessed()) {
-                observation.setProcessed(true);
-                check(observation);
+            return createOrfetchObservation(entity);
+        }
+    }
+
+    private DataEntity<?> createOrfetchObservation(DataEntity<?> entity) throws STACRUDException {
+        DataEntity<?> observation = entity;
+        if (!observation.isProcessed()) {
+            observation.setProcessed(true);
+            check(observation);
+
+            String datastreamId = entity.getDataset().getStaIdentifier();
+            DatastreamMetadataCache.DatastreamMetadata metadata = datastreamCache.get(datastreamId);
+            AbstractFeatureEntity<?> feature = null;
+            DatasetEntity dataset = null;
+            if (metadata != null) {
+                feature = createOrfetchFeature(observation, metadata.getPlatformId());
+                dataset = findCachedDataset(datastreamId, metadata, feature);
+            }
 
+            if (dataset == null) {
                 // Fetch dataset and check if FOI matches to reuse existing dataset
                 AbstractDatasetEntity datastream = datastreamRepository
-                    .findByStaIdentifier(entity.getDataset().getStaIdentifier(),
+                    .findByStaIdentifier(datastreamId,
                                          EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
                     .orElseThrow(() -> new STACRUDException("Unable to find Datastream!"));
-                AbstractFeatureEntity<?> feature = createOrfetchFeature(observation, datastream.getPlatform().getId());
+                if (feature == null) {
+                    feature = createOrfetchFeature(observation, datastream.getPlatform().getId());
+                }
+                dataset = findOrCreateDataset(datastream, feature);
+            }
+            observation.setDataset(dataset);
 
-                // Check all subdatasets for a matching  dataset
-                Set<DatasetEntity> datasets;
-                if (datastream.getAggregation() == null && !(datastream instanceof DatasetAggregationEntity)) {
-                    // We are not an aggregate so there is only one dataset to check for fit
-                    datasets = Collections.singleton((DatasetEntity) datastream);
-                } else {
-                    datasets = datastreamRepository.findAllByAggregationId(datastream.getId())
+            // Save Observation
+            DataEntity<?> data = saveObservation(observation, observation.getDataset());
+
+            // Save parameters
+            if (observation.getParameters() != null) {
+                parameterRepository.saveAll(
+                    observation
+                        .getParameters()
                         .stream()
-                        .map(d -> (DatasetEntity) d)
-                        .collect(Collectors.toSet());
-                }
+                        .filter(o -> o instanceof ObservationParameterEntity)
+                        .map(o -> {
+                            ((ObservationParameterEntity<?>) o).setObservation(data);
+                            return (ObservationParameterEntity) o;
+                        })
+                        .collect(Collectors.toSet())
+                );
+                data.setParameters(observation.getParameters());
+            }
 
-                // Check all datasets for a matching FOI
-                boolean found = false;
-                for (DatasetEntity dataset : datasets) {
-                    if (!dataset.hasFeature()) {
-                        // We have a dataset without a feature
-                        LOGGER.debug("Reusing existing dataset without FOI.");
-                        dataset.setFeature(feature);
-                        observation.setDataset(datastreamRepository.save(dataset));
-                        found = true;
-                        break;
-                    } else if (feature.getId().equals(dataset.getFeature().getId())) {
-                        // We have a dataset with a matching feature
-                        observation.setDataset(dataset);
-                        LOGGER.debug("Reusing existing dataset with matching FOI.");
-                        found = true;
-                        break;
-                    }
-                }
+            // Update FirstValue/LastValue + FirstObservation/LastObservation of Dataset + Aggregation
+            updateDataset(observation.getDataset(), data);
+            latestObservationCache.offer(datastreamId, data);
+            return data;
+        }
+        return observation;
+    }
+
+    /**
+     * Creates all given Observations of a single Datastream. Datastream, FeaturesOfInterest and Datasets are
+     * resolved once per batch instead of once per Observation. All Observations are persisted with a single flush
+     * and each affected Dataset is updated exactly once. Runs in a single transaction, so either all or none of the
+     * Observations are created.
+     *
+     * @param datastreamId staIdentifier of the Datastream all Observations belong to
+     * @param observations Observations to be created
+     * @return created Observations in the order they were given
+     * @throws STACRUDException if an error occurred
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<DataEntity<?>> createBatch(String datastreamId, List<DataEntity<?>> observations)
+        throws STACRUDException {
+        AbstractDatasetEntity datastream = findDatastreamForBatch(datastreamId);
+
+        // Cache of FeaturesOfInterest referenced by id. Key "" is used for the FOI generated from Thing->Location
+        Map<String, AbstractFeatureEntity<?>> features = new HashMap<>();
+        // Cache of Datasets keyed by Feature Id
+        Map<Long, DatasetEntity> datasets = new HashMap<>();
+        Set<String> identifiers = new HashSet<>();
 
-                if (!found) {
-                    // We have not found a matching dataset so we need to create a new one
-                    LOGGER.debug("Creating new dataset as none with matching FOI exists");
-                    observation.setDataset(getDatastreamService().createOrExpandAggregation(datastream, feature));
+        List<DataEntity<?>> toPersist = new ArrayList<>(observations.size());
+        for (DataEntity<?> observation : observations) {
+            observation.setProcessed(true);
+            if (observation.getStaIdentifier() != null && !identifiers.add(observation.getStaIdentifier())) {
+                throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
+            }
+
+            String featureKey = observation.hasFeature() ? observation.getFeature().getStaIdentifier() : "";
+            AbstractFeatureEntity<?> feature = (featureKey == null) ? null : features.get(featureKey);
+            if (feature == null) {
+                feature = createOrfetchFeature(observation, datastream.getPlatform().getId());
+                if (featureKey != null) {
+                    features.put(featureKey, feature);
                 }
+            }
+            observation.setFeature(feature);
 
-                // Save Observation
-                DataEntity<?> data = saveObservation(observation, observation.getDataset());
-
-                // Save parameters
-                if (observation.getParameters() != null) {
-                    parameterRepository.saveAll(
-                        observation
-                            .getParameters()
-                            .stream()
-                            .filter(o -> o instanceof ObservationParameterEntity)
-                            .map(o -> {
-                                ((ObservationParameterEntity<?>) o).setObservation(data);
-                                return (ObservationParameterEntity) o;
-                            })
-                            .collect(Collectors.toSet())
-                    );
-                    data.setParameters(observation.getParameters());
+            DatasetEntity dataset = datasets.get(feature.getId());
+            if (dataset == null) {
+                if (!datasets.isEmpty()) {
+                    // Datastream may have been expanded to an aggregation by the previous Feature
+                    datastream = findDatastreamForBatch(datastreamId);
                 }
+                dataset = findOrCreateDataset(datastream, feature);
+                datasets.put(feature.getId(), dataset);
+            }
+            toPersist.add(castToConcreteObservationType(observation, dataset));
+        }
+
+        List<DataEntity<?>> created = getRepository().saveAllBatched(toPersist);
 
-                // Update FirstValue/LastValue + FirstObservation/LastObservation of Dataset + Aggregation
-                updateDataset(observation.getDataset(), data);
-                return data;
+        // Save parameters
+        List<ObservationParameterEntity<?>> parameters = new ArrayList<>();
+        for (int i = 0; i < created.size(); i++) {
+            DataEntity<?> data = created.get(i);
+            DataEntity<?> observation = observations.get(i);
+            if (observation.getParameters() != null) {
+                observation.getParameters()
+                    .stream()
+                    .filter(o -> o instanceof ObservationParameterEntity)
+                    .forEach(o -> {
+                        ((ObservationParameterEntity<?>) o).setObservation(data);
+                        parameters.add((ObservationParameterEntity<?>) o);
+                    });
+                data.setParameters(observation.getParameters());
             }
-            return observation;
         }
+        if (!parameters.isEmpty()) {
+            parameterRepository.saveAllBatched(parameters);
+        }
+        if (!created.isEmpty()) {
+            latestObservationCache.offer(datastreamId,
+                                         Collections.max(created,
+                                                         Comparator.comparing(DataEntity::getSamplingTimeEnd)));
+        }
+
+        // Update FirstValue/LastValue + FirstObservation/LastObservation of each Dataset + Aggregation once
+        Map<DatasetEntity, List<DataEntity<?>>> byDataset = created.stream()
+            .collect(Collectors.groupingBy(DataEntity::getDataset, LinkedHashMap::new, Collectors.toList()));
+        if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+            widenDatasetBounds(byDataset);
+            return created;
+        }
+        for (Map.Entry<DatasetEntity, List<DataEntity<?>>> entry : byDataset.entrySet()) {
+            DataEntity<?> first = Collections.min(entry.getValue(),
+                                                  Comparator.comparing(DataEntity::getSamplingTimeStart));
+            DataEntity<?> last = Collections.max(entry.getValue(),
+                                                 Comparator.comparing(DataEntity::getSamplingTimeEnd));
+            updateDataset(entry.getKey(), first, last);
+        }
+        return created;
+    }
+
+    /**
+     * Widens the bounds of all given Datasets of a single Datastream and of their common Aggregation. Datasets are
+     * updated in order of their id and the Aggregation last, so that concurrent batches lock rows in the same order
+     * and cannot deadlock. All Datasets are refreshed once all rows are updated.
+     *
+     * @param byDataset new Observations grouped by Dataset
+     */
+    private void widenDatasetBounds(Map<DatasetEntity, List<DataEntity<?>>> byDataset) {
+        DataEntity<?> first = null;
+        DataEntity<?> last = null;
+        AbstractDatasetEntity aggregation = null;
+        List<DatasetEntity> datasets = new ArrayList<>(byDataset.keySet());
+        datasets.sort(Comparator.comparing(DatasetEntity::getId));
+        for (DatasetEntity dataset : datasets) {
+            List<DataEntity<?>> observations = byDataset.get(dataset);
+            DataEntity<?> datasetFirst = Collections.min(observations,
+                                                         Comparator.comparing(DataEntity::getSamplingTimeStart));
+            DataEntity<?> datasetLast = Collections.max(observations,
+                                                        Comparator.comparing(DataEntity::getSamplingTimeEnd));
+            widenDatasetBounds(dataset.getId(), datasetFirst, datasetLast);
+            if (first == null || datasetFirst.getSamplingTimeStart().before(first.getSamplingTimeStart())) {
+                first = datasetFirst;
+            }
+            if (last == null || datasetLast.getSamplingTimeEnd().after(last.getSamplingTimeEnd())) {
+                last = datasetLast;
+            }
+            if (dataset.getAggregation() != null) {
+                aggregation = dataset.getAggregation();
+            }
+        }
+        if (aggregation != null) {
+            widenDatasetBounds(aggregation.getId(), first, last);
+            refreshDataset(aggregation);
+        }
+        datasets.forEach(this::refreshDataset);
+    }
+
+    private AbstractDatasetEntity findDatastreamForBatch(String datastreamId) throws STACRUDException {
+        return datastreamRepository
+            .findByStaIdentifier(datastreamId, EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
+            .orElseThrow(() -> new STACRUDException("Unable to find Datastream!", HTTPStatus.BAD_REQUEST));
+    }
+
+    /**
+     * Fetches the Dataset matching the given Feature using the cached metadata of the Datastream.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param metadata     cached metadata of the Datastream
+     * @param feature      Feature the Observation is associated with
+     * @return matching Dataset or null if there is none or the cached metadata is outdated
+     */
+    private DatasetEntity findCachedDataset(String datastreamId,
+                                            DatastreamMetadataCache.DatastreamMetadata metadata,
+                                            AbstractFeatureEntity<?> feature) {
+        Long datasetId = metadata.getDatasetId(feature.getId());
+        if (datasetId == null) {
+            return null;
+        }
+        Optional<AbstractDatasetEntity> dataset =
+            datastreamRepository.findById(datasetId, EntityGraphRepository.FetchGraph.FETCHGRAPH_OM_OBS_TYPE);
+        if (dataset.isPresent()
+            && dataset.get() instanceof DatasetEntity
+            && dataset.get().getFeature() != null
+            && feature.getId().equals(dataset.get().getFeature().getId())) {
+            return (DatasetEntity) dataset.get();
+        }
+        // Dataset was changed without invalidating the cache
+        datastreamCache.invalidate(datastreamId);
+        return null;
+    }
+
+    /**
+     * Finds the Dataset of the given Datastream that matches the given Feature. Reuses a Dataset without Feature if
+     * present, creates a new Dataset (expanding the Datastream to an Aggregation if necessary) otherwise.
+     *
+     * @param datastream Datastream the Observation is associated with
+     * @param feature    Feature the Observation is associated with
+     * @return matching Dataset
+     * @throws STACRUDException if an error occurred
+     */
+    private DatasetEntity findOrCreateDataset(AbstractDatasetEntity datastream, AbstractFeatureEntity<?> feature)
+        throws STACRUDException {
+        // Check all subdatasets for a matching  dataset
+        Set<DatasetEntity> datasets;
+        if (datastream.getAggregation() == null && !(datastream instanceof DatasetAggregationEntity)) {
+            // We are not an aggregate so there is only one dataset to check for fit
+            datasets = Collections.singleton((DatasetEntity) datastream);
+        } else {
+            datasets = datastreamRepository.findAllByAggregationId(datastream.getId())
+                .stream()
+                .map(d -> (DatasetEntity) d)
+                .collect(Collectors.toSet());
+        }
+
+        // Check all datasets for a matching FOI
+        for (DatasetEntity dataset : datasets) {
+            if (!dataset.hasFeature()) {
+                // We have a dataset without a feature
+                LOGGER.debug("Reusing existing dataset without FOI.");
+                dataset.setFeature(feature);
+                datastreamCache.invalidate(datastream.getStaIdentifier());
+                return datastreamRepository.save(dataset);
+            } else if (feature.getId().equals(dataset.getFeature().getId())) {
+                // We have a dataset with a matching feature
+                LOGGER.debug("Reusing existing dataset with matching FOI.");
+                datastreamCache.put(datastream.getStaIdentifier(), datastream.getPlatform().getId(), datasets);
+                return dataset;
+            }
+        }
+
+        // We have not found a matching dataset so we need to create a new one
+        LOGGER.debug("Creating new dataset as none with matching FOI exists");
+        datastreamCache.invalidate(datastream.getStaIdentifier());
+        return getDatastreamService().createOrExpandAggregation(datastream, feature);
     }
 
     @Override
@@ -366,13 +806,18 @@ public class ObservationService
                                                  .FetchGraph
                                                  .FETCHGRAPH_PARAMETERS);
                 if (existing.isPresent()) {
+                    DatasetEntity dataset = existing.get().getDataset();
+                    // Check boundaries before and after merging, as the Observation may move away from a boundary
+                    boolean wasFirst = isFirstOfDataset(dataset, existing.get());
+                    boolean wasLast = isLastOfDataset(dataset, existing.get());
                     DataEntity<?> merged = merge(existing.get(), entity);
                     DataEntity<?> saved = getRepository().save(merged);
 
-                    AbstractDatasetEntity datastreamEntity =
-                        datastreamRepository.findById(saved.getDataset().getId()).get();
-
-                    updateDatastreamPhenomenonTimeOnObservationUpdate(datastreamEntity, saved);
+                    updateDatasetBounds(dataset,
+                                        wasFirst || isFirstOfDataset(dataset, saved),
+                                        wasLast || isLastOfDataset(dataset, saved));
+                    // Applied after commit, so that concurrent readers cannot cache the state before the change
+                    latestObservationCache.invalidate(getDatastreamIdentifier(dataset));
                     Hibernate.initialize(saved.getParameters());
                     return saved;
                 }
@@ -543,29 +988,184 @@ public class ObservationService
         return fillConcreteObservationType(data, observation, dataset);
     }
 
-    private CollectionWrapper getEntityCollectionWrapperByIdentifierList(List<String> identifierList,
-                                                                         OffsetLimitBasedPageRequest pageableRequest,
-                                                                         QueryOptions queryOptions,
-                                                                         Specification<DataEntity<?>> spec) {
-        Page<DataEntity<?>> pages = getRepository()
-            .findAll(
-                oQS.withStaIdentifier(identifierList),
-                new OffsetLimitBasedPageRequest(0,
-                                                pageableRequest.getPageSize(),
-                                                pageableRequest.getSort()),
-                EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS)
-            .map(this::fetchValueIfCompositeDataEntity);
-
-        CollectionWrapper wrapper = createCollectionWrapperAndExpand(queryOptions, pages);
-        // Create Page manually as we used Database Pagination and are not sure how many Entities there are in
-        // the Database
-        if (pages.isEmpty()) {
-            return wrapper;
+    /**
+     * Fetches a page of Observations in a single query. Parameters are loaded lazily in batches (see
+     * hibernate.default_batch_fetch_size) as fetching them eagerly would force Hibernate to paginate in memory.
+     * The total count is only queried if required by the configured {@link CountMode} and the page is not the last
+     * one, as the count is known otherwise.
+     * If keyset pagination is enabled and no $orderby is given, the next page is linked via a continuation token
+     * instead of an offset.
+     *
+     * @param spec           Specification of the Observations
+     * @param queryOptions   QueryOptions of the request
+     * @param canBeEstimated whether spec matches all Observations, so the count may be estimated from table
+     *                       statistics
+     * @param token          position to continue after. null if page is addressed via offset
+     * @return requested page
+     */
+    private CollectionWrapper getEntityCollection(Specification<DataEntity<?>> spec,
+                                                  QueryOptions queryOptions,
+                                                  boolean canBeEstimated,
+                                                  ContinuationToken token) {
+        OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
+        if (streamingFetchSize > 0) {
+            return streamEntityCollection(spec, queryOptions, canBeEstimated, token, pageableRequest);
+        }
+        Slice<DataEntity<?>> slice;
+        if (token != null) {
+            slice = getRepository().findSlice(spec.and(ObservationQuerySpecifications.afterContinuationToken(token)),
+                                              new OffsetLimitBasedPageRequest(0,
+                                                                              pageableRequest.getPageSize(),
+                                                                              pageableRequest.getSort()));
+        } else {
+            slice = getRepository().findSlice(spec, pageableRequest);
+            if (slice.isEmpty() && pageableRequest.getOffset() == 0) {
+                return new CollectionWrapper(0, Collections.emptyList(), false);
+            }
+        }
+        slice.forEach(this::fetchValueIfCompositeDataEntity);
+        CollectionWrapper wrapper = createCollectionWrapperAndExpand(queryOptions, new PageImpl<>(slice.getContent()));
+
+        long count;
+        boolean countRequested = queryOptions.hasCountFilter() && queryOptions.getCountFilter().getValue();
+        if (countMode != CountMode.EXACT && !countRequested) {
+            count = -1;
+        } else if (token == null && !slice.hasNext() && !slice.isEmpty()) {
+            count = pageableRequest.getOffset() + slice.getNumberOfElements();
+        } else if (countMode == CountMode.ESTIMATE && canBeEstimated) {
+            count = getRepository().estimateCount();
+        } else {
+            count = getRepository().count(spec);
+        }
+        CollectionWrapper result = new CollectionWrapper(count, wrapper.getEntities(), slice.hasNext());
+        if (slice.hasNext() && isKeysetPaginated(queryOptions)) {
+            List<DataEntity<?>> content = slice.getContent();
+            result.setSkipToken(ContinuationToken.after(content.get(content.size() - 1)).encode());
+        }
+        return result;
+    }
+
+    /**
+     * Creates a page of Observations that is read from a database cursor while the response is serialized, so that
+     * memory usage does not depend on the page size. As serialization happens after this service returns, the
+     * cursor is opened in a separate read-only transaction. Admission and replica routing of that transaction are
+     * handled by ServiceFacade#readCollection. The persistence context is cleared after every
+     * observationStreamingFetchSize Observations.
+     *
+     * @param spec            Specification of the Observations
+     * @param queryOptions    QueryOptions of the request
+     * @param canBeEstimated  whether spec matches all Observations, so the count may be estimated from table
+     *                        statistics
+     * @param token           position to continue after. null if page is addressed via offset
+     * @param pageableRequest requested page
+     * @return requested page
+     */
+    private CollectionWrapper streamEntityCollection(Specification<DataEntity<?>> spec,
+                                                     QueryOptions queryOptions,
+                                                     boolean canBeEstimated,
+                                                     ContinuationToken token,
+                                                     OffsetLimitBasedPageRequest pageableRequest) {
+        long count;
+        boolean countRequested = queryOptions.hasCountFilter() && queryOptions.getCountFilter().getValue();
+        if (countMode != CountMode.EXACT && !countRequested) {
+            count = -1;
+        } else if (countMode == CountMode.ESTIMATE && canBeEstimated) {
+            count = getRepository().estimateCount();
+        } else {
+            count = getRepository().count(spec);
+        }
+
+        Specification<DataEntity<?>> pageSpec;
+        OffsetLimitBasedPageRequest pageRequest;
+        if (token != null) {
+            pageSpec = spec.and(ObservationQuerySpecifications.afterContinuationToken(token));
+            pageRequest = new OffsetLimitBasedPageRequest(0, pageableRequest.getPageSize(), pageableRequest.getSort());
         } else {
-            long count = getRepository().count(spec);
-            return new CollectionWrapper(count, wrapper.getEntities(),
-                                         identifierList.size() + pageableRequest.getOffset() < count);
+            pageSpec = spec;
+            pageRequest = pageableRequest;
         }
+        return new CollectionWrapper(count, (collection, consumer) -> {
+            try {
+                return streamingTransaction.execute(
+                    status -> streamEntities(pageSpec, pageRequest, queryOptions, collection, consumer));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private boolean streamEntities(Specification<DataEntity<?>> spec,
+                                   OffsetLimitBasedPageRequest pageRequest,
+                                   QueryOptions queryOptions,
+                                   CollectionWrapper collection,
+                                   CollectionStream.ElementConsumer consumer) {
+        try (Stream<DataEntity<?>> stream = getRepository().stream(spec, pageRequest, streamingFetchSize)) {
+            Iterator<DataEntity<?>> iterator = stream.iterator();
+            DataEntity<?> last = null;
+            int written = 0;
+            while (iterator.hasNext()) {
+                DataEntity<?> entity = iterator.next();
+                if (written == pageRequest.getPageSize()) {
+                    // Additional entity was fetched so there is a next page
+                    if (isKeysetPaginated(queryOptions) && last != null) {
+                        collection.setSkipToken(ContinuationToken.after(last).encode());
+                    }
+                    return true;
+                }
+                fetchValueIfCompositeDataEntity(entity);
+                if (queryOptions.hasExpandFilter()) {
+                    entity = fetchExpandEntitiesWithFilter(entity, queryOptions.getExpandFilter());
+                }
+                consumer.accept(createWrapper(entity, queryOptions));
+                last = entity;
+                written++;
+                if (written % streamingFetchSize == 0) {
+                    em.clear();
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (STACRUDException | STAInvalidQueryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean isKeysetPaginated(QueryOptions queryOptions) {
+        return keysetPagination && !queryOptions.hasOrderByFilter();
+    }
+
+    private ContinuationToken decodeSkipToken(QueryOptions queryOptions, String skipToken) throws STACRUDException {
+        if (skipToken == null) {
+            return null;
+        } else if (!keysetPagination) {
+            throw new STACRUDException("$skiptoken is not supported as keyset pagination is disabled.",
+                                       HTTPStatus.BAD_REQUEST);
+        } else if (queryOptions.hasOrderByFilter() || queryOptions.hasSkipFilter()) {
+            throw new STACRUDException("$skiptoken cannot be combined with $orderby or $skip.",
+                                       HTTPStatus.BAD_REQUEST);
+        }
+        return ContinuationToken.decode(skipToken);
+    }
+
+    /**
+     * Orders by phenomenonTime and id if keyset pagination is used, as these are the keys encoded in the
+     * continuation token.
+     *
+     * @param queryOptions QueryOptions of the request
+     * @return PageRequest
+     */
+    @Override
+    OffsetLimitBasedPageRequest createPageableRequest(QueryOptions queryOptions) {
+        OffsetLimitBasedPageRequest request = super.createPageableRequest(queryOptions);
+        if (isKeysetPaginated(queryOptions)) {
+            return new OffsetLimitBasedPageRequest((int) request.getOffset(),
+                                                   request.getPageSize(),
+                                                   Sort.by(Sort.Direction.ASC,
+                                                           DataEntity.PROPERTY_SAMPLING_TIME_START,
+                                                           DataEntity.PROPERTY_ID));
+        }
+        return request;
     }
 
     private void check(DataEntity<?> observation) throws STACRUDException {
@@ -576,51 +1176,193 @@ public class ObservationService
     }
 
     /**
-     * Handles updating the phenomenonTime field of the associated Datastream when Observation phenomenonTime is
-     * updated or deleted
+     * Checks whether the given Observation is (or would become) the first Observation of the given Dataset, i.e.
+     * whether first Observation and start of phenomenonTime of the Dataset depend on it.
      *
-     * @param datastreamEntity DatstreamEntity
-     * @param observation      ObservationEntity
+     * @param dataset     Dataset
+     * @param observation Observation of the Dataset
+     * @return true if the Observation is on the lower boundary of the Dataset
      */
-    protected void updateDatastreamPhenomenonTimeOnObservationUpdate(AbstractDatasetEntity datastreamEntity,
-                                                                     DataEntity<?> observation) {
-        if (datastreamEntity.getPhenomenonTimeStart() == null ||
-            datastreamEntity.getPhenomenonTimeEnd() == null ||
-            observation.getPhenomenonTimeStart().compareTo(datastreamEntity.getPhenomenonTimeStart()) != 1 ||
-            observation.getPhenomenonTimeEnd().compareTo(datastreamEntity.getPhenomenonTimeEnd()) != -1
-        ) {
-            // Setting new phenomenonTimeStart
-            DataEntity<?> firstObservation = getRepository()
-                .findFirstByDataset_idOrderBySamplingTimeStartAsc(datastreamEntity.getId());
-            Date newPhenomenonStart = (firstObservation == null) ? null : firstObservation.getPhenomenonTimeStart();
-
-            // Set Start and End to null if there is no observation.
-            if (newPhenomenonStart == null) {
-                datastreamEntity.setPhenomenonTimeStart(null);
-                datastreamEntity.setPhenomenonTimeEnd(null);
-            } else {
-                datastreamEntity.setPhenomenonTimeStart(newPhenomenonStart);
-
-                // Setting new phenomenonTimeEnd
-                DataEntity<?> lastObservation = getRepository()
-                    .findFirstByDataset_idOrderBySamplingTimeEndDesc(datastreamEntity.getId());
-                Date newPhenomenonEnd = (lastObservation == null) ? null : lastObservation.getPhenomenonTimeEnd();
-                if (newPhenomenonEnd != null) {
-                    datastreamEntity.setPhenomenonTimeEnd(newPhenomenonEnd);
-                } else {
-                    datastreamEntity.setPhenomenonTimeStart(null);
-                    datastreamEntity.setPhenomenonTimeEnd(null);
-                }
-            }
-            datastreamRepository.save(datastreamEntity);
-            // update parent if its part of the aggregation
-            if (datastreamEntity.isSetAggregation()) {
-                updateDatastreamPhenomenonTimeOnObservationUpdate(
-                    datastreamRepository.findById(datastreamEntity.getAggregation()
-                                                      .getId()).get(),
-                    observation);
+    private boolean isFirstOfDataset(AbstractDatasetEntity dataset, DataEntity<?> observation) {
+        return isSameObservation(dataset.getFirstObservation(), observation)
+            || dataset.getFirstValueAt() == null
+            || dataset.getPhenomenonTimeStart() == null
+            || !observation.getSamplingTimeStart().after(dataset.getFirstValueAt())
+            || !observation.getPhenomenonTimeStart().after(dataset.getPhenomenonTimeStart());
+    }
+
+    /**
+     * Checks whether the given Observation is (or would become) the last Observation of the given Dataset, i.e.
+     * whether last Observation and end of phenomenonTime of the Dataset depend on it.
+     *
+     * @param dataset     Dataset
+     * @param observation Observation of the Dataset
+     * @return true if the Observation is on the upper boundary of the Dataset
+     */
+    private boolean isLastOfDataset(AbstractDatasetEntity dataset, DataEntity<?> observation) {
+        return isSameObservation(dataset.getLastObservation(), observation)
+            || dataset.getLastValueAt() == null
+            || dataset.getPhenomenonTimeEnd() == null
+            || !observation.getSamplingTimeEnd().before(dataset.getLastValueAt())
+            || !observation.getPhenomenonTimeEnd().before(dataset.getPhenomenonTimeEnd());
+    }
+
+    private boolean isSameObservation(DataEntity<?> reference, DataEntity<?> observation) {
+        return reference != null && reference.getId() != null && reference.getId().equals(observation.getId());
+    }
+
+    /**
+     * Recomputes FirstValue/LastValue, FirstObservation/LastObservation and phenomenonTime of the given Dataset and
+     * its Aggregation after an Observation on the boundary was changed or removed. Only the affected boundaries are
+     * recomputed. The new boundary Observation of the Dataset is found by a single ordered lookup on
+     * (dataset, samplingTime), the boundaries of the Aggregation are taken from its child Datasets.
+     *
+     * @param dataset Dataset of the changed Observation
+     * @param first   whether the lower boundary needs to be recomputed
+     * @param last    whether the upper boundary needs to be recomputed
+     */
+    private void updateDatasetBounds(DatasetEntity dataset, boolean first, boolean last) {
+        if (!first && !last) {
+            return;
+        }
+        if (first) {
+            DataEntity<?> firstObservation = findBoundaryObservation(dataset.getId(), true);
+            setFirst(dataset,
+                     firstObservation,
+                     firstObservation == null ? null : firstObservation.getSamplingTimeStart(),
+                     firstObservation == null ? null : firstObservation.getPhenomenonTimeStart());
+        }
+        if (last) {
+            DataEntity<?> lastObservation = findBoundaryObservation(dataset.getId(), false);
+            setLast(dataset,
+                    lastObservation,
+                    lastObservation == null ? null : lastObservation.getSamplingTimeEnd(),
+                    lastObservation == null ? null : lastObservation.getPhenomenonTimeEnd());
+        }
+        datastreamRepository.save(dataset);
+
+        if (dataset.isSetAggregation()) {
+            updateAggregationBounds(datastreamRepository.findById(dataset.getAggregation().getId()).get(),
+                                    first,
+                                    last);
+        }
+    }
+
+    /**
+     * Recomputes the boundaries of the given Aggregation from its child Datasets.
+     *
+     * @param aggregation Aggregation
+     * @param first       whether the lower boundary needs to be recomputed
+     * @param last        whether the upper boundary needs to be recomputed
+     */
+    private void updateAggregationBounds(AbstractDatasetEntity aggregation, boolean first, boolean last) {
+        if (first) {
+            AbstractDatasetEntity child = findBoundaryChild(aggregation.getId(), true);
+            setFirst(aggregation,
+                     child == null ? null : child.getFirstObservation(),
+                     child == null ? null : child.getFirstValueAt(),
+                     child == null ? null : child.getPhenomenonTimeStart());
+        }
+        if (last) {
+            AbstractDatasetEntity child = findBoundaryChild(aggregation.getId(), false);
+            setLast(aggregation,
+                    child == null ? null : child.getLastObservation(),
+                    child == null ? null : child.getLastValueAt(),
+                    child == null ? null : child.getPhenomenonTimeEnd());
+        }
+        datastreamRepository.save(aggregation);
+    }
+
+    /**
+     * Recomputes both boundaries of the given Datasets and Aggregations, e.g. after their Observations were deleted
+     * in bulk. Datasets are recomputed from their remaining Observations, Aggregations from their child Datasets
+     * afterwards. Datasets that no longer exist are skipped.
+     *
+     * @param datasetIds ids of the Datasets and Aggregations
+     */
+    void recomputeDatasetBounds(Collection<Long> datasetIds) {
+        List<AbstractDatasetEntity> aggregations = new ArrayList<>();
+        for (Long id : datasetIds) {
+            Optional<AbstractDatasetEntity> dataset = datastreamRepository.findById(id);
+            if (dataset.isPresent() && dataset.get() instanceof DatasetAggregationEntity) {
+                aggregations.add(dataset.get());
+            } else if (dataset.isPresent() && dataset.get() instanceof DatasetEntity) {
+                updateDatasetBounds((DatasetEntity) dataset.get(), true, true);
             }
         }
+        for (AbstractDatasetEntity aggregation : aggregations) {
+            updateAggregationBounds(aggregation, true, true);
+        }
+    }
+
+    private void setFirst(AbstractDatasetEntity dataset, DataEntity<?> observation, Date valueAt, Date time) {
+        dataset.setFirstObservation(observation);
+        dataset.setFirstValueAt(valueAt);
+        dataset.setFirstQuantityValue(observation instanceof QuantityDataEntity
+                                          ? ((QuantityDataEntity) observation).getValue()
+                                          : null);
+        dataset.setPhenomenonTimeStart(time);
+        if (time == null) {
+            // No Observations left
+            dataset.setPhenomenonTimeEnd(null);
+        }
+    }
+
+    private void setLast(AbstractDatasetEntity dataset, DataEntity<?> observation, Date valueAt, Date time) {
+        dataset.setLastObservation(observation);
+        dataset.setLastValueAt(valueAt);
+        dataset.setLastQuantityValue(observation instanceof QuantityDataEntity
+                                         ? ((QuantityDataEntity) observation).getValue()
+                                         : null);
+        dataset.setPhenomenonTimeEnd(time);
+        if (time == null) {
+            // No Observations left
+            dataset.setPhenomenonTimeStart(null);
+        }
+    }
+
+    /**
+     * Finds the first or last Observation of a Dataset. Only the id is selected and ordered on, so that the lookup
+     * can be answered from an index on (dataset, samplingTime) without touching the Observation rows. Only the
+     * single resulting Observation is loaded afterwards.
+     *
+     * @param datasetId id of the Dataset
+     * @param first     true for the Observation with the earliest start, false for the one with the latest end
+     * @return boundary Observation or null if the Dataset has no Observations
+     */
+    private DataEntity<?> findBoundaryObservation(Long datasetId, boolean first) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<DataEntity> root = query.from(DataEntity.class);
+        Path<Date> time = root.get(first
+                                       ? DataEntity.PROPERTY_SAMPLING_TIME_START
+                                       : DataEntity.PROPERTY_SAMPLING_TIME_END);
+        query.select(root.get(DataEntity.PROPERTY_ID))
+            .where(builder.equal(root.get(DataEntity.PROPERTY_DATASET).get(DataEntity.PROPERTY_ID), datasetId))
+            .orderBy(first ? builder.asc(time) : builder.desc(time));
+        List<Long> ids = em.createQuery(query).setMaxResults(1).getResultList();
+        return ids.isEmpty() ? null : getRepository().findById(ids.get(0)).orElse(null);
+    }
+
+    /**
+     * Finds the child Dataset of an Aggregation holding the first or last Observation of the Aggregation.
+     *
+     * @param aggregationId id of the Aggregation
+     * @param first         true for the child with the earliest first Observation, false for the one with the latest
+     *                      last Observation
+     * @return child Dataset or null if no child has Observations
+     */
+    private AbstractDatasetEntity findBoundaryChild(Long aggregationId, boolean first) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<AbstractDatasetEntity> query = builder.createQuery(AbstractDatasetEntity.class);
+        Root<AbstractDatasetEntity> root = query.from(AbstractDatasetEntity.class);
+        Path<Date> valueAt = root.get(first ? DATASET_FIRST_VALUE_AT : DATASET_LAST_VALUE_AT);
+        Path<Long> aggregation =
+            root.get(AbstractDatasetEntity.PROPERTY_AGGREGATION).get(AbstractDatasetEntity.PROPERTY_ID);
+        query.where(builder.equal(aggregation, aggregationId), builder.isNotNull(valueAt))
+            .orderBy(first ? builder.asc(valueAt) : builder.desc(valueAt));
+        List<AbstractDatasetEntity> children = em.createQuery(query).setMaxResults(1).getResultList();
+        return children.isEmpty() ? null : children.get(0);
     }
 
     @Override
@@ -632,42 +1374,85 @@ public class ObservationService
                         identifier,
                         EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASET_FIRSTLAST_OBSERVATION)
                         .get();
+                DatasetEntity dataset = observation.getDataset();
+                boolean first = isFirstOfDataset(dataset, observation);
+                boolean last = isLastOfDataset(dataset, observation);
+                String datastreamId = getDatastreamIdentifier(dataset);
                 deleteReferenceFromDatasetFirstLast(observation);
 
                 // Important! Delete first and then update else we find
                 // ourselves again in search for new latest/earliest obs.
                 getRepository().deleteByStaIdentifier(observation.getStaIdentifier());
-                updateDatastreamPhenomenonTimeOnObservationUpdate(observation.getDataset(), observation);
+                updateDatasetBounds(dataset, first, last);
+                // Applied after commit, so that concurrent readers cannot cache the state before the change
+                latestObservationCache.invalidate(datastreamId);
             } else {
                 throw new STACRUDException(UNABLE_TO_DELETE_ENTITY_NOT_FOUND, HTTPStatus.NOT_FOUND);
             }
         }
     }
 
+    /**
+     * Gets the staIdentifier of the Datastream the given Dataset belongs to. Datasets that are part of an Aggregation
+     * have no staIdentifier of their own.
+     *
+     * @param dataset Dataset
+     * @return staIdentifier of the Datastream
+     */
+    private String getDatastreamIdentifier(DatasetEntity dataset) {
+        return dataset.isSetAggregation() ? dataset.getAggregation().getStaIdentifier() : dataset.getStaIdentifier();
+    }
+
+    /**
+     * Removes references to the given Observation from its Dataset and the Aggregation of the Dataset, so that the
+     * Observation can be deleted. The references are replaced by {@link #updateDatasetBounds} afterwards.
+     *
+     * @param observation Observation to be deleted
+     */
     private void deleteReferenceFromDatasetFirstLast(DataEntity<?> observation) {
-        // TODO get the next first/last observation and set it
         DatasetEntity dataset = observation.getDataset();
-        if (dataset.getFirstObservation() != null
-            && dataset.getFirstObservation().getStaIdentifier().equals(observation.getStaIdentifier())) {
+        if (removeFirstLastReference(dataset, observation)) {
+            datastreamRepository.save(dataset);
+        }
+        if (dataset.isSetAggregation()) {
+            AbstractDatasetEntity aggregation = datastreamRepository.findById(dataset.getAggregation().getId()).get();
+            if (removeFirstLastReference(aggregation, observation)) {
+                datastreamRepository.save(aggregation);
+            }
+        }
+        em.flush();
+    }
+
+    private boolean removeFirstLastReference(AbstractDatasetEntity dataset, DataEntity<?> observation) {
+        boolean changed = false;
+        if (isSameObservation(dataset.getFirstObservation(), observation)) {
             dataset.setFirstObservation(null);
             dataset.setFirstQuantityValue(null);
             dataset.setFirstValueAt(null);
+            changed = true;
         }
-        if (dataset.getLastObservation() != null && dataset.getLastObservation()
-            .getStaIdentifier()
-            .equals(observation.getStaIdentifier())) {
+        if (isSameObservation(dataset.getLastObservation(), observation)) {
             dataset.setLastObservation(null);
             dataset.setLastQuantityValue(null);
             dataset.setLastValueAt(null);
+            changed = true;
         }
-        observation.setDataset(datastreamRepository.saveAndFlush(dataset));
+        return changed;
     }
 
     private AbstractFeatureEntity<?> createOrfetchFeature(DataEntity observation,
                                                           Long thingId)
         throws STACRUDException {
         // Create feature based on Thing.location if there is no feature given
-        if (!observation.hasFeature()) {
+        boolean autogenerated = !observation.hasFeature();
+        long generation = featureCache.getGeneration();
+        if (autogenerated) {
+            Long cached = featureCache.getByThing(thingId);
+            if (cached != null) {
+                AbstractFeatureEntity<?> feature = em.getReference(AbstractFeatureEntity.class, cached);
+                observation.setFeature(feature);
+                return feature;
+            }
             AbstractFeatureEntity<?> feature = null;
             LocationRepository locationRepository = getLocationService().getRepository();
             Set<LocationEntity> locations = locationRepository.findAllByPlatformsIdEquals(thingId);
@@ -689,6 +1474,9 @@ public class ObservationService
         // save feature to db
         AbstractFeatureEntity<?> feature = getFeatureOfInterestService().createOrfetch(observation.getFeature());
         observation.setFeature(feature);
+        if (autogenerated) {
+            featureCache.putByThing(thingId, feature.getId(), generation);
+        }
         return feature;
     }
 
@@ -708,54 +1496,164 @@ public class ObservationService
      */
     private AbstractDatasetEntity updateDataset(AbstractDatasetEntity dataset, DataEntity<?> data)
         throws STACRUDException {
-        Optional<DataEntity<?>> rawObservation = getRepository().findById(data.getId());
-        if (rawObservation.isPresent()) {
-            synchronized (getLock(dataset.getId().toString() + "Dataset")) {
-                LOGGER.debug("Updating First/Last/Geometry of of Dataset: {}", dataset.getId());
-                if (!dataset.isSetFirstValueAt()
-                    || (dataset.isSetFirstValueAt()
-                    && data.getSamplingTimeStart().before(dataset.getFirstValueAt()))) {
-                    dataset.setFirstValueAt(data.getSamplingTimeStart());
-                    dataset.setFirstObservation(rawObservation.get());
-                    if (data instanceof QuantityDataEntity) {
-                        dataset.setFirstQuantityValue(((QuantityDataEntity) data).getValue());
-                    }
+        return updateDataset(dataset, data, data);
+    }
+
+    /**
+     * Updates FirstValue/LastValue, FirstObservation/LastObservation, Geometry of Dataset and DatasetAggregation
+     * with the earliest and latest of a number of new Observations.
+     *
+     * @param dataset Dataset to be updated
+     * @param first   New Observation with the earliest phenomenonTime
+     * @param last    New Observation with the latest phenomenonTime
+     * @return update DatasetEntity
+     * @throws STACRUDException if an error occurred
+     */
+    private AbstractDatasetEntity updateDataset(AbstractDatasetEntity dataset,
+                                                DataEntity<?> first,
+                                                DataEntity<?> last)
+        throws STACRUDException {
+        if (first.getId() == null || last.getId() == null) {
+            throw new STACRUDException("Could not update Dataset->firstObservation or Dataset->firstObservation. " +
+                                           "Observation was not persisted!");
+        }
+        if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+            widenDatasetBounds(dataset.getId(), first, last);
+            if (dataset.getAggregation() != null) {
+                widenDatasetBounds(dataset.getAggregation().getId(), first, last);
+                refreshDataset(dataset.getAggregation());
+            }
+            return refreshDataset(dataset);
+        }
+        synchronized (getLock(dataset.getId().toString() + "Dataset")) {
+            LOGGER.debug("Updating First/Last/Geometry of of Dataset: {}", dataset.getId());
+            if (!dataset.isSetFirstValueAt()
+                || (dataset.isSetFirstValueAt()
+                && first.getSamplingTimeStart().before(dataset.getFirstValueAt()))) {
+                dataset.setFirstValueAt(first.getSamplingTimeStart());
+                dataset.setFirstObservation(first);
+                if (first instanceof QuantityDataEntity) {
+                    dataset.setFirstQuantityValue(((QuantityDataEntity) first).getValue());
                 }
-                if (!dataset.isSetLastValueAt()
-                    || (dataset.isSetLastValueAt()
-                    && data.getSamplingTimeEnd().after(dataset.getLastValueAt()))) {
-                    dataset.setLastValueAt(data.getSamplingTimeEnd());
-                    dataset.setLastObservation(rawObservation.get());
-                    if (data instanceof QuantityDataEntity) {
-                        dataset.setLastQuantityValue(((QuantityDataEntity) data).getValue());
-                    }
+            }
+            if (!dataset.isSetLastValueAt()
+                || (dataset.isSetLastValueAt()
+                && last.getSamplingTimeEnd().after(dataset.getLastValueAt()))) {
+                dataset.setLastValueAt(last.getSamplingTimeEnd());
+                dataset.setLastObservation(last);
+                if (last instanceof QuantityDataEntity) {
+                    dataset.setLastQuantityValue(((QuantityDataEntity) last).getValue());
                 }
-                // Update phenomenonTime
-                if (dataset.getPhenomenonTimeStart() == null) {
-                    dataset.setPhenomenonTimeStart(data.getPhenomenonTimeStart());
-                    dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
-                } else {
-                    if (dataset.getPhenomenonTimeStart().after(data.getPhenomenonTimeStart())) {
-                        dataset.setPhenomenonTimeStart(data.getPhenomenonTimeStart());
-                    }
-                    if (dataset.getPhenomenonTimeEnd().before(data.getPhenomenonTimeEnd())) {
-                        dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
-                    }
+            }
+            // Update phenomenonTime
+            if (dataset.getPhenomenonTimeStart() == null) {
+                dataset.setPhenomenonTimeStart(first.getPhenomenonTimeStart());
+                dataset.setPhenomenonTimeEnd(last.getPhenomenonTimeEnd());
+            } else {
+                if (dataset.getPhenomenonTimeStart().after(first.getPhenomenonTimeStart())) {
+                    dataset.setPhenomenonTimeStart(first.getPhenomenonTimeStart());
                 }
-                // Update aggregation if present
-                if (dataset.getAggregation() != null) {
-                    //TODO: We might need to fetch the aggregation first!
-                    LOGGER.debug("Updating First/Last/Geometry of parent Aggregation: {}",
-                                 dataset.getAggregation().getId());
-                    updateDataset(dataset.getAggregation(), data);
+                if (dataset.getPhenomenonTimeEnd().before(last.getPhenomenonTimeEnd())) {
+                    dataset.setPhenomenonTimeEnd(last.getPhenomenonTimeEnd());
                 }
-
-                return datastreamRepository.save(dataset);
             }
-        } else {
-            throw new STACRUDException("Could not update Dataset->firstObservation or Dataset->firstObservation. " +
-                                           "Unable to find Observation with Id:" + data.getId());
+            // Update aggregation if present
+            if (dataset.getAggregation() != null) {
+                //TODO: We might need to fetch the aggregation first!
+                LOGGER.debug("Updating First/Last/Geometry of parent Aggregation: {}",
+                             dataset.getAggregation().getId());
+                updateDataset(dataset.getAggregation(), first, last);
+            }
+
+            return datastreamRepository.save(dataset);
+        }
+    }
+
+    /**
+     * Widens FirstValue/LastValue, FirstObservation/LastObservation and phenomenonTime of the Dataset with given id
+     * by the given Observations. Uses conditional UPDATEs that only change the row if an Observation lies outside of
+     * the current bounds. The database evaluates the condition on the latest committed row, so concurrent writers
+     * neither block each other in the JVM nor overwrite each other's bounds.
+     * Note: Bypasses the persistence context and the change events of datastreamRepository#save. The Dataset must be
+     * passed to {@link #refreshDataset} afterwards.
+     *
+     * @param datasetId id of the Dataset
+     * @param first     New Observation with the earliest phenomenonTime
+     * @param last      New Observation with the latest phenomenonTime
+     */
+    private void widenDatasetBounds(Long datasetId, DataEntity<?> first, DataEntity<?> last) {
+        LOGGER.debug("Updating First/Last of Dataset: {}", datasetId);
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+
+        CriteriaUpdate<AbstractDatasetEntity> updateFirst = builder.createCriteriaUpdate(AbstractDatasetEntity.class);
+        Root<AbstractDatasetEntity> dataset = updateFirst.from(AbstractDatasetEntity.class);
+        Path<Date> firstValueAt = dataset.get(DATASET_FIRST_VALUE_AT);
+        updateFirst.set(firstValueAt, first.getSamplingTimeStart())
+            .set(dataset.get(DATASET_FIRST_OBSERVATION), first)
+            .where(builder.equal(dataset.get(AbstractDatasetEntity.PROPERTY_ID), datasetId),
+                   builder.or(builder.isNull(firstValueAt),
+                              builder.greaterThan(firstValueAt, first.getSamplingTimeStart())));
+        if (first instanceof QuantityDataEntity) {
+            updateFirst.set(dataset.get(DATASET_FIRST_QUANTITY_VALUE), ((QuantityDataEntity) first).getValue());
         }
+        em.createQuery(updateFirst).executeUpdate();
+
+        CriteriaUpdate<AbstractDatasetEntity> updateLast = builder.createCriteriaUpdate(AbstractDatasetEntity.class);
+        dataset = updateLast.from(AbstractDatasetEntity.class);
+        Path<Date> lastValueAt = dataset.get(DATASET_LAST_VALUE_AT);
+        updateLast.set(lastValueAt, last.getSamplingTimeEnd())
+            .set(dataset.get(DATASET_LAST_OBSERVATION), last)
+            .where(builder.equal(dataset.get(AbstractDatasetEntity.PROPERTY_ID), datasetId),
+                   builder.or(builder.isNull(lastValueAt),
+                              builder.lessThan(lastValueAt, last.getSamplingTimeEnd())));
+        if (last instanceof QuantityDataEntity) {
+            updateLast.set(dataset.get(DATASET_LAST_QUANTITY_VALUE), ((QuantityDataEntity) last).getValue());
+        }
+        em.createQuery(updateLast).executeUpdate();
+
+        CriteriaUpdate<AbstractDatasetEntity> updateTime = builder.createCriteriaUpdate(AbstractDatasetEntity.class);
+        dataset = updateTime.from(AbstractDatasetEntity.class);
+        Path<Date> start = dataset.get(DATASET_PHENOMENON_TIME_START);
+        Path<Date> end = dataset.get(DATASET_PHENOMENON_TIME_END);
+        Predicate widensStart = builder.or(builder.isNull(start),
+                                           builder.greaterThan(start, first.getPhenomenonTimeStart()));
+        Predicate widensEnd = builder.or(builder.isNull(end),
+                                         builder.lessThan(end, last.getPhenomenonTimeEnd()));
+        updateTime.set(start, builder.<Date>selectCase()
+            .when(widensStart, first.getPhenomenonTimeStart())
+            .otherwise(start))
+            .set(end, builder.<Date>selectCase()
+                .when(widensEnd, last.getPhenomenonTimeEnd())
+                .otherwise(end))
+            .where(builder.equal(dataset.get(AbstractDatasetEntity.PROPERTY_ID), datasetId),
+                   builder.or(widensStart, widensEnd));
+        em.createQuery(updateTime).executeUpdate();
+    }
+
+    /**
+     * Reloads the given Dataset after its bounds were widened by {@link #widenDatasetBounds(Long, DataEntity,
+     * DataEntity)}, so that the persistence context does not keep stale bounds. Subscribers of the Datastream are
+     * notified if its phenomenonTime changed, as datastreamRepository#save does in pessimistic mode.
+     *
+     * @param dataset Dataset whose bounds were widened
+     * @return refreshed Dataset
+     */
+    private AbstractDatasetEntity refreshDataset(AbstractDatasetEntity dataset) {
+        Date start = dataset.getPhenomenonTimeStart();
+        Date end = dataset.getPhenomenonTimeEnd();
+        AbstractDatasetEntity managed = em.contains(dataset)
+            ? dataset
+            : em.find(AbstractDatasetEntity.class, dataset.getId());
+        em.refresh(managed);
+        if (!isSameTime(start, managed.getPhenomenonTimeStart()) || !isSameTime(end, managed.getPhenomenonTimeEnd())) {
+            datastreamRepository.publishChange(managed, Collections.singleton(StaConstants.PROP_PHENOMENON_TIME));
+        }
+        return managed;
+    }
+
+    private boolean isSameTime(Date a, Date b) {
+        // Compares instants, as a java.sql.Timestamp never equals a java.util.Date
+        return a == null ? b == null : b != null && a.getTime() == b.getTime();
     }
 
     protected void mergeSamplingTimeAndCheckResultTime(DataEntity<?> existing, DataEntity<?> toMerge) {
@@ -811,4 +1709,36 @@ public class ObservationService
         data.setVerticalTo(observation.getVerticalTo());
         return data;
     }
+
+    /**
+     * Controls whether concurrent writes are serialized by locks or by optimistic conditional UPDATEs.
+     */
+    enum ConcurrencyMode {
+        /**
+         * Serialize writes to the same Observation/Dataset with locks held in the JVM
+         */
+        LOCK,
+        /**
+         * Maintain Dataset bounds with conditional UPDATEs without locking in the JVM
+         */
+        OPTIMISTIC
+    }
+
+    /**
+     * Controls when @iot.count is computed for Observation collections.
+     */
+    enum CountMode {
+        /**
+         * Always return the exact count
+         */
+        EXACT,
+        /**
+         * Only return the exact count if requested via $count=true
+         */
+        REQUESTED,
+        /**
+         * Like REQUESTED, but estimates the count from table statistics if no $filter is given
+         */
+        ESTIMATE
+    }
 }
@@ -58,6 +58,10 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -136,6 +140,27 @@ public class ObservedPropertyService
         };
     }
 
+    @Override
+    protected boolean expandBatched(List<PhenomenonEntity> entities, ExpandItem expandItem)
+        throws STACRUDException, STAInvalidQueryException {
+        // $expand without filter and expand is handled via fetchgraph
+        if (!ObservedPropertyEntityDefinition.DATASTREAMS.equals(expandItem.getPath())
+            || !(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            return false;
+        }
+        List<Long> ids = entities.stream().map(PhenomenonEntity::getId).collect(Collectors.toList());
+        Map<Long, List<AbstractDatasetEntity>> datastreams = getDatastreamService()
+            .getEntityCollectionByRelatedEntitiesRaw(ids,
+                                                     AbstractDatasetEntity.PROPERTY_PHENOMENON,
+                                                     datastream -> datastream.getObservableProperty().getId(),
+                                                     expandItem.getQueryOptions());
+        for (PhenomenonEntity entity : entities) {
+            entity.setDatasets(new LinkedHashSet<>(datastreams.getOrDefault(entity.getId(),
+                                                                            Collections.emptyList())));
+        }
+        return true;
+    }
+
     @Override
     protected PhenomenonEntity fetchExpandEntitiesWithFilter(PhenomenonEntity entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
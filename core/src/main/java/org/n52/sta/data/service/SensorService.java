@@ -47,7 +47,6 @@ import org.n52.sta.data.query.DatastreamQuerySpecifications;
 import org.n52.sta.data.query.SensorQuerySpecifications;
 import org.n52.sta.data.repositories.DatastreamRepository;
 import org.n52.sta.data.repositories.EntityGraphRepository;
-import org.n52.sta.data.repositories.FormatRepository;
 import org.n52.sta.data.repositories.ProcedureHistoryRepository;
 import org.n52.sta.data.repositories.ProcedureParameterRepository;
 import org.n52.sta.data.repositories.ProcedureRepository;
@@ -62,6 +61,10 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -80,20 +83,20 @@ public class SensorService
     private static final SensorQuerySpecifications sQS = new SensorQuerySpecifications();
     private static final DatastreamQuerySpecifications dQS = new DatastreamQuerySpecifications();
 
-    private final FormatRepository formatRepository;
+    private final LookupTableResolver lookupTableResolver;
     private final ProcedureHistoryRepository procedureHistoryRepository;
     private final DatastreamRepository datastreamRepository;
     private final ProcedureParameterRepository parameterRepository;
 
     @Autowired
     public SensorService(ProcedureRepository repository,
-                         FormatRepository formatRepository,
+                         LookupTableResolver lookupTableResolver,
                          ProcedureHistoryRepository procedureHistoryRepository,
                          DatastreamRepository datastreamRepository,
                          ProcedureParameterRepository parameterRepository,
                          EntityManager em) {
         super(repository, em, ProcedureEntity.class);
-        this.formatRepository = formatRepository;
+        this.lookupTableResolver = lookupTableResolver;
         this.procedureHistoryRepository = procedureHistoryRepository;
         this.datastreamRepository = datastreamRepository;
         this.parameterRepository = parameterRepository;
@@ -128,6 +131,27 @@ public class SensorService
         };
     }
 
+    @Override
+    protected boolean expandBatched(List<ProcedureEntity> entities, ExpandItem expandItem)
+        throws STACRUDException, STAInvalidQueryException {
+        // $expand without filter and expand is handled via fetchgraph
+        if (!SensorEntityDefinition.DATASTREAMS.equals(expandItem.getPath())
+            || !(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            return false;
+        }
+        List<Long> ids = entities.stream().map(ProcedureEntity::getId).collect(Collectors.toList());
+        Map<Long, List<AbstractDatasetEntity>> datastreams = getDatastreamService()
+            .getEntityCollectionByRelatedEntitiesRaw(ids,
+                                                     AbstractDatasetEntity.PROCEDURE,
+                                                     datastream -> datastream.getProcedure().getId(),
+                                                     expandItem.getQueryOptions());
+        for (ProcedureEntity entity : entities) {
+            entity.setDatasets(new LinkedHashSet<>(datastreams.getOrDefault(entity.getId(),
+                                                                            Collections.emptyList())));
+        }
+        return true;
+    }
+
     @Override protected ProcedureEntity fetchExpandEntitiesWithFilter(ProcedureEntity entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
         for (ExpandItem expandItem : expandOption.getItems()) {
@@ -322,18 +346,11 @@ public class SensorService
     }
 
     private void checkFormat(ProcedureEntity mergedSensor, ProcedureEntity newSensor) throws STACRUDException {
-        FormatEntity format;
-        synchronized (getLock(mergedSensor.getFormat().getFormat())) {
-            if (newSensor.getFormat() != null) {
-                if (!formatRepository.existsByFormat(newSensor.getFormat().getFormat())) {
-                    format = formatRepository.save(newSensor.getFormat());
-                } else {
-                    format = formatRepository.findByFormat(newSensor.getFormat().getFormat());
-                }
-                mergedSensor.setFormat(format);
-                if (mergedSensor.hasProcedureHistory()) {
-                    mergedSensor.getProcedureHistory().forEach(pf -> pf.setFormat(format));
-                }
+        if (newSensor.getFormat() != null) {
+            FormatEntity format = lookupTableResolver.resolveFormat(newSensor.getFormat());
+            mergedSensor.setFormat(format);
+            if (mergedSensor.hasProcedureHistory()) {
+                mergedSensor.getProcedureHistory().forEach(pf -> pf.setFormat(format));
             }
         }
     }
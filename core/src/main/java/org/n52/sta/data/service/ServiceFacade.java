@@ -29,6 +29,7 @@
 
 package org.n52.sta.data.service;
 
+import org.n52.janmayen.http.HTTPStatus;
 import org.n52.series.db.beans.AbstractDatasetEntity;
 import org.n52.series.db.beans.AbstractFeatureEntity;
 import org.n52.series.db.beans.DataEntity;
@@ -39,72 +40,237 @@ import org.n52.series.db.beans.ProcedureEntity;
 import org.n52.series.db.beans.sta.HistoricalLocationEntity;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
-import org.n52.sta.DaoSemaphore;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.DaoAdmissionController;
+import org.n52.sta.DaoAdmissionController.OperationClass;
+import org.n52.sta.ReplicaRoutingDataSource;
+import org.n52.sta.data.EntityVersionTracker;
+import org.n52.sta.data.query.DatastreamQuerySpecifications;
+import org.n52.sta.data.service.util.CollectionStream;
 import org.n52.sta.data.service.util.CollectionWrapper;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.persistence.LockTimeoutException;
+import javax.persistence.PessimisticLockException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Facade proxying actual Service implementations. Used to restrict the number of parallel threads accessing the Data
  * Persistence Layer. This is necessary as each Thread uses a seperate Database Transaction and therefore needs a
- * dedicated DatabaseConnection.
+ * dedicated DatabaseConnection. Reads and writes are admitted separately by the {@link DaoAdmissionController}.
  *
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 public class ServiceFacade<S extends HibernateRelations.HasId>
     implements AbstractSensorThingsEntityService<S> {
 
-    private final DaoSemaphore semaphore;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceFacade.class);
+    // SQLState class of transaction rollbacks (serialization failure, deadlock)
+    private static final String SQLSTATE_TRANSACTION_ROLLBACK = "40";
+    // SQLState of PostgreSQL lock_not_available
+    private static final String SQLSTATE_LOCK_NOT_AVAILABLE = "55P03";
+
+    private static final String STREAM_PERMIT = ServiceFacade.class.getName() + ".streamPermit.";
+
+    private static final DatastreamQuerySpecifications DATASTREAM_SPECIFICATIONS =
+        new DatastreamQuerySpecifications();
+
+    private final DaoAdmissionController admissionController;
     private AbstractSensorThingsEntityService<S> serviceImpl;
 
-    public ServiceFacade(AbstractSensorThingsEntityService<S> serviceImpl, DaoSemaphore semaphore) {
+    @Value("${database.concurrency.retries:3}")
+    private int retries;
+
+    @Autowired
+    private EntityVersionTracker versionTracker;
+
+    @Autowired
+    private CascadeDeleter cascadeDeleter;
+
+    @Autowired
+    private FeatureOfInterestCache featureCache;
+
+    private ReplicaRoutingDataSource replicaRouting;
+    private TransactionTemplate readOnlyTransaction;
+
+    public ServiceFacade(AbstractSensorThingsEntityService<S> serviceImpl,
+                         DaoAdmissionController admissionController) {
         this.serviceImpl = serviceImpl;
-        this.semaphore = semaphore;
+        this.admissionController = admissionController;
     }
 
     AbstractSensorThingsEntityService<S> getServiceImpl() {
         return serviceImpl;
     }
 
-    @Override public boolean existsEntity(String id) throws STACRUDException {
-        boolean result;
+    DaoAdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    EntityVersionTracker getVersionTracker() {
+        return versionTracker;
+    }
+
+    /**
+     * Enables routing of reads to read replicas. Reads are executed in a read-only transaction, as replicas reject
+     * any write.
+     *
+     * @param replicaRouting     DataSource routing to the replicas
+     * @param transactionManager transaction manager
+     */
+    @Autowired(required = false)
+    void setReplicaRouting(ReplicaRoutingDataSource replicaRouting, PlatformTransactionManager transactionManager) {
+        this.replicaRouting = replicaRouting;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Executes the given read, admitting the request as {@link OperationClass#READ}. The read is routed to a read
+     * replica if configured.
+     *
+     * @param operation read to be executed
+     * @param <T>       result type
+     * @return result of the read
+     * @throws STACRUDException if an error occurred
+     */
+    <T> T read(ReadOperation<T> operation) throws STACRUDException {
+        admissionController.acquire(OperationClass.READ);
         try {
-            semaphore.acquire();
-            result = serviceImpl.existsEntity(id);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
+            return route(operation);
         } finally {
-            semaphore.release();
+            admissionController.release(OperationClass.READ);
         }
-        return result;
     }
 
-    @Override public ElementWithQueryOptions getEntity(String id, QueryOptions queryOptions) throws STACRUDException {
-        ElementWithQueryOptions result;
+    /**
+     * Executes the given collection read like {@link #read(ReadOperation)}. Streamed collections are read from the
+     * database while the response is serialized, i.e. after this method returns. Their READ permit is therefore held
+     * until the stream has been consumed or the current request has completed, and the stream is routed like the
+     * read itself.
+     *
+     * @param operation read to be executed
+     * @param primary   whether the read must be served by the primary, e.g. because its result is cached beyond the
+     *                  current request and replicas may lag behind the primary
+     * @return result of the read
+     * @throws STACRUDException if an error occurred
+     */
+    CollectionWrapper readCollection(ReadOperation<CollectionWrapper> operation, boolean primary)
+        throws STACRUDException {
+        admissionController.acquire(OperationClass.READ);
+        CollectionWrapper collection;
         try {
-            semaphore.acquire();
-            result = serviceImpl.getEntity(id, queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+            collection = route(operation, primary);
+        } catch (STACRUDException | RuntimeException e) {
+            admissionController.release(OperationClass.READ);
+            throw e;
+        }
+        if (!collection.isStreamed()) {
+            admissionController.release(OperationClass.READ);
+            return collection;
+        }
+
+        CollectionStream stream = collection.getStream();
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        AtomicBoolean admitted = new AtomicBoolean(request != null);
+        Runnable release = () -> {
+            if (admitted.compareAndSet(true, false)) {
+                admissionController.release(OperationClass.READ);
+            }
+        };
+        if (request != null) {
+            // Releases the permit if the response is never serialized, e.g. because the request failed
+            request.registerDestructionCallback(STREAM_PERMIT + System.identityHashCode(collection),
+                                                release,
+                                                RequestAttributes.SCOPE_REQUEST);
+        } else {
+            // Without a request there is nothing to release the permit if the stream is never consumed
+            admissionController.release(OperationClass.READ);
         }
-        return result;
+        return new CollectionWrapper(collection.getTotalEntityCount(), (wrapper, consumer) -> {
+            try {
+                if (!admitted.get()) {
+                    admissionController.acquire(OperationClass.READ);
+                    admitted.set(true);
+                }
+                return route(() -> {
+                    try {
+                        return stream.forEach(wrapper, consumer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, primary);
+            } catch (STACRUDException e) {
+                throw new IOException(e.getMessage(), e);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                release.run();
+            }
+        }).setSkipToken(collection.getSkipToken());
     }
 
-    @Override public CollectionWrapper getEntityCollection(QueryOptions queryOptions) throws STACRUDException {
-        CollectionWrapper result;
+    private <T> T route(ReadOperation<T> operation, boolean primary) throws STACRUDException {
+        return primary && replicaRouting != null ? routeToPrimary(operation) : route(operation);
+    }
+
+    private <T> T routeToPrimary(ReadOperation<T> operation) throws STACRUDException {
+        try (ReplicaRoutingDataSource.PrimaryScope primary = replicaRouting.primary()) {
+            return route(operation);
+        }
+    }
+
+    private <T> T route(ReadOperation<T> operation) throws STACRUDException {
+        return replicaRouting == null ? operation.read() : readFromReplica(operation);
+    }
+
+    private <T> T readFromReplica(ReadOperation<T> operation) throws STACRUDException {
+        replicaRouting.beginRead();
         try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityCollection(queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
+            return readOnlyTransaction.execute(status -> {
+                try {
+                    return operation.read();
+                } catch (STACRUDException e) {
+                    throw new ReadFailedException(e);
+                }
+            });
+        } catch (ReadFailedException e) {
+            throw e.getCause();
         } finally {
-            semaphore.release();
+            replicaRouting.endRead();
         }
-        return result;
+    }
+
+    @Override public boolean existsEntity(String id) throws STACRUDException {
+        return read(() -> serviceImpl.existsEntity(id));
+    }
+
+    @Override public ElementWithQueryOptions getEntity(String id, QueryOptions queryOptions) throws STACRUDException {
+        return read(() -> serviceImpl.getEntity(id, queryOptions));
+    }
+
+    @Override public CollectionWrapper getEntityCollection(QueryOptions queryOptions) throws STACRUDException {
+        return readCollection(() -> serviceImpl.getEntityCollection(queryOptions), false);
     }
 
     @Override public ElementWithQueryOptions<?> getEntityByRelatedEntity(String relatedId,
@@ -112,104 +278,238 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
                                                                          String ownId,
                                                                          QueryOptions queryOptions)
         throws STACRUDException {
-        ElementWithQueryOptions<?> result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityByRelatedEntity(relatedId, relatedType, ownId, queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
-        }
-        return result;
+        return read(() -> serviceImpl.getEntityByRelatedEntity(relatedId, relatedType, ownId, queryOptions));
     }
 
     @Override public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
                                                                           String relatedType,
                                                                           QueryOptions queryOptions)
         throws STACRUDException {
-        CollectionWrapper result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityCollectionByRelatedEntity(relatedId, relatedType, queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
-        }
-        return result;
+        return readCollection(
+            () -> serviceImpl.getEntityCollectionByRelatedEntity(relatedId, relatedType, queryOptions),
+            false);
     }
 
     @Override public String getEntityIdByRelatedEntity(String relatedId, String relatedType) throws STACRUDException {
-        String result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityIdByRelatedEntity(relatedId, relatedType);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
-        }
-        return result;
+        return read(() -> serviceImpl.getEntityIdByRelatedEntity(relatedId, relatedType));
     }
 
     @Override public boolean existsEntityByRelatedEntity(String relatedId, String relatedType, String ownId)
         throws STACRUDException {
-        boolean result;
+        return read(() -> serviceImpl.existsEntityByRelatedEntity(relatedId, relatedType, ownId));
+    }
+
+    @Override public boolean existsNavigationPath(List<String[]> path) throws STACRUDException {
+        return read(() -> serviceImpl.existsNavigationPath(path));
+    }
+
+    @Override public ElementWithQueryOptions create(S entity) throws STACRUDException {
+        return create(entity, OperationClass.WRITE);
+    }
+
+    /**
+     * Creates the given entity, admitting the request as the given class of operation.
+     * Used e.g. to separate creation via MQTT from creation via HTTP.
+     *
+     * @param entity         entity to be created
+     * @param operationClass class of the operation
+     * @return created entity
+     * @throws STACRUDException if an error occurred
+     */
+    public ElementWithQueryOptions create(S entity, OperationClass operationClass) throws STACRUDException {
+        admissionController.acquire(operationClass);
         try {
-            semaphore.acquire();
-            result = serviceImpl.existsEntityByRelatedEntity(relatedId, relatedType, ownId);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
+            return serviceImpl.create(entity);
         } finally {
-            semaphore.release();
+            admissionController.release(operationClass);
+            written(entity);
         }
-        return result;
     }
 
-    @Override public ElementWithQueryOptions create(S entity) throws STACRUDException {
-        ElementWithQueryOptions result;
+    /**
+     * Creates the entity provided by the given supplier, admitting the request as the given class of operation.
+     * If the transaction is aborted by the database because of a conflicting concurrent transaction the creation is
+     * retried up to database.concurrency.retries times. The entity is requested from the supplier again for each
+     * attempt, as a failed attempt may leave the entity in an inconsistent state.
+     *
+     * @param entity         supplier of the entity to be created, e.g. deserializing the request payload
+     * @param operationClass class of the operation
+     * @return created entity
+     * @throws STACRUDException if an error occurred or no attempt succeeded
+     * @throws IOException      if the entity could not be provided
+     */
+    public ElementWithQueryOptions create(EntitySupplier<S> entity, OperationClass operationClass)
+        throws STACRUDException, IOException {
+        admissionController.acquire(operationClass);
+        S supplied = null;
         try {
-            semaphore.acquire();
-            result = serviceImpl.create(entity);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    supplied = entity.get();
+                    return serviceImpl.create(supplied);
+                } catch (RuntimeException | STACRUDException e) {
+                    if (!shouldRetry(e, attempt)) {
+                        throw e;
+                    }
+                }
+            }
         } finally {
-            semaphore.release();
+            admissionController.release(operationClass);
+            written(supplied);
+        }
+    }
+
+    /**
+     * Called after every write of this service completed. Routes subsequent reads of the same client to the primary
+     * database and marks the changed Entity Types.
+     *
+     * @param entity written entity. null if the write was a deletion
+     */
+    void written(S entity) {
+        if (replicaRouting != null) {
+            replicaRouting.written();
+        }
+        changed(entity);
+    }
+
+    /**
+     * Marks the Entity Types that may have been changed by a write of this service as changed. Called after the
+     * write completed, i.e. after the transaction was committed or rolled back. Writes may create, update or
+     * delete related entities of any type (e.g. deep insert, cascading delete), so all types are marked by default.
+     * Services whose writes affect fewer types override this.
+     *
+     * @param entity written entity. null if the write was a deletion
+     */
+    protected void changed(S entity) {
+        versionTracker.changedAll();
+    }
+
+    /**
+     * Invalidates the cached FeaturesOfInterest. To be called by services whose writes may change Locations of
+     * Things or FeaturesOfInterest.
+     */
+    protected void invalidateFeatureCache() {
+        featureCache.invalidate();
+    }
+
+    /**
+     * Checks whether a failed attempt is to be retried, i.e. whether it was caused by a conflicting concurrent
+     * transaction.
+     *
+     * @param e       Exception that caused the attempt to fail
+     * @param attempt number of the failed attempt, starting at 0
+     * @return true if the attempt is to be retried
+     * @throws STACRUDException if the attempt was caused by a conflicting transaction and all retries are exhausted
+     */
+    boolean shouldRetry(Exception e, int attempt) throws STACRUDException {
+        if (!isConcurrencyConflict(e)) {
+            return false;
+        }
+        if (attempt >= retries) {
+            throw new STACRUDException("Could not complete request due to concurrent modification. Retried "
+                                           + attempt + " times.", HTTPStatus.CONFLICT);
         }
-        return result;
+        LOGGER.debug("Retrying request after concurrent modification: {}", e.getMessage());
+        return true;
+    }
+
+    private static boolean isConcurrencyConflict(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrencyFailureException
+                || cause instanceof PessimisticLockException
+                || cause instanceof LockTimeoutException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && (state.startsWith(SQLSTATE_TRANSACTION_ROLLBACK)
+                    || state.equals(SQLSTATE_LOCK_NOT_AVAILABLE))) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     @Override public ElementWithQueryOptions update(String id, S entity, HttpMethod method) throws STACRUDException {
-        ElementWithQueryOptions result;
+        admissionController.acquire(OperationClass.WRITE);
         try {
-            semaphore.acquire();
-            result = serviceImpl.update(id, entity, method);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
+            return serviceImpl.update(id, entity, method);
         } finally {
-            semaphore.release();
+            admissionController.release(OperationClass.WRITE);
+            written(entity);
         }
-        return result;
     }
 
     @Override public void delete(String id) throws STACRUDException {
+        deleteEntity(id);
+    }
+
+    private void deleteEntity(String id) throws STACRUDException {
+        admissionController.acquire(OperationClass.WRITE);
         try {
-            semaphore.acquire();
             serviceImpl.delete(id);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
         } finally {
-            semaphore.release();
+            admissionController.release(OperationClass.WRITE);
+            written(null);
         }
     }
 
+    /**
+     * Deletes the entity with the given id after deleting the Observations of the given Datasets in chunks.
+     *
+     * @param entityType              type of the entity
+     * @param id                      id of the entity
+     * @param datasets                Datasets whose Observations are deleted
+     * @param withHistoricalLocations whether the HistoricalLocations of the entity are deleted
+     * @throws STACRUDException if the entity does not exist or the deletion failed
+     */
+    protected void deleteCascading(String entityType,
+                                   String id,
+                                   Specification<AbstractDatasetEntity> datasets,
+                                   boolean withHistoricalLocations) throws STACRUDException {
+        if (!existsEntity(id)) {
+            throw new STACRUDException(AbstractSensorThingsEntityServiceImpl.UNABLE_TO_DELETE_ENTITY_NOT_FOUND,
+                                       HTTPStatus.NOT_FOUND);
+        }
+        cascadeDeleter.delete(entityType, id, datasets, withHistoricalLocations, () -> deleteEntity(id));
+    }
+
+    /**
+     * Checks whether deletions via {@link #deleteCascading} are run in the background.
+     *
+     * @return true if cascading deletions return as soon as they are scheduled
+     */
+    protected boolean isCascadingInBackground() {
+        return cascadeDeleter.isBackground();
+    }
+
     @Component
     static class ThingServiceFacade extends ServiceFacade<PlatformEntity> {
 
         ThingServiceFacade(ThingService serviceImpl,
-                           DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                           DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+        }
+
+        /**
+         * Writes may change the Locations of Things, so cached FeaturesOfInterest are invalidated.
+         */
+        @Override protected void changed(PlatformEntity entity) {
+            super.changed(entity);
+            invalidateFeatureCache();
+        }
+
+        @Override public void delete(String id) throws STACRUDException {
+            deleteCascading(StaConstants.THINGS, id, DATASTREAM_SPECIFICATIONS.withThingStaIdentifier(id), true);
+        }
+
+        @Override public boolean isDeletedInBackground() {
+            return isCascadingInBackground();
+        }
+
+        @Override public String getDeleteJobKey(String id) {
+            return isCascadingInBackground() ? CascadeDeleter.getKey(StaConstants.THINGS, id) : null;
         }
     }
 
@@ -218,8 +518,16 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
     static class LocationServiceFacade extends ServiceFacade<LocationEntity> {
 
         LocationServiceFacade(LocationService serviceImpl,
-                              DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                              DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+        }
+
+        /**
+         * Writes may change the Locations of Things, so cached FeaturesOfInterest are invalidated.
+         */
+        @Override protected void changed(LocationEntity entity) {
+            super.changed(entity);
+            invalidateFeatureCache();
         }
     }
 
@@ -229,8 +537,16 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
         extends ServiceFacade<HistoricalLocationEntity> {
 
         HistoricalLocationServiceFacade(HistoricalLocationService serviceImpl,
-                                        DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                        DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+        }
+
+        /**
+         * Writes may change the Locations of Things, so cached FeaturesOfInterest are invalidated.
+         */
+        @Override protected void changed(HistoricalLocationEntity entity) {
+            super.changed(entity);
+            invalidateFeatureCache();
         }
     }
 
@@ -238,9 +554,25 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
     @Component
     static class SensorServiceFacade extends ServiceFacade<ProcedureEntity> {
 
+        private static final List<String> SENSOR_CHANGES = Arrays.asList(StaConstants.SENSORS,
+                                                                         StaConstants.DATASTREAMS,
+                                                                         StaConstants.OBSERVATIONS);
+
         SensorServiceFacade(SensorService serviceImpl,
-                            DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                            DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+        }
+
+        /**
+         * Writes of Sensors change the Sensor, its Datastreams and, by cascading deletion, their Observations.
+         * Writes with inline Datastreams may be deep inserts that create entities of any type.
+         */
+        @Override protected void changed(ProcedureEntity entity) {
+            if (entity != null && entity.hasDatastreams()) {
+                super.changed(entity);
+            } else {
+                getVersionTracker().changed(SENSOR_CHANGES);
+            }
         }
     }
 
@@ -249,20 +581,106 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
     static class ObservedPropertyServiceFacade
         extends ServiceFacade<PhenomenonEntity> {
 
+        private static final List<String> OBSERVED_PROPERTY_CHANGES =
+            Arrays.asList(StaConstants.OBSERVED_PROPERTIES, StaConstants.DATASTREAMS, StaConstants.OBSERVATIONS);
+
         ObservedPropertyServiceFacade(ObservedPropertyService serviceImpl,
-                                      DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                      DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+        }
+
+        /**
+         * Writes of ObservedProperties change the ObservedProperty, its Datastreams and, by cascading deletion,
+         * their Observations. Writes with inline Datastreams may be deep inserts that create entities of any type.
+         */
+        @Override protected void changed(PhenomenonEntity entity) {
+            if (entity != null && entity.hasDatastreams()) {
+                super.changed(entity);
+            } else {
+                getVersionTracker().changed(OBSERVED_PROPERTY_CHANGES);
+            }
         }
     }
 
 
     @Component
-    static class ObservationServiceFacade
+    public static class ObservationServiceFacade
         extends ServiceFacade<DataEntity<?>> {
 
+        private static final List<String> OBSERVATION_CHANGES = Arrays.asList(StaConstants.OBSERVATIONS,
+                                                                              StaConstants.DATASTREAMS,
+                                                                              StaConstants.FEATURES_OF_INTEREST);
+        private final ObservationService observationService;
+
         ObservationServiceFacade(ObservationService serviceImpl,
-                                 DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                 DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+            this.observationService = serviceImpl;
+        }
+
+        /**
+         * Writes of Observations only change Observations, the phenomenonTime of their Datastream and possibly
+         * create a FeatureOfInterest.
+         */
+        @Override protected void changed(DataEntity<?> entity) {
+            getVersionTracker().changed(OBSERVATION_CHANGES);
+        }
+
+        /**
+         * Creates all Observations provided by the given supplier within a single transaction. Retried like
+         * {@link #create(EntitySupplier, OperationClass)} if aborted by a conflicting concurrent transaction.
+         *
+         * @param datastreamId id of the Datastream
+         * @param observations supplier of the Observations to be created
+         * @return created Observations
+         * @throws STACRUDException if an error occurred or no attempt succeeded
+         * @throws IOException      if the Observations could not be provided
+         */
+        public List<DataEntity<?>> createBatch(String datastreamId, EntitySupplier<List<DataEntity<?>>> observations)
+            throws STACRUDException, IOException {
+            getAdmissionController().acquire(OperationClass.WRITE);
+            try {
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        return observationService.createBatch(datastreamId, new ArrayList<>(observations.get()));
+                    } catch (RuntimeException | STACRUDException e) {
+                        if (!shouldRetry(e, attempt)) {
+                            throw e;
+                        }
+                    }
+                }
+            } finally {
+                getAdmissionController().release(OperationClass.WRITE);
+                written(null);
+            }
+        }
+
+        public CollectionWrapper getEntityCollection(QueryOptions queryOptions, String skipToken)
+            throws STACRUDException {
+            return readCollection(() -> observationService.getEntityCollection(queryOptions, skipToken), false);
+        }
+
+        public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
+                                                                    String relatedType,
+                                                                    QueryOptions queryOptions,
+                                                                    String skipToken)
+            throws STACRUDException {
+            ReadOperation<CollectionWrapper> operation =
+                () -> observationService.getEntityCollectionByRelatedEntity(relatedId,
+                                                                            relatedType,
+                                                                            queryOptions,
+                                                                            skipToken);
+            // The latest Observation is cached, so it must not be read from a lagging replica
+            return readCollection(operation,
+                                  STAEntityDefinition.DATASTREAMS.equals(relatedType)
+                                      && LatestObservationCache.isLatestObservationQuery(queryOptions));
+        }
+
+        @Override public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
+                                                                              String relatedType,
+                                                                              QueryOptions queryOptions)
+            throws STACRUDException {
+            return getEntityCollectionByRelatedEntity(relatedId, relatedType, queryOptions, null);
         }
     }
 
@@ -271,8 +689,20 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
     static class DatastreamServiceFacade extends ServiceFacade<AbstractDatasetEntity> {
 
         DatastreamServiceFacade(DatastreamService serviceImpl,
-                                DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+        }
+
+        @Override public void delete(String id) throws STACRUDException {
+            deleteCascading(StaConstants.DATASTREAMS, id, DATASTREAM_SPECIFICATIONS.withStaIdentifier(id), false);
+        }
+
+        @Override public boolean isDeletedInBackground() {
+            return isCascadingInBackground();
+        }
+
+        @Override public String getDeleteJobKey(String id) {
+            return isCascadingInBackground() ? CascadeDeleter.getKey(StaConstants.DATASTREAMS, id) : null;
         }
     }
 
@@ -282,8 +712,69 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
         extends ServiceFacade<AbstractFeatureEntity<?>> {
 
         FeatureOfInterestServiceFacade(FeatureOfInterestService serviceImpl,
-                                       DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                       DaoAdmissionController admissionController) {
+            super(serviceImpl, admissionController);
+        }
+
+        /**
+         * Writes may change or delete cached FeaturesOfInterest, so the cache is invalidated.
+         */
+        @Override protected void changed(AbstractFeatureEntity<?> entity) {
+            super.changed(entity);
+            invalidateFeatureCache();
+        }
+
+        @Override public void delete(String id) throws STACRUDException {
+            deleteCascading(StaConstants.FEATURES_OF_INTEREST,
+                            id,
+                            DATASTREAM_SPECIFICATIONS.withFeatureStaIdentifier(id),
+                            false);
+        }
+
+        @Override public boolean isDeletedInBackground() {
+            return isCascadingInBackground();
+        }
+
+        @Override public String getDeleteJobKey(String id) {
+            return isCascadingInBackground() ? CascadeDeleter.getKey(StaConstants.FEATURES_OF_INTEREST, id) : null;
+        }
+    }
+
+    /**
+     * Provides an entity for each attempt of a retried operation.
+     *
+     * @param <T> type of the entity
+     */
+    @FunctionalInterface
+    public interface EntitySupplier<T> {
+
+        T get() throws IOException;
+    }
+
+    /**
+     * Read executed by a {@link ServiceFacade}.
+     *
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    interface ReadOperation<T> {
+
+        T read() throws STACRUDException;
+    }
+
+    /**
+     * Tunnels a {@link STACRUDException} through a read-only transaction.
+     */
+    private static final class ReadFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ReadFailedException(STACRUDException cause) {
+            super(cause);
+        }
+
+        @Override public synchronized STACRUDException getCause() {
+            return (STACRUDException) super.getCause();
         }
     }
 }
@@ -57,8 +57,11 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -116,6 +119,27 @@ public class ThingService
         return fetchGraphs.toArray(new EntityGraphRepository.FetchGraph[0]);
     }
 
+    @Override
+    protected boolean expandBatched(List<PlatformEntity> entities, ExpandItem expandItem)
+        throws STACRUDException, STAInvalidQueryException {
+        // $expand without filter and expand is handled via fetchgraph
+        if (!STAEntityDefinition.DATASTREAMS.equals(expandItem.getPath())
+            || !(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            return false;
+        }
+        List<Long> ids = entities.stream().map(PlatformEntity::getId).collect(Collectors.toList());
+        Map<Long, List<AbstractDatasetEntity>> datastreams = getDatastreamService()
+            .getEntityCollectionByRelatedEntitiesRaw(ids,
+                                                     AbstractDatasetEntity.PROPERTY_PLATFORM,
+                                                     datastream -> datastream.getThing().getId(),
+                                                     expandItem.getQueryOptions());
+        for (PlatformEntity entity : entities) {
+            entity.setDatasets(new LinkedHashSet<>(datastreams.getOrDefault(entity.getId(),
+                                                                            Collections.emptyList())));
+        }
+        return true;
+    }
+
     @Override protected PlatformEntity fetchExpandEntitiesWithFilter(PlatformEntity entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
         for (ExpandItem expandItem : expandOption.getItems()) {
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data.service.util;
+
+import org.n52.sta.serdes.util.ElementWithQueryOptions;
+
+import java.io.IOException;
+
+/**
+ * Source of a collection whose entities are read from the database while the response is written, so that the
+ * collection is never fully held in memory.
+ */
+@FunctionalInterface
+public interface CollectionStream {
+
+    /**
+     * Reads the entities of the collection and passes them to the given consumer one at a time. May set the
+     * skipToken of the given collection once all entities are read.
+     *
+     * @param collection collection this stream belongs to
+     * @param consumer   consumer of the entities
+     * @return true if there is a next page
+     * @throws IOException if the consumer fails to write an entity
+     */
+    boolean forEach(CollectionWrapper collection, ElementConsumer consumer) throws IOException;
+
+    @FunctionalInterface
+    interface ElementConsumer {
+
+        void accept(ElementWithQueryOptions<?> element) throws IOException;
+    }
+}
@@ -31,6 +31,7 @@ package org.n52.sta.data.service.util;
 
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -44,14 +45,33 @@ public class CollectionWrapper {
 
     private final boolean hasNextPage;
 
+    private final CollectionStream stream;
+
     private String requestURL;
 
+    private String skipToken;
+
     public CollectionWrapper(long entityCount,
                              List<ElementWithQueryOptions> entity,
                              boolean hasNextPage) {
         this.totalEntityCount = entityCount;
         this.entities = entity;
         this.hasNextPage = hasNextPage;
+        this.stream = null;
+    }
+
+    /**
+     * Creates a collection whose entities are streamed during serialization.
+     *
+     * @param entityCount total number of entities. negative if unknown
+     * @param stream      source of the entities
+     */
+    public CollectionWrapper(long entityCount,
+                             CollectionStream stream) {
+        this.totalEntityCount = entityCount;
+        this.entities = Collections.emptyList();
+        this.hasNextPage = false;
+        this.stream = stream;
     }
 
     public long getTotalEntityCount() {
@@ -66,6 +86,14 @@ public class CollectionWrapper {
         return hasNextPage;
     }
 
+    public boolean isStreamed() {
+        return stream != null;
+    }
+
+    public CollectionStream getStream() {
+        return stream;
+    }
+
     public String getRequestURL() {
         return requestURL;
     }
@@ -74,4 +102,16 @@ public class CollectionWrapper {
         this.requestURL = requestURL;
         return this;
     }
+
+    /**
+     * @return continuation token of the next page if keyset pagination is used. null otherwise
+     */
+    public String getSkipToken() {
+        return skipToken;
+    }
+
+    public CollectionWrapper setSkipToken(String skipToken) {
+        this.skipToken = skipToken;
+        return this;
+    }
 }
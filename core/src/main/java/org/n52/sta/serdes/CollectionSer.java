@@ -36,10 +36,12 @@ import org.n52.shetland.filter.SkipTopFilter;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.filter.FilterClause;
 import org.n52.shetland.ogc.filter.FilterConstants;
+import org.n52.sta.data.ContinuationToken;
 import org.n52.sta.data.service.util.CollectionWrapper;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -55,16 +57,64 @@ public class CollectionSer extends StdSerializer<CollectionWrapper> {
         throws IOException {
         gen.writeStartObject();
 
-        gen.writeNumberField("@iot.count", value.getTotalEntityCount());
+        // Count is negative if it was not computed
+        if (value.getTotalEntityCount() >= 0) {
+            gen.writeNumberField("@iot.count", value.getTotalEntityCount());
+        }
+
+        if (value.isStreamed()) {
+            serializeStreamed(value, gen, provider);
+        } else {
+            // We have multiple pages
+            if (value.hasNextPage() && !value.getEntities().isEmpty()) {
+                writeNextLink(value, value.getEntities().get(0).getQueryOptions(), gen);
+            }
+
+            gen.writeArrayFieldStart("value");
+            for (ElementWithQueryOptions element : value.getEntities()) {
+                provider.defaultSerializeValue(element, gen);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Writes entities as they are read from the database. As it is only known afterwards whether there is a next
+     * page, the nextLink is written after the value array.
+     */
+    private void serializeStreamed(CollectionWrapper value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+        QueryOptions[] queryOptions = new QueryOptions[1];
+        gen.writeArrayFieldStart("value");
+        boolean hasNextPage = value.getStream().forEach(value, element -> {
+            queryOptions[0] = element.getQueryOptions();
+            provider.defaultSerializeValue(element, gen);
+        });
+        gen.writeEndArray();
+        if (hasNextPage && queryOptions[0] != null) {
+            writeNextLink(value, queryOptions[0], gen);
+        }
+    }
 
-        // We have multiple pages
-        if (value.hasNextPage() && !value.getEntities().isEmpty()) {
-            QueryOptions queryOptions = value.getEntities().get(0).getQueryOptions();
+    private void writeNextLink(CollectionWrapper value, QueryOptions queryOptions, JsonGenerator gen)
+        throws IOException {
+        // QueryOptions may be shared via QueryOptionsCache so they must not be modified
+        Set<FilterClause> allFilters = new HashSet<>(queryOptions.getAllFilters());
+        allFilters.remove(queryOptions.getSkipFilter());
+        if (value.getSkipToken() != null) {
+            // Keyset pagination: Next page is addressed by continuation token instead of offset
+            String query = new QueryOptions("", allFilters).toString();
+            gen.writeStringField("@iot.nextLink",
+                                 value.getRequestURL()
+                                     + "?"
+                                     + (query.isEmpty() ? "" : query + "&")
+                                     + ContinuationToken.QUERY_PARAMETER + "=" + value.getSkipToken()
+            );
+        } else {
             long oldTop = queryOptions.getTopFilter().getValue();
             long oldSkip = queryOptions.hasSkipFilter() ? queryOptions.getSkipFilter().getValue() : 0L;
             // Replace old skip Filter with new one
-            Set<FilterClause> allFilters = queryOptions.getAllFilters();
-            allFilters.remove(queryOptions.getSkipFilter());
             allFilters.add(new SkipTopFilter(FilterConstants.SkipTopOperator.Skip, oldSkip + oldTop));
             gen.writeStringField("@iot.nextLink",
                                  value.getRequestURL()
@@ -72,12 +122,5 @@ public class CollectionSer extends StdSerializer<CollectionWrapper> {
                                      + new QueryOptions("", allFilters).toString()
             );
         }
-
-        gen.writeArrayFieldStart("value");
-        for (ElementWithQueryOptions element : value.getEntities()) {
-            provider.defaultSerializeValue(element, gen);
-        }
-        gen.writeEndArray();
-        gen.writeEndObject();
     }
 }
@@ -34,20 +34,33 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
 import org.n52.shetland.ogc.sta.exception.STANotFoundException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.ContinuationToken;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.servlet.http.HttpServletRequest;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 public abstract class AbstractSTARequestHandler implements RequestUtils {
 
+    private static final Pattern SKIPTOKEN_PATTERN =
+        Pattern.compile("(^|&)" + Pattern.quote(ContinuationToken.QUERY_PARAMETER) + "=([^&]*)");
+
     protected final boolean shouldEscapeId;
     protected final EntityServiceRepository serviceRepository;
     protected final String rootUrl;
 
+    @Autowired(required = false)
+    private QueryOptionsCache queryOptionsCache;
+
     public AbstractSTARequestHandler(String rootUrl,
                                      boolean shouldEscapeId,
                                      EntityServiceRepository serviceRepository
@@ -59,13 +72,36 @@ public abstract class AbstractSTARequestHandler implements RequestUtils {
 
     protected QueryOptions decodeQueryString(HttpServletRequest request) {
         if (request.getQueryString() != null) {
-            String decoded = URLDecoder.decode(request.getQueryString());
-            return QUERY_OPTIONS_FACTORY.createQueryOptions(decoded);
+            // $skiptoken is not an OData query option understood by the parser and handled separately
+            String decoded = SKIPTOKEN_PATTERN.matcher(URLDecoder.decode(request.getQueryString())).replaceAll("");
+            if (decoded.isEmpty()) {
+                return QUERY_OPTIONS_FACTORY.createDummy();
+            }
+            String queryString = decoded.startsWith("&") ? decoded.substring(1) : decoded;
+            return queryOptionsCache != null
+                ? queryOptionsCache.get(queryString)
+                : QUERY_OPTIONS_FACTORY.createQueryOptions(queryString);
         } else {
             return QUERY_OPTIONS_FACTORY.createDummy();
         }
     }
 
+    /**
+     * Extracts the continuation token used for keyset pagination from the request.
+     *
+     * @param request full request
+     * @return token as given via $skiptoken. null if not present
+     */
+    protected String getSkipToken(HttpServletRequest request) {
+        if (request.getQueryString() != null) {
+            Matcher matcher = SKIPTOKEN_PATTERN.matcher(URLDecoder.decode(request.getQueryString()));
+            if (matcher.find()) {
+                return matcher.group(2);
+            }
+        }
+        return null;
+    }
+
     /**
      * Validates a given Resource Path. Checks Syntax + Semantics
      *
@@ -107,6 +143,25 @@ public abstract class AbstractSTARequestHandler implements RequestUtils {
         }
     }
 
+    /**
+     * Validates a given Resource Path only if nothing was found via this path. Finding an Entity via the path already
+     * proves that all Entities along the path exist, so the validation is only needed to distinguish an empty result
+     * from an invalid path.
+     *
+     * @param requestURI URL to the Resource.
+     * @param result     result of the request
+     * @param isEmpty    checks whether the result is empty
+     * @param <R>        type of the result
+     * @return result
+     * @throws Exception if URL is not valid
+     */
+    protected <R> R validateResourceIfEmpty(String requestURI, R result, Predicate<R> isEmpty) throws Exception {
+        if (isEmpty.test(result)) {
+            validateResource(requestURI, serviceRepository);
+        }
+        return result;
+    }
+
     /**
      * Validates whether an entity has given property.
      *
@@ -143,6 +198,19 @@ public abstract class AbstractSTARequestHandler implements RequestUtils {
         sourceId = unescapeIdIfWanted(sourceId.replaceAll("%2F", "/"));
         String sourceType = sourceEntity[0];
 
+        // Validate the whole path with a single query. Only if this fails the path is validated segment by segment
+        // to find the offending segment for the error message.
+        if (uriResources.length > 2) {
+            List<String[]> path = new ArrayList<>(uriResources.length - 1);
+            path.add(new String[] {sourceType, sourceId});
+            for (int i = 1; i < uriResources.length - 1; i++) {
+                path.add(splitId(uriResources[i]));
+            }
+            if (serviceRepository.getEntityService(sourceType).existsNavigationPath(path)) {
+                return null;
+            }
+        }
+
         if (!serviceRepository.getEntityService(sourceType).existsEntity(sourceId)) {
             return createNotFoundExceptionNoEntity(uriResources[0]);
         }
@@ -190,7 +258,10 @@ public abstract class AbstractSTARequestHandler implements RequestUtils {
 
     protected String[] splitId(String entity) {
         String[] split = entity.split("\\(");
-        split[1] = unescapeIdIfWanted(split[1].replace(")", ""));
+        // Entity may be addressed without id, e.g. Thing in /Datastreams(52)/Thing
+        if (split.length > 1) {
+            split[1] = unescapeIdIfWanted(split[1].replace(")", ""));
+        }
         return split;
     }
 
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters and gauges of a single component. Metrics are registered once when the component is created and
+ * are published by the {@link MetricsReporter}.
+ */
+public final class Metrics {
+
+    private final String name;
+    private final Map<String, LongSupplier> values = new LinkedHashMap<>();
+
+    /**
+     * @param name name of the component, used as prefix when the metrics are published
+     */
+    public Metrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Registers a counter.
+     *
+     * @param key name of the counter
+     * @return counter to be incremented by the component
+     */
+    public AtomicLong counter(String key) {
+        AtomicLong counter = new AtomicLong();
+        gauge(key, counter::get);
+        return counter;
+    }
+
+    /**
+     * Registers a gauge whose value is computed whenever the metrics are read.
+     *
+     * @param key   name of the gauge
+     * @param value supplier of the current value
+     */
+    public synchronized void gauge(String key, LongSupplier value) {
+        if (values.putIfAbsent(key, value) != null) {
+            throw new IllegalArgumentException("Metric " + key + " of " + name + " is already registered.");
+        }
+    }
+
+    /**
+     * Gets the current value of a counter or gauge.
+     *
+     * @param key name of the counter or gauge
+     * @return current value
+     */
+    public synchronized long get(String key) {
+        LongSupplier value = values.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Metric " + key + " of " + name + " is not registered.");
+        }
+        return value.getAsLong();
+    }
+
+    /**
+     * Reads the current values of all counters and gauges.
+     *
+     * @return values in order of registration
+     */
+    public synchronized Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        values.forEach((key, value) -> snapshot.put(key, value.getAsLong()));
+        return snapshot;
+    }
+
+    @Override public String toString() {
+        StringBuilder builder = new StringBuilder(name).append(':');
+        snapshot().forEach((key, value) -> builder.append(' ').append(key).append('=').append(value));
+        return builder.toString();
+    }
+}
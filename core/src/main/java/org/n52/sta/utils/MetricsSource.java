@@ -27,23 +27,13 @@
  * Public License for more details.
  */
 
-package org.n52.sta;
-
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
-
-import java.util.concurrent.Semaphore;
+package org.n52.sta.utils;
 
 /**
- * Semaphore controlling access to the Persistence Service Layer. The Persistence Layer can currently only handle as
- * many running threads as there are database connections available, as each thread uses a seperate Transaction.
- *
- * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ * Component exposing {@link Metrics}. Metrics of all beans implementing this interface are published by the
+ * {@link MetricsReporter}.
  */
-@Service
-public class DaoSemaphore extends Semaphore {
+public interface MetricsSource {
 
-    public DaoSemaphore(@Value("${spring.datasource.hikari.maximum-pool-size}") int permits) {
-        super(permits, true);
-    }
+    Metrics getMetrics();
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.utils;
+
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches parsed QueryOptions by their raw query string, so that frequently repeated queries (e.g. by dashboards) are
+ * only parsed once. Entries are evicted in least-recently-used order once the cache is full. Cached QueryOptions are
+ * shared between requests and must not be modified. Metrics include the hit ratio and the parse time saved, estimated
+ * from the average time of a parse.
+ */
+@Component
+public class QueryOptionsCache implements MetricsSource {
+
+    private final int maxSize;
+    private final Map<String, QueryOptions> cache;
+
+    private final Metrics metrics = new Metrics("queryOptionsCache");
+    private final AtomicLong hits = metrics.counter("hits");
+    private final AtomicLong misses = metrics.counter("misses");
+    private final AtomicLong evictions = metrics.counter("evictions");
+    private final AtomicLong parseNanos = new AtomicLong();
+
+    public QueryOptionsCache(@Value("${database.cache.queryOptions.size:1000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, QueryOptions>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, QueryOptions> eldest) {
+                if (size() > QueryOptionsCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        metrics.gauge("size", () -> {
+            synchronized (cache) {
+                return cache.size();
+            }
+        });
+        metrics.gauge("hitRatioPercent", () -> {
+            long total = hits.get() + misses.get();
+            return total == 0 ? 0 : hits.get() * 100 / total;
+        });
+        metrics.gauge("parseMicros", () -> TimeUnit.NANOSECONDS.toMicros(parseNanos.get()));
+        metrics.gauge("savedParseMicros", () -> {
+            long parses = misses.get();
+            return parses == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(parseNanos.get() / parses * hits.get());
+        });
+    }
+
+    /**
+     * Gets the QueryOptions for the given query string. Parses the query string if it is not cached yet.
+     *
+     * @param queryString decoded query string without leading '?'
+     * @return parsed QueryOptions
+     */
+    public QueryOptions get(String queryString) {
+        if (maxSize <= 0) {
+            return parse(queryString);
+        }
+        QueryOptions queryOptions;
+        synchronized (cache) {
+            queryOptions = cache.get(queryString);
+        }
+        if (queryOptions != null) {
+            hits.incrementAndGet();
+            return queryOptions;
+        }
+        // Parse outside of the lock. Concurrent misses on the same query string may parse twice, which is harmless
+        queryOptions = parse(queryString);
+        synchronized (cache) {
+            cache.put(queryString, queryOptions);
+        }
+        return queryOptions;
+    }
+
+    private QueryOptions parse(String queryString) {
+        long start = System.nanoTime();
+        QueryOptions queryOptions = RequestUtils.QUERY_OPTIONS_FACTORY.createQueryOptions(queryString);
+        parseNanos.addAndGet(System.nanoTime() - start);
+        misses.incrementAndGet();
+        return queryOptions;
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+}
@@ -29,9 +29,11 @@
 
 package org.n52.sta.service;
 
+import org.n52.janmayen.http.HTTPStatus;
 import org.n52.shetland.filter.SelectFilter;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.filter.FilterClause;
+import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.sta.data.service.EntityServiceRepository;
 import org.n52.sta.data.service.util.CollectionWrapper;
@@ -66,6 +68,14 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
                                                   HttpServletRequest request)
         throws STACRUDException {
         QueryOptions options = decodeQueryString(request);
+        String skipToken = getSkipToken(request);
+        if (skipToken != null) {
+            checkSkipTokenSupported(collectionName);
+            return serviceRepository
+                .getObservationService()
+                .getEntityCollection(options, skipToken)
+                .setRequestURL(rootUrl + collectionName);
+        }
         return serviceRepository
             .getEntityService(collectionName)
             .getEntityCollection(options)
@@ -114,17 +124,29 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
                                                    @PathVariable String target,
                                                    HttpServletRequest request)
         throws Exception {
-        validateResource((String) request.getAttribute(HandlerMapping.LOOKUP_PATH), serviceRepository);
-
         String[] split = splitId(entity);
         String sourceType = split[0];
         String sourceId = split[1];
 
         QueryOptions options = decodeQueryString(request);
-        return serviceRepository.getEntityService(target)
-            .getEntityCollectionByRelatedEntity(sourceId,
-                                                sourceType,
-                                                options)
+        String skipToken = getSkipToken(request);
+        CollectionWrapper collection;
+        if (skipToken != null) {
+            checkSkipTokenSupported(target);
+            collection = serviceRepository.getObservationService()
+                .getEntityCollectionByRelatedEntity(sourceId,
+                                                    sourceType,
+                                                    options,
+                                                    skipToken);
+        } else {
+            collection = serviceRepository.getEntityService(target)
+                .getEntityCollectionByRelatedEntity(sourceId,
+                                                    sourceType,
+                                                    options);
+        }
+        return validateResourceIfEmpty((String) request.getAttribute(HandlerMapping.LOOKUP_PATH),
+                                       collection,
+                                       this::isPossiblyEmpty)
             .setRequestURL(rootUrl + entity + "/" + target);
     }
 
@@ -142,7 +164,6 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
                                                       HttpServletRequest request)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
-        validateResource(lookupPath.substring(0, lookupPath.length() - 5), serviceRepository);
 
         String[] split = splitId(entity);
         String sourceType = split[0];
@@ -160,10 +181,36 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
         }
         // Overwrite select filter with filter only returning id
         filters.add(new SelectFilter(ID));
-        return serviceRepository.getEntityService(target)
+        CollectionWrapper collection = serviceRepository.getEntityService(target)
             .getEntityCollectionByRelatedEntity(sourceId,
                                                 sourceType,
-                                                QUERY_OPTIONS_FACTORY.createQueryOptions(filters))
+                                                QUERY_OPTIONS_FACTORY.createQueryOptions(filters));
+        return validateResourceIfEmpty(lookupPath.substring(0, lookupPath.length() - 5),
+                                       collection,
+                                       this::isPossiblyEmpty)
             .setRequestURL(rootUrl + entity + "/" + target);
     }
+
+    /**
+     * Streamed collections are only read during serialization so they may be empty.
+     *
+     * @param collection collection to be checked
+     * @return true if the collection is empty or streamed
+     */
+    private boolean isPossiblyEmpty(CollectionWrapper collection) {
+        return collection.isStreamed() || collection.getEntities().isEmpty();
+    }
+
+    /**
+     * Keyset pagination via $skiptoken is only available for Observations.
+     *
+     * @param collectionName name of the requested collection
+     * @throws STACRUDException if the collection does not support $skiptoken
+     */
+    private void checkSkipTokenSupported(String collectionName) throws STACRUDException {
+        if (!StaConstants.OBSERVATIONS.equals(collectionName)) {
+            throw new STACRUDException("$skiptoken is not supported on collection: " + collectionName,
+                                       HTTPStatus.BAD_REQUEST);
+        }
+    }
 }
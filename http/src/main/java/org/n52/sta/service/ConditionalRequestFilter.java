@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service;
+
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.sta.ReplicaRoutingDataSource;
+import org.n52.sta.data.EntityVersionTracker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adds ETag and Last-Modified headers to responses of GET requests on Entities and Collections and answers
+ * conditional requests (If-None-Match, If-Modified-Since) with 304 Not Modified without accessing the database.
+ * ETags are derived from the versions of all Entity Types the response may depend on, as tracked by the
+ * {@link EntityVersionTracker}. If the request contains $expand, $filter or $orderby the response may depend on any
+ * Entity Type. Last-Modified is only sent once the second of the last change has passed, as HTTP dates cannot
+ * distinguish changes within the same second. If read replicas are configured, tagged responses are read from the
+ * primary, as a lagging replica would return outdated content under the current ETag, which clients would then keep
+ * until the next change.
+ * Note: Versions are tracked per instance. Do not enable if multiple instances write to the same database.
+ */
+@Component
+public class ConditionalRequestFilter implements Filter {
+
+    private static final String GET = "GET";
+    private static final String[] CROSS_ENTITY_OPTIONS = {"$expand", "$filter", "$orderby"};
+    private static final Map<String, String> ENTITY_TYPES = new HashMap<>();
+
+    static {
+        for (String type : EntityVersionTracker.ENTITY_TYPES) {
+            ENTITY_TYPES.put(type, type);
+        }
+        ENTITY_TYPES.put(StaConstants.THING, StaConstants.THINGS);
+        ENTITY_TYPES.put(StaConstants.LOCATION, StaConstants.LOCATIONS);
+        ENTITY_TYPES.put(StaConstants.HISTORICAL_LOCATION, StaConstants.HISTORICAL_LOCATIONS);
+        ENTITY_TYPES.put(StaConstants.SENSOR, StaConstants.SENSORS);
+        ENTITY_TYPES.put(StaConstants.DATASTREAM, StaConstants.DATASTREAMS);
+        ENTITY_TYPES.put(StaConstants.OBSERVATION, StaConstants.OBSERVATIONS);
+        ENTITY_TYPES.put(StaConstants.OBSERVED_PROPERTY, StaConstants.OBSERVED_PROPERTIES);
+        ENTITY_TYPES.put(StaConstants.FEATURE_OF_INTEREST, StaConstants.FEATURES_OF_INTEREST);
+    }
+
+    private final boolean enabled;
+    private final EntityVersionTracker versionTracker;
+    private ReplicaRoutingDataSource replicaRouting;
+
+    public ConditionalRequestFilter(@Value("${server.feature.conditionalRequests:false}") boolean enabled,
+                                    EntityVersionTracker versionTracker) {
+        this.enabled = enabled;
+        this.versionTracker = versionTracker;
+    }
+
+    @Autowired(required = false)
+    void setReplicaRouting(ReplicaRoutingDataSource replicaRouting) {
+        this.replicaRouting = replicaRouting;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+        throws IOException, ServletException {
+        if (enabled) {
+            HttpServletRequest req = (HttpServletRequest) request;
+            if (GET.equals(req.getMethod())) {
+                Collection<String> entityTypes = getEntityTypes(req);
+                if (!entityTypes.isEmpty()) {
+                    String etag = "\"" + versionTracker.getVersion(entityTypes) + "\"";
+                    long lastModified = versionTracker.getLastModified(entityTypes);
+                    ServletWebRequest webRequest = new ServletWebRequest(req, (HttpServletResponse) response);
+                    // Sets ETag and Last-Modified headers. Sets 304 if the client's copy is still valid
+                    if (isLastModifiedReliable(lastModified)
+                        ? webRequest.checkNotModified(etag, lastModified)
+                        : webRequest.checkNotModified(etag)) {
+                        return;
+                    }
+                    if (replicaRouting != null) {
+                        // Content must be at least as recent as the ETag
+                        try (ReplicaRoutingDataSource.PrimaryScope primary = replicaRouting.primary()) {
+                            chain.doFilter(request, response);
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    /**
+     * Checks whether the given modification time can be used for Last-Modified/If-Modified-Since. HTTP dates only
+     * have a resolution of one second, so a change within the same second as the last change would not be
+     * detected by a client holding a copy from that second. Until that second has passed, only the ETag is used.
+     *
+     * @param lastModified time of the last change in milliseconds since epoch
+     * @return true if no further change can fall into the same second as lastModified
+     */
+    private boolean isLastModifiedReliable(long lastModified) {
+        return System.currentTimeMillis() / 1000 > lastModified / 1000;
+    }
+
+    /**
+     * Gets all Entity Types the response to the given request may depend on.
+     *
+     * @param request request
+     * @return Entity Types. Empty if the request does not target an Entity or Collection
+     */
+    private Collection<String> getEntityTypes(HttpServletRequest request) {
+        String query = request.getQueryString();
+        Set<String> entityTypes = new HashSet<>();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String segment : path.split("/")) {
+            int bracket = segment.indexOf('(');
+            String type = ENTITY_TYPES.get(bracket == -1 ? segment : segment.substring(0, bracket));
+            if (type != null) {
+                entityTypes.add(type);
+            }
+        }
+        if (!entityTypes.isEmpty() && query != null) {
+            for (String option : CROSS_ENTITY_OPTIONS) {
+                // Options may be percent-encoded
+                if (query.contains(option) || query.contains(option.replace("$", "%24"))) {
+                    return EntityVersionTracker.ENTITY_TYPES;
+                }
+            }
+        }
+        return entityTypes;
+    }
+}
@@ -29,17 +29,25 @@
 
 package org.n52.sta.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.series.db.beans.DataEntity;
 import org.n52.series.db.beans.IdEntity;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
 import org.n52.sta.data.service.AbstractSensorThingsEntityService;
+import org.n52.sta.DaoAdmissionController.OperationClass;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.ServiceFacade;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 import org.n52.sta.serdes.util.EntityPatch;
 import org.n52.sta.utils.AbstractSTARequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -47,7 +55,11 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Handles all CUD requests (POST, PUT, DELETE)
@@ -57,6 +69,13 @@ import java.io.IOException;
 public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTARequestHandler {
 
     private static final String COULD_NOT_FIND_RELATED_ENTITY = "Could not find related Entity!";
+    private static final String INVALID_DATA_ARRAY = "Invalid dataArray request. ";
+    private static final String COMPONENTS = "components";
+    private static final String DATA_ARRAY = "dataArray";
+    private static final String COMPONENT_ID = "id";
+    private static final String COMPONENT_FEATURE_OF_INTEREST_ID = "FeatureOfInterest/id";
+    private static final String DATA_ARRAY_ERROR = "error";
+    private static final Logger LOGGER = LoggerFactory.getLogger(CudRequestHandler.class);
     private final ObjectMapper mapper;
 
     public CudRequestHandler(String rootUrl,
@@ -79,8 +98,93 @@ public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTAR
                                                        String body)
         throws IOException, STACRUDException, STAInvalidUrlException {
         Class<T> clazz = collectionNameToClass(collectionName);
-        return ((AbstractSensorThingsEntityService<T>)
-            serviceRepository.getEntityService(collectionName)).create(mapper.readValue(body, clazz));
+        return ((ServiceFacade<T>) serviceRepository.getEntityService(collectionName))
+            .create(() -> mapper.readValue(body, clazz), OperationClass.WRITE);
+    }
+
+    /**
+     * Matches POST requests on the CreateObservations resource of the DataArray Extension.
+     * Creates all Observations given in compact dataArray encoding. e.g. ../CreateObservations
+     * <p>
+     * The structure of the whole request is validated upfront, so that a malformed request is rejected before any
+     * Observation is stored. The Observations of each Datastream entry are then created within a separate
+     * transaction: either all or none of them are stored. If the Observations of an entry cannot be created, the
+     * entries created before are kept and the response contains "error" instead of a selfLink for every Observation
+     * of the failed entry, as defined by the DataArray Extension.
+     *
+     * @param body request Body. Automatically set by Spring via @RequestBody
+     * @return selfLink of each created Observation or "error", in the order of the request
+     */
+    public List<String> handlePostDataArray(String body)
+        throws IOException, STACRUDException {
+        JsonNode root = mapper.readTree(body);
+        if (!root.isArray()) {
+            throw new STACRUDException(INVALID_DATA_ARRAY + "Expected an array of Datastreams.",
+                                       HTTPStatus.BAD_REQUEST);
+        }
+        List<String> datastreamIds = new ArrayList<>();
+        List<List<ObjectNode>> entries = new ArrayList<>();
+        for (JsonNode datastreamNode : root) {
+            JsonNode datastreamId = datastreamNode.path(StaConstants.DATASTREAM).path(StaConstants.AT_IOT_ID);
+            JsonNode components = datastreamNode.path(COMPONENTS);
+            JsonNode dataArray = datastreamNode.path(DATA_ARRAY);
+            if (datastreamId.isMissingNode() || !components.isArray() || !dataArray.isArray()) {
+                throw new STACRUDException(INVALID_DATA_ARRAY + "Missing Datastream, components or dataArray.",
+                                           HTTPStatus.BAD_REQUEST);
+            }
+
+            List<ObjectNode> observations = new ArrayList<>(dataArray.size());
+            for (JsonNode row : dataArray) {
+                if (!row.isArray() || row.size() != components.size()) {
+                    throw new STACRUDException(INVALID_DATA_ARRAY + "Number of values does not match components.",
+                                               HTTPStatus.BAD_REQUEST);
+                }
+                ObjectNode observation = mapper.createObjectNode();
+                observation.putObject(StaConstants.DATASTREAM).set(StaConstants.AT_IOT_ID, datastreamId);
+                for (int i = 0; i < components.size(); i++) {
+                    String component = components.get(i).asText();
+                    switch (component) {
+                        case COMPONENT_ID:
+                            observation.set(StaConstants.AT_IOT_ID, row.get(i));
+                            break;
+                        case COMPONENT_FEATURE_OF_INTEREST_ID:
+                            observation.putObject(StaConstants.FEATURE_OF_INTEREST)
+                                .set(StaConstants.AT_IOT_ID, row.get(i));
+                            break;
+                        default:
+                            observation.set(component, row.get(i));
+                    }
+                }
+                observations.add(observation);
+            }
+            datastreamIds.add(datastreamId.asText());
+            entries.add(observations);
+        }
+
+        List<String> selfLinks = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            List<ObjectNode> observations = entries.get(i);
+            try {
+                // Observations are deserialized again if the batch is retried
+                for (DataEntity<?> created : serviceRepository.getObservationService()
+                    .createBatch(datastreamIds.get(i), () -> deserializeObservations(observations))) {
+                    selfLinks.add(rootUrl + StaConstants.OBSERVATIONS + "(" + created.getStaIdentifier() + ")");
+                }
+            } catch (STACRUDException | IOException | RuntimeException e) {
+                // Any failure only affects the Observations of this entry, e.g. a constraint violation
+                LOGGER.debug("Could not create Observations of Datastream {}", datastreamIds.get(i), e);
+                selfLinks.addAll(Collections.nCopies(observations.size(), DATA_ARRAY_ERROR));
+            }
+        }
+        return selfLinks;
+    }
+
+    private List<DataEntity<?>> deserializeObservations(List<ObjectNode> observations) throws IOException {
+        List<DataEntity<?>> entities = new ArrayList<>(observations.size());
+        for (ObjectNode observation : observations) {
+            entities.add(mapper.treeToValue(observation, DataEntity.class));
+        }
+        return entities;
     }
 
     /**
@@ -110,8 +214,9 @@ public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTAR
         jsonBody.put(REFERENCED_FROM_ID, sourceId);
 
         Class<T> clazz = collectionNameToClass(target);
-        return ((AbstractSensorThingsEntityService<T>)
-            serviceRepository.getEntityService(target)).create(mapper.readValue(jsonBody.toString(), clazz));
+        String payload = jsonBody.toString();
+        return ((ServiceFacade<T>) serviceRepository.getEntityService(target))
+            .create(() -> mapper.readValue(payload, clazz), OperationClass.WRITE);
     }
 
     /**
@@ -185,19 +290,25 @@ public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTAR
     /**
      * Matches all DELETE requests on Entities referenced directly via id
      * e.g. ../Datastreams(52)
+     * Answers with 202 Accepted if the deletion was only scheduled and is run in the background. The Location header
+     * then references the status of the deletion.
      *
      * @param collectionName name of entity. Automatically set by Spring via @PathVariable
      * @param id             id of entity. Automatically set by Spring via @PathVariable
      * @param request        full request
+     * @param response       response
      */
     public Object handleDelete(String collectionName,
                                String id,
-                               HttpServletRequest request)
+                               HttpServletRequest request,
+                               HttpServletResponse response)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
         validateResource(lookupPath, serviceRepository);
-        serviceRepository.getEntityService(collectionName).delete(
-            unescapeIdIfWanted(id.substring(1, id.length() - 1)));
+        AbstractSensorThingsEntityService<?> entityService = serviceRepository.getEntityService(collectionName);
+        String entityId = unescapeIdIfWanted(id.substring(1, id.length() - 1));
+        entityService.delete(entityId);
+        setDeleteStatus(entityService, entityId, response);
         return null;
     }
 
@@ -205,15 +316,17 @@ public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTAR
      * Matches all DELETE requests on Entities referenced via association with different Entity.
      * e.g. /Datastreams(1)/Sensor
      *
-     * @param entity  identifier of related. Automatically set by Spring via @PathVariable
-     * @param target  name of entity. Automatically set by Spring via @PathVariable
-     * @param request full request
+     * @param entity   identifier of related. Automatically set by Spring via @PathVariable
+     * @param target   name of entity. Automatically set by Spring via @PathVariable
+     * @param request  full request
+     * @param response response
      */
     @SuppressWarnings("unchecked")
     public Object handleRelatedDelete(String entity,
                                       String target,
                                       String body,
-                                      HttpServletRequest request)
+                                      HttpServletRequest request,
+                                      HttpServletResponse response)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
         validateResource(lookupPath, serviceRepository);
@@ -230,6 +343,18 @@ public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTAR
 
         // Do update
         entityService.delete(entityId);
+        setDeleteStatus(entityService, entityId, response);
         return null;
     }
+
+    private void setDeleteStatus(AbstractSensorThingsEntityService<?> entityService,
+                                 String id,
+                                 HttpServletResponse response) {
+        if (entityService.isDeletedInBackground()) {
+            // Entity is still visible until the deletion has finished
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            response.setHeader(HttpHeaders.LOCATION,
+                               DeleteJobRequestHandler.getJobUrl(rootUrl, entityService.getDeleteJobKey(id)));
+        }
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.data.service.CascadeDeleter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Provides the status of deletions run in the background and allows to cancel them
+ * e.g. /DeleteJobs?entity=Things(1)
+ * <p>
+ * The entity is given as query parameter, so that requests on this resource are not mistaken for requests on the
+ * entity itself.
+ */
+@RestController
+@ConditionalOnProperty(value = "server.feature.httpReadOnly", havingValue = "false", matchIfMissing = true)
+public class DeleteJobRequestHandler {
+
+    private static final String DELETE_JOBS = "DeleteJobs";
+    private static final String ENTITY = "entity";
+    private static final String NO_DELETION = "No deletion of %s is scheduled, running or recently completed.";
+    private static final String ALREADY_COMPLETED = "Deletion of %s has already completed.";
+
+    private final String rootUrl;
+    private final CascadeDeleter cascadeDeleter;
+    private final ObjectMapper mapper;
+
+    public DeleteJobRequestHandler(@Value("${server.rootUrl}") String rootUrl,
+                                   CascadeDeleter cascadeDeleter,
+                                   ObjectMapper mapper) {
+        this.rootUrl = rootUrl;
+        this.cascadeDeleter = cascadeDeleter;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Provides the URL of the status of the given deletion.
+     *
+     * @param rootUrl root URL of the service
+     * @param key     key of the deletion, e.g. Things(1)
+     * @return URL of the status
+     */
+    public static String getJobUrl(String rootUrl, String key) {
+        return rootUrl + DELETE_JOBS + "?" + ENTITY + "=" + UriUtils.encodeQueryParam(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Matches the request to all deletions that are scheduled, running or recently completed
+     * e.g. /DeleteJobs
+     */
+    @GetMapping(
+        value = "/" + DELETE_JOBS,
+        params = "!" + ENTITY,
+        produces = "application/json"
+    )
+    public String getJobs() {
+        ObjectNode node = mapper.createObjectNode();
+        ArrayNode jobs = node.putArray("value");
+        cascadeDeleter.getJobs().forEach(job -> jobs.add(toJson(job)));
+        return node.toString();
+    }
+
+    /**
+     * Matches the request to the status of a single deletion
+     * e.g. /DeleteJobs?entity=Things(1)
+     *
+     * @param entity entity being deleted. Automatically set by Spring via @RequestParam
+     */
+    @GetMapping(
+        value = "/" + DELETE_JOBS,
+        params = ENTITY,
+        produces = "application/json"
+    )
+    public String getJob(@RequestParam(ENTITY) String entity) throws STACRUDException {
+        return toJson(findJob(entity)).toString();
+    }
+
+    /**
+     * Cancels a running deletion. Observations deleted so far stay deleted, the entity itself is kept.
+     * e.g. DELETE /DeleteJobs?entity=Things(1)
+     *
+     * @param entity entity being deleted. Automatically set by Spring via @RequestParam
+     */
+    @DeleteMapping(
+        value = "/" + DELETE_JOBS,
+        params = ENTITY,
+        produces = "application/json"
+    )
+    public String cancelJob(@RequestParam(ENTITY) String entity) throws STACRUDException {
+        CascadeDeleter.Job job = findJob(entity);
+        if (!cascadeDeleter.cancel(job.getKey())) {
+            throw new STACRUDException(String.format(ALREADY_COMPLETED, entity), HTTPStatus.CONFLICT);
+        }
+        return toJson(job).toString();
+    }
+
+    private CascadeDeleter.Job findJob(String entity) throws STACRUDException {
+        CascadeDeleter.Job job = cascadeDeleter.getJob(entity);
+        if (job == null) {
+            throw new STACRUDException(String.format(NO_DELETION, entity), HTTPStatus.NOT_FOUND);
+        }
+        return job;
+    }
+
+    private ObjectNode toJson(CascadeDeleter.Job job) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("selfLink", getJobUrl(rootUrl, job.getKey()));
+        node.put(ENTITY, job.getKey());
+        node.put("state", job.getState().name());
+        node.put("cancelled", job.isCancelled());
+        node.put("deleted", job.getDeleted());
+        node.put("total", job.getTotal());
+        if (job.getMessage() != null) {
+            node.put("message", job.getMessage());
+        }
+        return node;
+    }
+}
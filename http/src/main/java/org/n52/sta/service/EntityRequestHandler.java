@@ -39,6 +39,7 @@ import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.HashSet;
+import java.util.Objects;
 
 /**
  * Handles all requests to Entities and to Entity association links
@@ -112,18 +113,19 @@ public abstract class EntityRequestHandler extends AbstractSTARequestHandler {
                                                         HttpServletRequest request)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
-        validateResource(lookupPath, serviceRepository);
 
         String[] split = splitId(entity);
         String sourceType = split[0];
         String sourceId = split[1];
 
         QueryOptions options = decodeQueryString(request);
-        return serviceRepository.getEntityService(target)
-            .getEntityByRelatedEntity(sourceId,
-                                      sourceType,
-                                      null,
-                                      options);
+        return validateResourceIfEmpty(lookupPath,
+                                       serviceRepository.getEntityService(target)
+                                           .getEntityByRelatedEntity(sourceId,
+                                                                     sourceType,
+                                                                     null,
+                                                                     options),
+                                       Objects::isNull);
     }
 
     /**
@@ -140,7 +142,6 @@ public abstract class EntityRequestHandler extends AbstractSTARequestHandler {
                                                            HttpServletRequest request)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
-        validateResource(lookupPath.substring(0, lookupPath.length() - 5), serviceRepository);
 
         String[] split = splitId(entity);
         String sourceType = split[0];
@@ -149,10 +150,12 @@ public abstract class EntityRequestHandler extends AbstractSTARequestHandler {
         HashSet<FilterClause> filters = new HashSet<>();
         // Overwrite select filter with filter only returning id
         filters.add(new SelectFilter(ID));
-        return serviceRepository.getEntityService(target)
-            .getEntityByRelatedEntity(sourceId,
-                                      sourceType,
-                                      null,
-                                      QUERY_OPTIONS_FACTORY.createQueryOptions(filters));
+        return validateResourceIfEmpty(lookupPath.substring(0, lookupPath.length() - 5),
+                                       serviceRepository.getEntityService(target)
+                                           .getEntityByRelatedEntity(sourceId,
+                                                                     sourceType,
+                                                                     null,
+                                                                     QUERY_OPTIONS_FACTORY.createQueryOptions(filters)),
+                                       Objects::isNull);
     }
 }
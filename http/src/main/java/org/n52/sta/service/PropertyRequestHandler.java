@@ -39,6 +39,7 @@ import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.HashSet;
+import java.util.Objects;
 
 /**
  * Handles all requests to Entity Properties
@@ -118,9 +119,6 @@ public abstract class PropertyRequestHandler extends AbstractSTARequestHandler {
                                                               String target,
                                                               String property,
                                                               String url) throws Exception {
-        validateResource(url.substring(0, url.length() - property.length() - 1),
-                         serviceRepository);
-
         String[] split = splitId(entity);
         String sourceType = split[0];
         String sourceId = split[1];
@@ -130,11 +128,13 @@ public abstract class PropertyRequestHandler extends AbstractSTARequestHandler {
         // Add select filter with filter only returning property
         filters.add(new SelectFilter(property));
 
-        return serviceRepository.getEntityService(target)
-            .getEntityByRelatedEntity(sourceId,
-                                      sourceType,
-                                      null,
-                                      QUERY_OPTIONS_FACTORY.createQueryOptions(filters));
+        return validateResourceIfEmpty(url.substring(0, url.length() - property.length() - 1),
+                                       serviceRepository.getEntityService(target)
+                                           .getEntityByRelatedEntity(sourceId,
+                                                                     sourceType,
+                                                                     null,
+                                                                     QUERY_OPTIONS_FACTORY.createQueryOptions(filters)),
+                                       Objects::isNull);
     }
 
     /**
@@ -47,7 +47,9 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Handles all CUD requests (POST, PUT, DELETE)
@@ -75,6 +77,15 @@ public class CoreCudRequestHandler<T extends IdEntity> extends CudRequestHandler
         return super.handlePostDirect(collectionName, body);
     }
 
+    @PostMapping(
+        consumes = "application/json",
+        value = "/CreateObservations",
+        produces = "application/json")
+    public List<String> handlePostDataArray(@RequestBody String body)
+        throws IOException, STACRUDException {
+        return super.handlePostDataArray(body);
+    }
+
     @PostMapping(
         value = {
             MAPPING_PREFIX + CoreRequestUtils.COLLECTION_IDENTIFIED_BY_THING_PATH_VARIABLE,
@@ -129,9 +140,10 @@ public class CoreCudRequestHandler<T extends IdEntity> extends CudRequestHandler
     )
     public Object handleDelete(@PathVariable String collectionName,
                                @PathVariable String id,
-                               HttpServletRequest request)
+                               HttpServletRequest request,
+                               HttpServletResponse response)
         throws Exception {
-        return super.handleDelete(collectionName, id, request);
+        return super.handleDelete(collectionName, id, request, response);
     }
 
     @DeleteMapping(
@@ -145,8 +157,9 @@ public class CoreCudRequestHandler<T extends IdEntity> extends CudRequestHandler
     public Object handleRelatedDelete(@PathVariable String entity,
                                       @PathVariable String target,
                                       @RequestBody String body,
-                                      HttpServletRequest request)
+                                      HttpServletRequest request,
+                                      HttpServletResponse response)
         throws Exception {
-        return super.handleRelatedDelete(entity, target, body, request);
+        return super.handleRelatedDelete(entity, target, body, request, response);
     }
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.n52.series.db.beans.HibernateRelations;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Propagates Create/Update Events between multiple instances sharing a database, so that MQTT subscribers connected
+ * to any instance are notified about entities written by any other instance. Uses PostgreSQL LISTEN/NOTIFY:
+ * Events are sent with pg_notify from within the writing transaction, so they are only delivered if the transaction
+ * commits and are delivered in commit order. Events only carry type and id of the entity (plus changed properties
+ * and related collections); receiving instances load the entity from the database.
+ * Events sent by this instance are ignored when received, as they were already handled locally. Events received more
+ * than once are dropped. Events sent while the listening connection is lost are not received.
+ */
+@Component
+public class MqttClusterEventBus implements MetricsSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttClusterEventBus.class);
+    private static final String THREAD_NAME = "mqtt-cluster-listener";
+    private static final String NOTIFY = "select 1 from pg_notify(:channel, :payload)";
+    private static final Pattern CHANNEL_PATTERN = Pattern.compile("[a-z_][a-z0-9_]*");
+    // PostgreSQL rejects notifications with a payload of 8000 bytes or more
+    private static final int MAX_PAYLOAD_BYTES = 7999;
+    private static final int POLL_TIMEOUT = 1000;
+    private static final long RECONNECT_DELAY = 5000;
+
+    private static final String NODE = "n";
+    private static final String SEQUENCE = "s";
+    private static final String TYPE = "t";
+    private static final String ID = "i";
+    private static final String DIFFERENCE = "d";
+    private static final String RELATED = "r";
+
+    private final boolean enabled;
+    private final String channel;
+    private final DataSource dataSource;
+    private final EntityManager em;
+    private final ObjectMapper mapper;
+
+    // Identifies events sent by this instance
+    private final String node = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    /*
+     * Ids of recently received events. Used to drop duplicates. Access-ordered, so the least recently received
+     * event is evicted first. Only accessed by the listener thread.
+     */
+    private final Map<String, Boolean> received;
+
+    private final Metrics metrics = new Metrics("mqttCluster");
+    private final AtomicLong sent = metrics.counter("sent");
+    private final AtomicLong oversized = metrics.counter("oversized");
+    private final AtomicLong accepted = metrics.counter("accepted");
+    private final AtomicLong duplicates = metrics.counter("duplicates");
+    private final AtomicLong failed = metrics.counter("failed");
+
+    private Thread listener;
+    private volatile boolean running;
+
+    public MqttClusterEventBus(@Value("${mqtt.cluster.enabled:false}") boolean enabled,
+                               @Value("${mqtt.cluster.channel:sta_events}") String channel,
+                               @Value("${mqtt.cluster.dedup-size:10000}") int dedupSize,
+                               DataSource dataSource,
+                               EntityManager em,
+                               ObjectMapper mapper) {
+        if (!CHANNEL_PATTERN.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Invalid mqtt.cluster.channel: " + channel);
+        }
+        this.enabled = enabled;
+        this.channel = channel;
+        this.dataSource = dataSource;
+        this.em = em;
+        this.mapper = mapper;
+        this.received = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = -3870519427431457532L;
+
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > dedupSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts listening for events sent by other instances. Each event is passed to the given consumer on the
+     * listener thread in the order the writing transactions committed.
+     *
+     * @param consumer handles a single event
+     */
+    public synchronized void start(Consumer<RemoteEvent> consumer) {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        listener = new Thread(() -> listen(consumer), THREAD_NAME);
+        listener.setDaemon(true);
+        listener.start();
+        LOGGER.debug("Listening for cluster events on channel {} as node {}.", channel, node);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    /**
+     * Sends an event to all other instances. Must be called from within the writing transaction.
+     *
+     * @param entity             base entity
+     * @param entityType         type of entity
+     * @param differenceMap      names of properties that changed. null if all properties changed
+     * @param relatedCollections related collections
+     */
+    public void send(Object entity,
+                     String entityType,
+                     Set<String> differenceMap,
+                     Map<String, Set<String>> relatedCollections) {
+        if (!enabled || !(entity instanceof HibernateRelations.HasStaIdentifier)) {
+            return;
+        }
+        ObjectNode event = mapper.createObjectNode();
+        event.put(NODE, node);
+        event.put(SEQUENCE, sequence.incrementAndGet());
+        event.put(TYPE, entityType);
+        event.put(ID, ((HibernateRelations.HasStaIdentifier) entity).getStaIdentifier());
+        if (differenceMap != null) {
+            ArrayNode difference = event.putArray(DIFFERENCE);
+            differenceMap.forEach(difference::add);
+        }
+        if (relatedCollections != null) {
+            ObjectNode related = event.putObject(RELATED);
+            relatedCollections.forEach((collection, ids) -> {
+                ArrayNode array = related.putArray(collection);
+                ids.forEach(array::add);
+            });
+        }
+        String payload = event.toString();
+        if (payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES) {
+            // Subscriptions on related collections will not match on other instances
+            event.remove(RELATED);
+            payload = event.toString();
+            oversized.incrementAndGet();
+            LOGGER.warn("Cluster event for {} exceeds maximum size. Dropped related collections.", entityType);
+        }
+        em.createNativeQuery(NOTIFY)
+            .setParameter("channel", channel)
+            .setParameter("payload", payload)
+            .getSingleResult();
+        sent.incrementAndGet();
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private void listen(Consumer<RemoteEvent> consumer) {
+        while (running) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + channel);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            receive(notification.getParameter(), consumer);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                // Events sent while reconnecting are lost
+                LOGGER.error("Lost connection while listening for cluster events: {}. Reconnecting in {} ms.",
+                             e.getMessage(),
+                             RECONNECT_DELAY);
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receive(String payload, Consumer<RemoteEvent> consumer) {
+        try {
+            JsonNode event = mapper.readTree(payload);
+            String sender = event.path(NODE).asText();
+            if (node.equals(sender)) {
+                return;
+            }
+            if (received.put(sender + ":" + event.path(SEQUENCE).asLong(), Boolean.TRUE) != null) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            Set<String> differenceMap = null;
+            if (event.has(DIFFERENCE)) {
+                differenceMap = new HashSet<>();
+                for (JsonNode property : event.get(DIFFERENCE)) {
+                    differenceMap.add(property.asText());
+                }
+            }
+            Map<String, Set<String>> relatedCollections = null;
+            if (event.has(RELATED)) {
+                relatedCollections = new HashMap<>();
+                Iterator<Map.Entry<String, JsonNode>> fields = event.get(RELATED).fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    Set<String> ids = new HashSet<>();
+                    field.getValue().forEach(id -> ids.add(id.asText()));
+                    relatedCollections.put(field.getKey(), ids);
+                }
+            }
+            accepted.incrementAndGet();
+            consumer.accept(new RemoteEvent(event.path(TYPE).asText(),
+                                            event.path(ID).asText(),
+                                            differenceMap,
+                                            relatedCollections));
+        } catch (JsonProcessingException e) {
+            failed.incrementAndGet();
+            LOGGER.error("Could not parse cluster event: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.error("Error while handling cluster event: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Create/Update Event received from another instance.
+     */
+    public static final class RemoteEvent {
+
+        private final String entityType;
+        private final String staIdentifier;
+        private final Set<String> differenceMap;
+        private final Map<String, Set<String>> relatedCollections;
+
+        RemoteEvent(String entityType,
+                    String staIdentifier,
+                    Set<String> differenceMap,
+                    Map<String, Set<String>> relatedCollections) {
+            this.entityType = entityType;
+            this.staIdentifier = staIdentifier;
+            this.differenceMap = differenceMap;
+            this.relatedCollections = relatedCollections;
+        }
+
+        public String getEntityType() {
+            return entityType;
+        }
+
+        public String getStaIdentifier() {
+            return staIdentifier;
+        }
+
+        public Set<String> getDifferenceMap() {
+            return differenceMap;
+        }
+
+        public Map<String, Set<String>> getRelatedCollections() {
+            return relatedCollections;
+        }
+    }
+}
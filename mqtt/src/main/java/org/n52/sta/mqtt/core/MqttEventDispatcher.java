@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core;
+
+import org.n52.series.db.beans.HibernateRelations;
+import org.n52.sta.utils.Metrics;
+import org.n52.sta.utils.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Decouples the database write path from MQTT fan-out. Events are put into a bounded queue and processed by a fixed
+ * number of worker threads. What happens when the queue is full is controlled per Entity Type by a
+ * {@link OverflowPolicy}.
+ */
+@Component
+public class MqttEventDispatcher implements MetricsSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttEventDispatcher.class);
+    private static final String THREAD_NAME = "mqtt-fanout-";
+
+    private final BlockingQueue<Event> queue;
+    private final int threads;
+    private final long blockTimeout;
+    private final OverflowPolicy defaultPolicy;
+    private final Map<String, OverflowPolicy> policies = new HashMap<>();
+
+    /*
+     * Events with policy COALESCE that are currently waiting in the queue. Keyed by Entity Type and Identifier.
+     */
+    private final Map<String, Event> pending = new ConcurrentHashMap<>();
+    private Thread[] workers;
+    private volatile boolean running;
+
+    private final Metrics metrics = new Metrics("mqttFanout");
+    private final AtomicLong enqueued = metrics.counter("enqueued");
+    private final AtomicLong dropped = metrics.counter("dropped");
+    private final AtomicLong coalesced = metrics.counter("coalesced");
+    private final AtomicLong processed = metrics.counter("processed");
+    private final AtomicLong failed = metrics.counter("failed");
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public MqttEventDispatcher(@Value("${mqtt.fanout.threads:2}") int threads,
+                               @Value("${mqtt.fanout.queue:10000}") int capacity,
+                               @Value("${mqtt.fanout.block-timeout:5000}") long blockTimeout,
+                               @Value("${mqtt.fanout.policy:BLOCK}") String defaultPolicy,
+                               @Value("${mqtt.fanout.policy-overrides:}") String policyOverrides) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.threads = threads;
+        this.blockTimeout = blockTimeout;
+        this.defaultPolicy = OverflowPolicy.valueOf(defaultPolicy.trim().toUpperCase());
+        for (String override : policyOverrides.split(",")) {
+            if (!override.trim().isEmpty()) {
+                String[] split = override.split(":");
+                if (split.length != 2) {
+                    throw new IllegalArgumentException("Invalid mqtt.fanout.policy-overrides entry: " + override);
+                }
+                policies.put(split[0].trim(), OverflowPolicy.valueOf(split[1].trim().toUpperCase()));
+            }
+        }
+        metrics.gauge("queueDepth", queue::size);
+        metrics.gauge("maxQueueDepth", maxQueueDepth::get);
+        metrics.gauge("averageLatencyMicros", () -> {
+            long count = processed.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos.get() / count);
+        });
+        metrics.gauge("maxLatencyMicros", () -> TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get()));
+    }
+
+    /**
+     * Starts the worker threads. Each event is passed to the given publisher on one of the worker threads.
+     *
+     * @param publisher handles a single event
+     */
+    public synchronized void start(Consumer<Event> publisher) {
+        if (running) {
+            return;
+        }
+        running = true;
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> work(publisher), THREAD_NAME + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        LOGGER.debug("Started {} MQTT fan-out workers.", threads);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (workers != null) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Submits an event for fan-out. Depending on the {@link OverflowPolicy} of the entityType this may block the
+     * calling thread if the queue is full.
+     *
+     * @param entity             base entity
+     * @param entityType         type of entity
+     * @param differenceMap      names of properties that changed. null if all properties changed
+     * @param relatedCollections related collections
+     */
+    public void submit(Object entity,
+                       String entityType,
+                       Set<String> differenceMap,
+                       Map<String, Set<String>> relatedCollections) {
+        Event event = new Event(entity, entityType, differenceMap, relatedCollections);
+        OverflowPolicy policy = policies.getOrDefault(entityType, defaultPolicy);
+        if (policy == OverflowPolicy.COALESCE) {
+            String key = getCoalesceKey(entity, entityType);
+            if (key != null) {
+                event.key = key;
+                Event queued = pending.compute(key, (k, existing) -> existing == null ? event : existing.merge(event));
+                if (queued != event) {
+                    // Merged into an event that is still waiting in the queue
+                    coalesced.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        boolean accepted;
+        if (policy == OverflowPolicy.DROP) {
+            accepted = queue.offer(event);
+        } else {
+            try {
+                accepted = queue.offer(event, blockTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                accepted = false;
+            }
+        }
+
+        if (accepted) {
+            enqueued.incrementAndGet();
+            maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        } else {
+            if (event.key != null) {
+                pending.remove(event.key, event);
+            }
+            dropped.incrementAndGet();
+            LOGGER.warn("MQTT fan-out queue is full. Dropped event for {}.", entityType);
+        }
+    }
+
+    @Override public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private void work(Consumer<Event> publisher) {
+        while (running) {
+            Event event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (event.key != null) {
+                // Later events for this entity must be queued again
+                pending.remove(event.key, event);
+            }
+            try {
+                publisher.accept(event);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                LOGGER.error("Error while publishing MQTT event for {}: {}", event.entityType, e.getMessage());
+            }
+            long latency = System.nanoTime() - event.created;
+            processed.incrementAndGet();
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    private String getCoalesceKey(Object entity, String entityType) {
+        if (entity instanceof HibernateRelations.HasStaIdentifier
+            && ((HibernateRelations.HasStaIdentifier) entity).getStaIdentifier() != null) {
+            return entityType + "/" + ((HibernateRelations.HasStaIdentifier) entity).getStaIdentifier();
+        }
+        return null;
+    }
+
+    /**
+     * Behaviour when the fan-out queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the writing thread until there is space in the queue (up to mqtt.fanout.block-timeout)
+         */
+        BLOCK,
+        /**
+         * Drop the event
+         */
+        DROP,
+        /**
+         * Merge with a not-yet-published event for the same entity. Blocks like BLOCK if there is none.
+         */
+        COALESCE
+    }
+
+    /**
+     * Single Create/Update Event waiting for fan-out.
+     */
+    public static final class Event {
+
+        private final long created = System.nanoTime();
+        private final String entityType;
+        private Object entity;
+        private Set<String> differenceMap;
+        private Map<String, Set<String>> relatedCollections;
+        private String key;
+
+        Event(Object entity,
+              String entityType,
+              Set<String> differenceMap,
+              Map<String, Set<String>> relatedCollections) {
+            this.entity = entity;
+            this.entityType = entityType;
+            this.differenceMap = differenceMap;
+            this.relatedCollections = relatedCollections;
+        }
+
+        /**
+         * Merges a newer event for the same entity into this event. Only called from within pending.compute(). The
+         * worker removes this event from pending before reading it, so it always sees the merged state.
+         *
+         * @param newer newer event
+         * @return this event
+         */
+        private Event merge(Event newer) {
+            entity = newer.entity;
+            // null means all properties changed
+            if (differenceMap != null && newer.differenceMap != null) {
+                Set<String> merged = new HashSet<>(differenceMap);
+                merged.addAll(newer.differenceMap);
+                differenceMap = merged;
+            } else {
+                differenceMap = null;
+            }
+            if (newer.relatedCollections != null) {
+                Map<String, Set<String>> merged = new HashMap<>();
+                if (relatedCollections != null) {
+                    relatedCollections.forEach((k, v) -> merged.put(k, new HashSet<>(v)));
+                }
+                newer.relatedCollections.forEach((k, v) -> merged.computeIfAbsent(k, c -> new HashSet<>())
+                                                                 .addAll(v));
+                relatedCollections = merged;
+            }
+            return this;
+        }
+
+        public Object getEntity() {
+            return entity;
+        }
+
+        public String getEntityType() {
+            return entityType;
+        }
+
+        public Set<String> getDifferenceMap() {
+            return differenceMap;
+        }
+
+        public Map<String, Set<String>> getRelatedCollections() {
+            return relatedCollections;
+        }
+    }
+}
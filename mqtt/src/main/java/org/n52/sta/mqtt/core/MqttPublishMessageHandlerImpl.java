@@ -35,8 +35,9 @@ import io.moquette.interception.messages.InterceptPublishMessage;
 import org.n52.series.db.beans.IdEntity;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
-import org.n52.sta.data.service.AbstractSensorThingsEntityService;
+import org.n52.sta.DaoAdmissionController;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.ServiceFacade;
 import org.n52.sta.mqtt.MqttHandlerException;
 import org.n52.sta.utils.AbstractSTARequestHandler;
 import org.n52.sta.utils.CoreRequestUtils;
@@ -146,8 +147,9 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
                 }
 
                 Class<T> clazz = collectionNameToClass(collection);
-                ((AbstractSensorThingsEntityService<T>) serviceRepository.getEntityService(collection))
-                    .create(mapper.readValue(payload, clazz));
+                String entity = payload;
+                ((ServiceFacade<T>) serviceRepository.getEntityService(collection))
+                    .create(() -> mapper.readValue(entity, clazz), DaoAdmissionController.OperationClass.MQTT_INGEST);
             } else {
                 throw new STAInvalidUrlException("Topic does not reference a Collection allowed for POSTing via mqtt");
             }
@@ -42,6 +42,9 @@ import io.netty.handler.codec.mqtt.MqttPublishMessage;
 import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
 import io.netty.handler.codec.mqtt.MqttQoS;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.ReplicaRoutingDataSource;
 import org.n52.sta.data.service.EntityServiceRepository;
 import org.n52.sta.mqtt.MqttHandlerException;
 import org.n52.sta.mqtt.core.subscription.AbstractMqttSubscription;
@@ -49,19 +52,24 @@ import org.n52.sta.mqtt.core.subscription.MqttEntityCollectionSubscription;
 import org.n52.sta.mqtt.core.subscription.MqttEntitySubscription;
 import org.n52.sta.mqtt.core.subscription.MqttPropertySubscription;
 import org.n52.sta.mqtt.core.subscription.MqttSelectSubscription;
+import org.n52.sta.mqtt.core.subscription.MqttSubscriptionIndex;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 import org.n52.sta.utils.AbstractSTARequestHandler;
 import org.n52.sta.utils.CoreRequestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -74,6 +82,16 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
 
     private static final String BASE_URL = "";
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttSubscriptionEventHandlerImpl.class);
+    // Events for all Entity Types need to be sent to other instances
+    private static final Set<String> ALL_ENTITY_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        StaConstants.THINGS,
+        StaConstants.LOCATIONS,
+        StaConstants.HISTORICAL_LOCATIONS,
+        StaConstants.SENSORS,
+        StaConstants.DATASTREAMS,
+        StaConstants.OBSERVATIONS,
+        StaConstants.OBSERVED_PROPERTIES,
+        StaConstants.FEATURES_OF_INTEREST)));
     private final MqttFixedHeader mqttFixedHeader = new MqttFixedHeader(
         MqttMessageType.PUBLISH,
         false,
@@ -83,29 +101,117 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
 
     private final MqttUtil config;
     private final ObjectMapper mapper;
+    private final MqttEventDispatcher dispatcher;
+    private final MqttClusterEventBus clusterEventBus;
     private EntityServiceRepository serviceRepository;
     private Server mqttBroker;
-    private Map<AbstractMqttSubscription, HashSet<String>> subscriptions = new HashMap<>();
+    private ReplicaRoutingDataSource replicaRouting;
     /*
-     * List of all Entity Types that are currently subscribed to. Used for fail-fast.
+     * Clients subscribed to each subscription. Only modified while holding subscriptionLock.
      */
-    private Set<String> watchedEntityTypes = new HashSet<>();
+    private final Map<AbstractMqttSubscription, Set<String>> subscriptions = new ConcurrentHashMap<>();
+    /*
+     * Index of all subscriptions. Used to only check subscriptions that may match an entity.
+     */
+    private final MqttSubscriptionIndex subscriptionIndex = new MqttSubscriptionIndex();
+    /*
+     * Number of subscriptions per Entity Type that is currently subscribed to. Used for fail-fast.
+     * Only modified while holding subscriptionLock.
+     */
+    private final Map<String, Integer> watchedEntityTypes = new ConcurrentHashMap<>();
+    private final Object subscriptionLock = new Object();
 
     public MqttSubscriptionEventHandlerImpl(@Value("${server.rootUrl}") String rootUrl,
                                             @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
                                             MqttUtil config,
-                                            ObjectMapper mapper) {
+                                            ObjectMapper mapper,
+                                            MqttEventDispatcher dispatcher,
+                                            MqttClusterEventBus clusterEventBus) {
         super(rootUrl, shouldEscapeId, null);
         this.config = config;
         this.mapper = mapper;
+        this.dispatcher = dispatcher;
+        this.clusterEventBus = clusterEventBus;
+    }
+
+    @Autowired(required = false)
+    void setReplicaRouting(ReplicaRoutingDataSource replicaRouting) {
+        this.replicaRouting = replicaRouting;
+    }
+
+    @PostConstruct
+    public void init() {
+        dispatcher.start(event -> publish(event.getEntity(),
+                                          event.getEntityType(),
+                                          event.getDifferenceMap(),
+                                          event.getRelatedCollections()));
+        clusterEventBus.start(this::handleRemoteEvent);
     }
 
     @Override
-    @Async
     public void handleEvent(Object rawObject,
                             String entityType,
                             Set<String> differenceMap,
                             Map<String, Set<String>> collections) {
+        clusterEventBus.send(rawObject, entityType, differenceMap, collections);
+        if (watchedEntityTypes.containsKey(entityType)) {
+            dispatcher.submit(rawObject, entityType, differenceMap, collections);
+        }
+    }
+
+    /**
+     * Handles an event sent by another instance. Loads the entity from the database and publishes it to all
+     * matching local subscriptions. The entity is loaded from the primary, as the other instance committed it there
+     * and a replica may not have received it yet.
+     *
+     * @param event event received from another instance
+     */
+    void handleRemoteEvent(MqttClusterEventBus.RemoteEvent event) {
+        if (!watchedEntityTypes.containsKey(event.getEntityType())) {
+            return;
+        }
+        try {
+            ElementWithQueryOptions<?> entity = loadRemoteEntity(event);
+            if (entity != null) {
+                dispatcher.submit(entity.getEntity(),
+                                  event.getEntityType(),
+                                  event.getDifferenceMap(),
+                                  event.getRelatedCollections());
+            }
+        } catch (STACRUDException e) {
+            // Entity may have been deleted in the meantime
+            LOGGER.debug("Could not load {}({}) for cluster event: {}",
+                         event.getEntityType(),
+                         event.getStaIdentifier(),
+                         e.getMessage());
+        }
+    }
+
+    private ElementWithQueryOptions<?> loadRemoteEntity(MqttClusterEventBus.RemoteEvent event)
+        throws STACRUDException {
+        if (replicaRouting == null) {
+            return serviceRepository.getEntityService(event.getEntityType())
+                .getEntity(event.getStaIdentifier(), QUERY_OPTIONS_FACTORY.createDummy());
+        }
+        try (ReplicaRoutingDataSource.PrimaryScope primary = replicaRouting.primary()) {
+            return serviceRepository.getEntityService(event.getEntityType())
+                .getEntity(event.getStaIdentifier(), QUERY_OPTIONS_FACTORY.createDummy());
+        }
+    }
+
+    /**
+     * Publishes the given entity to all matching subscriptions. Called by the worker threads of the
+     * {@link MqttEventDispatcher}.
+     *
+     * @param rawObject     base entity
+     * @param entityType    type of entity
+     * @param differenceMap names of properties that changed. null if all properties changed
+     * @param collections   related collections
+     */
+    void publish(Object rawObject,
+                 String entityType,
+                 Set<String> differenceMap,
+                 Map<String, Set<String>> collections) {
         try {
             // Invariant: As watchedEntityTypes contains rawObject->class
             // there is at least one subscription that matches.
@@ -114,8 +220,10 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
             // Multiple serializations may be necessary due to different select clauses.
             Map<QueryOptions, ByteBuf> serializedCache = new HashMap<>();
 
-            // Check all subscriptions for a match
-            for (AbstractMqttSubscription subscrip : subscriptions.keySet()) {
+            // Check all candidate subscriptions for a match
+            for (AbstractMqttSubscription subscrip : subscriptionIndex.getCandidates(rawObject,
+                                                                                     entityType,
+                                                                                     collections)) {
 
                 String topic = subscrip.checkSubscription(rawObject, entityType, collections, differenceMap);
 
@@ -147,7 +255,10 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
 
     @Override
     public Set<String> getWatchedEntityTypes() {
-        return watchedEntityTypes;
+        if (clusterEventBus.isEnabled()) {
+            return ALL_ENTITY_TYPES;
+        }
+        return Collections.unmodifiableSet(watchedEntityTypes.keySet());
     }
 
     @Override
@@ -156,25 +267,31 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
     }
 
     public void addSubscription(AbstractMqttSubscription subscription, String clientId) {
-        HashSet<String> clients = subscriptions.get(subscription);
-        if (clients == null) {
-            clients = new HashSet<>();
+        synchronized (subscriptionLock) {
+            Set<String> clients = subscriptions.get(subscription);
+            if (clients == null) {
+                clients = ConcurrentHashMap.newKeySet();
+                subscriptions.put(subscription, clients);
+                subscriptionIndex.add(subscription);
+                LOGGER.debug("Adding to watched EntityType: " + subscription.getEntityType());
+                watchedEntityTypes.merge(subscription.getEntityType(), 1, Integer::sum);
+            }
+            clients.add(clientId);
         }
-        LOGGER.debug("Adding to watched EntityType: " + subscription.getEntityType());
-        watchedEntityTypes.add(subscription.getEntityType());
-        clients.add(clientId);
-        subscriptions.put(subscription, clients);
     }
 
     public void removeSubscription(AbstractMqttSubscription subscription, String clientId) {
-        HashSet<String> clients = subscriptions.get(subscription);
-        if (clients != null) {
-            if (clients.size() == 1) {
-                subscriptions.remove(subscription);
-                watchedEntityTypes.remove(subscription.getEntityType());
-            } else {
+        synchronized (subscriptionLock) {
+            Set<String> clients = subscriptions.get(subscription);
+            if (clients != null) {
                 clients.remove(clientId);
-                subscriptions.put(subscription, clients);
+                if (clients.isEmpty()) {
+                    subscriptions.remove(subscription);
+                    subscriptionIndex.remove(subscription);
+                    // Only stop watching the EntityType if there are no other subscriptions left
+                    watchedEntityTypes.computeIfPresent(subscription.getEntityType(),
+                                                        (type, count) -> count == 1 ? null : count - 1);
+                }
             }
         }
     }
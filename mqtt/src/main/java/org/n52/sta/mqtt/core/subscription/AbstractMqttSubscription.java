@@ -78,6 +78,23 @@ public abstract class AbstractMqttSubscription {
         return wantedEntityType;
     }
 
+    public String getSourceEntityType() {
+        return sourceEntityType;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * Returns the identifier of the single Entity this Subscription is on.
+     *
+     * @return wantedIdentifier if present, else null
+     */
+    public String getWantedIdentifier() {
+        return null;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(topic);
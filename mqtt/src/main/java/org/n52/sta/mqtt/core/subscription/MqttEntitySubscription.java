@@ -86,6 +86,11 @@ public class MqttEntitySubscription extends AbstractMqttSubscription {
         Assert.notNull(wantedEntityType, "Unable to parse topic. Could not extract wantedEntityType");
     }
 
+    @Override
+    public String getWantedIdentifier() {
+        return wantedIdentifier;
+    }
+
     @Override
     public String toString() {
         String base = super.toString();
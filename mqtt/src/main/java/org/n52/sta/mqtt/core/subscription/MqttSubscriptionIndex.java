@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core.subscription;
+
+import org.n52.series.db.beans.HibernateRelations;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of all active Subscriptions. Used to find the Subscriptions possibly matching a given Entity without checking
+ * every single Subscription. Subscriptions are indexed by wantedEntityType and
+ * <ul>
+ *     <li>nothing for Subscriptions on a root Collection (e.g. /Observations)</li>
+ *     <li>wantedIdentifier for Subscriptions on a single Entity (e.g. /Observations(52))</li>
+ *     <li>sourceEntityType and sourceId for Subscriptions on related Entities (e.g. /Datastreams(52)/Observations)</li>
+ * </ul>
+ * The returned candidates still need to be checked via
+ * {@link AbstractMqttSubscription#checkSubscription(Object, String, Map, Set)}, e.g. for changed properties.
+ * <p>
+ * The index is thread-safe. Modifications are serialized, while lookups never block and see a weakly consistent view
+ * of the index.
+ */
+public class MqttSubscriptionIndex {
+
+    private final Map<String, TypeIndex> index = new ConcurrentHashMap<>();
+    private volatile int size;
+
+    /**
+     * Adds the given Subscription to the index.
+     *
+     * @param subscription Subscription to be added
+     * @return true if the Subscription was not already present
+     */
+    public synchronized boolean add(AbstractMqttSubscription subscription) {
+        boolean added = index.computeIfAbsent(subscription.getEntityType(), k -> new TypeIndex())
+            .bucketFor(subscription)
+            .add(subscription);
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    /**
+     * Removes the given Subscription from the index.
+     *
+     * @param subscription Subscription to be removed
+     * @return true if the Subscription was present
+     */
+    public synchronized boolean remove(AbstractMqttSubscription subscription) {
+        TypeIndex typeIndex = index.get(subscription.getEntityType());
+        if (typeIndex == null || !typeIndex.remove(subscription)) {
+            return false;
+        }
+        if (typeIndex.isEmpty()) {
+            index.remove(subscription.getEntityType());
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns all Subscriptions that may match the given Entity.
+     *
+     * @param entity      Entity to be posted
+     * @param entityType  Type of the Entity
+     * @param collections Map with EntityType-ID pairs for the related entities
+     * @return Subscriptions that may match the Entity. May be empty
+     */
+    public Set<AbstractMqttSubscription> getCandidates(Object entity,
+                                                       String entityType,
+                                                       Map<String, Set<String>> collections) {
+        TypeIndex typeIndex = (entityType == null) ? null : index.get(entityType);
+        if (typeIndex == null) {
+            return Collections.emptySet();
+        }
+        Set<AbstractMqttSubscription> candidates = new HashSet<>(typeIndex.root);
+
+        if (entity instanceof HibernateRelations.HasStaIdentifier
+            && ((HibernateRelations.HasStaIdentifier) entity).getStaIdentifier() != null) {
+            Set<AbstractMqttSubscription> direct =
+                typeIndex.byIdentifier.get(((HibernateRelations.HasStaIdentifier) entity).getStaIdentifier());
+            if (direct != null) {
+                candidates.addAll(direct);
+            }
+        }
+
+        if (collections != null) {
+            for (Map.Entry<String, Set<String>> collection : collections.entrySet()) {
+                Map<String, Set<AbstractMqttSubscription>> bySourceId =
+                    (collection.getKey() == null) ? null : typeIndex.bySource.get(collection.getKey());
+                if (bySourceId != null) {
+                    for (String id : collection.getValue()) {
+                        Set<AbstractMqttSubscription> related = (id == null) ? null : bySourceId.get(id);
+                        if (related != null) {
+                            candidates.addAll(related);
+                        }
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static final class TypeIndex {
+
+        private final Set<AbstractMqttSubscription> root = ConcurrentHashMap.newKeySet();
+        private final Map<String, Set<AbstractMqttSubscription>> byIdentifier = new ConcurrentHashMap<>();
+        private final Map<String, Map<String, Set<AbstractMqttSubscription>>> bySource = new ConcurrentHashMap<>();
+
+        private Set<AbstractMqttSubscription> bucketFor(AbstractMqttSubscription subscription) {
+            if (subscription.getWantedIdentifier() != null) {
+                return byIdentifier.computeIfAbsent(subscription.getWantedIdentifier(),
+                                                    k -> ConcurrentHashMap.newKeySet());
+            } else if (subscription.getSourceId() != null) {
+                return bySource.computeIfAbsent(subscription.getSourceEntityType(), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(subscription.getSourceId(), k -> ConcurrentHashMap.newKeySet());
+            } else {
+                return root;
+            }
+        }
+
+        private boolean remove(AbstractMqttSubscription subscription) {
+            if (subscription.getWantedIdentifier() != null) {
+                return removeFrom(byIdentifier, subscription.getWantedIdentifier(), subscription);
+            } else if (subscription.getSourceId() != null) {
+                Map<String, Set<AbstractMqttSubscription>> bySourceId =
+                    bySource.get(subscription.getSourceEntityType());
+                if (bySourceId == null) {
+                    return false;
+                }
+                boolean removed = removeFrom(bySourceId, subscription.getSourceId(), subscription);
+                if (bySourceId.isEmpty()) {
+                    bySource.remove(subscription.getSourceEntityType());
+                }
+                return removed;
+            } else {
+                return root.remove(subscription);
+            }
+        }
+
+        private boolean removeFrom(Map<String, Set<AbstractMqttSubscription>> map,
+                                   String key,
+                                   AbstractMqttSubscription subscription) {
+            Set<AbstractMqttSubscription> bucket = map.get(key);
+            if (bucket == null) {
+                return false;
+            }
+            boolean removed = bucket.remove(subscription);
+            if (bucket.isEmpty()) {
+                map.remove(key);
+            }
+            return removed;
+        }
+
+        private boolean isEmpty() {
+            return root.isEmpty() && byIdentifier.isEmpty() && bySource.isEmpty();
+        }
+    }
+}